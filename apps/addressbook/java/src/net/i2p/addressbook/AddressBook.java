@@ -51,6 +51,8 @@ class AddressBook implements Iterable<Map.Entry<String, HostTxtEntry>> {
     private final Map<String, HostTxtEntry> addresses;
     private final File subFile;
     private boolean modified;
+    /** @since 0.9.71 */
+    private long fetchTime = -1;
     private static final boolean DEBUG = false;
 
     private static final int MIN_DEST_LENGTH = 516;
@@ -131,6 +133,7 @@ class AddressBook implements Iterable<Map.Entry<String, HostTxtEntry>> {
      * @param proxyPort port number of proxy
      */
     public AddressBook(Subscription subscription, String proxyHost, int proxyPort) {
+        long start = System.currentTimeMillis();
         Map<String, HostTxtEntry> a = null;
         File subf = null;
         File tmp = null;
@@ -164,6 +167,7 @@ class AddressBook implements Iterable<Map.Entry<String, HostTxtEntry>> {
         this.addresses = a;
         this.subFile = subf;
         this.location = subscription.getLocation();
+        this.fetchTime = System.currentTimeMillis() - start;
     }
 
     /**
@@ -241,6 +245,26 @@ class AddressBook implements Iterable<Map.Entry<String, HostTxtEntry>> {
         return this.location;
     }
 
+    /**
+     * How long the fetch took, for an AddressBook constructed from a Subscription.
+     *
+     * @return ms, or -1 if not fetched
+     * @since 0.9.71
+     */
+    public long getFetchTime() {
+        return this.fetchTime;
+    }
+
+    /**
+     * Was new content received, for an AddressBook constructed from a Subscription.
+     * False if the fetch failed or the subscription was not modified.
+     *
+     * @since 0.9.71
+     */
+    public boolean hasContent() {
+        return this.subFile != null;
+    }
+
     /**
      * Return a string representation of the origin of the AddressBook.
      * 
@@ -152,25 +152,31 @@ class Daemon {
         }
 
         DeletedHosts dhosts = new DeletedHosts(home);
-        Iterator<AddressBook> iter = subscriptions.iterator();
-        while (iter.hasNext()) {
-            // yes, the EepGet fetch() is done in next()
-            long start = System.currentTimeMillis();
-            AddressBook addressbook = iter.next();
-            // SubscriptionIterator puts in a dummy AddressBook with no location if no fetch is done
-            if (DEBUG && log != null && addressbook.getLocation() != null) {
-                long end = System.currentTimeMillis();
-                log.append("Fetch of " + addressbook.getLocation() + " took " + (end - start));
-            }
-            Iterator<Map.Entry<String, HostTxtEntry>> iter2 = addressbook.iterator();
-            try {
-                update(router, knownNames, publishedNS, addressbook, iter2, dhosts, log);
-            } finally {
-                if (iter2 instanceof HostTxtIterator)
-                    ((HostTxtIterator) iter2).close();
-                addressbook.delete();
-            }
-        }  // subscriptions
+        SubscriptionIterator iter = subscriptions.iterator();
+        try {
+            while (iter.hasNext()) {
+                // the EepGet fetches are done in parallel by the iterator, next() waits for this one
+                AddressBook addressbook = iter.next();
+                // SubscriptionIterator puts in a dummy AddressBook with no location if no fetch is done
+                if (log != null && addressbook.getFetchTime() >= 0) {
+                    if (addressbook.hasContent())
+                        log.append("Fetched " + addressbook.getLocation() + " in " + addressbook.getFetchTime() + " ms");
+                    else
+                        log.append("No new content from " + addressbook.getLocation() +
+                                   " in " + addressbook.getFetchTime() + " ms");
+                }
+                Iterator<Map.Entry<String, HostTxtEntry>> iter2 = addressbook.iterator();
+                try {
+                    update(router, knownNames, publishedNS, addressbook, iter2, dhosts, log);
+                } finally {
+                    if (iter2 instanceof HostTxtIterator)
+                        ((HostTxtIterator) iter2).close();
+                    addressbook.delete();
+                }
+            }  // subscriptions
+        } finally {
+            iter.close();
+        }
         subscriptions.write();
     }
 
@@ -182,10 +188,13 @@ class Daemon {
     private static void update(NamingService router, Set<String> knownNames,
                                NamingService publishedNS, AddressBook addressbook,
                                Iterator<Map.Entry<String, HostTxtEntry>> iter, DeletedHosts dhosts, Log log) {
-            long start = DEBUG ? System.currentTimeMillis() : 0;
+            long start = System.currentTimeMillis();
             int old = 0, nnew = 0, invalid = 0, conflict = 0, total = 0;
             int deleted = 0;
             String newname = null;
+            // Plain new entries, stored with one putAll() when we are done
+            // or before processing any entry that might depend on them.
+            Map<String, Destination> pending = new HashMap<String, Destination>();
             while(iter.hasNext()) {
                 Map.Entry<String, HostTxtEntry> entry = iter.next();
                 total++;
@@ -198,6 +207,11 @@ class Daemon {
                     }
                     continue;
                 }
+                if (!pending.isEmpty() &&
+                    (entry.getValue().getProps() != null || (key != null && pending.containsKey(key)))) {
+                    putAll(router, knownNames, publishedNS, addressbook, pending, log);
+                    pending.clear();
+                }
                 boolean isKnown;
                 // NOT set for text file NamingService
                 Destination oldDest;
@@ -493,6 +507,13 @@ class Daemon {
                                     invalid++;
                                     continue;
                                 }
+                            } else if (!mustValidate) {
+                                // plain new entry, props is the source only
+                                pending.put(key, dest);
+                                if (nnew == 0)
+                                    newname = key;
+                                nnew++;
+                                continue;
                             } // action != null
                             boolean success = router.put(key, dest, props);
                             if (log != null) {
@@ -703,7 +724,9 @@ class Daemon {
                     invalid++;
                 }
             }  // entries
-            if (DEBUG && log != null && total > 0) {
+            if (!pending.isEmpty())
+                putAll(router, knownNames, publishedNS, addressbook, pending, log);
+            if (log != null && total > 0) {
                 log.append("Merge of " + addressbook.getLocation() + " into " + router +
                            " took " + (System.currentTimeMillis() - start) + " ms with " +
                            total + " total, " +
@@ -725,6 +748,48 @@ class Daemon {
             }
     }
 
+    /**
+     *  Store the plain new entries from a subscription in one batch,
+     *  and add them to the published addressbook.
+     *
+     *  @param knownNames only non-null if router book is a text file
+     *  @param publishedNS only non-null if we have a published address book
+     *  @param entries hostname to Destination, not known to the router book
+     *  @since 0.9.71
+     */
+    private static void putAll(NamingService router, Set<String> knownNames,
+                               NamingService publishedNS, AddressBook addressbook,
+                               Map<String, Destination> entries, Log log) {
+        Properties props = new OrderedProperties();
+        props.setProperty("s", addressbook.getLocation());
+        boolean success = router.putAll(entries, props);
+        if (log != null) {
+            if (success) {
+                for (String key : entries.keySet()) {
+                    log.append("New address " + key +
+                               " added to address book. From: " + addressbook.getLocation());
+                }
+            } else {
+                log.append("Save to naming service " + router + " failed for one or more of " +
+                           entries.size() + " new keys. From: " + addressbook.getLocation());
+            }
+        }
+        for (Map.Entry<String, Destination> e : entries.entrySet()) {
+            String key = e.getKey();
+            // now update the published addressbook
+            if (publishedNS != null) {
+                success = publishedNS.putIfAbsent(key, e.getValue(), props);
+                if (log != null && !success) {
+                    log.append("Save to published address book " + publishedNS.getName() + " failed for new key " + key);
+                }
+            }
+            if (knownNames != null) {
+                // keep track for later dup check
+                knownNames.add(key);
+            }
+        }
+    }
+
     /**
      *  translate (ngettext) from the routerconsole bundle
      *  @since 0.9.66
@@ -21,9 +21,21 @@
 
 package net.i2p.addressbook;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.I2PAppContext;
 import net.i2p.client.naming.HostTxtEntry;
@@ -32,16 +44,28 @@ import net.i2p.util.PortMapper;
 /**
  * An iterator over the subscriptions in a SubscriptionList.  Note that this iterator
  * returns AddressBook objects, and not Subscription objects.
- * Yes, the EepGet fetch() is done in here in next().
+ *
+ * As of 0.9.71, all subscriptions that are due are fetched in parallel,
+ * starting with the first call to hasNext() or next(), and the results are
+ * returned in subscription order, so the merge order is unchanged.
+ * next() blocks until that subscription's fetch is complete.
+ * Each fetch is a conditional GET, using the etag and last-modified headers
+ * from the last fetch.
  * 
  * @author Ragnarok
  */
 class SubscriptionIterator implements Iterator<AddressBook> {
 
-    private final Iterator<Subscription> subIterator;
+    private final List<Subscription> subscriptions;
     private final String proxyHost;
     private final int proxyPort;
     private final long delay;
+    private final List<Future<AddressBook>> results;
+    private ThreadPoolExecutor executor;
+    private int index;
+
+    /** @since 0.9.71 */
+    private static final int MAX_FETCH_THREADS = 4;
 
     /**
      * Construct a SubscriptionIterator using the Subscriprions in List subscriptions.
@@ -53,10 +77,11 @@ class SubscriptionIterator implements Iterator<AddressBook> {
      * @param proxyPort proxt port number
      */
     public SubscriptionIterator(List<Subscription> subscriptions, long delay, String proxyHost, int proxyPort) {
-        this.subIterator = subscriptions.iterator();
+        this.subscriptions = subscriptions;
         this.delay = delay;
         this.proxyHost = proxyHost;
         this.proxyPort = proxyPort;
+        this.results = new ArrayList<Future<AddressBook>>(subscriptions.size());
     }
 
     
@@ -64,32 +89,147 @@ class SubscriptionIterator implements Iterator<AddressBook> {
      * @see java.util.Iterator#hasNext()
      */
     public boolean hasNext() {
-        return this.subIterator.hasNext();
+        return this.index < this.subscriptions.size();
     }
 
     /**
-     * Yes, the EepGet fetch() is done in here in next().
+     * Cancel any fetches not yet complete, delete the temp files of
+     * those complete but not retrieved, and stop the fetcher threads.
+     * Call when done, even if not all results were retrieved.
+     *
+     * @since 0.9.71
+     */
+    public void close() {
+        for (int i = this.index; i < this.results.size(); i++) {
+            Future<AddressBook> f = this.results.get(i);
+            if (!f.cancel(true) && f instanceof Fetcher) {
+                try {
+                    f.get().delete();
+                } catch (InterruptedException ie) {
+                } catch (ExecutionException ee) {}
+            }
+        }
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * The EepGet fetch() is done in a Fetcher thread, started by the first call
+     * to hasNext() or next().
+     * This blocks until the fetch of the next subscription is complete.
      *
      * see java.util.Iterator#next()
      * @return non-null AddressBook (empty if the minimum delay has not been met,
      *          or there is no proxy tunnel, or the fetch otherwise fails)
      */
     public AddressBook next() {
-        Subscription sub = this.subIterator.next();
-        if (sub.getLocation().startsWith("file:")) {
-            // test only
-            return new AddressBook(sub.getLocation().substring(5));
-        } else if (sub.getLastFetched() + this.delay < I2PAppContext.getGlobalContext().clock().now() &&
-            I2PAppContext.getGlobalContext().portMapper().getPort(PortMapper.SVC_HTTP_PROXY) >= 0 &&
-            !I2PAppContext.getGlobalContext().getBooleanProperty("i2p.vmCommSystem")) {
-            //System.err.println("Fetching addressbook from " + sub.getLocation());
-            return new AddressBook(sub, this.proxyHost, this.proxyPort);
-        } else {
-            //System.err.println("Addressbook " + sub.getLocation() + " was last fetched " + 
-            //                   DataHelper.formatDuration(I2PAppContext.getGlobalContext().clock().now() - sub.getLastFetched()) +
-            //                   " ago but the minimum delay is " +
-            //                   DataHelper.formatDuration(this.delay));
-            return new AddressBook(Collections.<String, HostTxtEntry>emptyMap());
+        if (this.index >= this.subscriptions.size())
+            throw new NoSuchElementException();
+        if (this.results.isEmpty())
+            startFetches();
+        Future<AddressBook> f = this.results.get(this.index++);
+        try {
+            return f.get();
+        } catch (InterruptedException ie) {
+            f.cancel(true);
+        } catch (ExecutionException ee) {}
+        return new AddressBook(Collections.<String, HostTxtEntry>emptyMap());
+    }
+
+    /**
+     * Queue all the subscriptions that are due.
+     * Fetches are started in subscription order.
+     * A single fetch is run in the caller's thread.
+     *
+     * @since 0.9.71
+     */
+    private void startFetches() {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        boolean canFetch = ctx.portMapper().getPort(PortMapper.SVC_HTTP_PROXY) >= 0 &&
+                           !ctx.getBooleanProperty("i2p.vmCommSystem");
+        long now = ctx.clock().now();
+        List<Fetcher> toFetch = new ArrayList<Fetcher>(this.subscriptions.size());
+        for (Subscription sub : this.subscriptions) {
+            Fetcher fetcher;
+            if (sub.getLocation().startsWith("file:")) {
+                // test only
+                fetcher = null;
+                this.results.add(new Done(new AddressBook(sub.getLocation().substring(5))));
+            } else if (canFetch && sub.getLastFetched() + this.delay < now) {
+                //System.err.println("Fetching addressbook from " + sub.getLocation());
+                fetcher = new Fetcher(sub);
+                toFetch.add(fetcher);
+                this.results.add(fetcher);
+            } else {
+                //System.err.println("Addressbook " + sub.getLocation() + " was last fetched " + 
+                //                   DataHelper.formatDuration(I2PAppContext.getGlobalContext().clock().now() - sub.getLastFetched()) +
+                //                   " ago but the minimum delay is " +
+                //                   DataHelper.formatDuration(this.delay));
+                this.results.add(new Done(new AddressBook(Collections.<String, HostTxtEntry>emptyMap())));
+            }
+        }
+        int sz = toFetch.size();
+        if (sz == 0)
+            return;
+        if (sz == 1) {
+            toFetch.get(0).run();
+            return;
+        }
+        int threads = Math.min(sz, MAX_FETCH_THREADS);
+        this.executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new FetcherThreadFactory(threads));
+        this.executor.allowCoreThreadTimeOut(true);
+        for (Fetcher fetcher : toFetch) {
+            this.executor.execute(fetcher);
+        }
+        // no more tasks, the threads exit when the queue is empty
+        this.executor.shutdown();
+    }
+
+    /**
+     * Yes, the EepGet fetch() is done in here, in the AddressBook constructor.
+     *
+     * @since 0.9.71
+     */
+    private class Fetcher extends FutureTask<AddressBook> {
+        public Fetcher(final Subscription sub) {
+            super(new Callable<AddressBook>() {
+                public AddressBook call() {
+                    return new AddressBook(sub, proxyHost, proxyPort);
+                }
+            });
+        }
+    }
+
+    /**
+     * An already-completed result.
+     *
+     * @since 0.9.71
+     */
+    private static class Done extends FutureTask<AddressBook> {
+        public Done(AddressBook book) {
+            super(new Runnable() { public void run() {} }, book);
+            run();
+        }
+    }
+
+    /** @since 0.9.71 */
+    private static class FetcherThreadFactory implements ThreadFactory {
+        private final int _total;
+        private final AtomicInteger _count = new AtomicInteger();
+
+        public FetcherThreadFactory(int total) {
+            _total = total;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread rv = Executors.defaultThreadFactory().newThread(r);
+            rv.setName("Addressbook Fetcher " + _count.incrementAndGet() + '/' + _total);
+            rv.setDaemon(true);
+            return rv;
         }
     }
 
@@ -1083,6 +1083,147 @@ public class BlockfileNamingService extends DummyNamingService {
         }
     }
 
+    /**
+     * Bulk import.
+     * Overwrites old entries if they exist, as in put().
+     *
+     * The entries are sorted and stored in a single pass under one lock,
+     * so the skiplist spans are loaded and written in order instead of at random,
+     * the reverse index is updated once per reverse key,
+     * and the database file is synced to disk once at the end.
+     *
+     * @param options If non-null and contains the key "list", add to that list
+     *                (default "hosts.txt")
+     *                Use the key "s" for the source.
+     *                The same options are stored for every entry.
+     * @return total success, or false if any put failed
+     * @since 0.9.71
+     */
+    @Override
+    public boolean putAll(Map<String, Destination> entries, Properties options) {
+        if (_readOnly) {
+            _log.error("Add entries failed, read-only hosts database");
+            return false;
+        }
+        if (entries.isEmpty())
+            return true;
+        long start = _context.clock().now();
+        TreeMap<String, Destination> sorted = new TreeMap<String, Destination>();
+        for (Map.Entry<String, Destination> e : entries.entrySet()) {
+            sorted.put(e.getKey().toLowerCase(Locale.US), e.getValue());
+        }
+        synchronized(_negativeCache) {
+            for (String key : sorted.keySet()) {
+                _negativeCache.remove(key);
+            }
+        }
+        String listname = FALLBACK_LIST;
+        Properties props = new Properties();
+        props.setProperty(PROP_ADDED, Long.toString(start));
+        if (options != null) {
+            props.putAll(options);
+            String list = options.getProperty("list");
+            if (list != null) {
+                listname = list;
+                props.remove("list");
+            }
+        }
+        boolean rv = true;
+        synchronized(_bf) {
+            if (_isClosed)
+                return false;
+            try {
+                SkipList<String, DestEntry> sl = _bf.getIndex(listname, _stringSerializer, _destSerializer);
+                if (sl == null)
+                    sl = _bf.makeIndex(listname, _stringSerializer, _destSerializer);
+                boolean checkChanged = !_listeners.isEmpty();
+                // only those actually stored, for the reverse index
+                Map<String, Destination> stored = new TreeMap<String, Destination>();
+                for (Map.Entry<String, Destination> e : sorted.entrySet()) {
+                    String key = e.getKey();
+                    Destination d = e.getValue();
+                    boolean changed = checkChanged && sl.get(key) != null;
+                    try {
+                        // each DestEntry gets its own copy, as in put()
+                        addEntry(sl, key, d, (Properties) props.clone());
+                    } catch (RuntimeException re) {
+                        _log.error("DB add error for " + key, re);
+                        rv = false;
+                        continue;
+                    }
+                    stored.put(key, d);
+                    if (changed)
+                        removeCache(key);
+                    for (NamingServiceListener nsl : _listeners) {
+                        if (changed)
+                            nsl.entryChanged(this, key, d, options);
+                        else
+                            nsl.entryAdded(this, key, d, options);
+                    }
+                }
+                if (!listname.equals(CONFLICTS_LIST))
+                    addReverseEntries(stored);
+                _raf.sync();
+            } catch (IOException ioe) {
+                _log.error("DB add error", ioe);
+                return false;
+            } catch (RuntimeException re) {
+                _log.error("DB add error", re);
+                return false;
+            }
+        }
+        if (_log.shouldLog(Log.INFO))
+            _log.info("Bulk import of " + sorted.size() + " entries to " + listname +
+                      " took " + (_context.clock().now() - start) + " ms");
+        return rv;
+    }
+
+    /**
+     *  Bulk version of addReverseEntry(), one read and write per reverse key.
+     *  Caller must synchronize.
+     *  Fails without exception on error (logs only).
+     *  Returns without logging if no reverse skiplist (version 1).
+     *
+     *  @param entries lower case hostname to Destination
+     *  @since 0.9.71
+     */
+    private void addReverseEntries(Map<String, Destination> entries) {
+        try {
+            SkipList<Integer, Properties> rev = _bf.getIndex(REVERSE_SKIPLIST, _hashIndexSerializer, _infoSerializer);
+            if (rev == null)
+                return;
+            TreeMap<Integer, List<String>> byIdx = new TreeMap<Integer, List<String>>();
+            for (Map.Entry<String, Destination> e : entries.entrySet()) {
+                Integer idx = getReverseKey(e.getValue());
+                List<String> keys = byIdx.get(idx);
+                if (keys == null) {
+                    keys = new ArrayList<String>(1);
+                    byIdx.put(idx, keys);
+                }
+                keys.add(e.getKey());
+            }
+            for (Map.Entry<Integer, List<String>> e : byIdx.entrySet()) {
+                Integer idx = e.getKey();
+                Properties props = rev.get(idx);
+                boolean changed = false;
+                if (props == null)
+                    props = new Properties();
+                for (String key : e.getValue()) {
+                    if (props.getProperty(key) == null) {
+                        props.put(key, "");
+                        changed = true;
+                    }
+                }
+                if (changed)
+                    rev.put(idx, props);
+            }
+        } catch (IOException ioe) {
+            _log.error("DB add reverse error", ioe);
+        } catch (RuntimeException e) {
+            _log.error("DB add reverse error", e);
+        }
+    }
+
     /**
      * @param options If non-null and contains the key "list", remove
      *                from that list (default "hosts.txt", NOT all lists)
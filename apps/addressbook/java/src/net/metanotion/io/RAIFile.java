@@ -86,6 +86,12 @@ public class RAIFile implements RandomAccessInterface, DataInput, DataOutput {
 	public void seek(long pos)			throws IOException { delegate.seek(pos); }
 	public void setLength(long newLength) throws IOException { delegate.setLength(newLength); }
 
+	/**
+	 *  I2P flush to disk
+	 *  @since 0.9.71
+	 */
+	public void sync()					throws IOException { delegate.getFD().sync(); }
+
 	// Closeable Methods
 	// TODO May need to change.
 	public void close()					throws IOException { delegate.close(); }
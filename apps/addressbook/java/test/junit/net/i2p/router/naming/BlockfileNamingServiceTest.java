@@ -9,7 +9,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -80,4 +82,27 @@ public class BlockfileNamingServiceTest extends TestCase {
         assertEquals(0, notfound);
         assertEquals(0, rnotfound);
     }
+
+    public void testPutAll() throws Exception {
+        Map<String, Destination> entries = new HashMap<String, Destination>();
+        for (int i = 0; i < 100 && i < _names.size(); i++) {
+            Destination dest = _bns.lookup(_names.get(i));
+            assertNotNull(dest);
+            entries.put("Bulk-" + i + ".i2p", dest);
+        }
+        Properties props = new Properties();
+        props.setProperty("s", "http://example.i2p/hosts.txt");
+        assertTrue(_bns.putAll(entries, props));
+        for (Map.Entry<String, Destination> e : entries.entrySet()) {
+            String key = e.getKey();
+            Properties stored = new Properties();
+            assertEquals(e.getValue(), _bns.lookup(key, null, stored));
+            assertEquals("http://example.i2p/hosts.txt", stored.getProperty("s"));
+            assertNotNull(stored.getProperty("a"));
+            List<String> reverse = _bns.reverseLookupAll(e.getValue());
+            assertNotNull(reverse);
+            assertTrue(reverse.contains(key.toLowerCase()));
+        }
+        assertEquals(_names.size() + entries.size(), _bns.size());
+    }
 }
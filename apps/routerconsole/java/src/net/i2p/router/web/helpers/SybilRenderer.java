@@ -36,6 +36,7 @@ import net.i2p.router.sybil.Analysis;
 import net.i2p.router.sybil.Pair;
 import net.i2p.router.sybil.PersistSybil;
 import net.i2p.router.sybil.Points;
+import net.i2p.router.sybil.RoutingKeyIndex;
 import static net.i2p.router.sybil.Util.biLog2;
 import net.i2p.router.tunnel.pool.TunnelPool;
 import net.i2p.router.util.HashDistance;
@@ -171,8 +172,10 @@ public class SybilRenderer {
         writeBuf(out, buf);
 
         double avgMinDist = 0;
+        RoutingKeyIndex index = null;
         if (mode == 1 || mode == 8 || mode == 9 || mode == 10 || mode == 11) {
-            avgMinDist = analysis.getAvgMinDist(ris);
+            index = new RoutingKeyIndex(ris);
+            avgMinDist = analysis.getAvgMinDist(index);
         }
         Map<Hash, Points> points = new HashMap<Hash, Points>(64);
 
@@ -197,13 +200,13 @@ public class SybilRenderer {
         } else if (mode == 7) {
             renderPairSummary(out, buf, analysis, ris, points);
         } else if (mode == 8) {
-            renderCloseSummary(out, buf, analysis, avgMinDist, ris, points);
+            renderCloseSummary(out, buf, analysis, avgMinDist, index, points);
         } else if (mode == 9) {
-            renderCloseTmrwSummary(out, buf, analysis, us, avgMinDist, ris, points);
+            renderCloseTmrwSummary(out, buf, analysis, us, avgMinDist, index, points);
         } else if (mode == 10) {
-            renderDHTSummary(out, buf, analysis, us, avgMinDist, ris, points);
+            renderDHTSummary(out, buf, analysis, us, avgMinDist, index, points);
         } else if (mode == 11) {
-            renderDestSummary(out, buf, analysis, avgMinDist, ris, points);
+            renderDestSummary(out, buf, analysis, avgMinDist, index, points);
         } else if (mode == 12) {
             // load stored analysis
             PersistSybil ps = analysis.getPersister();
@@ -224,7 +227,7 @@ public class SybilRenderer {
         } else if (mode == 13 || mode == 16) {
             // run analysis and store it
             long now = _context.clock().now();
-            points = analysis.backgroundAnalysis(mode == 16);
+            points = analysis.backgroundAnalysis(mode == 16, new ProgressListener(out, buf));
             if (!points.isEmpty()) {
                 PersistSybil ps = analysis.getPersister();
                 try {
@@ -449,41 +452,41 @@ public class SybilRenderer {
     /**
      *  @since 0.9.38 split out from renderRouterInfoHTML()
      */
-    private void renderCloseSummary(Writer out, StringBuilder buf, Analysis analysis, double avgMinDist, List<RouterInfo> ris, Map<Hash, Points> points) throws IOException {
+    private void renderCloseSummary(Writer out, StringBuilder buf, Analysis analysis, double avgMinDist, RoutingKeyIndex index, Map<Hash, Points> points) throws IOException {
         // Distance to our router analysis
         buf.append("<h3 id=\"ritoday\" class=\"sybils\">Closest Floodfills to Our Routing Key (Where we Store our RI)</h3>");
         buf.append("<p class=\"sybil_info\"><a href=\"/netdb?caps=f&amp;sybil\">See all</a></p>");
         Hash ourRKey = _context.router().getRouterInfo().getRoutingKey();
-        analysis.calculateRouterInfo(ourRKey, "our rkey", ris, points);
+        List<RouterInfo> ris = analysis.calculateRouterInfo(ourRKey, "our rkey", index, points);
         renderRouterInfoHTML(out, buf, ourRKey, avgMinDist, ris);
     }
 
     /**
      *  @since 0.9.38 split out from renderRouterInfoHTML()
      */
-    private void renderCloseTmrwSummary(Writer out, StringBuilder buf, Analysis analysis, Hash us, double avgMinDist, List<RouterInfo> ris, Map<Hash, Points> points) throws IOException {
+    private void renderCloseTmrwSummary(Writer out, StringBuilder buf, Analysis analysis, Hash us, double avgMinDist, RoutingKeyIndex index, Map<Hash, Points> points) throws IOException {
         // Distance to our router analysis
         RouterKeyGenerator rkgen = _context.routerKeyGenerator();
         Hash nkey = rkgen.getNextRoutingKey(us);
         buf.append("<h3 id=\"ritmrw\" class=\"sybils\">Closest Floodfills to Tomorrow's Routing Key (Where we will Store our RI)</h3>");
         buf.append("<p class=\"sybil_info\"><a href=\"/netdb?caps=f&amp;sybil\">See all</a></p>");
-        analysis.calculateRouterInfo(nkey, "our rkey (tomorrow)", ris, points);
+        List<RouterInfo> ris = analysis.calculateRouterInfo(nkey, "our rkey (tomorrow)", index, points);
         renderRouterInfoHTML(out, buf, nkey, avgMinDist, ris);
     }
 
     /**
      *  @since 0.9.38 split out from renderRouterInfoHTML()
      */
-    private void renderDHTSummary(Writer out, StringBuilder buf, Analysis analysis, Hash us, double avgMinDist, List<RouterInfo> ris, Map<Hash, Points> points) throws IOException {
+    private void renderDHTSummary(Writer out, StringBuilder buf, Analysis analysis, Hash us, double avgMinDist, RoutingKeyIndex index, Map<Hash, Points> points) throws IOException {
         buf.append("<h3 id=\"dht\" class=\"sybils\">Closest Floodfills to Our Router Hash (DHT Neighbors if we are Floodfill)</h3>");
-        analysis.calculateRouterInfo(us, "our router", ris, points);
+        List<RouterInfo> ris = analysis.calculateRouterInfo(us, "our router", index, points);
         renderRouterInfoHTML(out, buf, us, avgMinDist, ris);
     }
 
     /**
      *  @since 0.9.38 split out from renderRouterInfoHTML()
      */
-    private void renderDestSummary(Writer out, StringBuilder buf, Analysis analysis, double avgMinDist, List<RouterInfo> ris, Map<Hash, Points> points) throws IOException {
+    private void renderDestSummary(Writer out, StringBuilder buf, Analysis analysis, double avgMinDist, RoutingKeyIndex index, Map<Hash, Points> points) throws IOException {
         // Distance to our published destinations analysis
         RouterKeyGenerator rkgen = _context.routerKeyGenerator();
         buf.append("<h3 id=\"dest\" class=\"sybils\">Floodfills Close to Our Destinations</h3>");
@@ -511,12 +514,12 @@ public class SybilRenderer {
             String name = (in != null) ? DataHelper.escapeHTML(in.getSettings().getDestinationNickname()) : client.toBase64().substring(0,4);
             buf.append("<h3 class=\"sybils\">Closest floodfills to the Routing Key for " + name + " (where we store our LS)</h3>");
             buf.append("<p class=\"sybil_info\"><a href=\"/netdb?caps=f&amp;sybil=" + ls.getHash().toBase64() + "\">See all</a></p>");
-            analysis.calculateRouterInfo(rkey, name, ris, points);
+            List<RouterInfo> ris = analysis.calculateRouterInfo(rkey, name, index, points);
             renderRouterInfoHTML(out, buf, rkey, avgMinDist, ris);
             Hash nkey = rkgen.getNextRoutingKey(ls.getHash());
             buf.append("<h3 class=\"sybils\">Closest floodfills to Tomorrow's Routing Key for " + name + " (where we will store our LS)</h3>");
             buf.append("<p class=\"sybil_info\"><a href=\"/netdb?caps=f&amp;sybil=" + ls.getHash().toBase64() + "\">See all</a></p>");
-            analysis.calculateRouterInfo(nkey, name + " (tomorrow)", ris, points);
+            ris = analysis.calculateRouterInfo(nkey, name + " (tomorrow)", index, points);
             renderRouterInfoHTML(out, buf, nkey, avgMinDist, ris);
         }
     }
@@ -567,6 +570,35 @@ public class SybilRenderer {
         writeBuf(out, buf);
     }
 
+    /**
+     *  Show each stage of a new analysis as it completes
+     *
+     *  @since 0.9.71
+     */
+    private static class ProgressListener implements Analysis.Listener {
+        private final Writer _out;
+        private final StringBuilder _buf;
+
+        public ProgressListener(Writer out, StringBuilder buf) {
+            _out = out;
+            _buf = buf;
+        }
+
+        public void stageComplete(String stage, Map<Hash, Points> stagePoints, int done, int total) {
+            if (done == 1)
+                _buf.append("<h3 class=\"sybils\">Running Analysis</h3>");
+            _buf.append("<p class=\"sybil_info\">").append(done).append('/').append(total).append(": <b>")
+                .append(stage).append("</b> complete, ").append(stagePoints.size())
+                .append(" router").append(stagePoints.size() != 1 ? "s" : "").append(" with threat points</p>\n");
+            try {
+                writeBuf(_out, _buf);
+            } catch (IOException ioe) {
+                // browser went away, keep going so the analysis is stored
+                _buf.setLength(0);
+            }
+        }
+    }
+
     /**
      *  @param pairs sorted
      */
@@ -23,6 +23,7 @@ class ConnectionDataReceiver implements MessageOutputStream.DataReceiver {
     private final Log _log;
     private final Connection _connection;
     private static final MessageOutputStream.WriteStatus _dummyStatus = new DummyStatus();
+    private static final byte[] EMPTY = new byte[0];
     
     /**
      *  @param con non-null
@@ -174,13 +175,14 @@ class ConnectionDataReceiver implements MessageOutputStream.DataReceiver {
         boolean isFirst = (_connection.getAckedPackets() <= 0) && (_connection.getUnackedPacketsSent() <= 0);
         
         PacketLocal packet = new PacketLocal(_context, _connection.getRemotePeer(), _connection);
-        //ByteArray data = packet.acquirePayload();
-        ByteArray data = new ByteArray(new byte[size]);
-        if (size > 0)
+        if (size > 0) {
+            // released in PacketLocal.ackReceived() or cancelled()
+            PayloadCache.PooledPayload data = _connection.getConnectionManager().getPayloadCache().acquire(size);
             System.arraycopy(buf, off, data.getData(), 0, size);
-        data.setValid(size);
-        data.setOffset(0);
-        packet.setPayload(data);
+            packet.setPooledPayload(data);
+        } else {
+            packet.setPayload(new ByteArray(EMPTY, 0, 0));
+        }
         if ( (ackOnly && !forceIncrement) && (!isFirst) )
             packet.setSequenceNum(0);
         else
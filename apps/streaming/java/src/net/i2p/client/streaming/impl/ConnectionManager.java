@@ -56,6 +56,7 @@ class ConnectionManager {
     private final SimpleTimer2 _timer;
     private final Map<Long, Object> _recentlyClosed;
     private final ByteCache _cache = ByteCache.getInstance(32, 4*1024);
+    private final PayloadCache _payloadCache;
     private static final Object DUMMY = new Object();
 
     /** cache of the property to detect changes */
@@ -117,6 +118,7 @@ class ConnectionManager {
         _session.addMuxedSessionListener(_messageHandler, protocol, defaultOptions.getLocalPort());
         _outboundQueue = new PacketQueue(_context, _timer);
         _recentlyClosed = new LHMCache<Long, Object>(128);
+        _payloadCache = new PayloadCache(_context);
         /** Socket timeout for accept() */
         _soTimeout = -1;
 
@@ -141,6 +143,14 @@ class ConnectionManager {
         _context.statManager().createRateStat("stream.con.sendDuplicateSize", "Size of a message resent on a connection", "Stream", new long[] { 10*60*1000, 60*60*1000 });
     }
     
+    /**
+     *  Outbound payload buffers for all connections on this manager
+     *  @since 0.9.71
+     */
+    PayloadCache getPayloadCache() {
+        return _payloadCache;
+    }
+
     Connection getConnectionByInboundId(long id) {
         return _connectionByInboundId.get(Long.valueOf(id));
     }
@@ -823,6 +833,7 @@ class ConnectionManager {
         _timer.stop();
         _outboundQueue.close();
         _connectionHandler.setActive(false);
+        _payloadCache.clear();
     }
     
     /**
@@ -35,6 +35,10 @@ class PacketLocal extends Packet implements MessageOutputStream.WriteStatus {
     private final AtomicInteger _nackCount = new AtomicInteger();
     private volatile boolean _retransmitted;
     private volatile int _timeout;
+    /** LOCKING: this */
+    private PayloadCache.PooledPayload _pooledPayload;
+    /** LOCKING: this */
+    private boolean _pooledPayloadReleased;
     
     /** not bound to a connection */
     public PacketLocal(I2PAppContext ctx, Destination to, I2PSession session) {
@@ -80,6 +84,49 @@ class PacketLocal extends Packet implements MessageOutputStream.WriteStatus {
     }
     
     public Destination getTo() { return _to; }
+
+    /**
+     *  Set a payload from the PayloadCache.
+     *  We own the reference until the packet is acked or cancelled.
+     *
+     *  @since 0.9.71
+     */
+    public void setPooledPayload(PayloadCache.PooledPayload payload) {
+        setPayload(payload);
+        synchronized (this) {
+            _pooledPayload = payload;
+        }
+    }
+
+    /**
+     *  Take a reference to the pooled payload, if any, for writing the packet.
+     *  Caller must call release() on the returned payload when done.
+     *
+     *  @return null if not pooled
+     *  @throws IllegalStateException if already returned to the cache
+     *  @since 0.9.71
+     */
+    public synchronized PayloadCache.PooledPayload retainPooledPayload() {
+        if (_pooledPayload == null)
+            return null;
+        if (_pooledPayloadReleased || !_pooledPayload.retain())
+            throw new IllegalStateException("payload released");
+        return _pooledPayload;
+    }
+
+    /**
+     *  Drop our reference to the pooled payload, if any.
+     *  The packet must not be written after this.
+     *  Caller must synch on this.
+     *
+     *  @since 0.9.71
+     */
+    private void releasePooledPayload() {
+        if (_pooledPayload != null && !_pooledPayloadReleased) {
+            _pooledPayloadReleased = true;
+            _pooledPayload.release();
+        }
+    }
     
     public boolean shouldSign() { 
         return isFlagSet(FLAG_SIGNATURE_INCLUDED |
@@ -106,7 +153,7 @@ class PacketLocal extends Packet implements MessageOutputStream.WriteStatus {
         synchronized (this) {
             if (_ackOn <= 0)
                 _ackOn = now;
-            releasePayload();
+            releasePooledPayload();
             notifyAll();
         }
         cancelResend();
@@ -115,7 +162,7 @@ class PacketLocal extends Packet implements MessageOutputStream.WriteStatus {
     public void cancelled() { 
         synchronized (this) {
             _cancelledOn = _context.clock().now();
-            releasePayload();
+            releasePooledPayload();
             notifyAll();
         }
        cancelResend();
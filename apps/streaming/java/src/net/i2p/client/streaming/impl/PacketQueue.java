@@ -94,6 +94,17 @@ class PacketQueue implements SendMessageStatusListener, Closeable {
             con.getInputStream().updateAcks(packet);
         }
     
+        // hold a reference so an ack or cancel doesn't return the payload
+        // to the cache while we're writing it
+        PayloadCache.PooledPayload pooled;
+        try {
+            pooled = packet.retainPooledPayload();
+        } catch (IllegalStateException ise) {
+            if (_log.shouldLog(Log.DEBUG))
+                _log.debug("Not resending, payload released " + packet);
+            return false;
+        }
+
         ByteArray ba = _cache.acquire();
         byte buf[] = ba.getData();
 
@@ -103,10 +114,15 @@ class PacketQueue implements SendMessageStatusListener, Closeable {
         try {
             int size = 0;
             //long beforeWrite = System.currentTimeMillis();
-            if (packet.shouldSign())
-                size = packet.writeSignedPacket(buf, 0);
-            else
-                size = packet.writePacket(buf, 0);
+            try {
+                if (packet.shouldSign())
+                    size = packet.writeSignedPacket(buf, 0);
+                else
+                    size = packet.writePacket(buf, 0);
+            } finally {
+                if (pooled != null)
+                    pooled.release();
+            }
             //long writeTime = System.currentTimeMillis() - beforeWrite;
             //if ( (writeTime > 1000) && (_log.shouldLog(Log.WARN)) )
             //    _log.warn("took " + writeTime + "ms to write the packet: " + packet);
@@ -0,0 +1,129 @@
+package net.i2p.client.streaming.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.ByteArray;
+import net.i2p.util.BufferPool;
+import net.i2p.util.TryCache;
+
+/**
+ * Size-classed cache of outbound payload buffers, one per ConnectionManager.
+ * The buffers are held in the BufferPools named streaming.payload.(size),
+ * shared by all the ConnectionManagers in the JVM.
+ *<p>
+ * ConnectionDataReceiver copies the MessageOutputStream data into a buffer
+ * from here, the PacketLocal holds it until the packet is acked or cancelled,
+ * and PacketQueue takes an additional reference while it is
+ * writing the packet out to the I2CP session.
+ * The buffer goes back to the cache when the last reference is released.
+ *<p>
+ * Buffers that are never released (for example, when a connection is dropped
+ * without cancelling its outbound packets) are simply garbage collected.
+ *
+ * @since 0.9.71
+ */
+class PayloadCache {
+    private final I2PAppContext _context;
+    private final BufferPool<ByteArray>[] _caches;
+
+    /** smallest size class, 1 KB */
+    private static final int MIN_SHIFT = 10;
+    /** largest size class, Packet.MAX_PAYLOAD_SIZE */
+    private static final int MAX_SHIFT = 15;
+    /** max bytes cached for each size class */
+    private static final int MAX_CACHE_BYTES = 256*1024;
+
+    @SuppressWarnings("unchecked")
+    public PayloadCache(I2PAppContext ctx) {
+        _context = ctx;
+        _caches = new BufferPool[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < _caches.length; i++) {
+            int sz = 1 << (MIN_SHIFT + i);
+            _caches[i] = BufferPool.getPool("streaming.payload." + sz, sz, Math.max(4, MAX_CACHE_BYTES / sz), new Factory(sz));
+        }
+        _context.statManager().createRateStat("stream.payloadAcquired", "Bytes of outbound payload buffers used", "Stream", new long[] { 60*1000, 10*60*1000 });
+        _context.statManager().createRateStat("stream.payloadAllocated", "Bytes of outbound payload buffers allocated (cache miss)", "Stream", new long[] { 60*1000, 10*60*1000 });
+    }
+
+    /**
+     *  @param size 1 to Packet.MAX_PAYLOAD_SIZE
+     *  @return a buffer with one reference, offset 0 and valid set to size
+     *  @throws IllegalArgumentException if size out of range
+     */
+    public PooledPayload acquire(int size) {
+        if (size <= 0 || size > Packet.MAX_PAYLOAD_SIZE)
+            throw new IllegalArgumentException("size is out of range (" + size + ")");
+        int idx = sizeClass(size);
+        ByteArray backing = _caches[idx].acquire();
+        _context.statManager().addRateData("stream.payloadAcquired", backing.getData().length);
+        return new PooledPayload(_caches[idx], backing, size);
+    }
+
+    /**
+     *  Clear all cached buffers, including those cached for other ConnectionManagers.
+     */
+    public void clear() {
+        for (int i = 0; i < _caches.length; i++) {
+            _caches[i].clear();
+        }
+    }
+
+    private static int sizeClass(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(0, shift - MIN_SHIFT);
+    }
+
+    private class Factory implements TryCache.ObjectFactory<ByteArray> {
+        private final int sz;
+
+        Factory(int entrySize) {
+            sz = entrySize;
+        }
+
+        public ByteArray newInstance() {
+            _context.statManager().addRateData("stream.payloadAllocated", sz);
+            return new ByteArray(new byte[sz]);
+        }
+    }
+
+    /**
+     *  A reference-counted view of a cached buffer.
+     *  Starts with one reference, held by the creator.
+     *  The data must not be accessed after the last release().
+     */
+    static class PooledPayload extends ByteArray {
+        private final BufferPool<ByteArray> _cache;
+        private final ByteArray _backing;
+        private final AtomicInteger _refs = new AtomicInteger(1);
+
+        private PooledPayload(BufferPool<ByteArray> cache, ByteArray backing, int size) {
+            super(backing.getData(), 0, size);
+            _cache = cache;
+            _backing = backing;
+        }
+
+        /**
+         *  Take an additional reference.
+         *  @return false if already released to the cache, do not use the data
+         */
+        public boolean retain() {
+            while (true) {
+                int refs = _refs.get();
+                if (refs <= 0)
+                    return false;
+                if (_refs.compareAndSet(refs, refs + 1))
+                    return true;
+            }
+        }
+
+        /**
+         *  Drop a reference, returning the buffer to the cache on the last one.
+         *  Each call must be paired with the initial reference or a successful retain().
+         */
+        public void release() {
+            if (_refs.decrementAndGet() == 0)
+                _cache.release(_backing);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.i2p.client.streaming.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+
+public class PayloadCacheTest {
+
+    private PayloadCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new PayloadCache(I2PAppContext.getGlobalContext());
+    }
+
+    @Test
+    public void testSizeClasses() {
+        PayloadCache.PooledPayload p = cache.acquire(1);
+        assertEquals(1024, p.getData().length);
+        assertEquals(1, p.getValid());
+        assertEquals(0, p.getOffset());
+        p = cache.acquire(1730);
+        assertEquals(2048, p.getData().length);
+        assertEquals(1730, p.getValid());
+        p = cache.acquire(Packet.MAX_PAYLOAD_SIZE);
+        assertEquals(Packet.MAX_PAYLOAD_SIZE, p.getData().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() {
+        cache.acquire(Packet.MAX_PAYLOAD_SIZE + 1);
+    }
+
+    @Test
+    public void testReuseAfterLastRelease() {
+        PayloadCache.PooledPayload p = cache.acquire(100);
+        byte[] data = p.getData();
+        assertTrue(p.retain());
+        p.release();
+        // still referenced
+        PayloadCache.PooledPayload p2 = cache.acquire(100);
+        assertNotSame(data, p2.getData());
+        p.release();
+        assertFalse(p.retain());
+        PayloadCache.PooledPayload p3 = cache.acquire(500);
+        assertSame(data, p3.getData());
+        assertEquals(500, p3.getValid());
+    }
+}
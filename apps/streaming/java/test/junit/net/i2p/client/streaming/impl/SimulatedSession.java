@@ -0,0 +1,366 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.i2p.I2PException;
+import net.i2p.client.I2PClient;
+import net.i2p.client.I2PClientFactory;
+import net.i2p.client.I2PSession;
+import net.i2p.client.I2PSessionException;
+import net.i2p.client.I2PSessionListener;
+import net.i2p.client.I2PSessionMuxedListener;
+import net.i2p.client.LookupCallback;
+import net.i2p.client.LookupResult;
+import net.i2p.client.SendMessageOptions;
+import net.i2p.client.SendMessageStatusListener;
+import net.i2p.data.BlindData;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+import net.i2p.data.PrivateKey;
+import net.i2p.data.SessionKey;
+import net.i2p.data.SessionTag;
+import net.i2p.data.Signature;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+
+/**
+ * An in-JVM I2PSession stand-in for streaming benchmarks and tests.
+ * No router, no I2CP socket, no encryption.
+ *<p>
+ * Sessions attached to the same Network deliver messages to each other
+ * by destination, after a simulated one-way delay of RTT/2 plus jitter.
+ * Messages may be dropped, or held back an additional RTT/2 to be reordered.
+ *<p>
+ * Only the methods used by the streaming lib are implemented;
+ * the rest throw UnsupportedOperationException.
+ *
+ * @since 0.9.71
+ */
+public class SimulatedSession implements I2PSession {
+
+    /**
+     *  The simulated network between sessions.
+     *  All settings may be changed at any time.
+     */
+    public static class Network {
+        private final Map<Destination, SimulatedSession> _sessions = new ConcurrentHashMap<Destination, SimulatedSession>(4);
+        private final Random _rand;
+        private volatile int _rtt;
+        private volatile int _jitter;
+        private volatile double _loss;
+        private volatile double _reorder;
+        private final AtomicLong _sent = new AtomicLong();
+        private final AtomicLong _sentBytes = new AtomicLong();
+        private final AtomicLong _dropped = new AtomicLong();
+        private final AtomicLong _reordered = new AtomicLong();
+
+        /**
+         *  @param seed for the loss, jitter, and reorder decisions
+         */
+        public Network(long seed) {
+            _rand = new Random(seed);
+        }
+
+        /** round trip time in ms, default 0 */
+        public void setRTT(int rtt) { _rtt = rtt; }
+
+        /** max additional random one-way delay in ms, default 0 */
+        public void setJitter(int jitter) { _jitter = jitter; }
+
+        /** drop probability 0.0 - 1.0, default 0 */
+        public void setLoss(double loss) { _loss = loss; }
+
+        /** probability 0.0 - 1.0 that a message is delayed an extra RTT/2, default 0 */
+        public void setReorder(double reorder) { _reorder = reorder; }
+
+        public long getMessagesSent() { return _sent.get(); }
+        public long getBytesSent() { return _sentBytes.get(); }
+        public long getMessagesDropped() { return _dropped.get(); }
+        public long getMessagesReordered() { return _reordered.get(); }
+
+        public void resetCounters() {
+            _sent.set(0);
+            _sentBytes.set(0);
+            _dropped.set(0);
+            _reordered.set(0);
+        }
+
+        /**
+         *  @return true if accepted for delivery, even if subsequently dropped
+         */
+        private boolean send(Destination to, byte[] data, int proto, int fromPort, int toPort) {
+            SimulatedSession sess = _sessions.get(to);
+            if (sess == null || sess.isClosed())
+                return false;
+            _sent.incrementAndGet();
+            _sentBytes.addAndGet(data.length);
+            long delay = _rtt / 2;
+            synchronized (_rand) {
+                if (_loss > 0 && _rand.nextDouble() < _loss) {
+                    _dropped.incrementAndGet();
+                    return true;
+                }
+                if (_jitter > 0)
+                    delay += _rand.nextInt(_jitter + 1);
+                if (_reorder > 0 && _rand.nextDouble() < _reorder) {
+                    _reordered.incrementAndGet();
+                    delay += Math.max(1, _rtt / 2);
+                }
+            }
+            sess.deliver(data, proto, fromPort, toPort, delay);
+            return true;
+        }
+    }
+
+    private final Network _net;
+    private final Destination _dest;
+    private final PrivateKey _privKey;
+    private final SigningPrivateKey _signingKey;
+    private final ScheduledThreadPoolExecutor _deliverer;
+    private final Map<Integer, byte[]> _pending = new ConcurrentHashMap<Integer, byte[]>();
+    private final AtomicInteger _msgId = new AtomicInteger();
+    private final AtomicLong _sendId = new AtomicLong();
+    private volatile I2PSessionMuxedListener _listener;
+    private volatile boolean _closed = true;
+
+    /**
+     *  Create a session with a new random destination.
+     */
+    public SimulatedSession(Network net) throws I2PException {
+        _net = net;
+        try {
+            I2PClient client = I2PClientFactory.createClient();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+            client.createDestination(baos);
+            // same format as the I2CP session reads
+            ByteArrayInputStream in = new ByteArrayInputStream(baos.toByteArray());
+            _dest = Destination.create(in);
+            _privKey = new PrivateKey(_dest.getPublicKey().getType());
+            _privKey.readBytes(in);
+            _signingKey = new SigningPrivateKey(_dest.getSigningPublicKey().getType());
+            _signingKey.readBytes(in);
+        } catch (IOException ioe) {
+            throw new I2PException("Error creating destination", ioe);
+        } catch (DataFormatException dfe) {
+            throw new I2PException("Error creating destination", dfe);
+        }
+        _deliverer = new ScheduledThreadPoolExecutor(1);
+        _deliverer.setRemoveOnCancelPolicy(true);
+    }
+
+    private void deliver(final byte[] data, final int proto, final int fromPort, final int toPort, long delay) {
+        Runnable r = new Runnable() {
+            public void run() {
+                I2PSessionMuxedListener l = _listener;
+                if (l == null || _closed)
+                    return;
+                int id = _msgId.incrementAndGet();
+                _pending.put(Integer.valueOf(id), data);
+                l.messageAvailable(SimulatedSession.this, id, data.length, proto, fromPort, toPort);
+            }
+        };
+        try {
+            if (delay <= 0)
+                _deliverer.execute(r);
+            else
+                _deliverer.schedule(r, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException re) {
+            // RejectedExecutionException after destroySession()
+        }
+    }
+
+    public void connect() throws I2PSessionException {
+        _closed = false;
+        _net._sessions.put(_dest, this);
+    }
+
+    public boolean isClosed() { return _closed; }
+
+    public void destroySession() throws I2PSessionException {
+        _closed = true;
+        _net._sessions.remove(_dest);
+        _deliverer.shutdownNow();
+        _pending.clear();
+        I2PSessionMuxedListener l = _listener;
+        if (l != null)
+            l.disconnected(this);
+    }
+
+    public byte[] receiveMessage(int msgId) throws I2PSessionException {
+        return _pending.remove(Integer.valueOf(msgId));
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int offset, int size,
+                               int proto, int fromPort, int toPort, SendMessageOptions options) throws I2PSessionException {
+        if (_closed)
+            throw new I2PSessionException("closed");
+        // must copy, caller reuses the buffer
+        byte[] data = new byte[size];
+        System.arraycopy(payload, offset, data, 0, size);
+        return _net.send(dest, data, proto, fromPort, toPort);
+    }
+
+    public long sendMessage(Destination dest, byte[] payload, int offset, int size,
+                            int proto, int fromPort, int toPort,
+                            SendMessageOptions options, SendMessageStatusListener listener) throws I2PSessionException {
+        sendMessage(dest, payload, offset, size, proto, fromPort, toPort, options);
+        return _sendId.incrementAndGet();
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload) throws I2PSessionException {
+        return sendMessage(dest, payload, 0, payload.length);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int offset, int size) throws I2PSessionException {
+        return sendMessage(dest, payload, offset, size, PROTO_UNSPECIFIED, PORT_UNSPECIFIED, PORT_UNSPECIFIED, null);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int proto, int fromport, int toport) throws I2PSessionException {
+        return sendMessage(dest, payload, 0, payload.length, proto, fromport, toport, null);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, SessionKey keyUsed, Set<SessionTag> tagsSent) throws I2PSessionException {
+        return sendMessage(dest, payload);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int offset, int size, SessionKey keyUsed, Set<SessionTag> tagsSent) throws I2PSessionException {
+        return sendMessage(dest, payload, offset, size);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int offset, int size, SessionKey keyUsed, Set<SessionTag> tagsSent, long expire) throws I2PSessionException {
+        return sendMessage(dest, payload, offset, size);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int offset, int size, SessionKey keyUsed, Set<SessionTag> tagsSent,
+                               int proto, int fromPort, int toPort) throws I2PSessionException {
+        return sendMessage(dest, payload, offset, size, proto, fromPort, toPort, null);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int offset, int size, SessionKey keyUsed, Set<SessionTag> tagsSent, long expire,
+                               int proto, int fromPort, int toPort) throws I2PSessionException {
+        return sendMessage(dest, payload, offset, size, proto, fromPort, toPort, null);
+    }
+
+    public boolean sendMessage(Destination dest, byte[] payload, int offset, int size, SessionKey keyUsed, Set<SessionTag> tagsSent, long expire,
+                               int proto, int fromPort, int toPort, int flags) throws I2PSessionException {
+        return sendMessage(dest, payload, offset, size, proto, fromPort, toPort, null);
+    }
+
+    /** only one listener supported, proto and port ignored */
+    public void addMuxedSessionListener(I2PSessionMuxedListener l, int proto, int port) {
+        _listener = l;
+    }
+
+    public void removeListener(int proto, int port) {
+        _listener = null;
+    }
+
+    public Destination getMyDestination() { return _dest; }
+
+    @Deprecated
+    public PrivateKey getDecryptionKey() { return _privKey; }
+
+    public SigningPrivateKey getPrivateKey() { return _signingKey; }
+
+    public boolean isOffline() { return false; }
+
+    public long getOfflineExpiration() { return 0; }
+
+    public Signature getOfflineSignature() { return null; }
+
+    public SigningPublicKey getTransientSigningPublicKey() { return null; }
+
+    public List<I2PSession> getSubsessions() { return Collections.emptyList(); }
+
+    public void removeSubsession(I2PSession session) {}
+
+    public void updateOptions(Properties options) {}
+
+    public String getRouterVersion() { return null; }
+
+    public void reportAbuse(int msgId, int severity) {}
+
+    public void setSessionListener(I2PSessionListener lsnr) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void addSessionListener(I2PSessionListener lsnr, int proto, int port) {
+        throw new UnsupportedOperationException();
+    }
+
+    public I2PSession addSubsession(InputStream privateKeyStream, Properties opts) throws I2PSessionException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Destination lookupDest(Hash h) {
+        return lookupDest(h, 0);
+    }
+
+    public Destination lookupDest(Hash h, long maxWait) {
+        for (Destination d : _net._sessions.keySet()) {
+            if (d.calculateHash().equals(h))
+                return d;
+        }
+        return null;
+    }
+
+    public Destination lookupDest(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Destination lookupDest(String name, long maxWait) {
+        throw new UnsupportedOperationException();
+    }
+
+    public LookupResult lookupDest2(String name, long maxWait) {
+        throw new UnsupportedOperationException();
+    }
+
+    public LookupResult lookupDest(Hash h, long maxWait, LookupCallback callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    public LookupResult lookupDest(String name, long maxWait, LookupCallback callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    public LookupResult lookupDest2(String name, long maxWait, boolean withOptions) {
+        throw new UnsupportedOperationException();
+    }
+
+    public LookupResult lookupDest(Hash h, long maxWait, LookupCallback callback, boolean withOptions) {
+        throw new UnsupportedOperationException();
+    }
+
+    public LookupResult lookupDest(String name, long maxWait, LookupCallback callback, boolean withOptions) {
+        throw new UnsupportedOperationException();
+    }
+
+    public int[] bandwidthLimits() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void sendBlindingInfo(BlindData bd) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedSession " + _dest.toBase32();
+    }
+}
@@ -0,0 +1,390 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gnu.getopt.Getopt;
+
+import net.i2p.I2PAppContext;
+import net.i2p.client.streaming.I2PServerSocket;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.IncomingConnectionFilter;
+import net.i2p.data.DataHelper;
+import net.i2p.util.I2PAppThread;
+
+/**
+ * Streaming throughput benchmark, no router required.
+ *<p>
+ * Two I2PSocketManagerFull instances are connected over a SimulatedSession.Network
+ * with configurable RTT, jitter, loss, and reordering.
+ * Three workloads:
+ *<ul>
+ *<li>bulk: one stream, client writes, server reads and discards
+ *<li>reqresp: many short streams, small request, larger response, then close
+ *<li>idle: many concurrent open streams with no traffic
+ *</ul>
+ * Reports goodput, retransmissions, send window samples (bulk),
+ * and process CPU time per MB where the JVM supports it.
+ *<pre>
+ * Usage: StreamingBench [-r rttms] [-j jitterms] [-l loss%] [-o reorder%]
+ *                       [-s bulkMB] [-n streams] [-c concurrency] [-t idlesecs]
+ *                       [bulk|reqresp|idle|all]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class StreamingBench {
+    private final I2PAppContext _context;
+    private final SimulatedSession.Network _net;
+    private I2PSocketManagerFull _server;
+    private I2PSocketManagerFull _client;
+    private final AtomicLong _serverRead = new AtomicLong();
+    private volatile String _serverMode = "bulk";
+    private volatile int _responseSize = 8*1024;
+
+    private static final int REQUEST_SIZE = 200;
+
+    public StreamingBench(I2PAppContext ctx, SimulatedSession.Network net) {
+        _context = ctx;
+        _net = net;
+    }
+
+    public void start() throws Exception {
+        Properties opts = new Properties();
+        SimulatedSession ss = new SimulatedSession(_net);
+        ss.connect();
+        _server = new I2PSocketManagerFull(_context, ss, opts, "bench server", IncomingConnectionFilter.ALLOW);
+        SimulatedSession cs = new SimulatedSession(_net);
+        cs.connect();
+        _client = new I2PSocketManagerFull(_context, cs, opts, "bench client", IncomingConnectionFilter.ALLOW);
+        Thread t = new I2PAppThread(new Acceptor(_server.getServerSocket()), "bench acceptor", true);
+        t.start();
+    }
+
+    public void stop() {
+        _client.destroySocketManager();
+        _server.destroySocketManager();
+    }
+
+    /**
+     *  One stream, write mb megabytes
+     */
+    public void bulk(int mb) throws Exception {
+        _serverMode = "bulk";
+        _serverRead.set(0);
+        _net.resetCounters();
+        byte[] buf = new byte[16*1024];
+        _context.random().nextBytes(buf);
+        long total = mb * 1024L * 1024L;
+        final I2PSocket sock = _client.connect(_server.getSession().getMyDestination());
+        final Connection con = ((I2PSocketFull) sock).getConnection();
+        final List<Integer> windows = new ArrayList<Integer>();
+        final AtomicInteger done = new AtomicInteger();
+        Thread sampler = new I2PAppThread(new Runnable() {
+            public void run() {
+                while (done.get() == 0) {
+                    synchronized (windows) {
+                        windows.add(Integer.valueOf(con.getOptions().getWindowSize()));
+                    }
+                    try { Thread.sleep(250); } catch (InterruptedException ie) { break; }
+                }
+            }
+        }, "bench sampler", true);
+        long cpu = getCPUTime();
+        long start = System.currentTimeMillis();
+        sampler.start();
+        OutputStream out = sock.getOutputStream();
+        long written = 0;
+        while (written < total) {
+            int len = (int) Math.min(buf.length, total - written);
+            out.write(buf, 0, len);
+            written += len;
+        }
+        out.close();
+        while (_serverRead.get() < total) {
+            Thread.sleep(5);
+        }
+        long time = System.currentTimeMillis() - start;
+        cpu = getCPUTime() - cpu;
+        done.set(1);
+        long dups = con.getLifetimeDupMessagesSent();
+        sock.close();
+        System.out.println("bulk: " + DataHelper.formatSize2(total, false) + "B in " + time + " ms");
+        System.out.println("  goodput:         " + DataHelper.formatSize2Decimal(total * 1000 / Math.max(1, time), false) + "B/s");
+        printNet(dups);
+        printCPU(cpu, total);
+        StringBuilder buf2 = new StringBuilder(256);
+        synchronized (windows) {
+            for (Integer w : windows) {
+                buf2.append(w).append(' ');
+            }
+        }
+        System.out.println("  window (250 ms): " + buf2);
+    }
+
+    /**
+     *  Many short streams, concurrency at a time
+     */
+    public void requestResponse(int count, int concurrency) throws Exception {
+        _serverMode = "reqresp";
+        _serverRead.set(0);
+        _net.resetCounters();
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong dups = new AtomicLong();
+        final AtomicLong latency = new AtomicLong();
+        final CountDownLatch latch = new CountDownLatch(concurrency);
+        long cpu = getCPUTime();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < concurrency; i++) {
+            Thread t = new I2PAppThread(new Runnable() {
+                public void run() {
+                    byte[] req = new byte[REQUEST_SIZE];
+                    byte[] buf = new byte[4096];
+                    while (remaining.decrementAndGet() >= 0) {
+                        long begin = System.currentTimeMillis();
+                        try {
+                            I2PSocket sock = _client.connect(_server.getSession().getMyDestination());
+                            OutputStream out = sock.getOutputStream();
+                            out.write(req);
+                            out.flush();
+                            InputStream in = sock.getInputStream();
+                            int read;
+                            while ((read = in.read(buf)) >= 0) {
+                                received.addAndGet(read);
+                            }
+                            dups.addAndGet(((I2PSocketFull) sock).getConnection().getLifetimeDupMessagesSent());
+                            sock.close();
+                            latency.addAndGet(System.currentTimeMillis() - begin);
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }, "bench client " + i, true);
+            t.start();
+        }
+        latch.await();
+        long time = System.currentTimeMillis() - start;
+        cpu = getCPUTime() - cpu;
+        int ok = count - failed.get();
+        System.out.println("reqresp: " + count + " streams, " + concurrency + " at a time, in " + time + " ms");
+        System.out.println("  streams/s:       " + (ok * 1000L / Math.max(1, time)) + " (" + failed.get() + " failed)");
+        System.out.println("  avg latency:     " + (latency.get() / Math.max(1, ok)) + " ms");
+        System.out.println("  goodput:         " + DataHelper.formatSize2Decimal(received.get() * 1000 / Math.max(1, time), false) + "B/s");
+        printNet(dups.get());
+        printCPU(cpu, received.get() + _serverRead.get());
+    }
+
+    /**
+     *  Many open streams with no traffic
+     */
+    public void idle(int count, int seconds) throws Exception {
+        _serverMode = "idle";
+        _net.resetCounters();
+        List<I2PSocket> socks = new ArrayList<I2PSocket>(count);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            I2PSocket sock = _client.connect(_server.getSession().getMyDestination());
+            // connect() doesn't wait for the SYN ACK, force it
+            sock.getOutputStream().write(1);
+            sock.getOutputStream().flush();
+            socks.add(sock);
+        }
+        long open = System.currentTimeMillis() - start;
+        _net.resetCounters();
+        long cpu = getCPUTime();
+        Thread.sleep(seconds * 1000L);
+        cpu = getCPUTime() - cpu;
+        int alive = 0;
+        for (I2PSocket sock : socks) {
+            if (!sock.isClosed())
+                alive++;
+            sock.getOutputStream().close();
+            sock.close();
+        }
+        System.out.println("idle: " + count + " streams opened in " + open + " ms, " + alive + " still open after " + seconds + " s");
+        System.out.println("  messages:        " + _net.getMessagesSent() + " while idle");
+        if (cpu >= 0)
+            System.out.println("  CPU:             " + (cpu / 1000000) + " ms while idle");
+    }
+
+    private void printNet(long dups) {
+        System.out.println("  retransmissions: " + dups);
+        System.out.println("  messages:        " + _net.getMessagesSent() +
+                           " (" + _net.getMessagesDropped() + " dropped, " +
+                           _net.getMessagesReordered() + " reordered)");
+    }
+
+    private static void printCPU(long cpu, long bytes) {
+        if (cpu < 0 || bytes <= 0)
+            return;
+        System.out.println("  CPU per MB:      " + (cpu * 1024 * 1024 / bytes / 1000000) + " ms");
+    }
+
+    /**
+     *  @return process CPU time in ns, or -1 if unsupported
+     */
+    private static long getCPUTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    private class Acceptor implements Runnable {
+        private final I2PServerSocket _ss;
+
+        public Acceptor(I2PServerSocket ss) {
+            _ss = ss;
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    I2PSocket sock = _ss.accept();
+                    if (sock == null)
+                        continue;
+                    Thread t = new I2PAppThread(new Handler(sock), "bench handler", true);
+                    t.start();
+                } catch (Exception e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private class Handler implements Runnable {
+        private final I2PSocket _sock;
+
+        public Handler(I2PSocket sock) {
+            _sock = sock;
+        }
+
+        public void run() {
+            byte[] buf = new byte[16*1024];
+            try {
+                InputStream in = _sock.getInputStream();
+                if (_serverMode.equals("reqresp")) {
+                    int tot = 0;
+                    while (tot < REQUEST_SIZE) {
+                        int read = in.read(buf, 0, REQUEST_SIZE - tot);
+                        if (read < 0)
+                            break;
+                        tot += read;
+                    }
+                    _serverRead.addAndGet(tot);
+                    OutputStream out = _sock.getOutputStream();
+                    out.write(buf, 0, Math.min(buf.length, _responseSize));
+                    // sends the CLOSE, socket close() alone does not
+                    out.close();
+                } else {
+                    int read;
+                    while ((read = in.read(buf)) >= 0) {
+                        _serverRead.addAndGet(read);
+                    }
+                }
+            } catch (IOException ioe) {
+            } finally {
+                try { _sock.close(); } catch (IOException ioe) {}
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rtt = 200;
+        int jitter = 20;
+        double loss = 0;
+        double reorder = 0;
+        int mb = 16;
+        int streams = 200;
+        int concurrency = 10;
+        int idleSecs = 30;
+        boolean error = false;
+        Getopt g = new Getopt("StreamingBench", args, "r:j:l:o:s:n:c:t:");
+        int c;
+        try {
+            while ((c = g.getopt()) != -1) {
+              switch (c) {
+                case 'r':
+                    rtt = Integer.parseInt(g.getOptarg());
+                    break;
+
+                case 'j':
+                    jitter = Integer.parseInt(g.getOptarg());
+                    break;
+
+                case 'l':
+                    loss = Double.parseDouble(g.getOptarg()) / 100;
+                    break;
+
+                case 'o':
+                    reorder = Double.parseDouble(g.getOptarg()) / 100;
+                    break;
+
+                case 's':
+                    mb = Integer.parseInt(g.getOptarg());
+                    break;
+
+                case 'n':
+                    streams = Integer.parseInt(g.getOptarg());
+                    break;
+
+                case 'c':
+                    concurrency = Integer.parseInt(g.getOptarg());
+                    break;
+
+                case 't':
+                    idleSecs = Integer.parseInt(g.getOptarg());
+                    break;
+
+                case '?':
+                case ':':
+                default:
+                    error = true;
+              }
+            }
+        } catch (NumberFormatException nfe) {
+            error = true;
+        }
+        String cmd = g.getOptind() < args.length ? args[g.getOptind()].toLowerCase(Locale.US) : "all";
+        if (error || !(cmd.equals("bulk") || cmd.equals("reqresp") || cmd.equals("idle") || cmd.equals("all"))) {
+            System.err.println("Usage: StreamingBench [-r rttms] [-j jitterms] [-l loss%] [-o reorder%]\n" +
+                               "                      [-s bulkMB] [-n streams] [-c concurrency] [-t idlesecs]\n" +
+                               "                      [bulk|reqresp|idle|all]");
+            System.exit(1);
+        }
+
+        SimulatedSession.Network net = new SimulatedSession.Network(42);
+        net.setRTT(rtt);
+        net.setJitter(jitter);
+        net.setLoss(loss);
+        net.setReorder(reorder);
+        System.out.println("RTT " + rtt + " ms, jitter " + jitter + " ms, loss " + (loss * 100) + "%, reorder " + (reorder * 100) + '%');
+        StreamingBench bench = new StreamingBench(I2PAppContext.getGlobalContext(), net);
+        bench.start();
+        try {
+            if (cmd.equals("bulk") || cmd.equals("all"))
+                bench.bulk(mb);
+            if (cmd.equals("reqresp") || cmd.equals("all"))
+                bench.requestResponse(streams, concurrency);
+            if (cmd.equals("idle") || cmd.equals("all"))
+                bench.idle(streams, idleSecs);
+        } finally {
+            bench.stop();
+        }
+        System.exit(0);
+    }
+}
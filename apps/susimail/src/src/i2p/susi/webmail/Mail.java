@@ -30,6 +30,7 @@ import i2p.susi.util.EOFOnMatchInputStream;
 import i2p.susi.util.FileBuffer;
 import i2p.susi.util.MemoryBuffer;
 import i2p.susi.webmail.encoding.Encoding;
+import i2p.susi.webmail.encoding.EncodingException;
 import i2p.susi.webmail.encoding.EncodingFactory;
 
 import java.io.BufferedReader;
@@ -410,6 +411,92 @@ class Mail {
 		quotedDate = DataHelper.formatTime(dateLong);
 	}
 
+	/**
+	 * Sets sender and shortSender
+	 * @param html non-null
+	 * @since 0.9.71 pulled from parseHeaders()
+	 */
+	private void setSender(String s, Encoding html) throws EncodingException {
+		sender = s;
+		//formattedSender = getAddress( sender );
+		shortSender = sender.replace("\"", "").trim();
+		int lt = shortSender.indexOf('<');
+		if (lt > 0)
+			shortSender = shortSender.substring(0, lt).trim();
+		else if (lt < 0 && shortSender.contains("@"))
+			shortSender = '<' + shortSender + '>';  // add missing <> (but thunderbird doesn't...)
+		boolean trim = shortSender.length() > 45;
+		if (trim)
+			shortSender = ServletUtil.truncate(shortSender, 42).trim();
+		shortSender = html.encode( shortSender );
+		if (trim)
+			shortSender += "&hellip;";  // must be after html encode
+	}
+
+	/**
+	 * Sets subject and shortSubject
+	 * @param html non-null
+	 * @since 0.9.71 pulled from parseHeaders()
+	 */
+	private void setSubject(String s, Encoding html) throws EncodingException {
+		subject = s;
+		shortSubject = subject;
+		boolean trim = subject.length() > 75;
+		if (trim)
+			shortSubject = ServletUtil.truncate(subject, 72).trim();
+		shortSubject = html.encode( shortSubject );
+		if (trim)
+			shortSubject += "&hellip;";  // must be after html encode
+	}
+
+	/**
+	 *  Set the fields used for the folder view and sorting from the folder index,
+	 *  without reading or parsing the headers.
+	 *  The headers are parsed when the body is loaded,
+	 *  or by parseIndexedHeader() if the body is not available.
+	 *
+	 *  @param rb the header or full file from the disk cache, not read here
+	 *  @param dateLong 0 if unknown
+	 *  @param sender non-null, as received, "" if none
+	 *  @param subject non-null, as received, "" if none
+	 *  @param to may be null
+	 *  @param contentType may be null
+	 *  @since 0.9.71
+	 */
+	synchronized void setIndexed(Buffer rb, long dateLong, long size, boolean isSpam,
+	                             String sender, String subject, String[] to, String contentType) {
+		header = rb;
+		this.size = size;
+		this.isSpam = isSpam;
+		this.to = to;
+		this.contentType = contentType;
+		if (dateLong > 0)
+			setDate(dateLong);
+		Encoding html = EncodingFactory.getEncoding("HTML");
+		if (html != null) {
+			try {
+				if (sender.length() > 0)
+					setSender(sender, html);
+				if (subject.length() > 0)
+					setSubject(subject, html);
+			} catch (EncodingException ee) {
+				_log.error("Index encoding error", ee);
+			}
+		}
+	}
+
+	/**
+	 *  Parse the headers set by setIndexed(), if not already parsed,
+	 *  for the fields not in the folder index, such as
+	 *  reply, cc, messageID, and dateString.
+	 *
+	 *  @since 0.9.71
+	 */
+	synchronized void parseIndexedHeader() {
+		if (header != null && !headersParsed)
+			setHeader(header);
+	}
+
 	/**
 	 * @return all headers, to pass to MailPart, or null on error
 	 */
@@ -455,20 +542,7 @@ class Mail {
 
 						String hlc = line.toLowerCase(Locale.US);
 						if (hlc.startsWith("from:")) {
-							sender = line.substring( 5 ).trim();
-							//formattedSender = getAddress( sender );
-							shortSender = sender.replace("\"", "").trim();
-							int lt = shortSender.indexOf('<');
-							if (lt > 0)
-								shortSender = shortSender.substring(0, lt).trim();
-							else if (lt < 0 && shortSender.contains("@"))
-								shortSender = '<' + shortSender + '>';  // add missing <> (but thunderbird doesn't...)
-							boolean trim = shortSender.length() > 45;
-							if (trim)
-								shortSender = ServletUtil.truncate(shortSender, 42).trim();
-							shortSender = html.encode( shortSender );
-							if (trim)
-								shortSender += "&hellip;";  // must be after html encode
+							setSender(line.substring( 5 ).trim(), html);
 						}
 						else if (hlc.startsWith("date:")) {
 							dateString = line.substring( 5 ).trim();
@@ -477,14 +551,7 @@ class Mail {
 								setDate(dateLong);
 						}
 						else if (hlc.startsWith("subject:")) {
-							subject = line.substring( 8 ).trim();
-							shortSubject = subject;
-							boolean trim = subject.length() > 75;
-							if (trim)
-								shortSubject = ServletUtil.truncate(subject, 72).trim();
-							shortSubject = html.encode( shortSubject );
-							if (trim)
-								shortSubject += "&hellip;";  // must be after html encode
+							setSubject(line.substring( 8 ).trim(), html);
 						}
 						else if (hlc.startsWith("reply-to:")) {
 							reply = getAddress( line.substring( 9 ).trim() );
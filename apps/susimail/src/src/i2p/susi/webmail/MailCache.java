@@ -165,6 +165,7 @@ class MailCache {
 			synchronized(mails) {
 				mails.put(uidl, mail);
 			}
+			disk.indexMail(mail);
 			folder.addElement(uidl);
 		}
 	}
@@ -202,6 +203,7 @@ class MailCache {
 				return false;
 			if (!FileUtil.rename(from, to))
 				return false;
+			disk.unindexMail(uidl);
 			mails.remove(uidl);
 			folder.removeElement(uidl);
 		}
@@ -222,6 +224,7 @@ class MailCache {
 			mail.setBody(body);
 			mails.put(mail.uidl, mail);
 		}
+		disk.indexMail(mail);
 		folder.addElement(mail.uidl);
 	}
 
@@ -407,6 +410,9 @@ class MailCache {
 				}
 			}
 		}
+		// header only, from the folder index, and we couldn't get the body
+		if (mode != FetchMode.HEADER_CACHE_ONLY)
+			mail.parseIndexedHeader();
 		return mail;
 	}
 
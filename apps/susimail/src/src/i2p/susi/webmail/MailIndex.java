@@ -0,0 +1,303 @@
+package i2p.susi.webmail;
+
+import i2p.susi.util.Buffer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.Base64;
+import net.i2p.data.DataHelper;
+import net.i2p.util.FileUtil;
+import net.i2p.util.Log;
+import net.i2p.util.SecureFile;
+import net.i2p.util.SecureFileOutputStream;
+
+/**
+ * The folder index, so we don't have to gunzip and parse
+ * the headers of every cached mail to show the folder.
+ *
+ * One UTF-8 line per mail, tab-separated, strings in I2P Base64:
+ *<pre>
+ *   + uidl H|F filelength date size flags sender subject to contenttype
+ *   - uidl
+ *</pre>
+ * H for a headers-only file, F for a full file.
+ * The file length is used to detect a cache file that changed without an index update.
+ * flags is "S" for spam or "-".
+ * to is comma-separated, and like contenttype, empty if none.
+ *
+ * New and removed mails are appended.
+ * The file is rewritten in full after it was loaded and found to be
+ * out of date, or when it has too many removed entries.
+ *
+ * This class should only be accessed from PersistentMailCache,
+ * which does the locking.
+ *
+ * @since 0.9.71
+ */
+class MailIndex {
+
+	private final File _file;
+	private final Log _log;
+	/** lines in the file, including removed and replaced entries */
+	private int _lines;
+
+	static final String INDEX_FILE = "index.txt";
+	private static final String VERSION = "#susimail index 1";
+	private static final char ADD = '+';
+	private static final char REMOVE = '-';
+	private static final String HDR = "H";
+	private static final String FULL = "F";
+	private static final String SPAM = "S";
+	private static final String NONE = "-";
+
+	/**
+	 * One mail
+	 */
+	static class Entry {
+		public final String uidl;
+		public final boolean isFull;
+		public final long fileLength;
+		public final long date;
+		public final long size;
+		public final boolean isSpam;
+		public final String sender, subject, contentType;
+		/** may be null */
+		public final String[] to;
+
+		private Entry(String uidl, boolean isFull, long fileLength, long date, long size, boolean isSpam,
+		              String sender, String subject, String[] to, String contentType) {
+			this.uidl = uidl;
+			this.isFull = isFull;
+			this.fileLength = fileLength;
+			this.date = date;
+			this.size = size;
+			this.isSpam = isSpam;
+			this.sender = sender;
+			this.subject = subject;
+			this.to = to;
+			this.contentType = contentType;
+		}
+
+		/**
+		 * @param mail headers must have been parsed
+		 * @param f the header or full file
+		 */
+		public Entry(Mail mail, boolean isFull, File f) {
+			this(mail.uidl, isFull, f.length(), mail.date != null ? mail.date.getTime() : 0,
+			     mail.getSize(), mail.isSpam(), mail.sender, mail.subject, mail.to, mail.contentType);
+		}
+
+		/**
+		 * @param rb the header or full file
+		 */
+		public void apply(Mail mail, Buffer rb) {
+			mail.setIndexed(rb, date, size, isSpam, sender, subject, to, contentType);
+		}
+	}
+
+	/**
+	 * Does not read the file. Caller must call read().
+	 *
+	 * @param dir the folder directory
+	 */
+	public MailIndex(File dir) {
+		_file = new SecureFile(dir, INDEX_FILE);
+		_log = I2PAppContext.getGlobalContext().logManager().getLog(MailIndex.class);
+	}
+
+	/**
+	 * @return non-null, empty if no index or on error, uidl to entry
+	 */
+	public Map<String, Entry> read() {
+		Map<String, Entry> rv = new HashMap<String, Entry>();
+		_lines = 0;
+		if (!_file.exists())
+			return rv;
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(_file), "UTF-8"), 16*1024);
+			String line = in.readLine();
+			if (!VERSION.equals(line)) {
+				if (_log.shouldWarn())
+					_log.warn("Unknown index version in " + _file + ": " + line);
+				return rv;
+			}
+			while ((line = in.readLine()) != null) {
+				_lines++;
+				String[] s = DataHelper.split(line, "\t", -1);
+				if (s.length < 2)
+					continue;
+				String uidl = Base64.decodeToString(s[1]);
+				if (uidl == null)
+					continue;
+				if (s[0].length() == 1 && s[0].charAt(0) == REMOVE) {
+					rv.remove(uidl);
+					continue;
+				}
+				if (s.length < 11 || s[0].length() != 1 || s[0].charAt(0) != ADD)
+					continue;
+				try {
+					String to = decode(s[9]);
+					Entry e = new Entry(uidl, s[2].equals(FULL), Long.parseLong(s[3]),
+					                    Long.parseLong(s[4]), Long.parseLong(s[5]), s[6].equals(SPAM),
+					                    decode(s[7]), decode(s[8]),
+					                    to.length() > 0 ? DataHelper.split(to, ",") : null,
+					                    s[10].length() > 0 ? decode(s[10]) : null);
+					rv.put(uidl, e);
+				} catch (NumberFormatException nfe) {}
+			}
+		} catch (IOException ioe) {
+			if (_log.shouldWarn())
+				_log.warn("Error reading index " + _file, ioe);
+			rv.clear();
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException ioe) {}
+		}
+		return rv;
+	}
+
+	/**
+	 * Append a new or changed entry.
+	 */
+	public void add(Entry e) {
+		append(encode(e));
+	}
+
+	/**
+	 * Append a removal.
+	 */
+	public void remove(String uidl) {
+		append(REMOVE + "\t" + Base64.encode(uidl));
+	}
+
+	/**
+	 * @return lines in the file, including removed and replaced entries
+	 */
+	public int getLineCount() {
+		return _lines;
+	}
+
+	/**
+	 * Replace the whole file, atomically.
+	 *
+	 * @return success
+	 */
+	public boolean write(Collection<Entry> entries) {
+		File tmp = new SecureFile(_file.getParentFile(), INDEX_FILE + ".tmp");
+		Writer out = null;
+		boolean ok = false;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new SecureFileOutputStream(tmp), "UTF-8"), 16*1024);
+			out.write(VERSION);
+			out.write('\n');
+			for (Entry e : entries) {
+				out.write(encode(e));
+				out.write('\n');
+			}
+			out.close();
+			out = null;
+			ok = FileUtil.rename(tmp, _file);
+		} catch (IOException ioe) {
+			if (_log.shouldWarn())
+				_log.warn("Error writing index " + _file, ioe);
+		} finally {
+			if (out != null) try { out.close(); } catch (IOException ioe) {}
+			if (!ok)
+				tmp.delete();
+		}
+		if (ok)
+			_lines = entries.size();
+		else
+			_file.delete();
+		return ok;
+	}
+
+	/**
+	 * If false, add() and remove() do nothing until write() is called.
+	 */
+	public boolean exists() {
+		return _file.exists();
+	}
+
+	/**
+	 * If the file doesn't exist, it is not created here,
+	 * so we don't write a partial index. It will be written on the next load.
+	 */
+	private void append(String line) {
+		if (!_file.exists())
+			return;
+		Writer out = null;
+		try {
+			out = new OutputStreamWriter(new SecureFileOutputStream(_file, true), "UTF-8");
+			out.write(line);
+			out.write('\n');
+			_lines++;
+		} catch (IOException ioe) {
+			if (_log.shouldWarn())
+				_log.warn("Error writing index " + _file, ioe);
+			// it's out of date now, force a rebuild
+			_file.delete();
+		} finally {
+			if (out != null) try { out.close(); } catch (IOException ioe) {}
+		}
+	}
+
+	private static String encode(Entry e) {
+		StringBuilder buf = new StringBuilder(256);
+		buf.append(ADD).append('\t')
+		   .append(Base64.encode(e.uidl)).append('\t')
+		   .append(e.isFull ? FULL : HDR).append('\t')
+		   .append(e.fileLength).append('\t')
+		   .append(e.date).append('\t')
+		   .append(e.size).append('\t')
+		   .append(e.isSpam ? SPAM : NONE).append('\t')
+		   .append(encode(e.sender)).append('\t')
+		   .append(encode(e.subject)).append('\t');
+		if (e.to != null) {
+			StringBuilder tbuf = new StringBuilder(64);
+			for (int i = 0; i < e.to.length; i++) {
+				tbuf.append(e.to[i]);
+				if (i < e.to.length - 1)
+					tbuf.append(',');
+			}
+			buf.append(encode(tbuf.toString()));
+		}
+		buf.append('\t');
+		if (e.contentType != null)
+			buf.append(encode(e.contentType));
+		return buf.toString();
+	}
+
+	/**
+	 * @param s non-null
+	 * @return "" for ""
+	 */
+	private static String encode(String s) {
+		if (s.length() == 0)
+			return "";
+		return Base64.encode(DataHelper.getUTF8(s));
+	}
+
+	/**
+	 * @return non-null, "" for "" or on error
+	 */
+	private static String decode(String s) {
+		if (s.length() == 0)
+			return "";
+		byte[] b = Base64.decode(s);
+		if (b == null)
+			return "";
+		return DataHelper.getUTF8(b);
+	}
+}
@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -53,6 +54,10 @@ import net.i2p.util.SystemVersion;
  *
  * This class should only be accessed from MailCache.
  *
+ * As of 0.9.71, each folder except Drafts also has an index file,
+ * see MailIndex, so that the folder may be shown and sorted
+ * without reading every cached mail.
+ *
  * TODO cached server caps and config.
  *
  * @since 0.9.14
@@ -74,6 +79,8 @@ class PersistentMailCache {
 	private final I2PAppContext _context;
 	private final Log _log;
 	private final boolean _isDrafts;
+	// null for Drafts
+	private final MailIndex _index;
 
 	private static final String DIR_SUSI = "susimail";
 	private static final String DIR_CACHE = "cache";
@@ -110,6 +117,7 @@ class PersistentMailCache {
 				attach.mkdirs();
 			}
 			_attachmentDir = attach;
+			_index = _isDrafts ? null : new MailIndex(_cacheDir);
 		}
 	}
 
@@ -125,6 +133,13 @@ class PersistentMailCache {
 	}
 
 	private Collection<Mail> locked_getMails() {
+		long begin = _context.clock().now();
+		Map<String, MailIndex.Entry> index = _index != null ? _index.read() : null;
+		int indexed = 0;
+		List<MailIndex.Entry> entries = null;
+		if (index != null)
+			entries = new ArrayList<MailIndex.Entry>(index.size());
+		Queue<Mail> rv = new LinkedBlockingQueue<Mail>();
 		Queue<File> fq = new LinkedBlockingQueue<File>();
 		for (int j = 0; j < B64.length(); j++) {
 			File subdir = new File(_cacheDir, DIR_PREFIX + B64.charAt(j));
@@ -135,6 +150,17 @@ class PersistentMailCache {
 				File f = files[i];
 				if (!f.isFile())
 					continue;
+				if (index != null) {
+					MailIndex.Entry e = getIndexEntry(f, index);
+					if (e != null) {
+						Mail mail = new Mail(e.uidl);
+						e.apply(mail, new GzipFileBuffer(f));
+						rv.offer(mail);
+						entries.add(e);
+						indexed++;
+						continue;
+					}
+				}
 				// Threaded, handle below
 				//Mail mail = load(f);
 				//if (mail != null)
@@ -143,16 +169,22 @@ class PersistentMailCache {
 			}
 		}
 		int sz = fq.size();
-		if (sz <= 0)
-			return Collections.emptyList();
+		if (sz <= 0) {
+			if (index != null && (indexed != index.size() || compactIndex(indexed) || !_index.exists()))
+				_index.write(entries);
+			if (_log.shouldDebug()) _log.debug("Loaded " + indexed + " emails from the index in " +
+			                                   DataHelper.formatDuration(_context.clock().now() - begin));
+			if (indexed <= 0)
+				return Collections.emptyList();
+			return rv;
+		}
 		
 		// thread the read-in
-		long begin = _context.clock().now();
-		Queue<Mail> rv = new LinkedBlockingQueue<Mail>();
+		Queue<Mail> loaded = index != null ? new LinkedBlockingQueue<Mail>() : rv;
 		int tcnt = Math.max(1, Math.min(sz / 4, Math.min(SystemVersion.getCores(), 16)));
 		List<Thread> threads = new ArrayList<Thread>(tcnt);
 		for (int i = 0; i < tcnt; i++) {
-			Thread t = new I2PAppThread(new Loader(fq, rv, _isDrafts), "Email loader " + i);
+			Thread t = new I2PAppThread(new Loader(fq, loaded, _isDrafts), "Email loader " + i);
 			t.start();
 			threads.add(t);
 		}
@@ -163,11 +195,61 @@ class PersistentMailCache {
 				break;
 			}
 		}
+		if (index != null) {
+			// add the new ones to the index
+			for (Mail mail : loaded) {
+				File f = getFullFile(mail.uidl);
+				boolean isFull = f.exists();
+				if (!isFull)
+					f = getHeaderFile(mail.uidl);
+				entries.add(new MailIndex.Entry(mail, isFull, f));
+				rv.offer(mail);
+			}
+			_index.write(entries);
+		}
 		long end = _context.clock().now();
-		if (_log.shouldDebug()) _log.debug("Loaded " + sz + " emails with " + tcnt + " threads in " + DataHelper.formatDuration(end - begin));
+		if (_log.shouldDebug()) _log.debug("Loaded " + indexed + " emails from the index and " + sz +
+		                                   " emails with " + tcnt + " threads in " + DataHelper.formatDuration(end - begin));
 		return rv;
 	}
 
+	/**
+	 * @param index uidl to entry
+	 * @return the entry if it is still valid for this file, else null
+	 * @since 0.9.71
+	 */
+	private static MailIndex.Entry getIndexEntry(File f, Map<String, MailIndex.Entry> index) {
+		String name = f.getName();
+		boolean isFull;
+		String b64;
+		if (name.endsWith(FULL_SUFFIX)) {
+			b64 = name.substring(FILE_PREFIX.length(), name.length() - FULL_SUFFIX.length());
+			isFull = true;
+		} else if (name.endsWith(HDR_SUFFIX)) {
+			b64 = name.substring(FILE_PREFIX.length(), name.length() - HDR_SUFFIX.length());
+			isFull = false;
+		} else {
+			return null;
+		}
+		String uidl = Base64.decodeToString(b64);
+		if (uidl == null)
+			return null;
+		MailIndex.Entry e = index.get(uidl);
+		if (e == null || e.isFull != isFull || e.fileLength != f.length())
+			return null;
+		return e;
+	}
+
+	/**
+	 * Should the index be rewritten to get rid of removed and replaced entries?
+	 *
+	 * @param entries how many are valid
+	 * @since 0.9.71
+	 */
+	private boolean compactIndex(int entries) {
+		return _index.getLineCount() > (2 * entries) + 100;
+	}
+
 	/**
 	 * Load files from in, add mail to out
 	 * @since 0.9.34
@@ -253,8 +335,11 @@ class PersistentMailCache {
 			if (f.exists())
 				return true;  // already there, all good
 			boolean rv = write(rb, f);
-			if (rv)
+			if (rv) {
 				getHeaderFile(mail.uidl).delete();
+				if (_index != null)
+					_index.add(new MailIndex.Entry(mail, true, f));
+			}
 			return rv;
 		}
 		rb = mail.getHeader();
@@ -263,11 +348,42 @@ class PersistentMailCache {
 			if (f.exists())
 				return true;  // already there, all good
 			boolean rv = write(rb, f);
+			if (rv && _index != null)
+				_index.add(new MailIndex.Entry(mail, false, f));
 			return rv;
 		}
 		return false;
 	}
 
+	/**
+	 * Add a full mail that was written or moved here without saveMail() to the index.
+	 * Headers must have been parsed.
+	 * 
+	 * @since 0.9.71
+	 */
+	public void indexMail(Mail mail) {
+		if (_index == null)
+			return;
+		synchronized(_lock) {
+			File f = getFullFile(mail.uidl);
+			if (f.exists())
+				_index.add(new MailIndex.Entry(mail, true, f));
+		}
+	}
+
+	/**
+	 * Remove a mail that was moved away without deleteMail() from the index.
+	 * 
+	 * @since 0.9.71
+	 */
+	public void unindexMail(String uidl) {
+		if (_index == null)
+			return;
+		synchronized(_lock) {
+			_index.remove(uidl);
+		}
+	}
+
 	/**
 	 * 
 	 * Delete data from disk.
@@ -284,6 +400,8 @@ class PersistentMailCache {
 		synchronized(_lock) {
 			getFullFile(uidl).delete();
 			getHeaderFile(uidl).delete();
+			if (_index != null)
+				_index.remove(uidl);
 		}
 	}
 
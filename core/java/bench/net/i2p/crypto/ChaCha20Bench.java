@@ -0,0 +1,124 @@
+package net.i2p.crypto;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+
+/**
+ * ChaCha20 for packet sizes, ours vs. JCE.
+ * JCE requires Java 11, the spec is by reflection so this compiles for Java 8.
+ *
+ * JCE will not init twice with the same key and nonce,
+ * so the nonce is changed for every call, for all of them.
+ *
+ * @since 0.9.71
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class ChaCha20Bench {
+    I2PAppContext ctx = I2PAppContext.getGlobalContext();
+    byte[] key = new byte[32];
+    byte[] iv = new byte[12];
+    byte[] plaintext = new byte[1500];
+    byte[] ciphertext = new byte[1500];
+    ByteBuffer directIn;
+    ByteBuffer directOut;
+    SecretKeySpec jkey;
+    Cipher cipher;
+    Constructor<?> specCon;
+    int nonce;
+
+    @Param({"64", "256", "1024", "1500"})
+    public int len;
+
+    @Setup
+    public void prepare() throws Exception {
+        ctx.random().nextBytes(key);
+        ctx.random().nextBytes(iv);
+        ctx.random().nextBytes(plaintext);
+        directIn = ByteBuffer.allocateDirect(1500);
+        directIn.put(plaintext);
+        directOut = ByteBuffer.allocateDirect(1500);
+        jkey = new SecretKeySpec(key, "ChaCha20");
+        cipher = Cipher.getInstance("ChaCha20");
+        Class<?> cl = Class.forName("javax.crypto.spec.ChaCha20ParameterSpec");
+        specCon = cl.getConstructor(byte[].class, int.class);
+    }
+
+    private void nextNonce() {
+        int n = ++nonce;
+        iv[0] = (byte) n;
+        iv[1] = (byte) (n >> 8);
+        iv[2] = (byte) (n >> 16);
+        iv[3] = (byte) (n >> 24);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        nextNonce();
+        ChaCha20.encrypt(key, iv, plaintext, 0, ciphertext, 0, len);
+        return ciphertext;
+    }
+
+    @Benchmark
+    public ByteBuffer encryptDirect() {
+        nextNonce();
+        directIn.clear().limit(len);
+        directOut.clear();
+        ChaCha20.encrypt(key, iv, 0, directIn, directOut);
+        return directOut;
+    }
+
+    /** cached Cipher, new init per packet */
+    @Benchmark
+    public byte[] jceCached() throws Exception {
+        nextNonce();
+        cipher.init(Cipher.ENCRYPT_MODE, jkey, (AlgorithmParameterSpec) specCon.newInstance(iv, 1));
+        cipher.doFinal(plaintext, 0, len, ciphertext, 0);
+        return ciphertext;
+    }
+
+    /** new Cipher per packet */
+    @Benchmark
+    public byte[] jceNew() throws Exception {
+        nextNonce();
+        Cipher c = Cipher.getInstance("ChaCha20");
+        c.init(Cipher.ENCRYPT_MODE, jkey, (AlgorithmParameterSpec) specCon.newInstance(iv, 1));
+        c.doFinal(plaintext, 0, len, ciphertext, 0);
+        return ciphertext;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ChaCha20Bench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,81 @@
+package net.i2p.crypto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.Signature;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.SimpleDataStructure;
+
+/**
+ * Ed25519 verification, for a RouterInfo-sized message.
+ * Results are per count signatures, divide by count for the time per signature.
+ *
+ * Run with -prof gc to see the allocation per verify.
+ *
+ * @since 0.9.71
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EdDSABench {
+    I2PAppContext ctx = I2PAppContext.getGlobalContext();
+
+    @Param({"1", "16", "64", "256"})
+    public int count;
+
+    Signature[] sigs;
+    byte[][] data;
+    SigningPublicKey[] keys;
+
+    @Setup
+    public void prepare() throws Exception {
+        sigs = new Signature[count];
+        data = new byte[count][];
+        keys = new SigningPublicKey[count];
+        for (int i = 0; i < count; i++) {
+            SimpleDataStructure[] k = KeyGenerator.getInstance().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+            keys[i] = (SigningPublicKey) k[0];
+            data[i] = new byte[1000];
+            ctx.random().nextBytes(data[i]);
+            sigs[i] = ctx.dsa().sign(data[i], (SigningPrivateKey) k[1]);
+        }
+    }
+
+    @Benchmark
+    public boolean verifyEach() {
+        boolean rv = true;
+        for (int i = 0; i < count; i++) {
+            rv &= ctx.dsa().verifySignature(sigs[i], data[i], keys[i]);
+        }
+        return rv;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(EdDSABench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
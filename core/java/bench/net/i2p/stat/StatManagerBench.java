@@ -0,0 +1,84 @@
+package net.i2p.stat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+
+/**
+ * addRateData() throughput from 16 threads, all hitting the same stat,
+ * as the hot router stats are.
+ *
+ * lockedRates is the pre-0.9.71 path, three Rates updated under their locks.
+ * missingStat is a stat that was never created, as with stat.full=false.
+ *
+ * @since 0.9.71
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class StatManagerBench {
+    private static final long[] PERIODS = { 60*1000, 10*60*1000, 60*60*1000 };
+
+    StatManager sm;
+    Rate[] rates;
+
+    @Setup
+    public void prepare() {
+        sm = new StatManager(I2PAppContext.getGlobalContext());
+        sm.createRequiredRateStat("bench.stat", "", "Bench", PERIODS);
+        rates = new Rate[PERIODS.length];
+        for (int i = 0; i < PERIODS.length; i++) {
+            rates[i] = new Rate(PERIODS[i]);
+        }
+    }
+
+    @Benchmark
+    public void addRateData() {
+        sm.addRateData("bench.stat", 17);
+    }
+
+    @Benchmark
+    public void addRateDataDuration() {
+        sm.addRateData("bench.stat", 17, 3);
+    }
+
+    @Benchmark
+    public void lockedRates() {
+        for (Rate r : rates) {
+            r.addData(17);
+        }
+    }
+
+    @Benchmark
+    public void missingStat() {
+        sm.addRateData("bench.missing", 17);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(StatManagerBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
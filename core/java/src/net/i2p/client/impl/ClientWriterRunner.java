@@ -1,8 +1,9 @@
 package net.i2p.client.impl;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -12,6 +13,7 @@ import net.i2p.I2PAppContext;
 import net.i2p.client.I2PSessionException;
 import net.i2p.data.i2cp.I2CPMessage;
 import net.i2p.data.i2cp.I2CPMessageException;
+import net.i2p.data.i2cp.I2CPWriteBuffer;
 import net.i2p.internal.PoisonI2CPMessage;
 import net.i2p.util.I2PAppThread;
 import net.i2p.util.Log;
@@ -35,9 +37,12 @@ class ClientWriterRunner implements Runnable {
     
     /**
      *  As of 0.9.11 does not start the thread, caller must call startWriting()
+     *
+     *  @param out as of 0.9.71, should not be buffered, we write each batch of messages
+     *             with one call to write()
      */
     public ClientWriterRunner(OutputStream out, I2PSessionImpl session) {
-        _out = new BufferedOutputStream(out);
+        _out = out;
         _session = session;
         _messagesToWrite = new LinkedBlockingQueue<I2CPMessage>(MAX_QUEUE_SIZE);
     }
@@ -75,21 +80,32 @@ class ClientWriterRunner implements Runnable {
         } catch (InterruptedException ie) {}
     }
 
+    /**
+     *  Each time we wake up, take everything in the queue
+     *  and send it with a single write and flush.
+     */
     public void run() {
-        I2CPMessage msg;
-        while (!_session.isClosed()) {
+        List<I2CPMessage> batch = new ArrayList<I2CPMessage>(MAX_QUEUE_SIZE);
+        I2CPWriteBuffer buf = new I2CPWriteBuffer();
+        boolean done = false;
+        while (!done && !_session.isClosed()) {
             try {
-                msg = _messagesToWrite.take();
+                batch.add(_messagesToWrite.take());
             } catch (InterruptedException ie) {
                 continue;
             }
-            if (msg.getType() == PoisonI2CPMessage.MESSAGE_TYPE)
-                break;
+            _messagesToWrite.drainTo(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).getType() == PoisonI2CPMessage.MESSAGE_TYPE) {
+                    // send what was queued before it
+                    batch.subList(i, batch.size()).clear();
+                    done = true;
+                    break;
+                }
+            }
             // only thread, we don't need synchronized
             try {
-                msg.writeMessage(_out);
-                if (_messagesToWrite.isEmpty())
-                    _out.flush();
+                buf.writeMessages(batch, _out);
             } catch (I2CPMessageException ime) {
                 _session.propogateError("Error writing out the message", ime);
                 _session.disconnect();
@@ -99,6 +115,7 @@ class ClientWriterRunner implements Runnable {
                 _session.disconnect();
                 break;
             }
+            batch.clear();
         }
         _messagesToWrite.clear();
     }
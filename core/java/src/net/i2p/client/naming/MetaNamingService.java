@@ -154,6 +154,24 @@ public class MetaNamingService extends DummyNamingService {
         return rv;
     }
 
+    /**
+     *  Stores in the last service
+     *  @since 0.9.71
+     */
+    @Override
+    public boolean putAll(Map<String, Destination> entries, Properties options) {
+        if (_services.isEmpty())
+            return false;
+        boolean rv = _services.get(_services.size() - 1).putAll(entries, options);
+        // overwrite any previous entries in case they changed
+        if (rv) {
+            for (Map.Entry<String, Destination> e : entries.entrySet()) {
+                putCache(e.getKey(), e.getValue());
+            }
+        }
+        return rv;
+    }
+
     /**
      *  Removes from all services
      */
@@ -34,6 +34,9 @@ import freenet.support.CPUInformation.CPUInfo;
 import net.i2p.util.SystemVersion;
 */
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import com.southernstorm.noise.crypto.chacha20.ChaChaCore;
 
 import net.i2p.data.DataHelper;
@@ -42,10 +45,32 @@ import net.i2p.data.DataHelper;
  * ChaCha20, wrapper around Noise ChaChaCore.
  * RFC 7539
  *
+ * As of 0.9.71, the cipher state is cached per-thread,
+ * so there is no allocation per call.
+ *
  * @since 0.9.39
  */
 public final class ChaCha20 {
 
+    /**
+     *  Per-thread working state, overwritten on every call.
+     *
+     *  @since 0.9.71
+     */
+    private static final class State {
+        final int[] input = new int[16];
+        final int[] output = new int[16];
+        /** for ByteBuffers */
+        final byte[] buf = new byte[64];
+    }
+
+    /** @since 0.9.71 */
+    private static final ThreadLocal<State> _state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
 
     private ChaCha20() {}
 
@@ -96,8 +121,72 @@ public final class ChaCha20 {
         }
 */
 
-        int[] input = new int[16];
-        int[] output = new int[16];
+        State state = _state.get();
+        int[] input = state.input;
+        int[] output = state.output;
+        init(input, key, iv, ivOffset);
+        while (length > 0) {
+            int tempLen = 64;
+            if (tempLen > length)
+                tempLen = length;
+            ChaChaCore.hash(output, input);
+            //System.out.println("hash " + ++ctr);
+            //dumpBlock(output);
+            ChaChaCore.xorBlock(plaintext, plaintextOffset, ciphertext, ciphertextOffset, tempLen, output);
+            if (++(input[12]) == 0)
+                ++(input[13]);
+            plaintextOffset += tempLen;
+            ciphertextOffset += tempLen;
+            length -= tempLen;
+        }
+    }
+
+    /**
+     * Encrypt from plaintext to ciphertext.
+     * Encrypts plaintext.remaining() bytes, advancing the position of both buffers.
+     * Heap or direct buffers.
+     *
+     * The buffers may be the same object, in which case the data is encrypted in place,
+     * and the position is advanced once.
+     *
+     * @param key first 32 bytes used as the key
+     * @param iv first 12 bytes starting at ivOffset used as the iv
+     * @throws BufferOverflowException if ciphertext has less room than plaintext remaining,
+     *         nothing is written
+     * @since 0.9.71
+     */
+    public static void encrypt(byte[] key, byte[] iv, int ivOffset,
+                               ByteBuffer plaintext, ByteBuffer ciphertext) {
+        int length = plaintext.remaining();
+        if (plaintext != ciphertext && ciphertext.remaining() < length)
+            throw new BufferOverflowException();
+        State state = _state.get();
+        int[] input = state.input;
+        int[] output = state.output;
+        byte[] buf = state.buf;
+        init(input, key, iv, ivOffset);
+        while (length > 0) {
+            int tempLen = 64;
+            if (tempLen > length)
+                tempLen = length;
+            ChaChaCore.hash(output, input);
+            plaintext.get(buf, 0, tempLen);
+            ChaChaCore.xorBlock(buf, 0, buf, 0, tempLen, output);
+            if (plaintext == ciphertext)
+                ciphertext.position(ciphertext.position() - tempLen);
+            ciphertext.put(buf, 0, tempLen);
+            if (++(input[12]) == 0)
+                ++(input[13]);
+            length -= tempLen;
+        }
+    }
+
+    /**
+     * Set up the key, counter, and nonce.
+     *
+     * @since 0.9.71 split out from encrypt()
+     */
+    private static void init(int[] input, byte[] key, byte[] iv, int ivOffset) {
         ChaChaCore.initKey256(input, key, 0);
         //System.out.println("initkey");
         //dumpBlock(input);
@@ -115,24 +204,6 @@ public final class ChaCha20 {
         input[15] = (int) DataHelper.fromLongLE(iv, ivOffset + 8, 4);
         //System.out.println("initIV");
         //dumpBlock(input);
-        ChaChaCore.hash(output, input);
-        //int ctr = 1;
-        //System.out.println("hash " + ctr);
-        //dumpBlock(output);
-        while (length > 0) {
-            int tempLen = 64;
-            if (tempLen > length)
-                tempLen = length;
-            ChaChaCore.hash(output, input);
-            //System.out.println("hash " + ++ctr);
-            //dumpBlock(output);
-            ChaChaCore.xorBlock(plaintext, plaintextOffset, ciphertext, ciphertextOffset, tempLen, output);
-            if (++(input[12]) == 0)
-                ++(input[13]);
-            plaintextOffset += tempLen;
-            ciphertextOffset += tempLen;
-            length -= tempLen;
-        }
     }
 
     /**
@@ -162,6 +233,26 @@ public final class ChaCha20 {
         encrypt(key, iv, ivOffset, ciphertext, ciphertextOffset, plaintext, plaintextOffset, length);
     }
 
+    /**
+     * Decrypt from ciphertext to plaintext.
+     * Decrypts ciphertext.remaining() bytes, advancing the position of both buffers.
+     * Heap or direct buffers.
+     *
+     * The buffers may be the same object, in which case the data is decrypted in place,
+     * and the position is advanced once.
+     *
+     * @param key first 32 bytes used as the key
+     * @param iv first 12 bytes starting at ivOffset used as the iv
+     * @throws BufferOverflowException if plaintext has less room than ciphertext remaining,
+     *         nothing is written
+     * @since 0.9.71
+     */
+    public static void decrypt(byte[] key, byte[] iv, int ivOffset,
+                               ByteBuffer ciphertext, ByteBuffer plaintext) {
+        // it's symmetric!
+        encrypt(key, iv, ivOffset, ciphertext, plaintext);
+    }
+
 /*
     private static final boolean USE_SYSTEM_CHACHA = useSystemChaCha();
     private static final boolean USE_AVX_CHACHA = useAVXChaCha();
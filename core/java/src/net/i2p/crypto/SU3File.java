@@ -394,6 +394,46 @@ public class SU3File {
         boolean rv = false;
         try {
             in = new BufferedInputStream(new FileInputStream(_file));
+            if (migrateTo != null)  // else verify only
+                out = new SecureFileOutputStream(migrateTo);
+            rv = verifyAndMigrate(in, out);
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException ioe) {}
+            if (out != null) {
+                // We will generally be reading this file right back in,
+                // so do a POSIX flush and sync to ensure it will be there.
+                try {
+                    out.flush();
+                    out.getFD().sync();
+                } catch (IOException ioe) {}
+                try { out.close(); } catch (IOException ioe) {}
+            }
+            if (migrateTo != null && !rv)
+                migrateTo.delete();
+        }
+        return rv;
+    }
+
+    /**
+     *  One-pass verify and extract the content, from a stream.
+     *  The signature is not checked until after all the content has been
+     *  written, so the caller must discard the output if this returns false.
+     *  The header is read from the stream, so the file given to the constructor
+     *  may be null, and the getters may be used after this returns.
+     *  Throws IOE on all format errors.
+     *  Does not close the streams.
+     *
+     *  @param in positioned at the start of the su3 data; all of it is consumed
+     *  @param migrateTo the content output, probably in zip format, e.g. a ByteArrayOutputStream.
+     *                   Null for verify only.
+     *  @return true if signature is good
+     *  @since 0.9.71
+     */
+    public boolean verifyAndMigrate(InputStream in, OutputStream migrateTo) throws IOException {
+        boolean rv = false;
+        try {
+            if (!in.markSupported())
+                in = new BufferedInputStream(in);
             // read 10 bytes to get the sig type
             in.mark(10);
             // following is a dup of that in verifyHeader()
@@ -424,8 +464,6 @@ public class SU3File {
                 if (_signerPubkey == null)
                     throw new IOException("unknown signer: " + _signer + " for content type: " + _contentType.getName());
             }
-            if (migrateTo != null)  // else verify only
-                out = new SecureFileOutputStream(migrateTo);
             byte[] buf = new byte[16*1024];
             long tot = 0;
             while (tot < _contentLength) {
@@ -433,7 +471,7 @@ public class SU3File {
                 if (read < 0)
                     throw new EOFException();
                 if (migrateTo != null)  // else verify only
-                    out.write(buf, 0, read);
+                    migrateTo.write(buf, 0, read);
                 tot += read;
             }
             if (_verifySignature) {
@@ -456,19 +494,6 @@ public class SU3File {
             IOException ioe = new IOException("foo");
             ioe.initCause(dfe);
             throw ioe;
-        } finally {
-            if (in != null) try { in.close(); } catch (IOException ioe) {}
-            if (out != null) {
-                // We will generally be reading this file right back in,
-                // so do a POSIX flush and sync to ensure it will be there.
-                try {
-                    out.flush();
-                    out.getFD().sync();
-                } catch (IOException ioe) {}
-                try { out.close(); } catch (IOException ioe) {}
-            }
-            if (migrateTo != null && !rv)
-                migrateTo.delete();
         }
         return rv;
     }
@@ -31,6 +31,9 @@ import net.i2p.crypto.eddsa.math.Curve;
 import net.i2p.crypto.eddsa.math.GroupElement;
 import net.i2p.crypto.eddsa.math.ScalarOps;
 import net.i2p.crypto.eddsa.math.bigint.BigIntegerLittleEndianEncoding;
+import net.i2p.crypto.eddsa.math.ed25519.Ed25519Verifier;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
 
 /**
  * Signing and verification for EdDSA.
@@ -92,6 +95,14 @@ public class EdDSAEngine extends Signature {
 
     private static class OneShotSpec implements AlgorithmParameterSpec {}
 
+    /**
+     * Lazily built, the base point table costs eight inversions.
+     * @since 0.9.71
+     */
+    private static class Ed25519Holder {
+        static final Ed25519Verifier VERIFIER = new Ed25519Verifier(EdDSANamedCurveTable.ED_25519_CURVE_SPEC.getB());
+    }
+
     /**
      * No specific EdDSA-internal hash requested, allows any EdDSA key.
      */
@@ -319,6 +330,8 @@ public class EdDSAEngine extends Signature {
             return false;
 
         // R = SB - H(Rbar,Abar,M)A
+        if (isEd25519(key.getParams()))
+            return Ed25519Holder.VERIFIER.verify(((EdDSAPublicKey) key).getNegativeA(), h, sigBytes);
         GroupElement R = key.getParams().getB().doubleScalarMultiplyVariableTime(
                 ((EdDSAPublicKey) key).getNegativeA(), h, Sbyte);
 
@@ -332,6 +345,16 @@ public class EdDSAEngine extends Signature {
         return true;
     }
 
+    /**
+     *  Can we use the limb-array Ed25519Verifier for these parameters?
+     *
+     *  @since 0.9.71
+     */
+    private static boolean isEd25519(EdDSAParameterSpec params) {
+        EdDSAParameterSpec ed = EdDSANamedCurveTable.ED_25519_CURVE_SPEC;
+        return params.getCurve() == ed.getCurve() && params.getB() == ed.getB();
+    }
+
     /**
      *  To efficiently sign all the data in one shot, if it is available,
      *  use this method, which will avoid copying the data.
@@ -0,0 +1,842 @@
+package net.i2p.crypto.eddsa.math.ed25519;
+
+/**
+ * Field arithmetic modulo $p = 2^{255} - 19$ on mutable limb arrays.
+ * <p>
+ * Same representation and code as Ed25519FieldElement,
+ * an int[10] where element $t$ represents the integer
+ * $t[0]+2^{26} t[1]+2^{51} t[2]+2^{77} t[3]+2^{102} t[4]+\dots+2^{230} t[9]$,
+ * but the result is written to a caller-supplied array
+ * instead of a new FieldElement, so the hot verification loops
+ * don't allocate two objects per operation.
+ * <p>
+ * Unless noted, the output may be the same array as an input.
+ * Bounds on inputs and outputs are as in Ed25519FieldElement.
+ *
+ * @since 0.9.71
+ */
+public final class Ed25519FieldOps {
+
+    private Ed25519FieldOps() {}
+
+    /**
+     * @return a new zero element
+     */
+    public static int[] create() {
+        return new int[10];
+    }
+
+    public static void zero(int[] h) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = 0;
+        }
+    }
+
+    public static void one(int[] h) {
+        h[0] = 1;
+        for (int i = 1; i < 10; i++) {
+            h[i] = 0;
+        }
+    }
+
+    public static void copy(int[] h, int[] f) {
+        System.arraycopy(f, 0, h, 0, 10);
+    }
+
+    /**
+     * $h = f + g$
+     */
+    public static void add(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = f[i] + g[i];
+        }
+    }
+
+    /**
+     * $h = f - g$
+     */
+    public static void sub(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = f[i] - g[i];
+        }
+    }
+
+    /**
+     * $h = -f$
+     */
+    public static void neg(int[] h, int[] f) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = -f[i];
+        }
+    }
+
+    /**
+     * $h = f * g$
+     * See Ed25519FieldElement.multiply() for the implementation notes.
+     */
+    public static void mul(int[] h, int[] f, int[] g) {
+        int g1_19 = 19 * g[1]; /* 1.959375*2^29 */
+        int g2_19 = 19 * g[2]; /* 1.959375*2^30; still ok */
+        int g3_19 = 19 * g[3];
+        int g4_19 = 19 * g[4];
+        int g5_19 = 19 * g[5];
+        int g6_19 = 19 * g[6];
+        int g7_19 = 19 * g[7];
+        int g8_19 = 19 * g[8];
+        int g9_19 = 19 * g[9];
+        int f1_2 = 2 * f[1];
+        int f3_2 = 2 * f[3];
+        int f5_2 = 2 * f[5];
+        int f7_2 = 2 * f[7];
+        int f9_2 = 2 * f[9];
+        long f0g0    = f[0] * (long) g[0];
+        long f0g1    = f[0] * (long) g[1];
+        long f0g2    = f[0] * (long) g[2];
+        long f0g3    = f[0] * (long) g[3];
+        long f0g4    = f[0] * (long) g[4];
+        long f0g5    = f[0] * (long) g[5];
+        long f0g6    = f[0] * (long) g[6];
+        long f0g7    = f[0] * (long) g[7];
+        long f0g8    = f[0] * (long) g[8];
+        long f0g9    = f[0] * (long) g[9];
+        long f1g0    = f[1] * (long) g[0];
+        long f1g1_2  = f1_2 * (long) g[1];
+        long f1g2    = f[1] * (long) g[2];
+        long f1g3_2  = f1_2 * (long) g[3];
+        long f1g4    = f[1] * (long) g[4];
+        long f1g5_2  = f1_2 * (long) g[5];
+        long f1g6    = f[1] * (long) g[6];
+        long f1g7_2  = f1_2 * (long) g[7];
+        long f1g8    = f[1] * (long) g[8];
+        long f1g9_38 = f1_2 * (long) g9_19;
+        long f2g0    = f[2] * (long) g[0];
+        long f2g1    = f[2] * (long) g[1];
+        long f2g2    = f[2] * (long) g[2];
+        long f2g3    = f[2] * (long) g[3];
+        long f2g4    = f[2] * (long) g[4];
+        long f2g5    = f[2] * (long) g[5];
+        long f2g6    = f[2] * (long) g[6];
+        long f2g7    = f[2] * (long) g[7];
+        long f2g8_19 = f[2] * (long) g8_19;
+        long f2g9_19 = f[2] * (long) g9_19;
+        long f3g0    = f[3] * (long) g[0];
+        long f3g1_2  = f3_2 * (long) g[1];
+        long f3g2    = f[3] * (long) g[2];
+        long f3g3_2  = f3_2 * (long) g[3];
+        long f3g4    = f[3] * (long) g[4];
+        long f3g5_2  = f3_2 * (long) g[5];
+        long f3g6    = f[3] * (long) g[6];
+        long f3g7_38 = f3_2 * (long) g7_19;
+        long f3g8_19 = f[3] * (long) g8_19;
+        long f3g9_38 = f3_2 * (long) g9_19;
+        long f4g0    = f[4] * (long) g[0];
+        long f4g1    = f[4] * (long) g[1];
+        long f4g2    = f[4] * (long) g[2];
+        long f4g3    = f[4] * (long) g[3];
+        long f4g4    = f[4] * (long) g[4];
+        long f4g5    = f[4] * (long) g[5];
+        long f4g6_19 = f[4] * (long) g6_19;
+        long f4g7_19 = f[4] * (long) g7_19;
+        long f4g8_19 = f[4] * (long) g8_19;
+        long f4g9_19 = f[4] * (long) g9_19;
+        long f5g0    = f[5] * (long) g[0];
+        long f5g1_2  = f5_2 * (long) g[1];
+        long f5g2    = f[5] * (long) g[2];
+        long f5g3_2  = f5_2 * (long) g[3];
+        long f5g4    = f[5] * (long) g[4];
+        long f5g5_38 = f5_2 * (long) g5_19;
+        long f5g6_19 = f[5] * (long) g6_19;
+        long f5g7_38 = f5_2 * (long) g7_19;
+        long f5g8_19 = f[5] * (long) g8_19;
+        long f5g9_38 = f5_2 * (long) g9_19;
+        long f6g0    = f[6] * (long) g[0];
+        long f6g1    = f[6] * (long) g[1];
+        long f6g2    = f[6] * (long) g[2];
+        long f6g3    = f[6] * (long) g[3];
+        long f6g4_19 = f[6] * (long) g4_19;
+        long f6g5_19 = f[6] * (long) g5_19;
+        long f6g6_19 = f[6] * (long) g6_19;
+        long f6g7_19 = f[6] * (long) g7_19;
+        long f6g8_19 = f[6] * (long) g8_19;
+        long f6g9_19 = f[6] * (long) g9_19;
+        long f7g0    = f[7] * (long) g[0];
+        long f7g1_2  = f7_2 * (long) g[1];
+        long f7g2    = f[7] * (long) g[2];
+        long f7g3_38 = f7_2 * (long) g3_19;
+        long f7g4_19 = f[7] * (long) g4_19;
+        long f7g5_38 = f7_2 * (long) g5_19;
+        long f7g6_19 = f[7] * (long) g6_19;
+        long f7g7_38 = f7_2 * (long) g7_19;
+        long f7g8_19 = f[7] * (long) g8_19;
+        long f7g9_38 = f7_2 * (long) g9_19;
+        long f8g0    = f[8] * (long) g[0];
+        long f8g1    = f[8] * (long) g[1];
+        long f8g2_19 = f[8] * (long) g2_19;
+        long f8g3_19 = f[8] * (long) g3_19;
+        long f8g4_19 = f[8] * (long) g4_19;
+        long f8g5_19 = f[8] * (long) g5_19;
+        long f8g6_19 = f[8] * (long) g6_19;
+        long f8g7_19 = f[8] * (long) g7_19;
+        long f8g8_19 = f[8] * (long) g8_19;
+        long f8g9_19 = f[8] * (long) g9_19;
+        long f9g0    = f[9] * (long) g[0];
+        long f9g1_38 = f9_2 * (long) g1_19;
+        long f9g2_19 = f[9] * (long) g2_19;
+        long f9g3_38 = f9_2 * (long) g3_19;
+        long f9g4_19 = f[9] * (long) g4_19;
+        long f9g5_38 = f9_2 * (long) g5_19;
+        long f9g6_19 = f[9] * (long) g6_19;
+        long f9g7_38 = f9_2 * (long) g7_19;
+        long f9g8_19 = f[9] * (long) g8_19;
+        long f9g9_38 = f9_2 * (long) g9_19;
+
+        /**
+         * Remember: 2^255 congruent 19 modulo p.
+         * h = h0 * 2^0 + h1 * 2^26 + h2 * 2^(26+25) + h3 * 2^(26+25+26) + ... + h9 * 2^(5*26+5*25).
+         * So to get the real number we would have to multiply the coefficients with the corresponding powers of 2.
+         * To get an idea what is going on below, look at the calculation of h0:
+         * h0 is the coefficient to the power 2^0 so it collects (sums) all products that have the power 2^0.
+         * f0 * g0 really is f0 * 2^0 * g0 * 2^0 = (f0 * g0) * 2^0.
+         * f1 * g9 really is f1 * 2^26 * g9 * 2^230 = f1 * g9 * 2^256 = 2 * f1 * g9 * 2^255 congruent 2 * 19 * f1 * g9 * 2^0 modulo p.
+         * f2 * g8 really is f2 * 2^51 * g8 * 2^204 = f2 * g8 * 2^255 congruent 19 * f2 * g8 * 2^0 modulo p.
+         * and so on...
+         */
+        long h0 = f0g0 + f1g9_38 + f2g8_19 + f3g7_38 + f4g6_19 + f5g5_38 + f6g4_19 + f7g3_38 + f8g2_19 + f9g1_38;
+        long h1 = f0g1 + f1g0    + f2g9_19 + f3g8_19 + f4g7_19 + f5g6_19 + f6g5_19 + f7g4_19 + f8g3_19 + f9g2_19;
+        long h2 = f0g2 + f1g1_2  + f2g0    + f3g9_38 + f4g8_19 + f5g7_38 + f6g6_19 + f7g5_38 + f8g4_19 + f9g3_38;
+        long h3 = f0g3 + f1g2    + f2g1    + f3g0    + f4g9_19 + f5g8_19 + f6g7_19 + f7g6_19 + f8g5_19 + f9g4_19;
+        long h4 = f0g4 + f1g3_2  + f2g2    + f3g1_2  + f4g0    + f5g9_38 + f6g8_19 + f7g7_38 + f8g6_19 + f9g5_38;
+        long h5 = f0g5 + f1g4    + f2g3    + f3g2    + f4g1    + f5g0    + f6g9_19 + f7g8_19 + f8g7_19 + f9g6_19;
+        long h6 = f0g6 + f1g5_2  + f2g4    + f3g3_2  + f4g2    + f5g1_2  + f6g0    + f7g9_38 + f8g8_19 + f9g7_38;
+        long h7 = f0g7 + f1g6    + f2g5    + f3g4    + f4g3    + f5g2    + f6g1    + f7g0    + f8g9_19 + f9g8_19;
+        long h8 = f0g8 + f1g7_2  + f2g6    + f3g5_2  + f4g4    + f5g3_2  + f6g2    + f7g1_2  + f8g0    + f9g9_38;
+        long h9 = f0g9 + f1g8    + f2g7    + f3g6    + f4g5    + f5g4    + f6g3    + f7g2    + f8g1    + f9g0;
+        long carry0;
+        long carry1;
+        long carry2;
+        long carry3;
+        long carry4;
+        long carry5;
+        long carry6;
+        long carry7;
+        long carry8;
+        long carry9;
+
+        /*
+        |h0| <= (1.65*1.65*2^52*(1+19+19+19+19)+1.65*1.65*2^50*(38+38+38+38+38))
+          i.e. |h0| <= 1.4*2^60; narrower ranges for h2, h4, h6, h8
+        |h1| <= (1.65*1.65*2^51*(1+1+19+19+19+19+19+19+19+19))
+          i.e. |h1| <= 1.7*2^59; narrower ranges for h3, h5, h7, h9
+        */
+
+        carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        carry4 = (h4 + (long) (1<<25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        /* |h0| <= 2^25 */
+        /* |h4| <= 2^25 */
+        /* |h1| <= 1.71*2^59 */
+        /* |h5| <= 1.71*2^59 */
+
+        carry1 = (h1 + (long) (1<<24)) >> 25; h2 += carry1; h1 -= carry1 << 25;
+        carry5 = (h5 + (long) (1<<24)) >> 25; h6 += carry5; h5 -= carry5 << 25;
+        /* |h1| <= 2^24; from now on fits into int32 */
+        /* |h5| <= 2^24; from now on fits into int32 */
+        /* |h2| <= 1.41*2^60 */
+        /* |h6| <= 1.41*2^60 */
+
+        carry2 = (h2 + (long) (1<<25)) >> 26; h3 += carry2; h2 -= carry2 << 26;
+        carry6 = (h6 + (long) (1<<25)) >> 26; h7 += carry6; h6 -= carry6 << 26;
+        /* |h2| <= 2^25; from now on fits into int32 unchanged */
+        /* |h6| <= 2^25; from now on fits into int32 unchanged */
+        /* |h3| <= 1.71*2^59 */
+        /* |h7| <= 1.71*2^59 */
+
+        carry3 = (h3 + (long) (1<<24)) >> 25; h4 += carry3; h3 -= carry3 << 25;
+        carry7 = (h7 + (long) (1<<24)) >> 25; h8 += carry7; h7 -= carry7 << 25;
+        /* |h3| <= 2^24; from now on fits into int32 unchanged */
+        /* |h7| <= 2^24; from now on fits into int32 unchanged */
+        /* |h4| <= 1.72*2^34 */
+        /* |h8| <= 1.41*2^60 */
+
+        carry4 = (h4 + (long) (1<<25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        carry8 = (h8 + (long) (1<<25)) >> 26; h9 += carry8; h8 -= carry8 << 26;
+        /* |h4| <= 2^25; from now on fits into int32 unchanged */
+        /* |h8| <= 2^25; from now on fits into int32 unchanged */
+        /* |h5| <= 1.01*2^24 */
+        /* |h9| <= 1.71*2^59 */
+
+        carry9 = (h9 + (long) (1<<24)) >> 25; h0 += carry9 * 19; h9 -= carry9 << 25;
+        /* |h9| <= 2^24; from now on fits into int32 unchanged */
+        /* |h0| <= 1.1*2^39 */
+
+        carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        /* |h0| <= 2^25; from now on fits into int32 unchanged */
+        /* |h1| <= 1.01*2^24 */
+
+        h[0] = (int) h0;
+        h[1] = (int) h1;
+        h[2] = (int) h2;
+        h[3] = (int) h3;
+        h[4] = (int) h4;
+        h[5] = (int) h5;
+        h[6] = (int) h6;
+        h[7] = (int) h7;
+        h[8] = (int) h8;
+        h[9] = (int) h9;
+    }
+
+    /**
+     * $h = f * f$
+     */
+    public static void sq(int[] h, int[] f) {
+        int f0 = f[0];
+        int f1 = f[1];
+        int f2 = f[2];
+        int f3 = f[3];
+        int f4 = f[4];
+        int f5 = f[5];
+        int f6 = f[6];
+        int f7 = f[7];
+        int f8 = f[8];
+        int f9 = f[9];
+        int f0_2 = 2 * f0;
+        int f1_2 = 2 * f1;
+        int f2_2 = 2 * f2;
+        int f3_2 = 2 * f3;
+        int f4_2 = 2 * f4;
+        int f5_2 = 2 * f5;
+        int f6_2 = 2 * f6;
+        int f7_2 = 2 * f7;
+        int f5_38 = 38 * f5; /* 1.959375*2^30 */
+        int f6_19 = 19 * f6; /* 1.959375*2^30 */
+        int f7_38 = 38 * f7; /* 1.959375*2^30 */
+        int f8_19 = 19 * f8; /* 1.959375*2^30 */
+        int f9_38 = 38 * f9; /* 1.959375*2^30 */
+        long f0f0    = f0   * (long) f0;
+        long f0f1_2  = f0_2 * (long) f1;
+        long f0f2_2  = f0_2 * (long) f2;
+        long f0f3_2  = f0_2 * (long) f3;
+        long f0f4_2  = f0_2 * (long) f4;
+        long f0f5_2  = f0_2 * (long) f5;
+        long f0f6_2  = f0_2 * (long) f6;
+        long f0f7_2  = f0_2 * (long) f7;
+        long f0f8_2  = f0_2 * (long) f8;
+        long f0f9_2  = f0_2 * (long) f9;
+        long f1f1_2  = f1_2 * (long) f1;
+        long f1f2_2  = f1_2 * (long) f2;
+        long f1f3_4  = f1_2 * (long) f3_2;
+        long f1f4_2  = f1_2 * (long) f4;
+        long f1f5_4  = f1_2 * (long) f5_2;
+        long f1f6_2  = f1_2 * (long) f6;
+        long f1f7_4  = f1_2 * (long) f7_2;
+        long f1f8_2  = f1_2 * (long) f8;
+        long f1f9_76 = f1_2 * (long) f9_38;
+        long f2f2    = f2   * (long) f2;
+        long f2f3_2  = f2_2 * (long) f3;
+        long f2f4_2  = f2_2 * (long) f4;
+        long f2f5_2  = f2_2 * (long) f5;
+        long f2f6_2  = f2_2 * (long) f6;
+        long f2f7_2  = f2_2 * (long) f7;
+        long f2f8_38 = f2_2 * (long) f8_19;
+        long f2f9_38 = f2   * (long) f9_38;
+        long f3f3_2  = f3_2 * (long) f3;
+        long f3f4_2  = f3_2 * (long) f4;
+        long f3f5_4  = f3_2 * (long) f5_2;
+        long f3f6_2  = f3_2 * (long) f6;
+        long f3f7_76 = f3_2 * (long) f7_38;
+        long f3f8_38 = f3_2 * (long) f8_19;
+        long f3f9_76 = f3_2 * (long) f9_38;
+        long f4f4    = f4   * (long) f4;
+        long f4f5_2  = f4_2 * (long) f5;
+        long f4f6_38 = f4_2 * (long) f6_19;
+        long f4f7_38 = f4   * (long) f7_38;
+        long f4f8_38 = f4_2 * (long) f8_19;
+        long f4f9_38 = f4   * (long) f9_38;
+        long f5f5_38 = f5   * (long) f5_38;
+        long f5f6_38 = f5_2 * (long) f6_19;
+        long f5f7_76 = f5_2 * (long) f7_38;
+        long f5f8_38 = f5_2 * (long) f8_19;
+        long f5f9_76 = f5_2 * (long) f9_38;
+        long f6f6_19 = f6   * (long) f6_19;
+        long f6f7_38 = f6   * (long) f7_38;
+        long f6f8_38 = f6_2 * (long) f8_19;
+        long f6f9_38 = f6   * (long) f9_38;
+        long f7f7_38 = f7   * (long) f7_38;
+        long f7f8_38 = f7_2 * (long) f8_19;
+        long f7f9_76 = f7_2 * (long) f9_38;
+        long f8f8_19 = f8   * (long) f8_19;
+        long f8f9_38 = f8   * (long) f9_38;
+        long f9f9_38 = f9   * (long) f9_38;
+
+        /**
+         * Same procedure as in multiply, but this time we have a higher symmetry leading to less summands.
+         * e.g. f1f9_76 really stands for f1 * 2^26 * f9 * 2^230 + f9 * 2^230 + f1 * 2^26 congruent 2 * 2 * 19 * f1 * f9  2^0 modulo p.
+         */
+        long h0 = f0f0   + f1f9_76 + f2f8_38 + f3f7_76 + f4f6_38 + f5f5_38;
+        long h1 = f0f1_2 + f2f9_38 + f3f8_38 + f4f7_38 + f5f6_38;
+        long h2 = f0f2_2 + f1f1_2  + f3f9_76 + f4f8_38 + f5f7_76 + f6f6_19;
+        long h3 = f0f3_2 + f1f2_2  + f4f9_38 + f5f8_38 + f6f7_38;
+        long h4 = f0f4_2 + f1f3_4  + f2f2    + f5f9_76 + f6f8_38 + f7f7_38;
+        long h5 = f0f5_2 + f1f4_2  + f2f3_2  + f6f9_38 + f7f8_38;
+        long h6 = f0f6_2 + f1f5_4  + f2f4_2  + f3f3_2  + f7f9_76 + f8f8_19;
+        long h7 = f0f7_2 + f1f6_2  + f2f5_2  + f3f4_2  + f8f9_38;
+        long h8 = f0f8_2 + f1f7_4  + f2f6_2  + f3f5_4  + f4f4    + f9f9_38;
+        long h9 = f0f9_2 + f1f8_2  + f2f7_2  + f3f6_2  + f4f5_2;
+        long carry0;
+        long carry1;
+        long carry2;
+        long carry3;
+        long carry4;
+        long carry5;
+        long carry6;
+        long carry7;
+        long carry8;
+        long carry9;
+
+        carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        carry4 = (h4 + (long) (1<<25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+
+        carry1 = (h1 + (long) (1<<24)) >> 25; h2 += carry1; h1 -= carry1 << 25;
+        carry5 = (h5 + (long) (1<<24)) >> 25; h6 += carry5; h5 -= carry5 << 25;
+
+        carry2 = (h2 + (long) (1<<25)) >> 26; h3 += carry2; h2 -= carry2 << 26;
+        carry6 = (h6 + (long) (1<<25)) >> 26; h7 += carry6; h6 -= carry6 << 26;
+
+        carry3 = (h3 + (long) (1<<24)) >> 25; h4 += carry3; h3 -= carry3 << 25;
+        carry7 = (h7 + (long) (1<<24)) >> 25; h8 += carry7; h7 -= carry7 << 25;
+
+        carry4 = (h4 + (long) (1<<25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        carry8 = (h8 + (long) (1<<25)) >> 26; h9 += carry8; h8 -= carry8 << 26;
+
+        carry9 = (h9 + (long) (1<<24)) >> 25; h0 += carry9 * 19; h9 -= carry9 << 25;
+
+        carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+
+        h[0] = (int) h0;
+        h[1] = (int) h1;
+        h[2] = (int) h2;
+        h[3] = (int) h3;
+        h[4] = (int) h4;
+        h[5] = (int) h5;
+        h[6] = (int) h6;
+        h[7] = (int) h7;
+        h[8] = (int) h8;
+        h[9] = (int) h9;
+    }
+
+    /**
+     * $h = 2 * f * f$
+     */
+    public static void sq2(int[] h, int[] f) {
+        int f0 = f[0];
+        int f1 = f[1];
+        int f2 = f[2];
+        int f3 = f[3];
+        int f4 = f[4];
+        int f5 = f[5];
+        int f6 = f[6];
+        int f7 = f[7];
+        int f8 = f[8];
+        int f9 = f[9];
+        int f0_2 = 2 * f0;
+        int f1_2 = 2 * f1;
+        int f2_2 = 2 * f2;
+        int f3_2 = 2 * f3;
+        int f4_2 = 2 * f4;
+        int f5_2 = 2 * f5;
+        int f6_2 = 2 * f6;
+        int f7_2 = 2 * f7;
+        int f5_38 = 38 * f5; /* 1.959375*2^30 */
+        int f6_19 = 19 * f6; /* 1.959375*2^30 */
+        int f7_38 = 38 * f7; /* 1.959375*2^30 */
+        int f8_19 = 19 * f8; /* 1.959375*2^30 */
+        int f9_38 = 38 * f9; /* 1.959375*2^30 */
+        long f0f0    = f0   * (long) f0;
+        long f0f1_2  = f0_2 * (long) f1;
+        long f0f2_2  = f0_2 * (long) f2;
+        long f0f3_2  = f0_2 * (long) f3;
+        long f0f4_2  = f0_2 * (long) f4;
+        long f0f5_2  = f0_2 * (long) f5;
+        long f0f6_2  = f0_2 * (long) f6;
+        long f0f7_2  = f0_2 * (long) f7;
+        long f0f8_2  = f0_2 * (long) f8;
+        long f0f9_2  = f0_2 * (long) f9;
+        long f1f1_2  = f1_2 * (long) f1;
+        long f1f2_2  = f1_2 * (long) f2;
+        long f1f3_4  = f1_2 * (long) f3_2;
+        long f1f4_2  = f1_2 * (long) f4;
+        long f1f5_4  = f1_2 * (long) f5_2;
+        long f1f6_2  = f1_2 * (long) f6;
+        long f1f7_4  = f1_2 * (long) f7_2;
+        long f1f8_2  = f1_2 * (long) f8;
+        long f1f9_76 = f1_2 * (long) f9_38;
+        long f2f2    = f2   * (long) f2;
+        long f2f3_2  = f2_2 * (long) f3;
+        long f2f4_2  = f2_2 * (long) f4;
+        long f2f5_2  = f2_2 * (long) f5;
+        long f2f6_2  = f2_2 * (long) f6;
+        long f2f7_2  = f2_2 * (long) f7;
+        long f2f8_38 = f2_2 * (long) f8_19;
+        long f2f9_38 = f2   * (long) f9_38;
+        long f3f3_2  = f3_2 * (long) f3;
+        long f3f4_2  = f3_2 * (long) f4;
+        long f3f5_4  = f3_2 * (long) f5_2;
+        long f3f6_2  = f3_2 * (long) f6;
+        long f3f7_76 = f3_2 * (long) f7_38;
+        long f3f8_38 = f3_2 * (long) f8_19;
+        long f3f9_76 = f3_2 * (long) f9_38;
+        long f4f4    = f4   * (long) f4;
+        long f4f5_2  = f4_2 * (long) f5;
+        long f4f6_38 = f4_2 * (long) f6_19;
+        long f4f7_38 = f4   * (long) f7_38;
+        long f4f8_38 = f4_2 * (long) f8_19;
+        long f4f9_38 = f4   * (long) f9_38;
+        long f5f5_38 = f5   * (long) f5_38;
+        long f5f6_38 = f5_2 * (long) f6_19;
+        long f5f7_76 = f5_2 * (long) f7_38;
+        long f5f8_38 = f5_2 * (long) f8_19;
+        long f5f9_76 = f5_2 * (long) f9_38;
+        long f6f6_19 = f6   * (long) f6_19;
+        long f6f7_38 = f6   * (long) f7_38;
+        long f6f8_38 = f6_2 * (long) f8_19;
+        long f6f9_38 = f6   * (long) f9_38;
+        long f7f7_38 = f7   * (long) f7_38;
+        long f7f8_38 = f7_2 * (long) f8_19;
+        long f7f9_76 = f7_2 * (long) f9_38;
+        long f8f8_19 = f8   * (long) f8_19;
+        long f8f9_38 = f8   * (long) f9_38;
+        long f9f9_38 = f9   * (long) f9_38;
+        long h0 = f0f0   + f1f9_76 + f2f8_38 + f3f7_76 + f4f6_38 + f5f5_38;
+        long h1 = f0f1_2 + f2f9_38 + f3f8_38 + f4f7_38 + f5f6_38;
+        long h2 = f0f2_2 + f1f1_2  + f3f9_76 + f4f8_38 + f5f7_76 + f6f6_19;
+        long h3 = f0f3_2 + f1f2_2  + f4f9_38 + f5f8_38 + f6f7_38;
+        long h4 = f0f4_2 + f1f3_4  + f2f2    + f5f9_76 + f6f8_38 + f7f7_38;
+        long h5 = f0f5_2 + f1f4_2  + f2f3_2  + f6f9_38 + f7f8_38;
+        long h6 = f0f6_2 + f1f5_4  + f2f4_2  + f3f3_2  + f7f9_76 + f8f8_19;
+        long h7 = f0f7_2 + f1f6_2  + f2f5_2  + f3f4_2  + f8f9_38;
+        long h8 = f0f8_2 + f1f7_4  + f2f6_2  + f3f5_4  + f4f4    + f9f9_38;
+        long h9 = f0f9_2 + f1f8_2  + f2f7_2  + f3f6_2  + f4f5_2;
+        long carry0;
+        long carry1;
+        long carry2;
+        long carry3;
+        long carry4;
+        long carry5;
+        long carry6;
+        long carry7;
+        long carry8;
+        long carry9;
+
+        h0 += h0;
+        h1 += h1;
+        h2 += h2;
+        h3 += h3;
+        h4 += h4;
+        h5 += h5;
+        h6 += h6;
+        h7 += h7;
+        h8 += h8;
+        h9 += h9;
+
+        carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        carry4 = (h4 + (long) (1<<25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+
+        carry1 = (h1 + (long) (1<<24)) >> 25; h2 += carry1; h1 -= carry1 << 25;
+        carry5 = (h5 + (long) (1<<24)) >> 25; h6 += carry5; h5 -= carry5 << 25;
+
+        carry2 = (h2 + (long) (1<<25)) >> 26; h3 += carry2; h2 -= carry2 << 26;
+        carry6 = (h6 + (long) (1<<25)) >> 26; h7 += carry6; h6 -= carry6 << 26;
+
+        carry3 = (h3 + (long) (1<<24)) >> 25; h4 += carry3; h3 -= carry3 << 25;
+        carry7 = (h7 + (long) (1<<24)) >> 25; h8 += carry7; h7 -= carry7 << 25;
+
+        carry4 = (h4 + (long) (1<<25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        carry8 = (h8 + (long) (1<<25)) >> 26; h9 += carry8; h8 -= carry8 << 26;
+
+        carry9 = (h9 + (long) (1<<24)) >> 25; h0 += carry9 * 19; h9 -= carry9 << 25;
+
+        carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+
+        h[0] = (int) h0;
+        h[1] = (int) h1;
+        h[2] = (int) h2;
+        h[3] = (int) h3;
+        h[4] = (int) h4;
+        h[5] = (int) h5;
+        h[6] = (int) h6;
+        h[7] = (int) h7;
+        h[8] = (int) h8;
+        h[9] = (int) h9;
+    }
+
+    /**
+     * $h = f^{-1} = f^{p-2}$
+     * <p>
+     * h and f may not be the same array.
+     */
+    public static void invert(int[] h, int[] f) {
+        int[] t0 = new int[10];
+        int[] t1 = new int[10];
+        int[] t2 = new int[10];
+        // 2
+        sq(t0, f);
+        // 8
+        sq(t1, t0);
+        sq(t1, t1);
+        // 9
+        mul(t1, f, t1);
+        // 11
+        mul(t0, t0, t1);
+        // 22
+        sq(t2, t0);
+        // 31 = 2^5 - 2^0
+        mul(t1, t1, t2);
+        // 2^10 - 2^0
+        sqn(t2, t1, 5);
+        mul(t1, t2, t1);
+        // 2^20 - 2^0
+        sqn(t2, t1, 10);
+        mul(t2, t2, t1);
+        // 2^40 - 2^0
+        sqn(h, t2, 20);
+        mul(t2, h, t2);
+        // 2^50 - 2^0
+        sqn(t2, t2, 10);
+        mul(t1, t2, t1);
+        // 2^100 - 2^0
+        sqn(t2, t1, 50);
+        mul(t2, t2, t1);
+        // 2^200 - 2^0
+        sqn(h, t2, 100);
+        mul(t2, h, t2);
+        // 2^250 - 2^0
+        sqn(t2, t2, 50);
+        mul(t1, t2, t1);
+        // 2^255 - 2^5
+        sqn(t1, t1, 5);
+        // 2^255 - 21
+        mul(h, t1, t0);
+    }
+
+    /**
+     * $h = f^{(p-5)/8} = f^{2^{252}-3}$
+     * <p>
+     * h and f may not be the same array.
+     */
+    public static void pow22523(int[] h, int[] f) {
+        int[] t0 = new int[10];
+        int[] t1 = new int[10];
+        int[] t2 = new int[10];
+        // 2
+        sq(t0, f);
+        // 8
+        sq(t1, t0);
+        sq(t1, t1);
+        // 9
+        mul(t1, f, t1);
+        // 11
+        mul(t0, t0, t1);
+        // 22
+        sq(t0, t0);
+        // 31 = 2^5 - 2^0
+        mul(t0, t1, t0);
+        // 2^10 - 2^0
+        sqn(t1, t0, 5);
+        mul(t0, t1, t0);
+        // 2^20 - 2^0
+        sqn(t1, t0, 10);
+        mul(t1, t1, t0);
+        // 2^40 - 2^0
+        sqn(t2, t1, 20);
+        mul(t1, t2, t1);
+        // 2^50 - 2^0
+        sqn(t1, t1, 10);
+        mul(t0, t1, t0);
+        // 2^100 - 2^0
+        sqn(t1, t0, 50);
+        mul(t1, t1, t0);
+        // 2^200 - 2^0
+        sqn(t2, t1, 100);
+        mul(t1, t2, t1);
+        // 2^250 - 2^0
+        sqn(t1, t1, 50);
+        mul(t0, t1, t0);
+        // 2^252 - 2^2
+        sqn(t0, t0, 2);
+        // 2^252 - 3
+        mul(h, f, t0);
+    }
+
+    /**
+     * $h = f^{2^n}$, n &gt; 0
+     */
+    private static void sqn(int[] h, int[] f, int n) {
+        sq(h, f);
+        for (int i = 1; i < n; i++) {
+            sq(h, h);
+        }
+    }
+
+    /**
+     * Decode 32 bytes, little endian, ignoring the top bit.
+     * Same as Ed25519LittleEndianEncoding.decode().
+     */
+    public static void fromBytes(int[] h, byte[] in, int off) {
+        long h0 = Ed25519LittleEndianEncoding.load_4(in, off + 0);
+        long h1 = Ed25519LittleEndianEncoding.load_3(in, off + 4) << 6;
+        long h2 = Ed25519LittleEndianEncoding.load_3(in, off + 7) << 5;
+        long h3 = Ed25519LittleEndianEncoding.load_3(in, off + 10) << 3;
+        long h4 = Ed25519LittleEndianEncoding.load_3(in, off + 13) << 2;
+        long h5 = Ed25519LittleEndianEncoding.load_4(in, off + 16);
+        long h6 = Ed25519LittleEndianEncoding.load_3(in, off + 20) << 7;
+        long h7 = Ed25519LittleEndianEncoding.load_3(in, off + 23) << 5;
+        long h8 = Ed25519LittleEndianEncoding.load_3(in, off + 26) << 4;
+        long h9 = (Ed25519LittleEndianEncoding.load_3(in, off + 29) & 0x7FFFFF) << 2;
+        long carry0;
+        long carry1;
+        long carry2;
+        long carry3;
+        long carry4;
+        long carry5;
+        long carry6;
+        long carry7;
+        long carry8;
+        long carry9;
+
+        // Remember: 2^255 congruent 19 modulo p
+        carry9 = (h9 + (long) (1<<24)) >> 25; h0 += carry9 * 19; h9 -= carry9 << 25;
+        carry1 = (h1 + (long) (1<<24)) >> 25; h2 += carry1; h1 -= carry1 << 25;
+        carry3 = (h3 + (long) (1<<24)) >> 25; h4 += carry3; h3 -= carry3 << 25;
+        carry5 = (h5 + (long) (1<<24)) >> 25; h6 += carry5; h5 -= carry5 << 25;
+        carry7 = (h7 + (long) (1<<24)) >> 25; h8 += carry7; h7 -= carry7 << 25;
+
+        carry0 = (h0 + (long) (1<<25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        carry2 = (h2 + (long) (1<<25)) >> 26; h3 += carry2; h2 -= carry2 << 26;
+        carry4 = (h4 + (long) (1<<25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        carry6 = (h6 + (long) (1<<25)) >> 26; h7 += carry6; h6 -= carry6 << 26;
+        carry8 = (h8 + (long) (1<<25)) >> 26; h9 += carry8; h8 -= carry8 << 26;
+
+        h[0] = (int) h0;
+        h[1] = (int) h1;
+        h[2] = (int) h2;
+        h[3] = (int) h3;
+        h[4] = (int) h4;
+        h[5] = (int) h5;
+        h[6] = (int) h6;
+        h[7] = (int) h7;
+        h[8] = (int) h8;
+        h[9] = (int) h9;
+    }
+
+    /**
+     * Encode fully reduced, 32 bytes, little endian.
+     * Same as Ed25519LittleEndianEncoding.encode().
+     */
+    public static void toBytes(byte[] s, int off, int[] h) {
+        int h0 = h[0];
+        int h1 = h[1];
+        int h2 = h[2];
+        int h3 = h[3];
+        int h4 = h[4];
+        int h5 = h[5];
+        int h6 = h[6];
+        int h7 = h[7];
+        int h8 = h[8];
+        int h9 = h[9];
+        int q;
+        int carry0;
+        int carry1;
+        int carry2;
+        int carry3;
+        int carry4;
+        int carry5;
+        int carry6;
+        int carry7;
+        int carry8;
+        int carry9;
+
+        // Step 1:
+        // Calculate q
+        q = (19 * h9 + (1 << 24)) >> 25;
+        q = (h0 + q) >> 26;
+        q = (h1 + q) >> 25;
+        q = (h2 + q) >> 26;
+        q = (h3 + q) >> 25;
+        q = (h4 + q) >> 26;
+        q = (h5 + q) >> 25;
+        q = (h6 + q) >> 26;
+        q = (h7 + q) >> 25;
+        q = (h8 + q) >> 26;
+        q = (h9 + q) >> 25;
+
+        // r = h - q * p = h - 2^255 * q + 19 * q
+        // First add 19 * q then discard the bit 255
+        h0 += 19 * q;
+
+        carry0 = h0 >> 26; h1 += carry0; h0 -= carry0 << 26;
+        carry1 = h1 >> 25; h2 += carry1; h1 -= carry1 << 25;
+        carry2 = h2 >> 26; h3 += carry2; h2 -= carry2 << 26;
+        carry3 = h3 >> 25; h4 += carry3; h3 -= carry3 << 25;
+        carry4 = h4 >> 26; h5 += carry4; h4 -= carry4 << 26;
+        carry5 = h5 >> 25; h6 += carry5; h5 -= carry5 << 25;
+        carry6 = h6 >> 26; h7 += carry6; h6 -= carry6 << 26;
+        carry7 = h7 >> 25; h8 += carry7; h7 -= carry7 << 25;
+        carry8 = h8 >> 26; h9 += carry8; h8 -= carry8 << 26;
+        carry9 = h9 >> 25;               h9 -= carry9 << 25;
+
+        // Step 2 (straight forward conversion):
+        s[off + 0] = (byte) h0;
+        s[off + 1] = (byte) (h0 >> 8);
+        s[off + 2] = (byte) (h0 >> 16);
+        s[off + 3] = (byte) ((h0 >> 24) | (h1 << 2));
+        s[off + 4] = (byte) (h1 >> 6);
+        s[off + 5] = (byte) (h1 >> 14);
+        s[off + 6] = (byte) ((h1 >> 22) | (h2 << 3));
+        s[off + 7] = (byte) (h2 >> 5);
+        s[off + 8] = (byte) (h2 >> 13);
+        s[off + 9] = (byte) ((h2 >> 21) | (h3 << 5));
+        s[off + 10] = (byte) (h3 >> 3);
+        s[off + 11] = (byte) (h3 >> 11);
+        s[off + 12] = (byte) ((h3 >> 19) | (h4 << 6));
+        s[off + 13] = (byte) (h4 >> 2);
+        s[off + 14] = (byte) (h4 >> 10);
+        s[off + 15] = (byte) (h4 >> 18);
+        s[off + 16] = (byte) h5;
+        s[off + 17] = (byte) (h5 >> 8);
+        s[off + 18] = (byte) (h5 >> 16);
+        s[off + 19] = (byte) ((h5 >> 24) | (h6 << 1));
+        s[off + 20] = (byte) (h6 >> 7);
+        s[off + 21] = (byte) (h6 >> 15);
+        s[off + 22] = (byte) ((h6 >> 23) | (h7 << 3));
+        s[off + 23] = (byte) (h7 >> 5);
+        s[off + 24] = (byte) (h7 >> 13);
+        s[off + 25] = (byte) ((h7 >> 21) | (h8 << 4));
+        s[off + 26] = (byte) (h8 >> 4);
+        s[off + 27] = (byte) (h8 >> 12);
+        s[off + 28] = (byte) ((h8 >> 20) | (h9 << 6));
+        s[off + 29] = (byte) (h9 >> 2);
+        s[off + 30] = (byte) (h9 >> 10);
+        s[off + 31] = (byte) (h9 >> 18);
+    }
+
+    /**
+     * @param tmp 32 bytes scratch
+     * @return true if f mod p is odd
+     */
+    public static boolean isNegative(int[] f, byte[] tmp) {
+        toBytes(tmp, 0, f);
+        return (tmp[0] & 1) != 0;
+    }
+
+    /**
+     * @param tmp 32 bytes scratch
+     * @return true if f mod p is not zero
+     */
+    public static boolean isNonZero(int[] f, byte[] tmp) {
+        toBytes(tmp, 0, f);
+        int rv = 0;
+        for (int i = 0; i < 32; i++) {
+            rv |= tmp[i];
+        }
+        return rv != 0;
+    }
+}
@@ -0,0 +1,367 @@
+package net.i2p.crypto.eddsa.math.ed25519;
+
+import net.i2p.crypto.eddsa.math.Curve;
+import net.i2p.crypto.eddsa.math.FieldElement;
+import net.i2p.crypto.eddsa.math.GroupElement;
+
+import static net.i2p.crypto.eddsa.math.ed25519.Ed25519FieldOps.*;
+
+/**
+ * Ed25519 signature verification on mutable limb arrays.
+ * <p>
+ * Same math as GroupElement.doubleScalarMultiplyVariableTime()
+ * (ref10 ge_double_scalarmult_vartime), but the points are
+ * int[10] limbs from Ed25519FieldOps, overwritten in place,
+ * so a verification allocates a few dozen small arrays
+ * instead of several thousand FieldElements and GroupElements.
+ * <p>
+ * All methods are variable time. Verification uses no secret values.
+ * <p>
+ * Thread safe, all working state is local to the call.
+ *
+ * @since 0.9.71
+ */
+public final class Ed25519Verifier {
+
+    private final int[] d;
+    private final int[] d2;
+    /** B, 3B, 5B, ..., 15B, as { y+x, y-x, 2dxy } */
+    private final int[][][] bTable;
+
+    /** X, Y, Z, T, used for the P2, P3, P1P1, and cached representations */
+    private static final class Point {
+        final int[] X = new int[10];
+        final int[] Y = new int[10];
+        final int[] Z = new int[10];
+        final int[] T = new int[10];
+    }
+
+    /** scratch space for one call */
+    private static final class State {
+        final int[] t0 = new int[10];
+        final int[] t1 = new int[10];
+        final int[] t2 = new int[10];
+        final Point r = new Point();
+        final Point t = new Point();
+        final Point u = new Point();
+        final byte[] bslide = new byte[256];
+        final byte[] b32 = new byte[32];
+    }
+
+    /**
+     * @param B the Ed25519 base point, with Ed25519FieldElements
+     * @throws IllegalArgumentException if not an Ed25519 field
+     */
+    public Ed25519Verifier(GroupElement B) {
+        Curve curve = B.getCurve();
+        d = limbs(curve.getD());
+        d2 = limbs(curve.get2D());
+        Point[] odd = table(fromP3(B), new State());
+        bTable = new int[8][][];
+        int[] recip = new int[10];
+        // odd[] is cached Y+X, Y-X, Z, 2dT; to affine y+x, y-x, 2dxy
+        for (int i = 0; i < 8; i++) {
+            Point c = odd[i];
+            invert(recip, c.Z);
+            int[] ypx = new int[10];
+            int[] ymx = new int[10];
+            int[] xy2d = new int[10];
+            mul(ypx, c.X, recip);
+            mul(ymx, c.Y, recip);
+            mul(xy2d, c.T, recip);
+            bTable[i] = new int[][] { ypx, ymx, xy2d };
+        }
+    }
+
+    private static int[] limbs(FieldElement f) {
+        if (!(f instanceof Ed25519FieldElement))
+            throw new IllegalArgumentException("Not an Ed25519 field element");
+        return ((Ed25519FieldElement) f).t.clone();
+    }
+
+    /**
+     * @param p P3 representation
+     */
+    private static Point fromP3(GroupElement p) {
+        GroupElement.Representation repr = p.getRepresentation();
+        if (repr != GroupElement.Representation.P3 &&
+            repr != GroupElement.Representation.P3PrecomputedDouble)
+            throw new IllegalArgumentException("Not P3: " + repr);
+        Point rv = new Point();
+        copy(rv.X, limbs(p.getX()));
+        copy(rv.Y, limbs(p.getY()));
+        copy(rv.Z, limbs(p.getZ()));
+        copy(rv.T, limbs(p.getT()));
+        return rv;
+    }
+
+    /**
+     * Verify one signature.
+     * Same as the check in EdDSAEngine, $R = SB - hA$, compared as encoded bytes.
+     *
+     * @param negA the public key, negated, P3 representation
+     * @param h H(R,A,M) mod l, 32 bytes
+     * @param sig 64 bytes R,S where S has already been checked to be less than l
+     */
+    public boolean verify(GroupElement negA, byte[] h, byte[] sig) {
+        State st = new State();
+        Point[] ai = table(fromP3(negA), st);
+        byte[] aslide = new byte[256];
+        slide(aslide, h, 0);
+        slide(st.bslide, sig, 32);
+        multiply(st, new Point[][] { ai }, new byte[][] { aslide }, 1);
+        // encode r, compare
+        Point r = st.r;
+        invert(st.t0, r.Z);
+        mul(st.t1, r.X, st.t0);
+        mul(st.t2, r.Y, st.t0);
+        byte[] s = st.b32;
+        toBytes(s, 0, st.t2);
+        boolean neg = isNegative(st.t1, new byte[32]);
+        if (neg)
+            s[31] ^= (byte) 0x80;
+        for (int i = 0; i < 32; i++) {
+            if (s[i] != sig[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * $r = \sum a_i A_i + b B$, result in st.r (P2),
+     * a_i and b already in sliding window form, b in st.bslide.
+     *
+     * @param tables odd multiples of each A_i, cached
+     */
+    private void multiply(State st, Point[][] tables, byte[][] slides, int count) {
+        Point r = st.r;
+        Point t = st.t;
+        Point u = st.u;
+        int[] t0 = st.t0;
+        byte[] bslide = st.bslide;
+        zero(r.X);
+        one(r.Y);
+        one(r.Z);
+        int i;
+        top:
+        for (i = 255; i >= 0; i--) {
+            if (bslide[i] != 0)
+                break;
+            for (int j = 0; j < count; j++) {
+                if (slides[j][i] != 0)
+                    break top;
+            }
+        }
+        for ( ; i >= 0; i--) {
+            p2dbl(t, r, t0);
+            for (int j = 0; j < count; j++) {
+                int s = slides[j][i];
+                if (s > 0) {
+                    toP3(u, t);
+                    addCached(t, u, tables[j][s >> 1], t0);
+                } else if (s < 0) {
+                    toP3(u, t);
+                    subCached(t, u, tables[j][(-s) >> 1], t0);
+                }
+            }
+            int s = bslide[i];
+            if (s > 0) {
+                toP3(u, t);
+                madd(t, u, bTable[s >> 1], t0);
+            } else if (s < 0) {
+                toP3(u, t);
+                msub(t, u, bTable[(-s) >> 1], t0);
+            }
+            toP2(r, t);
+        }
+    }
+
+    /**
+     * @param p P3, not modified
+     * @return P, 3P, 5P, ..., 15P, cached representation
+     */
+    private Point[] table(Point p, State st) {
+        Point[] rv = new Point[8];
+        rv[0] = toCached(new Point(), p);
+        Point p2 = new Point();
+        Point t = st.t;
+        Point u = st.u;
+        p2dbl(t, p, st.t0);
+        toP3(p2, t);
+        for (int i = 0; i < 7; i++) {
+            addCached(t, p2, rv[i], st.t0);
+            toP3(u, t);
+            rv[i + 1] = toCached(new Point(), u);
+        }
+        return rv;
+    }
+
+    /**
+     * Sliding window form of a 32-byte scalar, digits odd and in [-15, 15].
+     * Same as GroupElement.slide().
+     */
+    static void slide(byte[] r, byte[] a, int off) {
+        for (int i = 0; i < 256; ++i) {
+            r[i] = (byte) (1 & (a[off + (i >> 3)] >> (i & 7)));
+        }
+        for (int i = 0; i < 256; ++i) {
+            if (r[i] != 0) {
+                for (int b = 1; b <= 6 && i + b < 256; ++b) {
+                    if (r[i + b] != 0) {
+                        if (r[i] + (r[i + b] << b) <= 15) {
+                            r[i] += r[i + b] << b;
+                            r[i + b] = 0;
+                        } else if (r[i] - (r[i + b] << b) >= -15) {
+                            r[i] -= r[i + b] << b;
+                            for (int k = i + b; k < 256; ++k) {
+                                if (r[k] == 0) {
+                                    r[k] = 1;
+                                    break;
+                                }
+                                r[k] = 0;
+                            }
+                        } else {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    ////// point operations, ref10 formulas, see GroupElement for the details
+
+    /**
+     * @param r out, cached
+     * @param p P3
+     * @return r
+     */
+    private Point toCached(Point r, Point p) {
+        add(r.X, p.Y, p.X);
+        sub(r.Y, p.Y, p.X);
+        copy(r.Z, p.Z);
+        mul(r.T, p.T, d2);
+        return r;
+    }
+
+    /**
+     * @param r out, P2, not the same as p
+     * @param p P1P1
+     */
+    private static void toP2(Point r, Point p) {
+        mul(r.X, p.X, p.T);
+        mul(r.Y, p.Y, p.Z);
+        mul(r.Z, p.Z, p.T);
+    }
+
+    /**
+     * @param r out, P3, not the same as p
+     * @param p P1P1
+     */
+    private static void toP3(Point r, Point p) {
+        mul(r.X, p.X, p.T);
+        mul(r.Y, p.Y, p.Z);
+        mul(r.Z, p.Z, p.T);
+        mul(r.T, p.X, p.Y);
+    }
+
+    /**
+     * $r = 2p$
+     *
+     * @param r out, P1P1, not the same as p
+     * @param p P2 or P3
+     */
+    private static void p2dbl(Point r, Point p, int[] t0) {
+        sq(r.X, p.X);
+        sq(r.Z, p.Y);
+        sq2(r.T, p.Z);
+        add(r.Y, p.X, p.Y);
+        sq(t0, r.Y);
+        add(r.Y, r.Z, r.X);
+        sub(r.Z, r.Z, r.X);
+        sub(r.X, t0, r.Y);
+        sub(r.T, r.T, r.Z);
+    }
+
+    /**
+     * $r = p + q$
+     *
+     * @param r out, P1P1, not the same as p
+     * @param p P3
+     * @param q cached
+     */
+    private static void addCached(Point r, Point p, Point q, int[] t0) {
+        add(r.X, p.Y, p.X);
+        sub(r.Y, p.Y, p.X);
+        mul(r.Z, r.X, q.X);
+        mul(r.Y, r.Y, q.Y);
+        mul(r.T, q.T, p.T);
+        mul(r.X, p.Z, q.Z);
+        add(t0, r.X, r.X);
+        sub(r.X, r.Z, r.Y);
+        add(r.Y, r.Z, r.Y);
+        add(r.Z, t0, r.T);
+        sub(r.T, t0, r.T);
+    }
+
+    /**
+     * $r = p - q$
+     *
+     * @param r out, P1P1, not the same as p
+     * @param p P3
+     * @param q cached
+     */
+    private static void subCached(Point r, Point p, Point q, int[] t0) {
+        add(r.X, p.Y, p.X);
+        sub(r.Y, p.Y, p.X);
+        mul(r.Z, r.X, q.Y);
+        mul(r.Y, r.Y, q.X);
+        mul(r.T, q.T, p.T);
+        mul(r.X, p.Z, q.Z);
+        add(t0, r.X, r.X);
+        sub(r.X, r.Z, r.Y);
+        add(r.Y, r.Z, r.Y);
+        sub(r.Z, t0, r.T);
+        add(r.T, t0, r.T);
+    }
+
+    /**
+     * $r = p + q$
+     *
+     * @param r out, P1P1, not the same as p
+     * @param p P3
+     * @param q precomputed { y+x, y-x, 2dxy }
+     */
+    private static void madd(Point r, Point p, int[][] q, int[] t0) {
+        add(r.X, p.Y, p.X);
+        sub(r.Y, p.Y, p.X);
+        mul(r.Z, r.X, q[0]);
+        mul(r.Y, r.Y, q[1]);
+        mul(r.T, q[2], p.T);
+        add(t0, p.Z, p.Z);
+        sub(r.X, r.Z, r.Y);
+        add(r.Y, r.Z, r.Y);
+        add(r.Z, t0, r.T);
+        sub(r.T, t0, r.T);
+    }
+
+    /**
+     * $r = p - q$
+     *
+     * @param r out, P1P1, not the same as p
+     * @param p P3
+     * @param q precomputed { y+x, y-x, 2dxy }
+     */
+    private static void msub(Point r, Point p, int[][] q, int[] t0) {
+        add(r.X, p.Y, p.X);
+        sub(r.Y, p.Y, p.X);
+        mul(r.Z, r.X, q[1]);
+        mul(r.Y, r.Y, q[0]);
+        mul(r.T, q[2], p.T);
+        add(t0, p.Z, p.Z);
+        sub(r.X, r.Z, r.Y);
+        add(r.Y, r.Z, r.Y);
+        sub(r.Z, t0, r.T);
+        add(r.T, t0, r.T);
+    }
+}
@@ -31,6 +31,10 @@ public class Rate {
     private long _lifetimeTotalEventTime;
     private RateSummaryListener _summaryListener;
     private RateStat _stat;
+    /** the RateStat totals already folded into this rate */
+    private long _foldedEventCount;
+    private double _foldedTotalValue;
+    private long _foldedTotalEventTime;
 
     private long _lastCoalesceDate;
     private long _creationDate;
@@ -42,16 +46,19 @@ public class Rate {
 
     /** in the current (partial) period, what is the total value acrued through all events? */
     public synchronized double getCurrentTotalValue() {
+        fold();
         return _currentTotalValue;
     }
 
     /** in the current (partial) period, how many events have occurred? */
     public synchronized long getCurrentEventCount() {
+        fold();
         return _currentEventCount;
     }
 
     /** in the current (partial) period, how much of the time has been spent doing the events? */
     public synchronized long getCurrentTotalEventTime() {
+        fold();
         return _currentTotalEventTime;
     }
 
@@ -90,16 +97,19 @@ public class Rate {
 
     /** since rate creation, what was the total value acrued through all events?  */
     public synchronized double getLifetimeTotalValue() {
+        fold();
         return _lifetimeTotalValue;
     }
 
     /** since rate creation, how many events have occurred? */
     public synchronized long getLifetimeEventCount() {
+        fold();
         return _lifetimeEventCount;
     }
 
     /** since rate creation, how much of the time was spent doing the events? */
     public synchronized long getLifetimeTotalEventTime() {
+        fold();
         return _lifetimeTotalEventTime;
     }
 
@@ -119,7 +129,19 @@ public class Rate {
     }
     
     public RateStat getRateStat() { return _stat; }
-    public void setRateStat(RateStat rs) { _stat = rs; }
+
+    /**
+     * As of 0.9.71, data added to the RateStat is folded into this rate
+     * when it is read or coalesced. Data already in the RateStat is not.
+     */
+    public synchronized void setRateStat(RateStat rs) {
+        _stat = rs;
+        if (rs != null) {
+            _foldedEventCount = rs.getAddedEventCount();
+            _foldedTotalValue = rs.getAddedTotalValue();
+            _foldedTotalEventTime = rs.getAddedTotalEventTime();
+        }
+    }
 
     /**
      * A rate with period shorter than Router.COALESCE_TIME = 50*1000 has to
@@ -210,11 +232,45 @@ public class Rate {
         _lifetimeTotalEventTime += eventDuration;
     }
 
+    /**
+     * Add the data accumulated in our RateStat since the last time.
+     * Lock-free in the RateStat, so this only needs our own lock.
+     * Caller must synch on this.
+     *
+     * @since 0.9.71
+     */
+    private void fold() {
+        RateStat rs = _stat;
+        if (rs == null)
+            return;
+        // count first, see RateStat.addData()
+        long count = rs.getAddedEventCount();
+        long events = count - _foldedEventCount;
+        if (events == 0)
+            return;
+        double value = rs.getAddedTotalValue();
+        long eventTime = rs.getAddedTotalEventTime();
+        float addedValue = (float) (value - _foldedTotalValue);
+        long addedTime = eventTime - _foldedTotalEventTime;
+        _foldedEventCount = count;
+        _foldedTotalValue = value;
+        _foldedTotalEventTime = eventTime;
+
+        _currentTotalValue += addedValue;
+        _currentEventCount += events;
+        _currentTotalEventTime += addedTime;
+
+        _lifetimeTotalValue += addedValue;
+        _lifetimeEventCount += events;
+        _lifetimeTotalEventTime += addedTime;
+    }
+
     /** 2s is plenty of slack to deal with slow coalescing (across many stats) */
     private static final int SLACK = 2000;
     public void coalesce() {
         long now = now();
         synchronized (this) {
+            fold();
             long measuredPeriod = now - _lastCoalesceDate;
             if (measuredPeriod < _period - SLACK) {
                 // no need to coalesce (assuming we only try to do so once per minute)
@@ -281,6 +337,7 @@ public class Rate {
      * What was the average value across the events since the stat was created?
      */
     public synchronized double getLifetimeAverageValue() {
+        fold();
         if ((_lifetimeTotalValue != 0) && (_lifetimeEventCount > 0))
             return _lifetimeTotalValue / _lifetimeEventCount;
        
@@ -339,6 +396,7 @@ public class Rate {
      * @return ratio, or 0 if event times aren't used
      */
     public synchronized double getLifetimeEventSaturation() {
+        fold();
         if ((_lastEventCount > 0) && (_lifetimeTotalEventTime > 0)) {
             double eventTime = (double) _lifetimeTotalEventTime / (double) _lifetimeEventCount;
             double maxEvents = _period / eventTime;
@@ -407,6 +465,7 @@ public class Rate {
      * Warning- returns ratio, not percentage (i.e. it is not multiplied by 100 here)
      */
     public synchronized double getPercentageOfLifetimeValue() {
+        fold();
         if ((_lastTotalValue != 0) && (_lifetimeTotalValue != 0)) {
             double lifetimePeriodValue = _period * (_lifetimeTotalValue / (now() - _creationDate));
             return _lastTotalValue / lifetimePeriodValue;
@@ -431,6 +490,7 @@ public class Rate {
      * @since 0.9.4
      */
     public synchronized RateAverages computeAverages(RateAverages out, boolean useLifetime) {
+        fold();
         out.reset();
         
         final long total = _currentEventCount + _lastEventCount;
@@ -464,6 +524,7 @@ public class Rate {
      * @since 0.9.41
      */
     public synchronized void store(String prefix, StringBuilder buf, boolean addComments) throws IOException {
+        fold();
         PersistenceHelper.addTime(buf, addComments, prefix, ".period", "Length of the period:", _period);
         PersistenceHelper.addDate(buf, addComments, prefix, ".creationDate",
                               "When was this rate created?", _creationDate);
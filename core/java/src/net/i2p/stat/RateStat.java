@@ -4,10 +4,18 @@ import java.io.IOException;
 import java.io.OutputStream;
 import static java.util.Arrays.*;
 import java.util.Properties;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.i2p.data.DataHelper;
 
-/** coordinate a moving rate over various periods */
+/**
+ * Coordinate a moving rate over various periods.
+ *
+ * As of 0.9.71, data added here is not pushed to each Rate under its lock.
+ * It is accumulated in striped counters, with no locking and little
+ * contention, and each Rate folds in the new totals when it is read or coalesced.
+ */
 public class RateStat {
     /** unique name of the statistic */
     private final String _statName;
@@ -17,6 +25,14 @@ public class RateStat {
     private final String _description;
     /** actual rate objects for this statistic */
     protected final Rate[] _rates;
+    /**
+     *  Running totals since creation, never reset.
+     *  Each Rate keeps the totals it has already folded in.
+     *  @since 0.9.71
+     */
+    private final LongAdder _eventCount = new LongAdder();
+    private final DoubleAdder _totalValue = new DoubleAdder();
+    private final LongAdder _totalEventTime = new LongAdder();
 
     public RateStat(String name, String description, String group, long periods[]) {
         _statName = name;
@@ -41,8 +57,11 @@ public class RateStat {
      * update all of the rates for the various periods with the given value.  
      */
     public void addData(long value, long eventDuration) {
-        for (Rate r: _rates)
-            r.addData(value, eventDuration);
+        _totalValue.add(value);
+        if (eventDuration != 0)
+            _totalEventTime.add(eventDuration);
+        // count last, so a Rate that folds in the event also gets its value
+        _eventCount.increment();
     }
 
     /** 
@@ -51,8 +70,30 @@ public class RateStat {
      * @since 0.8.10
      */
     public void addData(long value) {
-        for (Rate r: _rates)
-            r.addData(value);
+        _totalValue.add(value);
+        _eventCount.increment();
+    }
+
+    /**
+     *  Events added since creation, not yet necessarily folded into the Rates.
+     *  @since 0.9.71
+     */
+    long getAddedEventCount() {
+        return _eventCount.sum();
+    }
+
+    /**
+     *  @since 0.9.71
+     */
+    double getAddedTotalValue() {
+        return _totalValue.sum();
+    }
+
+    /**
+     *  @since 0.9.71
+     */
+    long getAddedTotalEventTime() {
+        return _totalEventTime.sum();
     }
 
     /** coalesce all the stats */
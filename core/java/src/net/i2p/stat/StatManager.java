@@ -10,6 +10,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.I2PAppContext;
 import net.i2p.util.Log;
@@ -30,7 +31,7 @@ public class StatManager {
     /** stat name to RateStat */
     private final ConcurrentHashMap<String, RateStat> _rateStats;
 
-    private int coalesceCounter;
+    private final AtomicInteger coalesceCounter = new AtomicInteger();
     /** every this many minutes for frequencies */
     private static final int FREQ_COALESCE_RATE = 9;
 
@@ -154,8 +155,12 @@ public class StatManager {
                 _log.debug("Invalid rate stat : " + name);
     }
 
-    public synchronized void coalesceStats() {
-        if (++coalesceCounter % FREQ_COALESCE_RATE == 0) {
+    /**
+     * Not synchronized as of 0.9.71. Each Rate coalesces under its own lock,
+     * and addRateData() never takes that lock, so there is nothing to hold off.
+     */
+    public void coalesceStats() {
+        if (coalesceCounter.incrementAndGet() % FREQ_COALESCE_RATE == 0) {
                 for (FrequencyStat stat : _frequencyStats.values()) {
                     if (stat != null) {
                         stat.coalesceStats();
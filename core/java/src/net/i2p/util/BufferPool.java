@@ -0,0 +1,595 @@
+package net.i2p.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.i2p.I2PAppContext;
+import net.i2p.stat.StatManager;
+
+/**
+ * Router-wide pool of fixed-size buffers, one pool per name and size class.
+ * ByteCache, SimpleByteCache, and the NTCP and streaming buffer caches are built on this.
+ *<p>
+ * Each pool has a small per-thread magazine for buffers up to 8 KB,
+ * so the common acquire-and-release on one thread takes no shared lock,
+ * and a shared depot that threads exchange buffers through,
+ * for example when one thread reads into a buffer and another releases it.
+ * Like TryCache, the depot is never waited for; if the lock is busy,
+ * acquire() allocates and release() lets the buffer go.
+ *<p>
+ * The bytes held in all depots and magazines are limited by a global budget.
+ * The magazine total is counted by the cleaner, so it lags by up to
+ * CLEANUP_FREQUENCY, and the cleaner empties the magazines of threads
+ * that have not used the pool since its last run.
+ * Each pool reports its usage in the stats
+ * bufferPool.(name).inUse (acquired and not yet released),
+ * bufferPool.(name).pooled (depot and magazines),
+ * and bufferPool.(name).allocated (cache misses).
+ * A pool whose inUse keeps growing has a caller that does not release.
+ *<p>
+ * Leak tracking, enabled with the system property i2p.bufferPool.trackLeaks=true,
+ * records where each buffer was acquired and logs that location
+ * for buffers garbage collected without being released,
+ * and for buffers released twice or released to the wrong pool.
+ * It is expensive, for debugging only.
+ *<p>
+ * The pool does not clear or zero buffers; callers reset them as required.
+ * The entries are never resized, so callers may rely on the exact length.
+ *<p>
+ * Warning, the cleaner runs on SimpleTimer2, so it will
+ * not operate after a restart on Android, as the old context's SimpleTimer2 will have shut down.
+ *
+ * @since 0.9.71
+ */
+public final class BufferPool<T> {
+
+    private static final Map<String, BufferPool<?>> _pools = new ConcurrentHashMap<String, BufferPool<?>>(32);
+
+    /**
+     *  Max bytes in all the depots and magazines.
+     *  Set to max memory / 32, with a min of 2MB and a max of 32MB
+     */
+    private static final long MAX_POOLED;
+    static {
+        long maxMemory = SystemVersion.getMaxMemory();
+        MAX_POOLED = Math.min(32*1024*1024l, Math.max(2*1024*1024l, maxMemory / 32));
+    }
+    /** in the depots */
+    private static final AtomicLong _pooledBytes = new AtomicLong();
+    /** in the magazines, as of the last cleanup */
+    private static volatile long _magazineTotal;
+    /** synch on _pools */
+    private static boolean _cleanerStarted;
+
+    public static final String PROP_TRACK_LEAKS = "i2p.bufferPool.trackLeaks";
+    private static volatile boolean _trackLeaks = Boolean.getBoolean(PROP_TRACK_LEAKS);
+    private static final ReferenceQueue<Object> _leakQueue = new ReferenceQueue<Object>();
+    /** value is the key, so a lookup by identity finds the acquire site */
+    private static final Map<LeakRef, LeakRef> _tracked = new ConcurrentHashMap<LeakRef, LeakRef>();
+
+    /** max entries in a per-thread magazine */
+    private static final int MAX_MAGAZINE = 8;
+    /** max bytes in a per-thread magazine; larger buffers go straight to the depot */
+    private static final int MAX_MAGAZINE_BYTES = 16*1024;
+    private static final int CLEANUP_FREQUENCY = 33*1000;
+    /** if a depot hasn't underflowed in 2 minutes, cut it in half */
+    private static final long EXPIRE_PERIOD = 2*60*1000;
+    private static final long[] RATES = { 60*1000, 10*60*1000 };
+    private static final String STAT_POOLED = "bufferPool.pooled";
+
+    private final String _name;
+    private final int _entrySize;
+    private final TryCache.ObjectFactory<T> _factory;
+    private final int _magazineSize;
+    private final ThreadLocal<Magazine> _magazines;
+    /** every thread's magazine, for cleanup, weak so they go away with the thread */
+    private final Queue<WeakReference<Magazine>> _allMagazines;
+    /** as of the last cleanup */
+    private volatile long _magazineBytes;
+    /** max entries in the depot */
+    private final int _capacity;
+    /** the depot, a stack, locked by _lock */
+    private final Object[] _depot;
+    private int _depotCount;
+    private final Lock _lock = new ReentrantLock();
+    private long _lastUnderflow;
+    private final LongAdder _acquired = new LongAdder();
+    private final LongAdder _released = new LongAdder();
+    private final LongAdder _allocated = new LongAdder();
+    private final LongAdder _leaked = new LongAdder();
+    private final String _statInUse, _statPooled, _statAllocated;
+
+    /**
+     *  Get the pool of byte arrays of exactly the given size,
+     *  creating it if necessary.
+     *
+     *  @param name for stats, should include the size to keep it unique
+     *  @param size the length of the arrays
+     *  @param capacity max number of arrays in the shared depot
+     *  @throws IllegalArgumentException if the name is in use with a different size
+     */
+    public static BufferPool<byte[]> getByteArrayPool(String name, final int size, int capacity) {
+        return getPool(name, size, capacity, new TryCache.ObjectFactory<byte[]>() {
+            public byte[] newInstance() {
+                return new byte[size];
+            }
+        });
+    }
+
+    /**
+     *  Get the pool of ByteBuffers of exactly the given capacity,
+     *  creating it if necessary.
+     *
+     *  @param name for stats, should include the size to keep it unique
+     *  @param size the capacity of the buffers
+     *  @param capacity max number of buffers in the shared depot
+     *  @param direct allocate direct buffers
+     *  @throws IllegalArgumentException if the name is in use with a different size
+     */
+    public static BufferPool<ByteBuffer> getByteBufferPool(String name, final int size, int capacity,
+                                                           final boolean direct) {
+        return getPool(name, size, capacity, new TryCache.ObjectFactory<ByteBuffer>() {
+            public ByteBuffer newInstance() {
+                return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+            }
+        });
+    }
+
+    /**
+     *  Get the named pool, creating it if necessary.
+     *  The factory and capacity are ignored if it already exists.
+     *
+     *  @param name for stats, should include the size to keep it unique
+     *  @param size the size in bytes of each item, for accounting
+     *  @param capacity max number of items in the shared depot
+     *  @param factory makes new items of the given size
+     *  @throws IllegalArgumentException if the name is in use with a different size
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BufferPool<T> getPool(String name, int size, int capacity, TryCache.ObjectFactory<T> factory) {
+        BufferPool<?> rv = _pools.get(name);
+        if (rv == null) {
+            synchronized(_pools) {
+                rv = _pools.get(name);
+                if (rv == null) {
+                    rv = new BufferPool<T>(name, size, capacity, factory);
+                    _pools.put(name, rv);
+                    if (!_cleanerStarted) {
+                        SimpleTimer2.getInstance().addPeriodicEvent(new Cleanup(), CLEANUP_FREQUENCY);
+                        _cleanerStarted = true;
+                    }
+                }
+            }
+        }
+        if (rv._entrySize != size)
+            throw new IllegalArgumentException("Pool " + name + " has size " + rv._entrySize + ", not " + size);
+        return (BufferPool<T>) rv;
+    }
+
+    /**
+     *  Clear all depots and magazines (memory pressure)
+     */
+    public static void clearAll() {
+        for (BufferPool<?> pool : _pools.values()) {
+            pool.clear();
+        }
+    }
+
+    /**
+     *  @return the bytes in all the shared depots, not including the per-thread magazines
+     */
+    public static long getPooledBytes() {
+        return _pooledBytes.get();
+    }
+
+    /**
+     *  @return the limit for getPooledBytes()
+     */
+    public static long getMaxPooledBytes() {
+        return MAX_POOLED;
+    }
+
+    private BufferPool(String name, int size, int capacity, TryCache.ObjectFactory<T> factory) {
+        if (size <= 0 || capacity < 0)
+            throw new IllegalArgumentException();
+        _name = name;
+        _entrySize = size;
+        _factory = factory;
+        _capacity = capacity;
+        _depot = new Object[capacity];
+        _magazineSize = size > MAX_MAGAZINE_BYTES / 2 ? 0 : Math.min(MAX_MAGAZINE, MAX_MAGAZINE_BYTES / size);
+        if (_magazineSize > 0) {
+            _allMagazines = new ConcurrentLinkedQueue<WeakReference<Magazine>>();
+            _magazines = new ThreadLocal<Magazine>() {
+                @Override
+                protected Magazine initialValue() {
+                    Magazine rv = new Magazine(_magazineSize);
+                    _allMagazines.add(new WeakReference<Magazine>(rv));
+                    return rv;
+                }
+            };
+        } else {
+            _magazines = null;
+            _allMagazines = null;
+        }
+        _statInUse = "bufferPool." + name + ".inUse";
+        _statPooled = "bufferPool." + name + ".pooled";
+        _statAllocated = "bufferPool." + name + ".allocated";
+        StatManager sm = I2PAppContext.getGlobalContext().statManager();
+        sm.createRateStat(_statInUse, "Bytes acquired and not released", "Router", RATES);
+        sm.createRateStat(_statPooled, "Bytes cached for reuse", "Router", RATES);
+        sm.createRateStat(_statAllocated, "Bytes allocated (cache miss)", "Router", RATES);
+        sm.createRateStat(STAT_POOLED, "Bytes cached in all buffer pools", "Router", RATES);
+    }
+
+    /**
+     *  @return the size in bytes of each item
+     */
+    public int getEntrySize() {
+        return _entrySize;
+    }
+
+    /**
+     *  @return a cached or newly created item
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        T rv = null;
+        if (_magazineSize > 0) {
+            // only contended while the cleaner is on it
+            Magazine mag = _magazines.get();
+            synchronized(mag) {
+                mag.used = true;
+                if (mag.count == 0)
+                    refill(mag);
+                if (mag.count > 0) {
+                    rv = (T) mag.items[--mag.count];
+                    mag.items[mag.count] = null;
+                }
+            }
+        } else {
+            rv = fromDepot();
+        }
+        if (rv == null) {
+            rv = _factory.newInstance();
+            _allocated.increment();
+        }
+        _acquired.increment();
+        if (_trackLeaks) {
+            LeakRef ref = new LeakRef(rv, this, new Exception("acquired from " + _name), _leakQueue);
+            _tracked.put(ref, ref);
+        }
+        return rv;
+    }
+
+    /**
+     *  Return an item for reuse.
+     *  It must not be used again by the caller.
+     *  The pool may keep it or let it be garbage collected.
+     *
+     *  @param item must be from acquire() on this pool, null ignored
+     */
+    public void release(T item) {
+        if (item == null)
+            return;
+        _released.increment();
+        if (_trackLeaks && !untrack(item))
+            return;
+        if (_magazineSize > 0) {
+            Magazine mag = _magazines.get();
+            synchronized(mag) {
+                mag.used = true;
+                if (mag.count >= _magazineSize)
+                    flush(mag);
+                if (mag.count < _magazineSize && !isOverBudget())
+                    mag.items[mag.count++] = item;
+            }
+        } else {
+            toDepot(item);
+        }
+    }
+
+    /**
+     *  Clear the depot and the magazines of all threads.
+     *  This and the cleaner are the only callers that block until they acquire the locks.
+     */
+    public void clear() {
+        _lock.lock();
+        try {
+            _pooledBytes.addAndGet(-_depotCount * (long) _entrySize);
+            for (int i = 0; i < _depotCount; i++) {
+                _depot[i] = null;
+            }
+            _depotCount = 0;
+        } finally {
+            _lock.unlock();
+        }
+        if (_magazineSize > 0)
+            trimMagazines(true);
+    }
+
+    /////// private below here
+
+    /**
+     *  Approximate, the magazine total is from the last cleanup
+     */
+    private static boolean isOverBudget() {
+        return _pooledBytes.get() + _magazineTotal > MAX_POOLED;
+    }
+
+    /**
+     *  Empty the magazines not used since the last call, or all of them,
+     *  and forget those of threads that are gone.
+     *  Package private for testing.
+     *
+     *  @param all empty all magazines, not just the idle ones
+     *  @return the bytes left in the magazines
+     */
+    long trimMagazines(boolean all) {
+        if (_magazineSize <= 0)
+            return 0;
+        long rv = 0;
+        for (Iterator<WeakReference<Magazine>> iter = _allMagazines.iterator(); iter.hasNext(); ) {
+            Magazine mag = iter.next().get();
+            if (mag == null) {
+                iter.remove();
+                continue;
+            }
+            synchronized(mag) {
+                if (all || !mag.used) {
+                    for (int i = 0; i < mag.count; i++) {
+                        mag.items[i] = null;
+                    }
+                    mag.count = 0;
+                }
+                mag.used = false;
+                rv += mag.count;
+            }
+        }
+        rv *= _entrySize;
+        _magazineBytes = rv;
+        return rv;
+    }
+
+    /**
+     *  Move up to half a magazine from the depot.
+     *  Caller must synch on mag.
+     */
+    private void refill(Magazine mag) {
+        if (!_lock.tryLock())
+            return;
+        try {
+            int n = Math.min(_depotCount, Math.max(1, _magazineSize / 2));
+            if (n == 0) {
+                _lastUnderflow = System.currentTimeMillis();
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                mag.items[mag.count++] = _depot[--_depotCount];
+                _depot[_depotCount] = null;
+            }
+            _pooledBytes.addAndGet(-n * (long) _entrySize);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     *  Move half of a full magazine to the depot, or as many as fit.
+     *  If the depot is busy, leave the magazine full.
+     *  Caller must synch on mag.
+     */
+    private void flush(Magazine mag) {
+        if (!_lock.tryLock())
+            return;
+        try {
+            int n = Math.max(1, _magazineSize / 2);
+            for (int i = 0; i < n; i++) {
+                Object item = mag.items[--mag.count];
+                mag.items[mag.count] = null;
+                pushLocked(item);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T fromDepot() {
+        if (!_lock.tryLock())
+            return null;
+        try {
+            if (_depotCount == 0) {
+                _lastUnderflow = System.currentTimeMillis();
+                return null;
+            }
+            T rv = (T) _depot[--_depotCount];
+            _depot[_depotCount] = null;
+            _pooledBytes.addAndGet(-_entrySize);
+            return rv;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void toDepot(T item) {
+        if (!_lock.tryLock())
+            return;
+        try {
+            pushLocked(item);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     *  Caller must hold _lock. Drops the item if the depot or the budget is full.
+     */
+    private void pushLocked(Object item) {
+        if (_depotCount >= _capacity)
+            return;
+        if (_pooledBytes.addAndGet(_entrySize) + _magazineTotal > MAX_POOLED) {
+            _pooledBytes.addAndGet(-_entrySize);
+            return;
+        }
+        _depot[_depotCount++] = item;
+    }
+
+    /**
+     *  Cut the depot in half if it hasn't underflowed recently
+     */
+    private void trim(long now) {
+        _lock.lock();
+        try {
+            if (_depotCount > 1 && now - _lastUnderflow > EXPIRE_PERIOD) {
+                int toRemove = _depotCount / 2;
+                for (int i = 0; i < toRemove; i++) {
+                    _depot[--_depotCount] = null;
+                }
+                _pooledBytes.addAndGet(-toRemove * (long) _entrySize);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void addRateData(StatManager sm) {
+        long inUse = _acquired.sum() - _released.sum();
+        sm.addRateData(_statInUse, Math.max(0, inUse) * _entrySize);
+        sm.addRateData(_statPooled, (_depotCount * (long) _entrySize) + _magazineBytes);
+        sm.addRateData(_statAllocated, _allocated.sumThenReset() * _entrySize);
+    }
+
+    /**
+     *  @return false if it was not acquired from this pool or already released
+     */
+    private boolean untrack(T item) {
+        LeakRef ref = _tracked.remove(new LeakRef(item, null, null, null));
+        if (ref != null) {
+            if (ref.pool == this)
+                return true;
+            log().error("Buffer from " + ref.pool._name + " released to " + _name, ref.site);
+            return false;
+        }
+        log().error("Buffer released to " + _name + " was not acquired or was already released",
+                    new Exception("released"));
+        return false;
+    }
+
+    /**
+     *  Log buffers that were garbage collected without being released.
+     *
+     *  @return the number found
+     */
+    static int checkLeaks() {
+        int rv = 0;
+        LeakRef ref;
+        while ((ref = (LeakRef) _leakQueue.poll()) != null) {
+            if (_tracked.remove(ref) != null) {
+                ref.pool._leaked.increment();
+                log().error("Buffer from " + ref.pool._name + " was never released", ref.site);
+                rv++;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  For testing. Buffers acquired while disabled will be reported
+     *  as not acquired if released while enabled.
+     */
+    static void setTrackLeaks(boolean yes) {
+        _trackLeaks = yes;
+        if (!yes)
+            _tracked.clear();
+    }
+
+    /**
+     *  For testing.
+     *  @return the number of buffers from this pool garbage collected without being released
+     */
+    long getLeaked() {
+        return _leaked.sum();
+    }
+
+    private static Log log() {
+        return I2PAppContext.getGlobalContext().logManager().getLog(BufferPool.class);
+    }
+
+    /**
+     *  A thread's cache for one pool.
+     *  Accessed by that thread and by the cleaner, synch on it.
+     */
+    private static class Magazine {
+        final Object[] items;
+        int count;
+        /** since the last cleanup */
+        boolean used;
+
+        Magazine(int size) {
+            items = new Object[size];
+        }
+    }
+
+    /**
+     *  Where a tracked buffer was acquired.
+     *  Equal if they refer to the same buffer, by identity.
+     */
+    private static class LeakRef extends WeakReference<Object> {
+        private final int _hash;
+        final BufferPool<?> pool;
+        final Exception site;
+
+        LeakRef(Object o, BufferPool<?> pool, Exception site, ReferenceQueue<Object> queue) {
+            super(o, queue);
+            _hash = System.identityHashCode(o);
+            this.pool = pool;
+            this.site = site;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof LeakRef))
+                return false;
+            LeakRef r = (LeakRef) o;
+            if (r._hash != _hash)
+                return false;
+            Object referent = get();
+            return referent != null && referent == r.get();
+        }
+    }
+
+    private static class Cleanup implements SimpleTimer.TimedEvent {
+        public void timeReached() {
+            long now = System.currentTimeMillis();
+            StatManager sm = I2PAppContext.getGlobalContext().statManager();
+            long mags = 0;
+            for (BufferPool<?> pool : _pools.values()) {
+                pool.trim(now);
+                mags += pool.trimMagazines(false);
+                pool.addRateData(sm);
+            }
+            _magazineTotal = mags;
+            sm.addRateData(STAT_POOLED, _pooledBytes.get() + mags);
+            if (_trackLeaks)
+                checkLeaks();
+        }
+    }
+}
@@ -47,6 +47,10 @@ import net.i2p.data.ByteArray;
 	64K	64	4M	UDP MessageReceiver - disabled in 0.7.14
  *  </pre>
  *
+ * Since 0.9.71, the arrays are held in a BufferPool named byteCache.(size),
+ * see that class for the memory budget, stats, and leak tracking.
+ * This class extends TryCache for compatibility only.
+ *
  */
 public final class ByteCache extends TryCache<ByteArray> {
 
@@ -67,9 +71,6 @@ public final class ByteCache extends TryCache<ByteArray> {
 
     /**
      * Get a cache responsible for objects of the given size.
-     * Warning, if you store the result in a static field, the cleaners will
-     * not operate after a restart on Android, as the old context's SimpleTimer2 will have shut down.
-     * TODO tie this to the context or clean up all calls.
      *
      * @param cacheSize how large we want the cache to grow 
      *                  (number of objects, NOT memory size)
@@ -97,6 +98,9 @@ public final class ByteCache extends TryCache<ByteArray> {
 
     /**
      *  Clear everything (memory pressure)
+     *  As of 0.9.71, clears the shared depots and the per-thread magazines
+     *  of the ByteCache pools only, use BufferPool.clearAll() to clear all pools.
+     *
      *  @since 0.7.14
      */
     public static void clearAll() {
@@ -106,11 +110,8 @@ public final class ByteCache extends TryCache<ByteArray> {
     }
 
     private final int _entrySize;
-    
-    /** how often do we cleanup the cache */
-    private static final int CLEANUP_FREQUENCY = 33*1000;
-    /** if we haven't exceeded the cache size in 2 minutes, cut our cache in half */
-    private static final long EXPIRE_PERIOD = 2*60*1000;
+    /** @since 0.9.71 */
+    private final BufferPool<ByteArray> _pool;
     
     /** @since 0.9.36 */
     private static class ByteArrayFactory implements TryCache.ObjectFactory<ByteArray> {
@@ -129,16 +130,26 @@ public final class ByteCache extends TryCache<ByteArray> {
     }
 
     private ByteCache(int maxCachedEntries, int entrySize) {
-        super(new ByteArrayFactory(entrySize), maxCachedEntries);
+        // the superclass holds nothing
+        super(null, 0);
         _entrySize = entrySize;
-        int stagger = SystemVersion.isAndroid() ? 0 : (entrySize % 777);
-        SimpleTimer2.getInstance().addPeriodicEvent(new Cleanup(), CLEANUP_FREQUENCY + stagger);
-        I2PAppContext.getGlobalContext().statManager().createRateStat("byteCache.memory." + entrySize, "Memory usage (B)", "Router", new long[] { 10*60*1000 });
+        _pool = BufferPool.getPool("byteCache." + entrySize, entrySize, maxCachedEntries,
+                                   new ByteArrayFactory(entrySize));
     }
     
     private void resize(int maxCachedEntries) {
         // disabled since we're now extending TryCache
     }
+
+    /**
+     * Get the next available structure, either from the cache or a brand new one
+     *
+     * @since 0.9.71 overridden to use the BufferPool
+     */
+    @Override
+    public final ByteArray acquire() {
+        return _pool.acquire();
+    }
     
     /**
      * Put this structure back onto the available cache for reuse
@@ -163,32 +174,16 @@ public final class ByteCache extends TryCache<ByteArray> {
          
         if (shouldZero)
             Arrays.fill(entry.getData(), (byte)0x0);
-        super.release(entry);
+        _pool.release(entry);
     }
 
-    private class Cleanup implements SimpleTimer.TimedEvent {
-        public void timeReached() {
-            int origsz;
-            lock.lock();
-            try {
-                origsz = items.size();
-                if (origsz > 1 && System.currentTimeMillis() - _lastUnderflow > EXPIRE_PERIOD) {
-                    // we haven't exceeded the cache size in a few minutes, so lets
-                    // shrink the cache 
-                    int toRemove = origsz / 2;
-                    for (int i = 0; i < toRemove; i++) {
-                        items.remove(items.size() - 1);
-                    }
-                }
-            } finally {
-                lock.unlock();
-            }
-            I2PAppContext.getGlobalContext().statManager().addRateData("byteCache.memory." + _entrySize, _entrySize * origsz);
-        }
-
-        @Override
-        public String toString() {
-            return "Cleaner for " + _entrySize + " byte cache";
-        }
+    /**
+     * Clears the shared cache and the per-thread magazines.
+     *
+     * @since 0.9.71 overridden to use the BufferPool
+     */
+    @Override
+    public void clear() {
+        _pool.clear();
     }
 }
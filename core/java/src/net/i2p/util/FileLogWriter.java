@@ -27,6 +27,9 @@ import net.i2p.data.DataHelper;
  * File-based log writer thread that pulls log records from the LogManager,
  * writes them to the current logfile, and rotates the logs as necessary.
  *
+ * As of 0.9.71, formatted records are collected and written
+ * in batches of about BATCH_SIZE chars, and at each flush.
+ *
  * @since 0.9.26 moved from LogWriter
  */
 class FileLogWriter extends LogWriter {
@@ -39,6 +42,12 @@ class FileLogWriter extends LogWriter {
     private static final int MAX_DISKFULL_MESSAGES = 8;
     private int _diskFullMessageCount;
 
+    private static final int BATCH_SIZE = 16*1024;
+    /** formatted, not yet written. LOCKING: this */
+    private final StringBuilder _pending = new StringBuilder(BATCH_SIZE + 1024);
+    /** LOCKING: this */
+    private char[] _chars = new char[BATCH_SIZE + 1024];
+
     public FileLogWriter(LogManager manager) {
         super(manager);
     }
@@ -62,16 +71,37 @@ class FileLogWriter extends LogWriter {
 
     protected synchronized void writeRecord(int priority, String val) {
         if (val == null) return;
+        _pending.append(val);
+        if (_pending.length() >= BATCH_SIZE)
+            writePending();
+    }
+
+    /**
+     *  Write out the pending batch with a single call.
+     *  Caller must synch
+     *
+     *  @since 0.9.71
+     */
+    private void writePending() {
+        int len = _pending.length();
+        if (len == 0)
+            return;
         if (_currentOut == null) {
             rotateFile();
-            if (_currentOut == null)
+            if (_currentOut == null) {
+                _pending.setLength(0);
                 return; // hosed
+            }
         }
 
+        if (_chars.length < len)
+            _chars = new char[len];
+        _pending.getChars(0, len, _chars, 0);
+        _pending.setLength(0);
         try {
-            _currentOut.write(val);
+            _currentOut.write(_chars, 0, len);
             // may be a little off if a lot of multi-byte chars, but unlikely
-            _numBytesInCurrentFile += val.length();
+            _numBytesInCurrentFile += len;
         } catch (Throwable t) {
             if (!_write)
                 return;
@@ -87,7 +117,8 @@ class FileLogWriter extends LogWriter {
     /**
      *  @since 0.9.19
      */
-    protected void flushWriter() {
+    protected synchronized void flushWriter() {
+        writePending();
         try {
             if (_currentOut != null)
                 _currentOut.flush();
@@ -101,6 +132,9 @@ class FileLogWriter extends LogWriter {
      *  @since 0.9.19 renamed from closeFile()
      */
     protected void closeWriter() {
+        synchronized(this) {
+            writePending();
+        }
         closeWriter(_currentFile, false);
     }
 
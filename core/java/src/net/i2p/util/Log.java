@@ -118,6 +118,25 @@ public class Log {
         }
     }
 
+    /**
+     *  Parameterized. The message is only built if it will be logged,
+     *  and then in the log writer thread, not the caller's.
+     *  Each {} in fmt is replaced by the String value of the next arg.
+     *
+     *  The args are not copied. They must not change after the call,
+     *  and their toString() must be thread safe.
+     *  To log a Throwable, use log(priority, msg, t).
+     *
+     *  @since 0.9.71
+     */
+    public void log(int priority, String fmt, Object... args) {
+        if (priority >= _minPriority) {
+            _manager.addRecord(new LogRecord(_class, _name,
+                                             Thread.currentThread().getName(), priority,
+                                             fmt, args, null));
+        }
+    }
+
     /**
      *  Always log this messge with the given priority, ignoring current minimum priority level.
      *  This allows an INFO message about changing port numbers, for example, to always be logged.
@@ -137,6 +156,32 @@ public class Log {
         log(DEBUG, msg, t);
     }
 
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void debug(String fmt, Object arg) {
+        if (DEBUG >= _minPriority)
+            log(DEBUG, fmt, new Object[] { arg });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void debug(String fmt, Object arg1, Object arg2) {
+        if (DEBUG >= _minPriority)
+            log(DEBUG, fmt, new Object[] { arg1, arg2 });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void debug(String fmt, Object... args) {
+        log(DEBUG, fmt, args);
+    }
+
     public void info(String msg) {
         log(INFO, msg);
     }
@@ -145,6 +190,32 @@ public class Log {
         log(INFO, msg, t);
     }
 
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void info(String fmt, Object arg) {
+        if (INFO >= _minPriority)
+            log(INFO, fmt, new Object[] { arg });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void info(String fmt, Object arg1, Object arg2) {
+        if (INFO >= _minPriority)
+            log(INFO, fmt, new Object[] { arg1, arg2 });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void info(String fmt, Object... args) {
+        log(INFO, fmt, args);
+    }
+
     public void warn(String msg) {
         log(WARN, msg);
     }
@@ -153,6 +224,32 @@ public class Log {
         log(WARN, msg, t);
     }
 
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void warn(String fmt, Object arg) {
+        if (WARN >= _minPriority)
+            log(WARN, fmt, new Object[] { arg });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void warn(String fmt, Object arg1, Object arg2) {
+        if (WARN >= _minPriority)
+            log(WARN, fmt, new Object[] { arg1, arg2 });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void warn(String fmt, Object... args) {
+        log(WARN, fmt, args);
+    }
+
     public void error(String msg) {
         log(ERROR, msg);
     }
@@ -161,6 +258,32 @@ public class Log {
         log(ERROR, msg, t);
     }
 
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void error(String fmt, Object arg) {
+        if (ERROR >= _minPriority)
+            log(ERROR, fmt, new Object[] { arg });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void error(String fmt, Object arg1, Object arg2) {
+        if (ERROR >= _minPriority)
+            log(ERROR, fmt, new Object[] { arg1, arg2 });
+    }
+
+    /**
+     *  Parameterized, see log(int, String, Object...)
+     *  @since 0.9.71
+     */
+    public void error(String fmt, Object... args) {
+        log(ERROR, fmt, args);
+    }
+
     public int getMinimumPriority() {
         return _minPriority;
     }
@@ -22,10 +22,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -101,7 +99,7 @@ public class LogManager implements Flushable {
     /** max to LogRecords to buffer in memory before we start blocking */
     private static final int MAX_BUFFER = 1024;
     /** Ordered list of LogRecord elements that have not been written out yet */
-    private final LinkedBlockingQueue<LogRecord> _records;
+    private final LogRingBuffer _records;
     /** List of explicit overrides of log levels (LogLimit objects) */
     private final Set<LogLimit> _limits;
     /** String (scope) or Log.LogScope to Log object */
@@ -157,7 +155,7 @@ public class LogManager implements Flushable {
         _log = getLog(LogManager.class);
         String location = context.getProperty(CONFIG_LOCATION_PROP, CONFIG_LOCATION_DEFAULT);
         setConfig(location);
-        _records = new LinkedBlockingQueue<LogRecord>(_logBufferSize);
+        _records = new LogRingBuffer(_logBufferSize);
         _consoleBuffer = new LogConsoleBuffer(_consoleBufferSize);
         // If we aren't in the router context, delay creating the LogWriter until required,
         // so it doesn't create a log directory and log files unless there is output.
@@ -319,19 +317,25 @@ public class LogManager implements Flushable {
         boolean success = _records.offer(record);
         if (!success) {
             if (_dropOnOverflow) {
-                // TODO use the counter in a periodic drop msg
+                // the LogWriter reports these
                 _droppedRecords.incrementAndGet();
                 return;
             }
-            // the writer waits 10 seconds *or* until we tell them to wake up
-            // before rereading the config and writing out any log messages
-            synchronized (_writer) {
-                _writer.notifyAll();
-            }
             // block as a way of slowing down out-of-control loggers (a little)
-            try {
-                _records.put(record);
-            } catch (InterruptedException ie) {}
+            do {
+                // the writer waits 10 seconds *or* until we tell them to wake up
+                // before rereading the config and writing out any log messages
+                synchronized (_writer) {
+                    _writer.notifyAll();
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                if (_shutdown)
+                    return;
+            } while (!_records.offer(record));
         } else if (_flushInterval <= 0) {
             synchronized (_writer) {
                 _writer.notifyAll();
@@ -773,10 +777,19 @@ public class LogManager implements Flushable {
      *  For the LogWriter
      *  @since 0.8.2
      */
-    Queue<LogRecord> getQueue() {
+    LogRingBuffer getQueue() {
         return _records;
     }
 
+    /**
+     *  Records dropped because the queue was full, since the last call.
+     *  For the LogWriter
+     *  @since 0.9.71
+     */
+    long getAndResetDroppedRecords() {
+        return _droppedRecords.getAndSet(0);
+    }
+
     public char[] getFormat() {
         return _format;
     }
@@ -19,16 +19,33 @@ class LogRecord {
     private final String _name;
     private final String _threadName;
     private final int _priority;
-    private final String _message;
+    /** the format until getMessage() is called, if _args is non-null */
+    private String _message;
+    /** null after formatting */
+    private Object[] _args;
     private final Throwable _throwable;
 
     public LogRecord(Class<?> src, String name, String threadName, int priority, String msg, Throwable t) {
+        this(src, name, threadName, priority, msg, null, t);
+    }
+
+    /**
+     *  The message is formatted on the first call to getMessage(),
+     *  generally in the LogWriter thread.
+     *
+     *  @param fmt each {} is replaced by the String value of the next arg
+     *  @param args may be null
+     *  @since 0.9.71
+     */
+    public LogRecord(Class<?> src, String name, String threadName, int priority,
+                     String fmt, Object[] args, Throwable t) {
         _date = Clock.getInstance().now();
         _source = src;
         _name = name;
         _threadName = threadName;
         _priority = priority;
-        _message = msg;
+        _message = fmt;
+        _args = args;
         _throwable = t;
     }
 
@@ -52,10 +69,41 @@ class LogRecord {
         return _priority;
     }
 
+    /**
+     *  Not thread safe, formats on the first call
+     */
     public String getMessage() {
+        if (_args != null) {
+            _message = format(_message, _args);
+            _args = null;
+        }
         return _message;
     }
 
+    /**
+     *  Replace each {} in fmt with the String value of the next arg.
+     *  Extra args are ignored, extra {} are left in place.
+     *
+     *  @since 0.9.71
+     */
+    static String format(String fmt, Object[] args) {
+        if (fmt == null)
+            return null;
+        int idx = fmt.indexOf("{}");
+        if (idx < 0)
+            return fmt;
+        StringBuilder buf = new StringBuilder(fmt.length() + 16 * args.length);
+        int start = 0;
+        for (int i = 0; i < args.length && idx >= 0; i++) {
+            buf.append(fmt, start, idx);
+            buf.append(args[i]);
+            start = idx + 2;
+            idx = fmt.indexOf("{}", start);
+        }
+        buf.append(fmt, start, fmt.length());
+        return buf.toString();
+    }
+
     public Throwable getThrowable() {
         return _throwable;
     }
@@ -72,17 +120,20 @@ class LogRecord {
         if (!(o instanceof LogRecord))
             return false;
         LogRecord r = (LogRecord) o;
+        String msg = getMessage();
+        String rmsg = r.getMessage();
         return _source == r._source &&
-               ((_message == null && r._message == null) ||
-                (_message != null && r._message != null &&
-                 ((_message.length() <= MATCH_LEN) ? _message.equals(r._message)
-                                                   : _message.regionMatches(0, r._message, 0, MATCH_LEN)))) &&
+               ((msg == null && rmsg == null) ||
+                (msg != null && rmsg != null &&
+                 ((msg.length() <= MATCH_LEN) ? msg.equals(rmsg)
+                                             : msg.regionMatches(0, rmsg, 0, MATCH_LEN)))) &&
                ((_throwable == null && r._throwable == null) ||
                 (_throwable != null && r._throwable != null && _throwable.getClass() == r._throwable.getClass()));
     }
 
     @Override
     public int hashCode() {
-        return _message != null ? _message.hashCode() : 0;
+        String msg = getMessage();
+        return msg != null ? msg.hashCode() : 0;
     }
 }
@@ -0,0 +1,112 @@
+package net.i2p.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, multi-producer multi-consumer queue of LogRecords,
+ * in a ring allocated up front.
+ * Replaces the LinkedBlockingQueue in LogManager, which took a lock
+ * and allocated a node for every record.
+ *
+ * Each slot has a sequence number that says whether it may be
+ * written (seq == position) or read (seq == position + 1),
+ * so producers and consumers only contend on their own counter.
+ * There is usually a single consumer, the LogWriter thread,
+ * but LogManager.shutdown() may also drain it.
+ *
+ * @since 0.9.71
+ */
+class LogRingBuffer {
+    private final int _mask;
+    private final AtomicReferenceArray<LogRecord> _slots;
+    private final AtomicLongArray _sequences;
+    /** next position to write */
+    private final AtomicLong _tail = new AtomicLong();
+    /** next position to read */
+    private final AtomicLong _head = new AtomicLong();
+
+    /**
+     *  @param capacity rounded up to a power of 2, min 2
+     */
+    public LogRingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        _mask = size - 1;
+        _slots = new AtomicReferenceArray<LogRecord>(size);
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            _sequences.set(i, i);
+        }
+    }
+
+    /**
+     *  @return false if full
+     */
+    public boolean offer(LogRecord rec) {
+        long pos = _tail.get();
+        while (true) {
+            int idx = (int) pos & _mask;
+            long diff = _sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (_tail.compareAndSet(pos, pos + 1)) {
+                    _slots.set(idx, rec);
+                    _sequences.set(idx, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // the consumer hasn't freed this slot from the last lap
+                return false;
+            }
+            pos = _tail.get();
+        }
+    }
+
+    /**
+     *  May return null while a producer has claimed the next slot
+     *  but not yet stored into it.
+     *
+     *  @return null if empty
+     */
+    public LogRecord poll() {
+        long pos = _head.get();
+        while (true) {
+            int idx = (int) pos & _mask;
+            long diff = _sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                if (_head.compareAndSet(pos, pos + 1)) {
+                    LogRecord rv = _slots.get(idx);
+                    _slots.set(idx, null);
+                    _sequences.set(idx, pos + _mask + 1);
+                    return rv;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+            pos = _head.get();
+        }
+    }
+
+    /**
+     *  Approximate if there are concurrent producers or consumers
+     */
+    public int size() {
+        long rv = _tail.get() - _head.get();
+        return (int) Math.max(0, Math.min(rv, _mask + 1));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return _mask + 1;
+    }
+
+    public void clear() {
+        while (poll() != null) {}
+    }
+}
@@ -9,8 +9,6 @@ package net.i2p.util;
  *
  */
 
-import java.util.Queue;
-
 import net.i2p.app.ClientAppManager;
 import net.i2p.app.NotificationService;
 
@@ -37,6 +35,8 @@ abstract class LogWriter implements Runnable {
     private long _firstTimestamp;
     // ms
     private volatile long _flushInterval = FLUSH_INTERVAL;
+    private boolean _droppedStatCreated;
+    private static final String DROPPED_STAT = "log.droppedRecords";
 
     public LogWriter(LogManager manager) {
         _manager = manager;
@@ -98,9 +98,16 @@ abstract class LogWriter implements Runnable {
     public void flushRecords(boolean shouldWait) {
         try {
             // zero copy, drain the manager queue directly
-            Queue<LogRecord> records = _manager.getQueue();
+            LogRingBuffer records = _manager.getQueue();
             if (records == null) return;
-            if (!records.isEmpty()) {
+            long dropped = _manager.getAndResetDroppedRecords();
+            if (dropped > 0)
+                writeDropMessage(dropped);
+            if (records.isEmpty()) {
+                // don't leave the drop message in a pending batch
+                if (dropped > 0)
+                    flushWriter();
+            } else {
                 if (_last != null && _firstTimestamp < _manager.getContext().clock().now() - 30*60*1000)
                     _last = null;
                 LogRecord rec;
@@ -152,6 +159,25 @@ abstract class LogWriter implements Runnable {
             _manager.getBuffer().addCritical(dmsg);
     }
 
+    /**
+     *  Log and count the records the manager dropped on overflow.
+     *  Don't use a Log here, see rereadConfig().
+     *
+     *  @since 0.9.71
+     */
+    private void writeDropMessage(long dropped) {
+        // not in the constructor, the stat manager may not exist yet
+        if (!_droppedStatCreated) {
+            _manager.getContext().statManager().createRequiredRateStat(DROPPED_STAT,
+                              "Log records dropped because the queue was full", "Router", new long[] { 60*60*1000 });
+            _droppedStatCreated = true;
+        }
+        _manager.getContext().statManager().addRateData(DROPPED_STAT, dropped);
+        String msg = ngettext("{0} log message dropped, queue full", "{0} log messages dropped, queue full",
+                              (int) Math.min(dropped, Integer.MAX_VALUE));
+        writeRecord(new LogRecord(LogManager.class, null, Thread.currentThread().getName(), Log.WARN, msg, null));
+    }
+
     /**
      *  Return a msg with the date stamp of the last duplicate
      *  @since 0.9.3
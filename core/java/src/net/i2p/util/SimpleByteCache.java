@@ -4,10 +4,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Like ByteCache but works directly with byte arrays, not ByteArrays.
- * These are designed to be small caches, so there's no cleaner task
- * like there is in ByteCache. And we don't zero out the arrays here.
+ * These are designed to be small caches. And we don't zero out the arrays here.
  * Only the static methods are public here.
  *
+ * Since 0.9.71, the arrays are held in a BufferPool named simpleByteCache.(size).
+ *
  * @since 0.8.3
  */
 public final class SimpleByteCache {
@@ -48,30 +49,19 @@ public final class SimpleByteCache {
 
     /**
      *  Clear everything (memory pressure)
+     *  As of 0.9.71, clears the shared depots and the per-thread magazines
+     *  of the SimpleByteCache pools only, use BufferPool.clearAll() to clear all pools.
      */
     public static void clearAll() {
         for (SimpleByteCache bc : _caches.values())
             bc.clear();
     }
 
-    private final TryCache<byte[]> _available;
+    private final BufferPool<byte[]> _available;
     private final int _entrySize;
     
-    /** @since 0.9.36 */
-    private static class ByteArrayFactory implements TryCache.ObjectFactory<byte[]> {
-        private final int sz;
-
-        ByteArrayFactory(int entrySize) {
-            sz = entrySize;
-        }
-
-        public byte[] newInstance() {
-            return new byte[sz];
-        }
-    }
-
     private SimpleByteCache(int maxCachedEntries, int entrySize) {
-        _available = new TryCache<byte[]>(new ByteArrayFactory(entrySize), maxCachedEntries);
+        _available = BufferPool.getByteArrayPool("simpleByteCache." + entrySize, entrySize, maxCachedEntries);
         _entrySize = entrySize;
     }
     
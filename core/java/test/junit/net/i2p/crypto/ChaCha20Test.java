@@ -0,0 +1,132 @@
+package net.i2p.crypto;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import net.i2p.data.DataHelper;
+import net.i2p.util.RandomSource;
+
+/**
+ * RFC 7539 vector, and the ByteBuffer methods against the array methods.
+ *
+ * @since 0.9.71
+ */
+public class ChaCha20Test extends TestCase {
+
+    private static final byte[] PLAINTEXT = DataHelper.getASCII("Ladies and Gentlemen of the class of '99: If I could offer you only one tip for the future, sunscreen would be it.");
+
+    // RFC 7539 section 2.4.2
+    private static final byte[] CIPHERTEXT = DataHelper.fromHexString(
+        "6e2e359a2568f98041ba0728dd0d6981" +
+        "e97e7aec1d4360c20a27afccfd9fae0b" +
+        "f91b65c5524733ab8f593dabcd62b357" +
+        "1639d624e65152ab8f530c359f0861d8" +
+        "07ca0dbf500d6a6156a38e088a22b65e" +
+        "52bc514d16ccf806818ce91ab7793736" +
+        "5af90bbf74a35be6b40b8eedf2785e42" +
+        "874d");
+
+    private static byte[] key() {
+        byte[] key = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            key[i] = (byte) i;
+        }
+        return key;
+    }
+
+    private static byte[] iv() {
+        byte[] iv = new byte[12];
+        iv[7] = 0x4a;
+        return iv;
+    }
+
+    public void testVector() {
+        byte[] out = new byte[PLAINTEXT.length];
+        ChaCha20.encrypt(key(), iv(), PLAINTEXT, 0, out, 0, PLAINTEXT.length);
+        assertTrue(Arrays.equals(CIPHERTEXT, out));
+        byte[] out2 = new byte[PLAINTEXT.length];
+        ChaCha20.decrypt(key(), iv(), out, 0, out2, 0, out.length);
+        assertTrue(Arrays.equals(PLAINTEXT, out2));
+        // again, in place, reusing the cached state
+        System.arraycopy(PLAINTEXT, 0, out, 0, PLAINTEXT.length);
+        ChaCha20.encrypt(key(), iv(), out, 0, out, 0, out.length);
+        assertTrue(Arrays.equals(CIPHERTEXT, out));
+    }
+
+    public void testIVOffset() {
+        byte[] iv = new byte[20];
+        System.arraycopy(iv(), 0, iv, 5, 12);
+        byte[] out = new byte[PLAINTEXT.length];
+        ChaCha20.encrypt(key(), iv, 5, PLAINTEXT, 0, out, 0, PLAINTEXT.length);
+        assertTrue(Arrays.equals(CIPHERTEXT, out));
+    }
+
+    public void testDirectBuffer() {
+        ByteBuffer src = ByteBuffer.allocateDirect(PLAINTEXT.length + 10);
+        src.position(3);
+        src.put(PLAINTEXT);
+        src.flip();
+        src.position(3);
+        ByteBuffer dst = ByteBuffer.allocateDirect(PLAINTEXT.length + 5);
+        dst.position(2);
+        ChaCha20.encrypt(key(), iv(), 0, src, dst);
+        assertEquals(0, src.remaining());
+        assertEquals(2 + CIPHERTEXT.length, dst.position());
+        byte[] out = new byte[CIPHERTEXT.length];
+        dst.position(2);
+        dst.get(out);
+        assertTrue(Arrays.equals(CIPHERTEXT, out));
+
+        // in place, same object
+        dst.position(2);
+        dst.limit(2 + CIPHERTEXT.length);
+        ChaCha20.decrypt(key(), iv(), 0, dst, dst);
+        assertEquals(dst.limit(), dst.position());
+        dst.position(2);
+        dst.get(out);
+        assertTrue(Arrays.equals(PLAINTEXT, out));
+    }
+
+    public void testBufferTooSmall() {
+        ByteBuffer src = ByteBuffer.wrap(PLAINTEXT);
+        ByteBuffer dst = ByteBuffer.allocate(PLAINTEXT.length - 1);
+        try {
+            ChaCha20.encrypt(key(), iv(), 0, src, dst);
+            fail("should overflow");
+        } catch (BufferOverflowException boe) {}
+        assertEquals(0, src.position());
+        assertEquals(0, dst.position());
+    }
+
+    /**
+     *  Lengths around the block size, arrays vs. heap and direct buffers
+     */
+    public void testLengths() {
+        RandomSource rand = RandomSource.getInstance();
+        byte[] key = new byte[32];
+        byte[] iv = new byte[12];
+        rand.nextBytes(key);
+        rand.nextBytes(iv);
+        int[] lengths = { 0, 1, 15, 63, 64, 65, 127, 128, 129, 1024, 1500 };
+        for (int len : lengths) {
+            byte[] pt = new byte[len];
+            rand.nextBytes(pt);
+            byte[] ct = new byte[len];
+            ChaCha20.encrypt(key, iv, pt, 0, ct, 0, len);
+            ByteBuffer heap = ByteBuffer.allocate(len);
+            ChaCha20.encrypt(key, iv, 0, ByteBuffer.wrap(pt), heap);
+            assertTrue(Arrays.equals(ct, heap.array()));
+            ByteBuffer direct = ByteBuffer.allocateDirect(len);
+            direct.put(pt);
+            direct.flip();
+            ChaCha20.encrypt(key, iv, 0, direct, direct);
+            direct.flip();
+            byte[] out = new byte[len];
+            direct.get(out);
+            assertTrue(Arrays.equals(ct, out));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package net.i2p.crypto.eddsa.math.ed25519;
+
+import static org.junit.Assert.*;
+
+import net.i2p.crypto.eddsa.math.FieldElement;
+import net.i2p.crypto.eddsa.math.MathUtils;
+
+import org.junit.Test;
+
+/**
+ * Checks Ed25519FieldOps against Ed25519FieldElement.
+ *
+ * @since 0.9.71
+ */
+public class Ed25519FieldOpsTest {
+
+    private static final int ITERATIONS = 1000;
+
+    private static int[] limbs(FieldElement f) {
+        return ((Ed25519FieldElement) f).t.clone();
+    }
+
+    private static void assertSame(FieldElement expected, int[] actual) {
+        byte[] b = new byte[32];
+        Ed25519FieldOps.toBytes(b, 0, actual);
+        assertArrayEquals(expected.toByteArray(), b);
+    }
+
+    @Test
+    public void testArithmetic() {
+        int[] h = new int[10];
+        for (int i = 0; i < ITERATIONS; i++) {
+            FieldElement f = MathUtils.getRandomFieldElement();
+            FieldElement g = MathUtils.getRandomFieldElement();
+            Ed25519FieldOps.mul(h, limbs(f), limbs(g));
+            assertSame(f.multiply(g), h);
+            Ed25519FieldOps.sq(h, limbs(f));
+            assertSame(f.square(), h);
+            Ed25519FieldOps.sq2(h, limbs(f));
+            assertSame(f.squareAndDouble(), h);
+            Ed25519FieldOps.add(h, limbs(f), limbs(g));
+            assertSame(f.add(g), h);
+            Ed25519FieldOps.sub(h, limbs(f), limbs(g));
+            assertSame(f.subtract(g), h);
+            Ed25519FieldOps.neg(h, limbs(f));
+            assertSame(f.negate(), h);
+        }
+    }
+
+    @Test
+    public void testInPlace() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            FieldElement f = MathUtils.getRandomFieldElement();
+            FieldElement g = MathUtils.getRandomFieldElement();
+            int[] h = limbs(f);
+            Ed25519FieldOps.mul(h, h, limbs(g));
+            assertSame(f.multiply(g), h);
+            h = limbs(f);
+            Ed25519FieldOps.sq(h, h);
+            assertSame(f.square(), h);
+        }
+    }
+
+    @Test
+    public void testInvertAndPow() {
+        int[] h = new int[10];
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            FieldElement f = MathUtils.getRandomFieldElement();
+            Ed25519FieldOps.invert(h, limbs(f));
+            assertSame(f.invert(), h);
+            Ed25519FieldOps.pow22523(h, limbs(f));
+            assertSame(f.pow22523(), h);
+        }
+    }
+
+    @Test
+    public void testEncoding() {
+        byte[] tmp = new byte[32];
+        int[] h = new int[10];
+        for (int i = 0; i < ITERATIONS; i++) {
+            FieldElement f = MathUtils.getRandomFieldElement();
+            byte[] b = f.toByteArray();
+            Ed25519FieldOps.fromBytes(h, b, 0);
+            assertSame(f, h);
+            assertEquals(f.isNegative(), Ed25519FieldOps.isNegative(h, tmp));
+            assertEquals(f.isNonZero(), Ed25519FieldOps.isNonZero(h, tmp));
+        }
+        Ed25519FieldOps.zero(h);
+        assertFalse(Ed25519FieldOps.isNonZero(h, tmp));
+    }
+}
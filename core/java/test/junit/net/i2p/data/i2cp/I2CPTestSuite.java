@@ -16,6 +16,7 @@ import org.junit.runner.RunWith;
     DisconnectMessageTest.class,
     GetBandwidthLimitsMessageTest.class,
     GetDateMessageTest.class,
+    I2CPWriteBufferTest.class,
     MessageIdTest.class,
     MessagePayloadMessageTest.class,
     MessageStatusMessageTest.class,
@@ -0,0 +1,118 @@
+package net.i2p.data.i2cp;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.data.Payload;
+
+import org.junit.Test;
+
+/**
+ * @since 0.9.71
+ */
+public class I2CPWriteBufferTest {
+
+    private static MessagePayloadMessage createMessage(int id, int size) {
+        MessagePayloadMessage msg = new MessagePayloadMessage();
+        msg.setSessionId(1);
+        msg.setMessageId(id);
+        Payload payload = new Payload();
+        byte[] data = new byte[size];
+        data[0] = (byte) id;
+        payload.setEncryptedData(data);
+        msg.setPayload(payload);
+        return msg;
+    }
+
+    /**
+     *  A batch goes out in one write and one flush,
+     *  or in more writes when it is over the max batch size,
+     *  and reads back the same.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        I2CPWriteBuffer buf = new I2CPWriteBuffer();
+        List<I2CPMessage> msgs = new ArrayList<I2CPMessage>();
+        for (int i = 0; i < 10; i++) {
+            msgs.add(createMessage(i, 1000));
+        }
+        buf.writeMessages(msgs, out);
+        assertEquals(1, out.writes);
+        assertEquals(1, out.flushes);
+        assertEquals(0, buf.size());
+        assertEquals(10 * (5 + 10 + 1000), out.size());
+
+        // 3 * 40 KB, written as 80 KB then 40 KB
+        msgs.clear();
+        for (int i = 10; i < 13; i++) {
+            msgs.add(createMessage(i, 40*1024));
+        }
+        buf.writeMessages(msgs, out);
+        assertEquals(3, out.writes);
+        assertEquals(2, out.flushes);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int i = 0; i < 13; i++) {
+            I2CPMessage msg = I2CPMessageHandler.readMessage(in);
+            assertTrue(msg instanceof MessagePayloadMessage);
+            MessagePayloadMessage mpm = (MessagePayloadMessage) msg;
+            assertEquals(i, mpm.getMessageId());
+            assertEquals(i < 10 ? 1000 : 40*1024, mpm.getPayload().getSize());
+            assertEquals((byte) i, mpm.getPayload().getEncryptedData()[0]);
+        }
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     *  A message that fails to serialize leaves nothing behind
+     */
+    @Test
+    public void testError() throws Exception {
+        I2CPWriteBuffer buf = new I2CPWriteBuffer();
+        buf.add(createMessage(1, 100));
+        int size = buf.size();
+        try {
+            buf.add(new MessagePayloadMessage());
+            fail("should have thrown");
+        } catch (I2CPMessageException ime) {}
+        assertEquals(size, buf.size());
+
+        List<I2CPMessage> msgs = new ArrayList<I2CPMessage>();
+        msgs.add(createMessage(2, 100));
+        msgs.add(new MessagePayloadMessage());
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            buf.writeMessages(msgs, out);
+            fail("should have thrown");
+        } catch (I2CPMessageException ime) {}
+        assertEquals(0, buf.size());
+        assertEquals(0, out.writes);
+    }
+
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        int writes, flushes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+        }
+    }
+}
@@ -75,4 +75,31 @@ public class RateStatTest extends TestCase {
         assertEquals(rs, loadedRs);
         
     }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final RateStat rs = new RateStat("test", "test concurrent adds", "tests", new long[] { 60 * 1000, 60 * 60 * 1000 });
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        rs.addData(2, 1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (long period : rs.getPeriods()) {
+            Rate r = rs.getRate(period);
+            assertEquals(80000, r.getCurrentEventCount());
+            assertEquals(160000.0, r.getCurrentTotalValue());
+            assertEquals(80000, r.getCurrentTotalEventTime());
+            assertEquals(80000, r.getLifetimeEventCount());
+        }
+        assertEquals(2.0, rs.getLifetimeAverageValue());
+    }
 }
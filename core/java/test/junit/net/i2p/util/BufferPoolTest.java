@@ -0,0 +1,156 @@
+package net.i2p.util;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import net.i2p.data.ByteArray;
+
+/**
+ * @since 0.9.71
+ */
+public class BufferPoolTest extends TestCase {
+
+    public void testReuse() {
+        BufferPool<byte[]> pool = BufferPool.getByteArrayPool("test.reuse.1024", 1024, 16);
+        assertSame(pool, BufferPool.getByteArrayPool("test.reuse.1024", 1024, 16));
+        assertEquals(1024, pool.getEntrySize());
+        byte[] a = pool.acquire();
+        byte[] b = pool.acquire();
+        assertEquals(1024, a.length);
+        assertNotSame(a, b);
+        pool.release(a);
+        pool.release(b);
+        // same thread, from the magazine, LIFO
+        assertSame(b, pool.acquire());
+        assertSame(a, pool.acquire());
+        assertNotSame(a, pool.acquire());
+    }
+
+    public void testSizeMismatch() {
+        BufferPool.getByteArrayPool("test.mismatch", 64, 4);
+        try {
+            BufferPool.getByteArrayPool("test.mismatch", 128, 4);
+            fail("should reject a different size");
+        } catch (IllegalArgumentException iae) {}
+    }
+
+    /**
+     *  Large buffers skip the magazine and go through the depot,
+     *  which is limited by its capacity.
+     */
+    public void testDepot() {
+        BufferPool<ByteBuffer> pool = BufferPool.getByteBufferPool("test.depot.32768", 32*1024, 2, false);
+        ByteBuffer[] bufs = new ByteBuffer[3];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = pool.acquire();
+            assertEquals(32*1024, bufs[i].capacity());
+        }
+        long before = BufferPool.getPooledBytes();
+        for (int i = 0; i < bufs.length; i++) {
+            pool.release(bufs[i]);
+        }
+        assertEquals(before + 2*32*1024, BufferPool.getPooledBytes());
+        assertSame(bufs[1], pool.acquire());
+        assertSame(bufs[0], pool.acquire());
+        assertNotSame(bufs[2], pool.acquire());
+        assertEquals(before, BufferPool.getPooledBytes());
+        pool.release(bufs[0]);
+        pool.clear();
+        assertEquals(before, BufferPool.getPooledBytes());
+    }
+
+    /**
+     *  Buffers released on one thread are available to another
+     */
+    public void testCrossThread() throws Exception {
+        final BufferPool<byte[]> pool = BufferPool.getByteArrayPool("test.cross.4096", 4096, 16);
+        final byte[][] bufs = new byte[8][];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = pool.acquire();
+        }
+        Thread t = new Thread() {
+            public void run() {
+                for (int i = 0; i < bufs.length; i++) {
+                    pool.release(bufs[i]);
+                }
+            }
+        };
+        t.start();
+        t.join();
+        byte[] b = pool.acquire();
+        boolean found = false;
+        for (int i = 0; i < bufs.length; i++) {
+            if (b == bufs[i])
+                found = true;
+        }
+        assertTrue(found);
+    }
+
+    /**
+     *  Magazines are emptied by clear(), and by the cleaner when idle
+     */
+    public void testMagazineTrim() {
+        BufferPool<byte[]> pool = BufferPool.getByteArrayPool("test.trim.2048", 2048, 16);
+        byte[] a = pool.acquire();
+        pool.release(a);
+        pool.clear();
+        assertNotSame(a, pool.acquire());
+
+        byte[] b = pool.acquire();
+        pool.release(b);
+        // used since the last run
+        assertEquals(2048, pool.trimMagazines(false));
+        assertSame(b, pool.acquire());
+        pool.release(b);
+        assertEquals(2048, pool.trimMagazines(false));
+        // idle
+        assertEquals(0, pool.trimMagazines(false));
+        assertNotSame(b, pool.acquire());
+    }
+
+    public void testByteCache() {
+        ByteCache cache = ByteCache.getInstance(8, 1000);
+        ByteArray ba = cache.acquire();
+        assertEquals(1000, ba.getData().length);
+        ba.getData()[0] = 1;
+        ba.setValid(100);
+        cache.release(ba);
+        ByteArray ba2 = cache.acquire();
+        assertSame(ba, ba2);
+        assertEquals(0, ba2.getValid());
+        assertEquals(0, ba2.getData()[0]);
+        byte[] b = SimpleByteCache.acquire(48);
+        assertEquals(48, b.length);
+        SimpleByteCache.release(b);
+        assertSame(b, SimpleByteCache.acquire(48));
+    }
+
+    public void testLeakTracking() throws Exception {
+        BufferPool<byte[]> pool = BufferPool.getByteArrayPool("test.leak.256", 256, 4);
+        BufferPool.setTrackLeaks(true);
+        try {
+            byte[] b = pool.acquire();
+            pool.release(b);
+            // double release is not pooled
+            pool.release(b);
+            byte[] c = pool.acquire();
+            assertSame(b, c);
+            assertNotSame(b, pool.acquire());
+            pool.release(c);
+            // foreign buffer is not pooled
+            pool.release(new byte[256]);
+            assertSame(c, pool.acquire());
+
+            pool.acquire();
+            for (int i = 0; i < 20 && pool.getLeaked() == 0; i++) {
+                System.gc();
+                Thread.sleep(50);
+                BufferPool.checkLeaks();
+            }
+            assertTrue(pool.getLeaked() > 0);
+        } finally {
+            BufferPool.setTrackLeaks(false);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package net.i2p.util;
+
+import junit.framework.TestCase;
+
+/**
+ * @since 0.9.71
+ */
+public class LogRingBufferTest extends TestCase {
+
+    private static LogRecord record(String msg) {
+        return new LogRecord(LogRingBufferTest.class, null, "test", Log.INFO, msg, null);
+    }
+
+    public void testOfferPoll() {
+        LogRingBuffer buf = new LogRingBuffer(3);
+        assertEquals(4, buf.capacity());
+        assertTrue(buf.isEmpty());
+        assertNull(buf.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buf.offer(record("r" + i)));
+        }
+        assertFalse(buf.offer(record("full")));
+        assertEquals(4, buf.size());
+        // wrap around
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertEquals("r" + i, buf.poll().getMessage());
+                assertTrue(buf.offer(record("r" + i)));
+            }
+        }
+        buf.clear();
+        assertTrue(buf.isEmpty());
+    }
+
+    public void testConcurrent() throws Exception {
+        final LogRingBuffer buf = new LogRingBuffer(64);
+        final int count = 20000;
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        LogRecord rec = record("x");
+                        while (!buf.offer(rec)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        int received = 0;
+        while (received < count * producers.length) {
+            if (buf.poll() != null)
+                received++;
+            else
+                Thread.yield();
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        assertTrue(buf.isEmpty());
+    }
+
+    public void testFormat() {
+        assertEquals("plain", LogRecord.format("plain", new Object[] { "a" }));
+        assertEquals("a 1 b null", LogRecord.format("a {} b {}", new Object[] { Integer.valueOf(1), null }));
+        assertEquals("1 {}", LogRecord.format("{} {}", new Object[] { Integer.valueOf(1) }));
+        assertEquals("1 2", LogRecord.format("{} {}", new Object[] { "1", "2", "3" }));
+        LogRecord rec = new LogRecord(LogRingBufferTest.class, null, "test", Log.INFO,
+                                      "v={}", new Object[] { "x" }, null);
+        assertEquals("v=x", rec.getMessage());
+    }
+}
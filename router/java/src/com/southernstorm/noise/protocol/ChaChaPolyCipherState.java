@@ -22,6 +22,7 @@
 
 package com.southernstorm.noise.protocol;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
@@ -39,12 +40,25 @@ public class ChaChaPolyCipherState implements CipherState {
 	private final int[] input;
 	private final int[] output;
 	private final byte[] polyKey;
+	// I2P for ByteBuffers, lazily allocated
+	private byte[] buf;
 	private long n;
 	private boolean haskey;
 	// Debug only
 	private byte[] initialKey;
 
 	private static final boolean DEBUG = false;
+
+	/**
+	 * I2P per-thread instances for one-shot use
+	 * @since 0.9.71
+	 */
+	private static final ThreadLocal<ChaChaPolyCipherState> _threadState = new ThreadLocal<ChaChaPolyCipherState>() {
+		@Override
+		protected ChaChaPolyCipherState initialValue() {
+			return new ChaChaPolyCipherState();
+		}
+	};
 	
 	/**
 	 * Constructs a new cipher state for the "ChaChaPoly" algorithm.
@@ -73,12 +87,30 @@ public class ChaChaPolyCipherState implements CipherState {
 		initialKey = o.initialKey;
 	}
 
+	/**
+	 * I2P
+	 *
+	 * A cached instance for the current thread, to avoid constructing
+	 * a new cipher state for every one-shot encryption or decryption.
+	 * The caller must initializeKey() and, if not zero, setNonce() before use,
+	 * and should destroy() when done.
+	 * Do not retain it, pass it to another thread, or use it for a session.
+	 *
+	 * @return the same instance on every call from this thread
+	 * @since 0.9.71
+	 */
+	public static ChaChaPolyCipherState getThreadInstance() {
+		return _threadState.get();
+	}
+
 	@Override
 	public void destroy() {
 		poly.destroy();
 		Arrays.fill(input, 0);
 		Arrays.fill(output, 0);
 		Noise.destroy(polyKey);
+		if (buf != null)
+			Noise.destroy(buf);
 	}
 
 	@Override
@@ -293,6 +325,144 @@ public class ChaChaPolyCipherState implements CipherState {
 		return dataLen;
 	}
 
+	/**
+	 * Encrypts or decrypts ByteBuffers for the active packet,
+	 * a block at a time through a small array, so direct buffers are not copied in full.
+	 * Advances the position of both buffers by length.
+	 *
+	 * @param src must not be the same object as dst
+	 * @param macOutput true to add the output to the MAC, for encryption
+	 * @since 0.9.71
+	 */
+	private void encrypt(ByteBuffer src, ByteBuffer dst, int length, boolean macOutput) {
+		if (buf == null)
+			buf = new byte[64];
+		while (length > 0) {
+			int tempLen = 64;
+			if (tempLen > length)
+				tempLen = length;
+			src.get(buf, 0, tempLen);
+			ChaChaCore.hash(output, input);
+			ChaChaCore.xorBlock(buf, 0, buf, 0, tempLen, output);
+			if (macOutput)
+				poly.update(buf, 0, tempLen);
+			dst.put(buf, 0, tempLen);
+			if (++(input[12]) == 0)
+				++(input[13]);
+			length -= tempLen;
+		}
+	}
+
+	/**
+	 * I2P
+	 *
+	 * Encrypts plaintext.remaining() bytes and appends the MAC.
+	 * Heap or direct buffers. On success, the position of plaintext is at its limit,
+	 * and the position of ciphertext is advanced by the returned length.
+	 *
+	 * The buffers must be different objects, but may share content,
+	 * e.g. a duplicate() at the same position to encrypt in place.
+	 *
+	 * @param ad The associated data, or null if none.
+	 * @param plaintext The plaintext to encrypt.
+	 * @param ciphertext The buffer to write the ciphertext and MAC to.
+	 * @return The number of bytes written to ciphertext, including the 16 byte MAC.
+	 * @throws ShortBufferException ciphertext does not have room for the output,
+	 *         the buffers are unchanged
+	 * @throws IllegalArgumentException if the buffers are the same object
+	 * @since 0.9.71
+	 */
+	public int encryptWithAd(byte[] ad, int adOffset, int adLength,
+	                         ByteBuffer plaintext, ByteBuffer ciphertext) throws ShortBufferException {
+		if (plaintext == ciphertext)
+			throw new IllegalArgumentException();
+		int length = plaintext.remaining();
+		int space = ciphertext.remaining();
+		if (!haskey) {
+			// The key is not set yet - return the plaintext as-is.
+			if (length > space)
+				throw new ShortBufferException();
+			ciphertext.put(plaintext);
+			return length;
+		}
+		if (space < 16 || length > (space - 16))
+			throw new ShortBufferException();
+		setup(ad, adOffset, adLength);
+		encrypt(plaintext, ciphertext, length, true);
+		finish(adLength, length);
+		ciphertext.put(polyKey, 0, 16);
+		n++;
+		return length + 16;
+	}
+
+	/**
+	 * I2P
+	 *
+	 * Checks the MAC and decrypts ciphertext.remaining() bytes, including the 16 byte MAC.
+	 * Heap or direct buffers. On success, the position of ciphertext is at its limit,
+	 * and the position of plaintext is advanced by the returned length.
+	 * The MAC is checked before anything is written.
+	 *
+	 * The buffers must be different objects, but may share content,
+	 * e.g. a duplicate() at the same position to decrypt in place.
+	 *
+	 * @param ad The associated data, or null if none.
+	 * @param ciphertext The ciphertext and MAC to decrypt.
+	 * @param plaintext The buffer to write the plaintext to.
+	 * @return The number of bytes written to plaintext.
+	 * @throws ShortBufferException plaintext does not have room for the output,
+	 *         the buffers are unchanged
+	 * @throws BadPaddingException bad MAC, the buffers are unchanged
+	 * @throws IllegalArgumentException if the buffers are the same object
+	 * @since 0.9.71
+	 */
+	public int decryptWithAd(byte[] ad, int adOffset, int adLength,
+	                         ByteBuffer ciphertext, ByteBuffer plaintext) throws ShortBufferException, BadPaddingException {
+		if (plaintext == ciphertext)
+			throw new IllegalArgumentException();
+		int length = ciphertext.remaining();
+		int space = plaintext.remaining();
+		if (!haskey) {
+			// The key is not set yet - return the ciphertext as-is.
+			if (length > space)
+				throw new ShortBufferException();
+			plaintext.put(ciphertext);
+			return length;
+		}
+		if (length < 16)
+			Noise.throwBadTagException();
+		int dataLen = length - 16;
+		if (dataLen > space)
+			throw new ShortBufferException();
+		if (buf == null)
+			buf = new byte[64];
+		int start = ciphertext.position();
+		setup(ad, adOffset, adLength);
+		// first pass, MAC only
+		int remaining = dataLen;
+		while (remaining > 0) {
+			int tempLen = Math.min(64, remaining);
+			ciphertext.get(buf, 0, tempLen);
+			poly.update(buf, 0, tempLen);
+			remaining -= tempLen;
+		}
+		finish(adLength, dataLen);
+		int temp = 0;
+		for (int index = 0; index < 16; ++index)
+			temp |= (polyKey[index] ^ ciphertext.get());
+		if ((temp & 0xFF) != 0) {
+			ciphertext.position(start);
+			Noise.throwBadTagException();
+		}
+		// second pass, decrypt
+		int end = ciphertext.position();
+		ciphertext.position(start);
+		encrypt(ciphertext, plaintext, dataLen, false);
+		ciphertext.position(end);
+		n++;
+		return dataLen;
+	}
+
 	@Override
 	public CipherState fork(byte[] key, int offset) {
 		CipherState cipher = new ChaChaPolyCipherState();
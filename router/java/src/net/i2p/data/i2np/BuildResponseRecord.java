@@ -122,7 +122,7 @@ public class BuildResponseRecord {
     private static final boolean encryptAEADBlock(byte[] ad, byte data[], SessionKey key) {
         if (data.length != EncryptedBuildRecord.LENGTH)
             throw new IllegalArgumentException();
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(key.getData(), 0);
         try {
             chacha.encryptWithAd(ad, data, 0, data, 0, data.length - 16);
@@ -149,7 +149,7 @@ public class BuildResponseRecord {
     public static boolean decrypt(EncryptedBuildRecord rec, SessionKey key, byte[] ad) {
         if (rec.length() != EncryptedBuildRecord.LENGTH)
             throw new IllegalArgumentException();
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(key.getData(), 0);
         try {
             // this is safe to do in-place, it checks the mac before starting decryption
@@ -176,7 +176,7 @@ public class BuildResponseRecord {
     private static final boolean encryptAEADBlock(byte[] ad, byte data[], SessionKey key, int nonce) {
         if (data.length != ShortEncryptedBuildRecord.LENGTH || nonce < 0 || nonce > 7)
             throw new IllegalArgumentException();
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(key.getData(), 0);
         chacha.setNonce(nonce);
         try {
@@ -205,7 +205,7 @@ public class BuildResponseRecord {
     public static boolean decrypt(EncryptedBuildRecord rec, SessionKey key, byte[] ad, int nonce) {
         if (rec.length() != ShortEncryptedBuildRecord.LENGTH || nonce < 0 || nonce > 7)
             throw new IllegalArgumentException();
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(key.getData(), 0);
         chacha.setNonce(nonce);
         try {
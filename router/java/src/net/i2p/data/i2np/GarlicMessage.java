@@ -19,20 +19,35 @@ import net.i2p.data.DataHelper;
 public class GarlicMessage extends FastI2NPMessageImpl {
     public final static int MESSAGE_TYPE = 11;
     private byte[] _data;
+    /** if non-null, the data is here at _sliceOffset, and _data is null */
+    private I2NPBuffer _slice;
+    private int _sliceOffset;
+    private int _sliceLength;
     
     public GarlicMessage(I2PAppContext context) {
         super(context);
     }
     
-    public byte[] getData() { 
+    /**
+     *  If the message was read from a shared buffer,
+     *  this copies the data out of it on the first call.
+     */
+    public synchronized byte[] getData() { 
+        I2NPBuffer slice = _slice;
+        if (slice != null) {
+            _data = new byte[_sliceLength];
+            System.arraycopy(slice.getData(), _sliceOffset, _data, 0, _sliceLength);
+            _slice = null;
+            slice.release();
+        }
         return _data; 
     }
 
     /**
      *  @throws IllegalStateException if data previously set, to protect saved checksum
      */
-    public void setData(byte[] data) { 
-        if (_data != null)
+    public synchronized void setData(byte[] data) { 
+        if (_data != null || _slice != null)
             throw new IllegalStateException();
         _data = data; 
     }
@@ -47,17 +62,50 @@ public class GarlicMessage extends FastI2NPMessageImpl {
         _data = new byte[len];
         System.arraycopy(data, curIndex, _data, 0, len);
     }
+
+    /**
+     *  Keep a slice of the buffer instead of copying the data.
+     *  The data is copied by getData() only when it's needed,
+     *  and not at all if the message is dropped first.
+     *
+     *  @since 0.9.71
+     */
+    @Override
+    protected void readMessage(I2NPBuffer buf, int offset, int dataSize, int type) throws I2NPMessageException {
+        if (type != MESSAGE_TYPE) throw new I2NPMessageException("Message type is incorrect for this message");
+        int len = (int) DataHelper.fromLong(buf.getData(), offset, 4);
+        if (len <= 0 || len > MAX_SIZE || len + 4 != dataSize) throw new I2NPMessageException("size="+len);
+        buf.retain();
+        synchronized(this) {
+            _slice = buf;
+            _sliceOffset = offset + 4;
+            _sliceLength = len;
+        }
+    }
     
     /** calculate the message body's length (not including the header and footer */
-    protected int calculateWrittenLength() {
-        return 4 + _data.length;
+    protected synchronized int calculateWrittenLength() {
+        return 4 + (_slice != null ? _sliceLength : _data.length);
     }
+
     /** write the message body to the output array, starting at the given index */
-    protected int writeMessageBody(byte out[], int curIndex) throws I2NPMessageException {
-        DataHelper.toLong(out, curIndex, 4, _data.length);
+    protected synchronized int writeMessageBody(byte out[], int curIndex) throws I2NPMessageException {
+        byte[] data;
+        int off;
+        int len;
+        if (_slice != null) {
+            data = _slice.getData();
+            off = _sliceOffset;
+            len = _sliceLength;
+        } else {
+            data = _data;
+            off = 0;
+            len = _data.length;
+        }
+        DataHelper.toLong(out, curIndex, 4, len);
         curIndex += 4;
-        System.arraycopy(_data, 0, out, curIndex, _data.length);
-        curIndex += _data.length;
+        System.arraycopy(data, off, out, curIndex, len);
+        curIndex += len;
         return curIndex;
     }
     
@@ -83,7 +131,7 @@ public class GarlicMessage extends FastI2NPMessageImpl {
         StringBuilder buf = new StringBuilder();
         buf.append("[GarlicMessage " +
                    "ID: ").append(getUniqueId())
-           .append(" Data: ").append(_data.length).append(" bytes" +
+           .append(" Data: ").append(calculateWrittenLength() - 4).append(" bytes" +
                    "]");
         return buf.toString();
     }
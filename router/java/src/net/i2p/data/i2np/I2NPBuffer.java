@@ -0,0 +1,95 @@
+package net.i2p.data.i2np;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.data.ByteArray;
+import net.i2p.util.ByteCache;
+
+/**
+ *  A reference-counted receive buffer, for parsing I2NP messages
+ *  without copying their payloads.
+ *
+ *  The creator (typically a transport reader) holds the first reference.
+ *  Messages read with I2NPMessageImpl.fromRawByteArrayNTCP2(I2PAppContext, I2NPBuffer, int, int)
+ *  may keep a slice of the buffer, and take a reference with retain().
+ *  Each holder calls release() when done with it.
+ *  When the last reference is released, the buffer is returned to the cache, if any.
+ *
+ *  A holder that never calls release() just leaves the buffer to the garbage collector,
+ *  which is always safe. Calling release() too early is not.
+ *  Each message owns only its own slice, and may modify it in place.
+ *
+ *  @since 0.9.71
+ */
+public class I2NPBuffer {
+    private final ByteArray _buf;
+    private final ByteCache _cache;
+    private final AtomicInteger _refs = new AtomicInteger(1);
+
+    /**
+     *  The buffer will be left to the garbage collector when released.
+     *  The caller holds the first reference.
+     */
+    public I2NPBuffer(byte[] data) {
+        this(new ByteArray(data), null);
+    }
+
+    /**
+     *  The caller holds the first reference.
+     *
+     *  @param buf must not be used by the caller after the last release()
+     *  @param cache buf will be released to it after the last release(), may be null
+     */
+    public I2NPBuffer(ByteArray buf, ByteCache cache) {
+        _buf = buf;
+        _cache = cache;
+    }
+
+    public byte[] getData() {
+        return _buf.getData();
+    }
+
+    /**
+     *  Take another reference.
+     *
+     *  @throws IllegalStateException if already released
+     */
+    public void retain() {
+        while (true) {
+            int refs = _refs.get();
+            if (refs <= 0)
+                throw new IllegalStateException("I2NP buffer use after free");
+            if (_refs.compareAndSet(refs, refs + 1))
+                return;
+        }
+    }
+
+    /**
+     *  Give up a reference. The caller must not touch the data afterwards.
+     *
+     *  @return true if this was the last reference
+     *  @throws IllegalStateException if already released
+     */
+    public boolean release() {
+        int refs = _refs.decrementAndGet();
+        if (refs > 0)
+            return false;
+        if (refs < 0)
+            throw new IllegalStateException("I2NP buffer double free");
+        if (_cache != null)
+            _cache.release(_buf, false);
+        return true;
+    }
+
+    /**
+     *  @return true if anybody besides the creator holds a reference
+     */
+    public boolean isShared() {
+        return _refs.get() > 1;
+    }
+
+    @Override
+    public String toString() {
+        return "I2NPBuffer " + _buf.getData().length + " bytes, refs: " + _refs.get();
+    }
+}
@@ -418,6 +418,65 @@ public abstract class I2NPMessageImpl implements I2NPMessage {
         }
     }
 
+    /**
+     *  Read the message with a short 9-byte header, as in
+     *  fromRawByteArrayNTCP2(I2PAppContext, byte[], int, int, I2NPMessageHandler),
+     *  but from a shared buffer.
+     *  Message types that support it keep a slice of the buffer instead of
+     *  copying the payload, and take a reference to the buffer.
+     *  The caller still holds its own reference, and must release it when done.
+     *
+     *  Used by NTCP2 and SSU2 only!
+     *
+     *  @since 0.9.71
+     */
+    public static I2NPMessage fromRawByteArrayNTCP2(I2PAppContext ctx, I2NPBuffer buf, int offset,
+                                                    int len) throws I2NPMessageException {
+        if (len < 9)
+            throw new I2NPMessageException("Payload is too short " + len);
+        byte[] buffer = buf.getData();
+        int type = buffer[offset] & 0xff;
+        offset++;
+        I2NPMessage msg = createMessage(ctx, type);
+        if (!(msg instanceof I2NPMessageImpl))
+            return fromRawByteArrayNTCP2(ctx, buffer, offset - 1, len, null);
+
+        try {
+            msg.setUniqueId(DataHelper.fromLong(buffer, offset, 4));
+            offset += 4;
+            // January 19 2038? No, unsigned, good until Feb. 7 2106
+            // in seconds, round up so we don't lose time every hop
+            long expiration = (DataHelper.fromLong(buffer, offset, 4) * 1000) + 500;
+            offset += 4;
+            int dataSize = len - 9;
+            if (offset + dataSize > buffer.length)
+                throw new I2NPMessageException("buffer overrun");
+            ((I2NPMessageImpl) msg).readMessage(buf, offset, dataSize, type);
+            msg.setMessageExpiration(expiration);
+            return msg;
+        } catch (IndexOutOfBoundsException ioobe) {
+            throw new I2NPMessageException("buffer overrun", ioobe);
+        } catch (IllegalArgumentException iae) {
+            throw new I2NPMessageException("Corrupt message (negative expiration)", iae);
+        }
+    }
+
+    /**
+     *  Read the body from a slice of a shared buffer.
+     *  This implementation copies, by calling readMessage(byte[], int, int, int).
+     *
+     *  Overrides may keep the slice instead, and decode it lazily.
+     *  They must call buf.retain() if they do, and buf.release() when
+     *  they no longer need it, if that point is known; otherwise
+     *  the buffer is left to the garbage collector.
+     *  Only the dataSize bytes at offset belong to this message.
+     *
+     *  @since 0.9.71
+     */
+    protected void readMessage(I2NPBuffer buf, int offset, int dataSize, int type) throws I2NPMessageException {
+        readMessage(buf.getData(), offset, dataSize, type);
+    }
+
     /**
      * Yes, this is fairly ugly, but its the only place it ever happens.
      *
@@ -28,6 +28,9 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
     private TunnelId _tunnelIdObj;
     private byte[] _data;
     private ByteArray _dataBuf;
+    /** if non-null, the data is here at _sliceOffset, and _data is null */
+    private volatile I2NPBuffer _slice;
+    private int _sliceOffset;
     
     public final static int MESSAGE_TYPE = 18;
     public static final int DATA_SIZE = 1024;
@@ -130,7 +133,16 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
         _tunnelId = id.getTunnelId();
     }
     
+    /**
+     *  If the message was read from a shared buffer,
+     *  this copies the data out of it on the first call.
+     *  To process the data in place, use getDataArray() and getDataOffset().
+     *
+     *  @return DATA_SIZE bytes starting at offset 0
+     */
     public byte[] getData() {
+        if (_slice != null)
+            copySlice();
         if (_hadCache && _dataBuf == null) {
             RuntimeException e = new RuntimeException("TDM data buf use after free");
             _log.error("TDM boom", e);
@@ -139,11 +151,55 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
         return _data;
     }
 
+    /**
+     *  The array holding the data, which may be a buffer shared with other messages.
+     *  The data starts at getDataOffset() and is DATA_SIZE bytes long.
+     *  It may be modified in place; no other part of the array may be touched.
+     *  Unlike getData(), this does not copy.
+     *
+     *  @since 0.9.71
+     */
+    public byte[] getDataArray() {
+        I2NPBuffer slice = _slice;
+        if (slice != null)
+            return slice.getData();
+        return getData();
+    }
+
+    /**
+     *  @return the offset of the data in getDataArray()
+     *  @since 0.9.71
+     */
+    public int getDataOffset() {
+        return _slice != null ? _sliceOffset : 0;
+    }
+
+    /**
+     *  Copy the data out of the shared buffer and give it up
+     *
+     *  @since 0.9.71
+     */
+    private synchronized void copySlice() {
+        I2NPBuffer slice = _slice;
+        if (slice == null)
+            return;
+        if (PIPELINED_CACHE) {
+            _dataBuf = _cache.acquire();
+            _data = _dataBuf.getData();
+            _hadCache = true;
+        } else {
+            _data = new byte[DATA_SIZE];
+        }
+        System.arraycopy(slice.getData(), _sliceOffset, _data, 0, DATA_SIZE);
+        _slice = null;
+        slice.release();
+    }
+
     /**
      *  @throws IllegalStateException if data previously set, to protect saved checksum
      */
     public void setData(byte data[]) { 
-        if (_data != null)
+        if (_data != null || _slice != null)
             throw new IllegalStateException();
         if ( (data == null) || (data.length <= 0) )
             throw new IllegalArgumentException("Empty tunnel payload?");
@@ -174,11 +230,45 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
         }
         System.arraycopy(data, curIndex, _data, 0, DATA_SIZE);
     }
+
+    /**
+     *  Keep a slice of the buffer instead of copying the data.
+     *  At a participating hop, the data is then decrypted in place and
+     *  written out from the receive buffer.
+     *
+     *  @since 0.9.71
+     */
+    @Override
+    protected void readMessage(I2NPBuffer buf, int offset, int dataSize, int type) throws I2NPMessageException {
+        if (type != MESSAGE_TYPE) throw new I2NPMessageException("Message type is incorrect for this message");
+        if (dataSize != 1028)
+            throw new I2NPMessageException("bad len " + dataSize);
+        _tunnelId = DataHelper.fromLong(buf.getData(), offset, 4);
+        if (_tunnelId <= 0) 
+            throw new I2NPMessageException("Invalid tunnel Id " + _tunnelId);
+        buf.retain();
+        _slice = buf;
+        _sliceOffset = offset + 4;
+    }
     
     /** calculate the message body's length (not including the header and footer */
     protected int calculateWrittenLength() { return 4 + DATA_SIZE; }
     /** write the message body to the output array, starting at the given index */
     protected int writeMessageBody(byte out[], int curIndex) throws I2NPMessageException {
+        if (_slice != null) {
+            // sync with copySlice() so the buffer isn't released while we copy
+            synchronized(this) {
+                I2NPBuffer slice = _slice;
+                if (slice != null) {
+                    if (_tunnelId <= 0)
+                        throw new I2NPMessageException("Not enough data to write out (id=" + _tunnelId + ")");
+                    DataHelper.toLong(out, curIndex, 4, _tunnelId);
+                    curIndex += 4;
+                    System.arraycopy(slice.getData(), _sliceOffset, out, curIndex, DATA_SIZE);
+                    return curIndex + DATA_SIZE;
+                }
+            }
+        }
         if ( (_tunnelId <= 0) || (_data == null) )
             throw new I2NPMessageException("Not enough data to write out (id=" + _tunnelId + ")");
         if (_data.length <= 0) 
@@ -210,7 +300,7 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
     @Override
     public int hashCode() {
         return (int)_tunnelId +
-               DataHelper.hashCode(_data);
+               DataHelper.hashCode(getData());
     }
     
     @Override
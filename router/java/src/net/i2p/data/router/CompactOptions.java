@@ -0,0 +1,345 @@
+package net.i2p.data.router;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.i2p.data.DataFormatException;
+import net.i2p.data.DataHelper;
+import net.i2p.util.OrderedProperties;
+
+/**
+ * Immutable, sorted options for RouterInfo and RouterAddress.
+ *
+ * A floodfill holds thousands of these, and an OrderedProperties
+ * costs a hash table, a node per entry, and a new String for every key and value.
+ * Here the keys and values are in a single flat array, sorted by key,
+ * and looked up with a binary search.
+ * The expected keys are interned from a fixed table, and the values of
+ * caps, netId, and router.version, which have only a handful of distinct values,
+ * are interned in a bounded static table.
+ *
+ * All methods that modify will throw UnsupportedOperationException.
+ *
+ * @since 0.9.71
+ */
+class CompactOptions extends AbstractMap<Object, Object> {
+
+    /** keys and values, k0, v0, k1, v1, ..., sorted by key */
+    private final String[] _kv;
+
+    public static final CompactOptions EMPTY = new CompactOptions(new String[0]);
+
+    /** so a flood of bogus values can't grow it without limit */
+    private static final int MAX_INTERNED = 256;
+    /** fixed, read-only after class init */
+    private static final Map<String, String> _keys = new HashMap<String, String>(64);
+    private static final ConcurrentHashMap<String, String> _values = new ConcurrentHashMap<String, String>(64);
+
+    /** keys we expect in the RouterInfo and the RouterAddresses */
+    private static final String[] KNOWN_KEYS = {
+        // RouterInfo
+        "caps", "family", "family.key", "family.sig", "netId",
+        "netdb.knownLeaseSets", "netdb.knownRouters", "router.version",
+        // RouterAddress
+        "cost", "host", "i", "key", "mtu", "port", "s", "v", "pq",
+        "ih0", "ih1", "ih2", "ih3",
+        "iexp0", "iexp1", "iexp2", "iexp3",
+        "ihost0", "ihost1", "ihost2", "ihost3",
+        "ikey0", "ikey1", "ikey2", "ikey3",
+        "iport0", "iport1", "iport2", "iport3",
+        "itag0", "itag1", "itag2", "itag3"
+    };
+
+    /**
+     *  RouterInfo keys whose values are shared by many routers.
+     *  Not the high-cardinality ones like netdb.knownRouters or family,
+     *  which would just fill the table.
+     */
+    private static final Set<String> COMMON_VALUE_KEYS = new HashSet<String>(Arrays.asList(new String[] {
+        "caps", "netId", "router.version"
+    }));
+
+    static {
+        for (String k : KNOWN_KEYS) {
+            _keys.put(k, k);
+        }
+    }
+
+    private CompactOptions(String[] kv) {
+        _kv = kv;
+    }
+
+    /**
+     *  Read a mapping as defined by the I2P data structure spec.
+     *  Same as DataHelper.readProperties(),
+     *  but without the temporary objects.
+     *
+     *  @param enforceOrder if true, throw DataFormatException if keys are not ordered
+     *  @return non-null, EMPTY if empty
+     *  @throws DataFormatException on a bad or duplicate key or value
+     */
+    public static CompactOptions read(InputStream in, boolean enforceOrder) throws DataFormatException, IOException {
+        int size = (int) DataHelper.readLong(in, 2);
+        if (size == 0)
+            return EMPTY;
+        byte[] data = new byte[size];
+        // full read guaranteed
+        DataHelper.read(in, data);
+        String[] kv = new String[16];
+        int count = 0;
+        int off = 0;
+        while (off < size) {
+            int len = data[off++] & 0xff;
+            if (off + len + 1 > size)
+                throw new DataFormatException("Bad key");
+            String key = internKey(new String(data, off, len, StandardCharsets.UTF_8));
+            off += len;
+            if (data[off++] != '=')
+                throw new DataFormatException("Bad key");
+            if (off >= size)
+                throw new DataFormatException("Bad value");
+            len = data[off++] & 0xff;
+            if (off + len + 1 > size)
+                throw new DataFormatException("Bad value");
+            String val = internValue(key, new String(data, off, len, StandardCharsets.UTF_8));
+            off += len;
+            if (data[off++] != ';')
+                throw new DataFormatException("Bad value");
+            if (count > 0) {
+                int c = key.compareTo(kv[count - 2]);
+                if (c == 0)
+                    throw new DataFormatException("Duplicate key " + key);
+                if (c < 0 && enforceOrder)
+                    throw new DataFormatException("option " + key + " out of order");
+            } else if (enforceOrder && key.length() == 0) {
+                // as in DataHelper.readProperties(), which compares the first key to ""
+                throw new DataFormatException("option " + key + " out of order");
+            }
+            if (count == kv.length)
+                kv = Arrays.copyOf(kv, count * 2);
+            kv[count++] = key;
+            kv[count++] = val;
+        }
+        if (count < kv.length)
+            kv = Arrays.copyOf(kv, count);
+        if (!enforceOrder) {
+            try {
+                kv = sort(kv);
+            } catch (IllegalArgumentException iae) {
+                throw new DataFormatException(iae.getMessage());
+            }
+        }
+        return new CompactOptions(kv);
+    }
+
+    /**
+     *  Makes a copy.
+     *
+     *  @param props String keys and values, may be null
+     *  @return non-null, EMPTY if empty
+     *  @throws IllegalArgumentException on duplicate key
+     */
+    public static CompactOptions from(Map<?, ?> props) {
+        if (props == null || props.isEmpty())
+            return EMPTY;
+        if (props instanceof CompactOptions)
+            return (CompactOptions) props;
+        String[] kv = new String[2 * props.size()];
+        int i = 0;
+        for (Map.Entry<?, ?> e : props.entrySet()) {
+            String key = internKey((String) e.getKey());
+            kv[i++] = key;
+            kv[i++] = internValue(key, (String) e.getValue());
+        }
+        return new CompactOptions(sort(kv));
+    }
+
+    /**
+     *  Sort by key, checking for duplicates
+     *
+     *  @throws IllegalArgumentException on duplicate key
+     */
+    private static String[] sort(String[] kv) {
+        int n = kv.length / 2;
+        if (n <= 1)
+            return kv;
+        Integer[] idx = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = Integer.valueOf(2 * i);
+        }
+        final String[] fkv = kv;
+        Arrays.sort(idx, new Comparator<Integer>() {
+            public int compare(Integer l, Integer r) {
+                return fkv[l.intValue()].compareTo(fkv[r.intValue()]);
+            }
+        });
+        String[] rv = new String[kv.length];
+        for (int i = 0; i < n; i++) {
+            int j = idx[i].intValue();
+            rv[2 * i] = kv[j];
+            rv[2 * i + 1] = kv[j + 1];
+            if (i > 0 && rv[2 * i].equals(rv[2 * i - 2]))
+                throw new IllegalArgumentException("Duplicate key " + rv[2 * i]);
+        }
+        return rv;
+    }
+
+    private static String internKey(String key) {
+        String rv = _keys.get(key);
+        return rv != null ? rv : key;
+    }
+
+    private static String internValue(String key, String val) {
+        if (!COMMON_VALUE_KEYS.contains(key))
+            return val;
+        String rv = _values.get(val);
+        if (rv != null)
+            return rv;
+        if (_values.size() >= MAX_INTERNED)
+            return val;
+        rv = _values.putIfAbsent(val, val);
+        return rv != null ? rv : val;
+    }
+
+    /**
+     *  Write a mapping as defined by the I2P data structure spec.
+     *  Same as DataHelper.writeProperties(), the keys are already sorted.
+     *
+     *  @param utf8 if false, use DataHelper.writeString(), which only works for 8-bit characters
+     */
+    public void writeBytes(OutputStream out, boolean utf8) throws DataFormatException, IOException {
+        if (_kv.length == 0) {
+            DataHelper.writeLong(out, 2, 0);
+            return;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(_kv.length * 32);
+        for (int i = 0; i < _kv.length; i += 2) {
+            if (utf8)
+                DataHelper.writeStringUTF8(baos, _kv[i]);
+            else
+                DataHelper.writeString(baos, _kv[i]);
+            baos.write('=');
+            if (utf8)
+                DataHelper.writeStringUTF8(baos, _kv[i + 1]);
+            else
+                DataHelper.writeString(baos, _kv[i + 1]);
+            baos.write(';');
+        }
+        if (baos.size() > 65535)
+            throw new DataFormatException("Properties too big (65535 max): " + baos.size());
+        DataHelper.writeLong(out, 2, baos.size());
+        baos.writeTo(out);
+    }
+
+    /**
+     *  @return value or null
+     */
+    public String getProperty(String key) {
+        int i = indexOf(key);
+        return i >= 0 ? _kv[i + 1] : null;
+    }
+
+    /**
+     *  @return index of the key in _kv, or -1
+     */
+    private int indexOf(Object key) {
+        if (!(key instanceof String))
+            return -1;
+        String k = (String) key;
+        int lo = 0;
+        int hi = (_kv.length / 2) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = _kv[2 * mid].compareTo(k);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else
+                return 2 * mid;
+        }
+        return -1;
+    }
+
+    /**
+     *  @return a new, modifiable copy
+     */
+    public OrderedProperties toProperties() {
+        OrderedProperties rv = new OrderedProperties();
+        for (int i = 0; i < _kv.length; i += 2) {
+            rv.put(_kv[i], _kv[i + 1]);
+        }
+        return rv;
+    }
+
+    @Override
+    public int size() {
+        return _kv.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return _kv.length == 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? _kv[i + 1] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     *  @return sorted by key, unmodifiable
+     */
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return new EntrySet();
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<Object, Object>> {
+        public int size() {
+            return _kv.length / 2;
+        }
+
+        public Iterator<Map.Entry<Object, Object>> iterator() {
+            return new Iterator<Map.Entry<Object, Object>>() {
+                private int i;
+
+                public boolean hasNext() {
+                    return i < _kv.length;
+                }
+
+                public Map.Entry<Object, Object> next() {
+                    if (i >= _kv.length)
+                        throw new NoSuchElementException();
+                    Map.Entry<Object, Object> rv = new AbstractMap.SimpleImmutableEntry<Object, Object>(_kv[i], _kv[i + 1]);
+                    i += 2;
+                    return rv;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
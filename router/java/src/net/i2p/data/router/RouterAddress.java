@@ -12,7 +12,6 @@ package net.i2p.data.router;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 import java.util.Properties;
@@ -46,7 +45,8 @@ public class RouterAddress extends DataStructureImpl {
     private short _cost;
     private long _expiration;
     private String _transportStyle;
-    private final Properties _options;
+    /** immutable, replaced only by readBytes() or the deprecated setOptions() */
+    private CompactOptions _options;
     // cached values
     private byte[] _ip = NOT_LOOKED_UP;
     private int _port;
@@ -56,18 +56,18 @@ public class RouterAddress extends DataStructureImpl {
     private static final byte[] NOT_LOOKED_UP = new byte[0];
 
     public RouterAddress() {
-        _options = new OrderedProperties();
+        _options = CompactOptions.EMPTY;
     }
 
     /**
      *  For efficiency when created by a Transport.
-     *  @param options not copied; do not reuse or modify
+     *  @param options copied as of 0.9.71
      *  @param cost 0-255
      *  @since IPv6
      */
     public RouterAddress(String style, OrderedProperties options, int cost) {
         _transportStyle = style;
-        _options = options;
+        _options = CompactOptions.from(options);
         if (cost < 0 || cost > 255)
             throw new IllegalArgumentException();
         _cost = (short) cost;
@@ -174,22 +174,26 @@ public class RouterAddress extends DataStructureImpl {
     /**
      * Retrieve the transport specific options necessary for communication 
      *
+     * As of 0.9.71, this returns a new copy on every call, which is expensive,
+     * and changes to it are not reflected here.
+     * Before, it returned the internal Properties, which had to be left unmodified.
+     *
      * @deprecated use getOptionsMap()
-     * @return sorted, non-null, NOT a copy, do not modify
+     * @return sorted, non-null, a copy as of 0.9.71
      */
     @Deprecated
     public Properties getOptions() {
-        return _options;
+        return _options.toProperties();
     }
 
     /**
      * Retrieve the transport specific options necessary for communication 
      *
-     * @return an unmodifiable view, non-null, sorted
+     * @return unmodifiable, non-null, sorted
      * @since 0.8.13
      */
     public Map<Object, Object> getOptionsMap() {
-        return Collections.unmodifiableMap(_options);
+        return _options;
     }
 
     /**
@@ -210,7 +214,9 @@ public class RouterAddress extends DataStructureImpl {
     public void setOptions(Properties options) {
         if (!_options.isEmpty())
             throw new IllegalStateException();
-        _options.putAll(options);
+        if (options == null)
+            throw new NullPointerException();
+        _options = CompactOptions.from(options);
     }
     
     /**
@@ -294,7 +300,7 @@ public class RouterAddress extends DataStructureImpl {
             _transportStyle = "SSU2";
         // enforce mapping order so bad ones will fail-fast
         // before the signature check
-        DataHelper.readProperties(in, _options, true);
+        _options = CompactOptions.read(in, true);
     }
     
     /**
@@ -307,7 +313,7 @@ public class RouterAddress extends DataStructureImpl {
         out.write((byte) _cost);
         DataHelper.writeLong(out, 8, _expiration);
         DataHelper.writeString(out, _transportStyle);
-        DataHelper.writeProperties(out, _options);
+        _options.writeBytes(out, false);
     }
     
     /**
@@ -356,8 +362,7 @@ public class RouterAddress extends DataStructureImpl {
     
     /**
      *  This is used on peers.jsp so sort options so it looks better.
-     *  We don't just use OrderedProperties for _options because DataHelper.writeProperties()
-     *  sorts also.
+     *  The options are always sorted.
      */
     @Override
     public String toString() {
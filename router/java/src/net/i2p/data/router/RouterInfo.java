@@ -9,6 +9,7 @@ package net.i2p.data.router;
  *
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,7 +42,6 @@ import net.i2p.data.SimpleDataStructure;
 import net.i2p.router.Router;
 import net.i2p.util.Clock;
 import net.i2p.util.Log;
-import net.i2p.util.OrderedProperties;
 import net.i2p.util.SystemVersion;
 
 /**
@@ -63,11 +63,21 @@ public class RouterInfo extends DatabaseEntry {
     private volatile long _published;
     /**
      *  Save addresses in the order received so the signature works.
+     *  Null until parsed from _addressBytes.
      */
-    private final List<RouterAddress> _addresses;
+    private volatile List<RouterAddress> _addresses;
+    /**
+     *  The serialized addresses from readBytes(), parsed on first use.
+     *  Null after a successful parse, or if there are none.
+     *  @since 0.9.71
+     */
+    private volatile byte[] _addressBytes;
+    /** @since 0.9.71 */
+    private int _addressCount;
     /** may be null to save memory, no longer final */
     private Set<Hash> _peers;
-    private final Properties _options;
+    /** immutable, replaced only by readBytes() or setOptions() */
+    private CompactOptions _options;
     private volatile boolean _validated;
     private volatile boolean _isValid;
     //private volatile String _stringified;
@@ -110,8 +120,8 @@ public class RouterInfo extends DatabaseEntry {
         Router.CAPABILITY_BW12;
     
     public RouterInfo() {
-        _addresses = new ArrayList<RouterAddress>(2);
-        _options = new OrderedProperties();
+        _addresses = Collections.emptyList();
+        _options = CompactOptions.EMPTY;
     }
 
     /**
@@ -194,7 +204,8 @@ public class RouterInfo extends DatabaseEntry {
      * @since 0.9.27
      */
     public int getAddressCount() {
-        return _addresses.size();
+        List<RouterAddress> addrs = _addresses;
+        return addrs != null ? addrs.size() : _addressCount;
     }
 
     /**
@@ -204,7 +215,53 @@ public class RouterInfo extends DatabaseEntry {
      * @return unmodifiable view, non-null
      */
     public Collection<RouterAddress> getAddresses() {
-            return Collections.unmodifiableList(_addresses);
+            return Collections.unmodifiableList(addresses());
+    }
+
+    /**
+     * The addresses, parsing them if necessary.
+     * Parsing may race but the results are the same.
+     *
+     * @return non-null
+     * @throws IllegalStateException if they don't parse, which can't happen,
+     *         as readBytes() checked them
+     * @since 0.9.71
+     */
+    private List<RouterAddress> addresses() {
+        List<RouterAddress> rv = _addresses;
+        if (rv != null)
+            return rv;
+        byte[] data = _addressBytes;
+        if (data == null) {
+            // another thread parsed it, it set _addresses before clearing _addressBytes
+            return _addresses;
+        }
+        try {
+            rv = parseAddresses(data, _addressCount);
+        } catch (DataFormatException dfe) {
+            throw new IllegalStateException("Bad address in " + _identity.calculateHash(), dfe);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Bad address in " + _identity.calculateHash(), ioe);
+        }
+        _addresses = rv;
+        _addressBytes = null;
+        return rv;
+    }
+
+    /**
+     * @param data count serialized addresses
+     * @return non-null
+     * @since 0.9.71
+     */
+    private static List<RouterAddress> parseAddresses(byte[] data, int count) throws DataFormatException, IOException {
+        List<RouterAddress> rv = new ArrayList<RouterAddress>(count);
+        InputStream in = new ByteArrayInputStream(data);
+        for (int i = 0; i < count; i++) {
+            RouterAddress address = new RouterAddress();
+            address.readBytes(in);
+            rv.add(address);
+        }
+        return rv;
     }
 
     /**
@@ -216,12 +273,12 @@ public class RouterInfo extends DatabaseEntry {
      * @throws IllegalArgumentException if too many addresses
      */
     public void setAddresses(Collection<RouterAddress> addresses) {
-        if (_signature != null || !_addresses.isEmpty())
+        if (_signature != null || getAddressCount() > 0)
             throw new IllegalStateException();
         if (addresses != null) {
             if (addresses.size() > MAX_ADDRESSES)
                 throw new IllegalArgumentException("too many addresses");
-            _addresses.addAll(addresses);
+            _addresses = new ArrayList<RouterAddress>(addresses);
         }
     }
 
@@ -264,22 +321,26 @@ public class RouterInfo extends DatabaseEntry {
     /**
      * Retrieve a set of options or statistics that the router can expose.
      *
+     * As of 0.9.71, this returns a new copy on every call, which is expensive,
+     * and changes to it are not reflected here.
+     * Before, it returned the internal Properties, which had to be left unmodified.
+     *
      * @deprecated use getOptionsMap()
-     * @return sorted, non-null, NOT a copy, do not modify!!!
+     * @return sorted, non-null, a copy as of 0.9.71
      */
     @Deprecated
     public Properties getOptions() {
-        return _options;
+        return _options.toProperties();
     }
 
     /**
      * Retrieve a set of options or statistics that the router can expose.
      *
-     * @return an unmodifiable view, non-null, sorted
+     * @return unmodifiable, non-null, sorted
      * @since 0.8.13
      */
     public Map<Object, Object> getOptionsMap() {
-        return Collections.unmodifiableMap(_options);
+        return _options;
     }
 
     public String getOption(String opt) {
@@ -311,9 +372,7 @@ public class RouterInfo extends DatabaseEntry {
         if (_signature != null)
             throw new IllegalStateException();
 
-        _options.clear();
-        if (options != null)
-            _options.putAll(options);
+        _options = CompactOptions.from(options);
     }
 
     /** 
@@ -352,10 +411,16 @@ public class RouterInfo extends DatabaseEntry {
             DataHelper.writeLong(out, 8, _published);
             // There shouldn't be any addresses when hidden, but if there are,
             // write them out, so as not to invalidate the signature
-            int sz = _addresses.size();
-            out.write((byte) sz);
-            if (sz > 0) {
-                for (RouterAddress addr : _addresses) {
+            byte[] addrBytes = _addressBytes;
+            if (addrBytes != null) {
+                // not parsed yet
+                out.write((byte) _addressCount);
+                out.write(addrBytes);
+            } else {
+                List<RouterAddress> addrs = _addresses;
+                int sz = addrs.size();
+                out.write((byte) sz);
+                for (RouterAddress addr : addrs) {
                     addr.writeBytes(out);
                 }
             }
@@ -376,7 +441,7 @@ public class RouterInfo extends DatabaseEntry {
                     peerHash.writeBytes(out);
                 }
             }
-            DataHelper.writeProperties(out, _options, true, true);
+            _options.writeBytes(out, true);
     }
 
     /**
@@ -477,7 +542,7 @@ public class RouterInfo extends DatabaseEntry {
      * which you probably want if you care about IPv6.
      */
     public RouterAddress getTargetAddress(String transportStyle) {
-        for (RouterAddress addr :  _addresses) {
+        for (RouterAddress addr :  addresses()) {
             if (addr.getTransportStyle().equals(transportStyle)) 
                 return addr;
         }
@@ -490,8 +555,9 @@ public class RouterInfo extends DatabaseEntry {
      *  @since 0.7.11
      */
     public List<RouterAddress> getTargetAddresses(String transportStyle) {
-        List<RouterAddress> ret = new ArrayList<RouterAddress>(_addresses.size());
-        for (RouterAddress addr :  _addresses) {
+        List<RouterAddress> addrs = addresses();
+        List<RouterAddress> ret = new ArrayList<RouterAddress>(addrs.size());
+        for (RouterAddress addr :  addrs) {
             if(addr.getTransportStyle().equals(transportStyle))
                 ret.add(addr);
         }
@@ -506,8 +572,9 @@ public class RouterInfo extends DatabaseEntry {
      *  @since 0.9.35
      */
     public List<RouterAddress> getTargetAddresses(String transportStyle1, String transportStyle2) {
-        List<RouterAddress> ret = new ArrayList<RouterAddress>(_addresses.size());
-        for (RouterAddress addr :  _addresses) {
+        List<RouterAddress> addrs = addresses();
+        List<RouterAddress> ret = new ArrayList<RouterAddress>(addrs.size());
+        for (RouterAddress addr :  addrs) {
             String style = addr.getTransportStyle();
             if (style.equals(transportStyle1) || style.equals(transportStyle2))
                 ret.add(addr);
@@ -589,10 +656,20 @@ public class RouterInfo extends DatabaseEntry {
         int numAddresses = din.read();
         if (numAddresses > MAX_ADDRESSES)
             throw new DataFormatException("too many addresses");
-        for (int i = 0; i < numAddresses; i++) {
-            RouterAddress address = new RouterAddress();
-            address.readBytes(din);
-            _addresses.add(address);
+        if (numAddresses > 0) {
+            // Keep them serialized until used, see addresses().
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(numAddresses * 256);
+            byte[] buf = new byte[256];
+            for (int i = 0; i < numAddresses; i++) {
+                copyAddress(din, baos, buf);
+            }
+            byte[] addrBytes = baos.toByteArray();
+            // Parse them now, and throw the result away, so a bad address
+            // or mapping order fails here, as before, and not on first use.
+            parseAddresses(addrBytes, numAddresses);
+            _addressBytes = addrBytes;
+            _addressCount = numAddresses;
+            _addresses = null;
         }
         // EOF will be thrown in properties read below
         int numPeers = din.read();
@@ -608,7 +685,7 @@ public class RouterInfo extends DatabaseEntry {
         }
         // enforce mapping order so bad ones will fail-fast
         // before the signature check
-        DataHelper.readProperties(din, _options, true);
+        _options = CompactOptions.read(din, true);
         _signature = new Signature(type);
         _signature.readBytes(in);
 
@@ -631,6 +708,32 @@ public class RouterInfo extends DatabaseEntry {
         //_log.debug("Read routerInfo: " + toString());
     }
     
+    /**
+     *  Copy one serialized RouterAddress without parsing it.
+     *  Cost (1), expiration (8), transport style (String), options (Mapping).
+     *
+     *  @param buf temp buffer, 256 bytes minimum
+     *  @since 0.9.71
+     */
+    private static void copyAddress(InputStream in, ByteArrayOutputStream out, byte[] buf) throws IOException {
+        DataHelper.read(in, buf, 0, 10);
+        out.write(buf, 0, 10);
+        int len = buf[9] & 0xff;
+        if (len > 0) {
+            DataHelper.read(in, buf, 0, len);
+            out.write(buf, 0, len);
+        }
+        DataHelper.read(in, buf, 0, 2);
+        out.write(buf, 0, 2);
+        len = (int) DataHelper.fromLong(buf, 0, 2);
+        while (len > 0) {
+            int sz = Math.min(len, buf.length);
+            DataHelper.read(in, buf, 0, sz);
+            out.write(buf, 0, sz);
+            len -= sz;
+        }
+    }
+
     /**
      *  This does NOT validate the signature
      */
@@ -684,9 +787,10 @@ public class RouterInfo extends DatabaseEntry {
             String val = (String) e.getValue();
             buf.append("\n\t\t[").append(key).append("] = [").append(val).append("]");
         }
-        if (!_addresses.isEmpty()) {
-            buf.append("\n\tAddresses (").append(_addresses.size()).append("):");
-            for (RouterAddress addr : _addresses) {
+        List<RouterAddress> addrs = addresses();
+        if (!addrs.isEmpty()) {
+            buf.append("\n\tAddresses (").append(addrs.size()).append("):");
+            for (RouterAddress addr : addrs) {
                 buf.append("\n\t").append(addr);
             }
         }
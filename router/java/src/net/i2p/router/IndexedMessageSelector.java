@@ -0,0 +1,23 @@
+package net.i2p.router;
+
+/**
+ * A MessageSelector that only matches replies with a known key,
+ * so that OutboundMessageRegistry can look it up directly
+ * instead of calling isMatch() on every registered selector
+ * for every received message.
+ *
+ * @since 0.9.71
+ */
+public interface IndexedMessageSelector extends MessageSelector {
+
+    /**
+     * The key of the replies this selector may match.
+     * isMatch() will only be called for received messages with this key.
+     * It must not change while the selector is registered.
+     *
+     * @return non-null; a Long for the message ID of a DeliveryStatusMessage,
+     *         or a Hash for the key of a DatabaseStoreMessage
+     *         or the search key of a DatabaseSearchReplyMessage
+     */
+    public Object getReplyKey();
+}
@@ -23,9 +23,12 @@ public interface MessageSelector {
      * will be run for every OutNetMessage associated with this selector
      * (by InNetMessagePool), after calling setMessage() for that ReplyJob.
      *
-     * WARNING this is called from within OutboundMessageSelector.getOriginalMessages()
-     * inside a lock and can lead to deadlocks if the selector does too much in isMatch().
-     * Until the lock is removed, take care to keep it simple.
+     * WARNING this is called from within OutboundMessageRegistry.getOriginalMessages()
+     * with this selector locked, and may be called from several threads in turn.
+     * Take care to keep it simple.
+     *
+     * Implement IndexedMessageSelector if possible, so this is only called
+     * for messages that could be a match.
      *
      */
     public boolean isMatch(I2NPMessage message);
@@ -42,6 +42,7 @@ public class OutNetMessage implements CDPQEntry {
     private MessageSelector _replySelector;
     private List<String> _failedTransports;
     private long _sendBegin;
+    private boolean _cachedBid;
     //private Exception _createdBy;
     private final long _created;
     private long _enqueueTime;
@@ -312,6 +313,17 @@ public class OutNetMessage implements CDPQEntry {
 
     public void beginSend() { _sendBegin = _context.clock().now(); }
 
+    /**
+     *  The transport was chosen from the TransportManager bid cache, for stats
+     *  @since 0.9.71
+     */
+    public void setCachedBid() { _cachedBid = true; }
+
+    /**
+     *  @since 0.9.71
+     */
+    public boolean isCachedBid() { return _cachedBid; }
+
     public long getCreated() { return _created; }
 
     /** time since the message was created */
@@ -66,7 +66,7 @@ import net.i2p.stat.Rate;
 import net.i2p.stat.RateAverages;
 import net.i2p.stat.RateStat;
 import net.i2p.stat.StatManager;
-import net.i2p.util.ByteCache;
+import net.i2p.util.BufferPool;
 import net.i2p.util.FileUtil;
 import net.i2p.util.FortunaRandomSource;
 import net.i2p.util.I2PAppThread;
@@ -77,7 +77,6 @@ import net.i2p.util.OrderedProperties;
 import net.i2p.util.ReusableGZIPInputStream;
 import net.i2p.util.ReusableGZIPOutputStream;
 import net.i2p.util.SecureFileOutputStream;
-import net.i2p.util.SimpleByteCache;
 import net.i2p.util.SystemVersion;
 import net.i2p.util.Translate;
 import net.i2p.util.VersionComparator;
@@ -493,8 +492,8 @@ public class Router implements RouterClock.ClockShiftListener {
      *  @since 0.8.8
      */
     public static final void clearCaches() {
-        ByteCache.clearAll();
-        SimpleByteCache.clearAll();
+        // ByteCache, SimpleByteCache, and the transport and streaming buffers
+        BufferPool.clearAll();
         Destination.clearCache();
         Translate.clearCache();
         Hash.clearCache();
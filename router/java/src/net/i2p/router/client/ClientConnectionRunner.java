@@ -9,7 +9,6 @@ package net.i2p.router.client;
  */
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -39,6 +38,7 @@ import net.i2p.data.i2cp.DisconnectMessage;
 import net.i2p.data.i2cp.I2CPMessage;
 import net.i2p.data.i2cp.I2CPMessageException;
 import net.i2p.data.i2cp.I2CPMessageReader;
+import net.i2p.data.i2cp.I2CPWriteBuffer;
 import net.i2p.data.i2cp.MessageId;
 import net.i2p.data.i2cp.MessageStatusMessage;
 import net.i2p.data.i2cp.SendMessageMessage;
@@ -75,6 +75,8 @@ class ClientConnectionRunner {
     private final Socket _socket;
     /** output stream of the socket that I2CP messages bound to the client should be written to */
     private OutputStream _out;
+    /** ClientWriterRunner thread only */
+    private I2CPWriteBuffer _writeBuf;
 
     private final ConcurrentHashMap<Hash, SessionParams> _sessions;
 
@@ -182,7 +184,8 @@ class ClientConnectionRunner {
             t.setName("I2CP Writer " + __id.incrementAndGet());
             t.setDaemon(true);
             t.start();
-            _out = new BufferedOutputStream(_socket.getOutputStream());
+            // not buffered, ClientWriterRunner writes each batch with one call
+            _out = _socket.getOutputStream();
             _reader.startReading();
             // TODO need a cleaner for unclaimed items in _messages, but we have no timestamps...
     }
@@ -1101,14 +1104,20 @@ class ClientConnectionRunner {
      *  Not thread-safe. Blocking. Only used for external sockets.
      *  ClientWriterRunner thread is the only caller.
      *  Others must use doSend().
+     *
+     *  As of 0.9.71, writes a batch of messages with a single write and flush.
+     *
+     *  @param msgs non-empty
+     *  @since 0.9.71, was writeMessage(I2CPMessage)
      */
-    void writeMessage(I2CPMessage msg) {
+    void writeMessages(List<I2CPMessage> msgs) {
         //long before = _context.clock().now();
         try {
             // We don't need synchronization here, ClientWriterRunner is the only writer.
             //synchronized (_out) {
-                msg.writeMessage(_out);
-                _out.flush();
+                if (_writeBuf == null)
+                    _writeBuf = new I2CPWriteBuffer();
+                _writeBuf.writeMessages(msgs, _out);
             //}
             //if (_log.shouldLog(Log.DEBUG))
             //    _log.debug("after writeMessage("+ msg.getClass().getName() + "): " 
@@ -1,5 +1,7 @@
 package net.i2p.router.client;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -57,17 +59,31 @@ class ClientWriterRunner implements Runnable {
         } catch (InterruptedException ie) {}
     }
 
+    /**
+     *  Each time we wake up, take everything in the queue
+     *  and hand it to the runner to send with a single write and flush.
+     */
     public void run() {
-        I2CPMessage msg;
-        while (!_runner.getIsDead()) {
+        List<I2CPMessage> batch = new ArrayList<I2CPMessage>(32);
+        boolean done = false;
+        while (!done && !_runner.getIsDead()) {
             try {
-                msg = _messagesToWrite.take();
+                batch.add(_messagesToWrite.take());
             } catch (InterruptedException ie) {
                 continue;
             }
-            if (msg.getType() == PoisonI2CPMessage.MESSAGE_TYPE)
-                break;
-            _runner.writeMessage(msg);
+            _messagesToWrite.drainTo(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).getType() == PoisonI2CPMessage.MESSAGE_TYPE) {
+                    // send what was queued before it
+                    batch.subList(i, batch.size()).clear();
+                    done = true;
+                    break;
+                }
+            }
+            if (!batch.isEmpty())
+                _runner.writeMessages(batch);
+            batch.clear();
         }
     }
 }
@@ -1,5 +1,7 @@
 package net.i2p.router.client;
 
+import java.util.List;
+
 import net.i2p.CoreVersion;
 import net.i2p.data.i2cp.I2CPMessage;
 import net.i2p.data.i2cp.I2CPMessageException;
@@ -49,11 +51,11 @@ class QueuedClientConnectionRunner extends ClientConnectionRunner {
     
     /**
      *  In super(), doSend queues it to the writer thread and
-     *  the writer thread calls writeMessage() to write to the output stream.
+     *  the writer thread calls writeMessages() to write to the output stream.
      *  Since we have no writer thread this shouldn't happen.
      */
     @Override
-    void writeMessage(I2CPMessage msg) {
+    void writeMessages(List<I2CPMessage> msgs) {
         throw new RuntimeException("huh?");
     }
     
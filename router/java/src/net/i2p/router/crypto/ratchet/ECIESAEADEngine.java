@@ -41,6 +41,7 @@ import static net.i2p.router.crypto.ratchet.RatchetPayload.*;
 import net.i2p.router.LeaseSetKeys;
 import net.i2p.router.Router;
 import net.i2p.router.RouterContext;
+import net.i2p.router.message.CloveHandler;
 import net.i2p.router.message.CloveSet;
 import net.i2p.util.Log;
 import net.i2p.util.SimpleByteCache;
@@ -63,6 +64,8 @@ public final class ECIESAEADEngine {
     // For now, started on demand, see getHybridKeyFactory()
     private MLKEMKeyFactory _mlkem768Thread;
     private boolean _isRunning;
+    /** reused for ES payloads, see getPLCallback() */
+    private final ThreadLocal<PLCallback> _esCallback;
 
     private static final byte[] ZEROLEN = new byte[0];
     private static final int TAGLEN = 8;
@@ -124,6 +127,7 @@ public final class ECIESAEADEngine {
         _muxedPQEngine = new MuxedPQEngine(ctx);
         _hkdf = new HKDF(ctx);
         _edhThread = new Elg2KeyFactory(ctx);
+        _esCallback = new ThreadLocal<PLCallback>();
         
         _context.statManager().createFrequencyStat("crypto.eciesAEAD.encryptNewSession",
                                                    "how frequently we encrypt to a new ECIES/AEAD+SessionTag session?",
@@ -174,7 +178,23 @@ public final class ECIESAEADEngine {
      * @return decrypted data or null on failure
      */
     public CloveSet decrypt(byte data[], PrivateKey elgKey, PrivateKey ecKey, MuxedSKM keyManager) throws DataFormatException {
-        return _muxedEngine.decrypt(data, elgKey, ecKey, keyManager);
+        return _muxedEngine.decrypt(data, elgKey, ecKey, keyManager, null);
+    }
+
+    /**
+     * Try to decrypt the message with one or both of the given private keys.
+     * Existing session messages are decrypted in place, and their cloves
+     * passed to the handler instead of returned in the CloveSet.
+     *
+     * @param elgKey must be ElG, non-null
+     * @param ecKey must be EC, non-null
+     * @param handler may be null
+     * @return decrypted data or null on failure
+     * @since 0.9.71
+     */
+    public CloveSet decrypt(byte data[], PrivateKey elgKey, PrivateKey ecKey, MuxedSKM keyManager,
+                            CloveHandler handler) throws DataFormatException {
+        return _muxedEngine.decrypt(data, elgKey, ecKey, keyManager, handler);
     }
 
     /**
@@ -186,7 +206,23 @@ public final class ECIESAEADEngine {
      * @since 0.9.67
      */
     public CloveSet decrypt(byte data[], PrivateKey ecKey, PrivateKey pqKey, MuxedPQSKM keyManager) throws DataFormatException {
-        return _muxedPQEngine.decrypt(data, ecKey, pqKey, keyManager);
+        return _muxedPQEngine.decrypt(data, ecKey, pqKey, keyManager, null);
+    }
+
+    /**
+     * Try to decrypt the message with one or both of the given private keys.
+     * Existing session messages are decrypted in place, and their cloves
+     * passed to the handler instead of returned in the CloveSet.
+     *
+     * @param ecKey must be EC, non-null
+     * @param pqKey must be PQ, non-null
+     * @param handler may be null
+     * @return decrypted data or null on failure
+     * @since 0.9.71
+     */
+    public CloveSet decrypt(byte data[], PrivateKey ecKey, PrivateKey pqKey, MuxedPQSKM keyManager,
+                            CloveHandler handler) throws DataFormatException {
+        return _muxedPQEngine.decrypt(data, ecKey, pqKey, keyManager, handler);
     }
 
     /**
@@ -203,8 +239,26 @@ public final class ECIESAEADEngine {
      */
     public CloveSet decrypt(byte data[], PrivateKey targetPrivateKey,
                             RatchetSKM keyManager) throws DataFormatException {
+        return decrypt(data, targetPrivateKey, keyManager, null);
+    }
+
+    /**
+     * Decrypt the message using the given private key
+     * and using tags from the specified key manager.
+     *
+     * Existing session messages, the vast majority, are decrypted in place,
+     * and their cloves are passed to the handler instead of being collected
+     * in the returned CloveSet, which will then be empty.
+     * New session and new session reply cloves are returned in the CloveSet as usual.
+     *
+     * @param handler may be null
+     * @return decrypted data or null on failure
+     * @since 0.9.71
+     */
+    public CloveSet decrypt(byte data[], PrivateKey targetPrivateKey,
+                            RatchetSKM keyManager, CloveHandler handler) throws DataFormatException {
         try {
-            return x_decrypt(data, targetPrivateKey, keyManager);
+            return x_decrypt(data, targetPrivateKey, keyManager, handler);
         } catch (DataFormatException dfe) {
             if (_log.shouldWarn())
                 _log.warn("ECIES decrypt error", dfe);
@@ -215,8 +269,11 @@ public final class ECIESAEADEngine {
         }
     }
 
+    /**
+     * @param handler may be null
+     */
     private CloveSet x_decrypt(byte data[], PrivateKey targetPrivateKey,
-                               RatchetSKM keyManager) throws DataFormatException {
+                               RatchetSKM keyManager, CloveHandler handler) throws DataFormatException {
         checkType(targetPrivateKey.getType());
         if (data == null) {
             if (_log.shouldLog(Log.ERROR)) _log.error("Null data being decrypted?");
@@ -228,13 +285,11 @@ public final class ECIESAEADEngine {
             return null;
         }
 
-        byte tag[] = new byte[TAGLEN];
-        System.arraycopy(data, 0, tag, 0, TAGLEN);
-        RatchetSessionTag st = new RatchetSessionTag(tag);
+        RatchetSessionTag st = new RatchetSessionTag(DataHelper.fromLong8(data, 0));
         SessionKeyAndNonce key = keyManager.consumeTag(st);
         CloveSet decrypted;
         if (key != null) {
-            decrypted = xx_decryptFast(tag, st, key, data, targetPrivateKey, keyManager);
+            decrypted = xx_decryptFast(st, key, data, targetPrivateKey, keyManager, handler);
             // we do NOT retry as NS
         } else {
             decrypted = x_decryptSlow(data, targetPrivateKey, keyManager);
@@ -252,8 +307,20 @@ public final class ECIESAEADEngine {
      */
     CloveSet decryptFast(byte data[], PrivateKey targetPrivateKey,
                          RatchetSKM keyManager) throws DataFormatException {
+        return decryptFast(data, targetPrivateKey, keyManager, null);
+    }
+
+    /**
+     * NSR/ES only. For MuxedEngine use only.
+     *
+     * @param handler may be null
+     * @return decrypted data or null on failure
+     * @since 0.9.71
+     */
+    CloveSet decryptFast(byte data[], PrivateKey targetPrivateKey,
+                         RatchetSKM keyManager, CloveHandler handler) throws DataFormatException {
         try {
-            return x_decryptFast(data, targetPrivateKey, keyManager);
+            return x_decryptFast(data, targetPrivateKey, keyManager, handler);
         } catch (DataFormatException dfe) {
             if (_log.shouldWarn())
                 _log.warn("ECIES decrypt error", dfe);
@@ -271,19 +338,17 @@ public final class ECIESAEADEngine {
      * @since 0.9.46
      */
     private CloveSet x_decryptFast(byte data[], PrivateKey targetPrivateKey,
-                                   RatchetSKM keyManager) throws DataFormatException {
+                                   RatchetSKM keyManager, CloveHandler handler) throws DataFormatException {
         if (data.length < MIN_ENCRYPTED_SIZE) {
             if (_log.shouldDebug())
                 _log.debug("Data is less than the minimum size (" + data.length + " < " + MIN_ENCRYPTED_SIZE + ")");
             return null;
         }
-        byte tag[] = new byte[TAGLEN];
-        System.arraycopy(data, 0, tag, 0, TAGLEN);
-        RatchetSessionTag st = new RatchetSessionTag(tag);
+        RatchetSessionTag st = new RatchetSessionTag(DataHelper.fromLong8(data, 0));
         SessionKeyAndNonce key = keyManager.consumeTag(st);
         CloveSet decrypted;
         if (key != null) {
-            decrypted = xx_decryptFast(tag, st, key, data, targetPrivateKey, keyManager);
+            decrypted = xx_decryptFast(st, key, data, targetPrivateKey, keyManager, handler);
         } else {
             decrypted = null;
         }
@@ -295,19 +360,20 @@ public final class ECIESAEADEngine {
      *
      * @param key non-null
      * @param data non-null
+     * @param handler may be null, for ES only
      * @return decrypted data or null on failure
      * @since 0.9.46
      */
-    private CloveSet xx_decryptFast(byte[] tag, RatchetSessionTag st, SessionKeyAndNonce key,
+    private CloveSet xx_decryptFast(RatchetSessionTag st, SessionKeyAndNonce key,
                                     byte data[], PrivateKey targetPrivateKey,
-                                    RatchetSKM keyManager) throws DataFormatException {
+                                    RatchetSKM keyManager, CloveHandler handler) throws DataFormatException {
         CloveSet decrypted;
         final boolean shouldDebug = _log.shouldDebug();
         HandshakeState state = key.getHandshakeState();
         if (state == null) {
             if (shouldDebug)
                 _log.debug("Decrypting ES with tag: " + st.toBase64() + " key: " + key + ": " + data.length + " bytes");
-            decrypted = decryptExistingSession(tag, data, key, targetPrivateKey, keyManager);
+            decrypted = decryptExistingSession(data, key, targetPrivateKey, keyManager, handler);
         } else {
             // it's important not to attempt decryption for too-short packets,
             // because Noise will destroy() the handshake state on failure,
@@ -317,7 +383,7 @@ public final class ECIESAEADEngine {
             if (data.length >= min) {
                 if (shouldDebug)
                     _log.debug("Decrypting NSR with tag: " + st.toBase64() + " key: " + key + ": " + data.length + " bytes");
-                decrypted = decryptNewSessionReply(tag, data, state, keyManager);
+                decrypted = decryptNewSessionReply(st.getData(), data, state, keyManager);
             } else {
                 decrypted = null;
                 if (_log.shouldWarn())
@@ -931,18 +997,24 @@ public final class ECIESAEADEngine {
      *
      * If anything doesn't match up in decryption, it returns null
      *
-     * @param tag 8 bytes for ad, same as first 8 bytes of data
-     * @param data 24 bytes minimum, first 8 bytes will be skipped
+     * As of 0.9.71, if handler is non-null, the cloves are passed to it
+     * after all other blocks are processed, and the returned CloveSet is empty.
+     * The payload callback is reused, so there are no per-message allocations here
+     * other than for the cloves themselves.
+     *
+     * @param data 24 bytes minimum, first 8 bytes are the tag, used as the ad
      * @param keyManager for ack callbacks
+     * @param handler may be null
      * @return decrypted data or null on failure
      *
      */
-    private CloveSet decryptExistingSession(byte[] tag, byte[] data, SessionKeyAndNonce key,
-                                            PrivateKey targetPrivateKey, RatchetSKM keyManager)
+    private CloveSet decryptExistingSession(byte[] data, SessionKeyAndNonce key,
+                                            PrivateKey targetPrivateKey, RatchetSKM keyManager,
+                                            CloveHandler handler)
                                           throws DataFormatException {
         int nonce = key.getNonce();
         // this decrypts in-place
-        boolean ok = decryptAEADBlock(tag, data, TAGLEN, data.length - TAGLEN, key, nonce);
+        boolean ok = decryptAEADBlock(data, 0, TAGLEN, data, TAGLEN, data.length - TAGLEN, key, nonce);
         if (!ok) {
             if (_log.shouldWarn())
                 _log.warn("Decrypt of ES failed");
@@ -955,59 +1027,79 @@ public final class ECIESAEADEngine {
             return NO_CLOVES;
         }
         PublicKey remote = key.getRemoteKey();
-        PLCallback pc = new PLCallback(keyManager, remote);
+        PLCallback pc = getPLCallback(keyManager, remote);
         try {
-            int blocks = RatchetPayload.processPayload(_context, pc, data, TAGLEN, data.length - (TAGLEN + MACLEN), false);
-            if (_log.shouldDebug())
-                _log.debug("Processed " + blocks + " blocks in IB ES");
-        } catch (DataFormatException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new DataFormatException("ES payload error", e);
-        }
-        boolean shouldAck = false;
-        if (pc.nextKeys != null) {
-            for (NextSessionKey nextKey : pc.nextKeys) {
-                keyManager.nextKeyReceived(remote, nextKey);
-                if (!nextKey.isReverse())
-                    shouldAck = true;
+            try {
+                int blocks = RatchetPayload.processPayload(_context, pc, data, TAGLEN, data.length - (TAGLEN + MACLEN), false);
+                if (_log.shouldDebug())
+                    _log.debug("Processed " + blocks + " blocks in IB ES");
+            } catch (DataFormatException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new DataFormatException("ES payload error", e);
             }
+            boolean shouldAck = false;
+            if (pc.nextKeys != null) {
+                for (NextSessionKey nextKey : pc.nextKeys) {
+                    keyManager.nextKeyReceived(remote, nextKey);
+                    if (!nextKey.isReverse())
+                        shouldAck = true;
+                }
+            }
+            if (pc.ackRequested) {
+                keyManager.ackRequested(remote, key.getID(), nonce);
+                shouldAck = true;
+            }
+            if (shouldAck) {
+                setResponseTimer(remote, pc.cloveSet, keyManager);
+            }
+            if (pc.cloveSet.isEmpty()) {
+                // this is legal
+                if (_log.shouldDebug())
+                    _log.debug("No garlic block in ES payload");
+                return NO_CLOVES;
+            }
+            if (handler != null) {
+                // may reenter for garlic-in-garlic, that will get a new PLCallback
+                // catch here, so a handler error is not logged as a decrypt error
+                // and does not drop the remaining cloves
+                for (int i = 0; i < pc.cloveSet.size(); i++) {
+                    GarlicClove clove = pc.cloveSet.get(i);
+                    try {
+                        handler.handleClove(clove);
+                    } catch (RuntimeException re) {
+                        _log.error("Error handling clove " + clove.getCloveId(), re);
+                    }
+                }
+                return NO_CLOVES;
+            }
+            int num = pc.cloveSet.size();
+            GarlicClove[] arr = new GarlicClove[num];
+            // msg id and expiration not checked in GarlicMessageReceiver
+            CloveSet rv = new CloveSet(pc.cloveSet.toArray(arr), Certificate.NULL_CERT, 0, pc.datetime);
+            return rv;
+        } finally {
+            releasePLCallback(pc);
         }
-        if (pc.ackRequested) {
-            keyManager.ackRequested(remote, key.getID(), nonce);
-            shouldAck = true;
-        }
-        if (shouldAck) {
-            setResponseTimer(remote, pc.cloveSet, keyManager);
-        }
-        if (pc.cloveSet.isEmpty()) {
-            // this is legal
-            if (_log.shouldDebug())
-                _log.debug("No garlic block in ES payload");
-            return NO_CLOVES;
-        }
-        int num = pc.cloveSet.size();
-        GarlicClove[] arr = new GarlicClove[num];
-        // msg id and expiration not checked in GarlicMessageReceiver
-        CloveSet rv = new CloveSet(pc.cloveSet.toArray(arr), Certificate.NULL_CERT, 0, pc.datetime);
-        return rv;
     }
 
     /*
      * With optional AD.
      * Decrypts IN PLACE. Decrypted data will be at encrypted[offset:offset + len - 16].
      *
-     * @param ad may be null
+     * @param ad may be null, may be the encrypted array
      * @return success
+     * @since 0.9.71 added adOffset and adLength
      */
-    private boolean decryptAEADBlock(byte[] ad, byte encrypted[], int offset, int encryptedLen, SessionKey key,
-                                    long n) throws DataFormatException {
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+    private boolean decryptAEADBlock(byte[] ad, int adOffset, int adLength,
+                                     byte encrypted[], int offset, int encryptedLen, SessionKey key,
+                                     long n) throws DataFormatException {
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(key.getData(), 0);
         chacha.setNonce(n);
         try {
             // this is safe to do in-place, it checks the mac before starting decryption
-            chacha.decryptWithAd(ad, encrypted, offset, encrypted, offset, encryptedLen);
+            chacha.decryptWithAd(ad, adOffset, adLength, encrypted, offset, encrypted, offset, encryptedLen);
         } catch (GeneralSecurityException e) {
             if (_log.shouldWarn())
                 _log.warn("Unable to decrypt AEAD block", e);
@@ -1407,7 +1499,7 @@ public final class ECIESAEADEngine {
      * @return space will be left at beginning for ad (tag), null on error
      */
     private final byte[] encryptAEADBlock(byte[] ad, byte data[], SessionKey key, long n) {
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(key.getData(), 0);
         chacha.setNonce(n);
         int adsz = ad != null ? ad.length : 0;
@@ -1434,15 +1526,48 @@ public final class ECIESAEADEngine {
     // payload stuff
     /////////////////////////////////////////////////////////
 
+    /**
+     *  Get the reusable ES callback for this thread, or a new one if it's in use.
+     *  Caller must call releasePLCallback() when done.
+     *
+     *  @param keyManager non-null
+     *  @param remoteKey non-null
+     *  @since 0.9.71
+     */
+    private PLCallback getPLCallback(RatchetSKM keyManager, PublicKey remoteKey) {
+        PLCallback rv = _esCallback.get();
+        if (rv == null) {
+            rv = new PLCallback();
+            _esCallback.set(rv);
+        } else if (rv.inUse) {
+            // reentrant, garlic-in-garlic
+            return new PLCallback(keyManager, remoteKey);
+        }
+        rv.inUse = true;
+        rv.reset(keyManager, remoteKey);
+        return rv;
+    }
+
+    /**
+     *  Clear it so we don't hold on to the cloves.
+     *  @since 0.9.71
+     */
+    private static void releasePLCallback(PLCallback pc) {
+        pc.reset(null, null);
+        pc.inUse = false;
+    }
+
     private class PLCallback implements RatchetPayload.PayloadCallback {
         /** non null, may be empty */
         public final List<GarlicClove> cloveSet = new ArrayList<GarlicClove>(3);
-        private final RatchetSKM skm;
-        private final PublicKey remote;
+        private RatchetSKM skm;
+        private PublicKey remote;
         public long datetime;
         /** null or non-empty */
         public List<NextSessionKey> nextKeys;
         public boolean ackRequested;
+        /** for reuse, see getPLCallback() */
+        boolean inUse;
 
         /**
          * NS/NSR
@@ -1462,6 +1587,21 @@ public final class ECIESAEADEngine {
             remote = remoteKey;
         }
 
+        /**
+         * For reuse
+         * @param keyManager may be null
+         * @param remoteKey may be null
+         * @since 0.9.71
+         */
+        void reset(RatchetSKM keyManager, PublicKey remoteKey) {
+            skm = keyManager;
+            remote = remoteKey;
+            cloveSet.clear();
+            datetime = 0;
+            nextKeys = null;
+            ackRequested = false;
+        }
+
         public void gotDateTime(long time) throws DataFormatException {
             if (_log.shouldDebug())
                 _log.debug("Got DATE block: " + DataHelper.formatTime(time));
@@ -4,6 +4,7 @@ import net.i2p.crypto.EncType;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.PrivateKey;
 import net.i2p.router.RouterContext;
+import net.i2p.router.message.CloveHandler;
 import net.i2p.router.message.CloveSet;
 import net.i2p.util.Log;
 
@@ -27,9 +28,11 @@ final class MuxedEngine {
      *
      * @param elgKey must be ElG, non-null
      * @param ecKey must be EC, non-null
+     * @param handler may be null, for ratchet existing session messages only, since 0.9.71
      * @return decrypted data or null on failure
      */
-    public CloveSet decrypt(byte data[], PrivateKey elgKey, PrivateKey ecKey, MuxedSKM keyManager) throws DataFormatException {
+    public CloveSet decrypt(byte data[], PrivateKey elgKey, PrivateKey ecKey, MuxedSKM keyManager,
+                            CloveHandler handler) throws DataFormatException {
         if (elgKey.getType() != EncType.ELGAMAL_2048 ||
             ecKey.getType() != EncType.ECIES_X25519)
             throw new IllegalArgumentException();
@@ -39,7 +42,7 @@ final class MuxedEngine {
         boolean preferRatchet = keyManager.preferRatchet();
         if (preferRatchet) {
             // Ratchet Tag
-            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM());
+            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM(), handler);
             if (rv != null)
                 return rv;
             if (debug)
@@ -65,7 +68,7 @@ final class MuxedEngine {
         }
         if (!preferRatchet) {
             // Ratchet Tag
-            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM());
+            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM(), handler);
             if (rv != null)
                 return rv;
             if (debug)
@@ -5,6 +5,7 @@ import net.i2p.crypto.EncType;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.PrivateKey;
 import net.i2p.router.RouterContext;
+import net.i2p.router.message.CloveHandler;
 import net.i2p.router.message.CloveSet;
 import net.i2p.util.Log;
 
@@ -30,9 +31,11 @@ final class MuxedPQEngine {
      *
      * @param ecKey must be EC, non-null
      * @param pqKey must be PQ, non-null
+     * @param handler may be null, for ratchet existing session messages only, since 0.9.71
      * @return decrypted data or null on failure
      */
-    public CloveSet decrypt(byte data[], PrivateKey ecKey, PrivateKey pqKey, MuxedPQSKM keyManager) throws DataFormatException {
+    public CloveSet decrypt(byte data[], PrivateKey ecKey, PrivateKey pqKey, MuxedPQSKM keyManager,
+                            CloveHandler handler) throws DataFormatException {
         if (ecKey.getType() != EncType.ECIES_X25519 ||
             pqKey.getType().getBaseAlgorithm() != EncAlgo.ECIES_MLKEM)
             throw new IllegalArgumentException();
@@ -42,7 +45,7 @@ final class MuxedPQEngine {
         boolean preferRatchet = keyManager.preferRatchet();
         if (preferRatchet) {
             // Ratchet Tag
-            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM());
+            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM(), handler);
             if (rv != null)
                 return rv;
             if (debug)
@@ -50,14 +53,14 @@ final class MuxedPQEngine {
         }
         // PQ
         // Ratchet Tag
-        rv = _context.eciesEngine().decryptFast(data, pqKey, keyManager.getPQSKM());
+        rv = _context.eciesEngine().decryptFast(data, pqKey, keyManager.getPQSKM(), handler);
         if (rv != null)
             return rv;
         if (debug)
             _log.debug("PQ tag not found");
         if (!preferRatchet) {
             // Ratchet Tag
-            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM());
+            rv = _context.eciesEngine().decryptFast(data, ecKey, keyManager.getECSKM(), handler);
             if (rv != null)
                 return rv;
             if (debug)
@@ -0,0 +1,22 @@
+package net.i2p.router.message;
+
+import net.i2p.data.i2np.GarlicClove;
+
+/**
+ *  Takes the cloves of a decrypted garlic message one at a time,
+ *  instead of having them collected into a CloveSet.
+ *
+ *  @since 0.9.71
+ */
+public interface CloveHandler {
+
+    /**
+     *  Called on the decrypting thread, after the whole message
+     *  has been decrypted and parsed.
+     *  A RuntimeException thrown here is logged by the caller,
+     *  and the remaining cloves are still handled.
+     *
+     *  @param clove non-null, not yet validated
+     */
+    public void handleClove(GarlicClove clove);
+}
@@ -49,9 +49,12 @@ public class GarlicMessageParser {
      *
      *  @param encryptionKey either type
      *  @param skm use tags from this session key manager
+     *  @param handler may be null. If non-null, the cloves of ratchet existing session messages
+     *                 are passed to it and not included in the returned CloveSet. Since 0.9.71
      *  @return null on error
      */
-    CloveSet getGarlicCloves(GarlicMessage message, PrivateKey encryptionKey, SessionKeyManager skm) {
+    CloveSet getGarlicCloves(GarlicMessage message, PrivateKey encryptionKey, SessionKeyManager skm,
+                             CloveHandler handler) {
         byte encData[] = message.getData();
         byte decrData[];
         try {
@@ -80,7 +83,7 @@ public class GarlicMessageParser {
                         _log.warn("No SKM to decrypt ECIES");
                     return null;
                 }
-                CloveSet rv = _context.eciesEngine().decrypt(encData, encryptionKey, rskm);
+                CloveSet rv = _context.eciesEngine().decrypt(encData, encryptionKey, rskm, handler);
                 if (rv != null) {
                     if (_log.shouldDebug())
                         _log.debug("ECIES decrypt success, cloves: " + rv.getCloveCount());
@@ -106,7 +109,7 @@ public class GarlicMessageParser {
                         _log.warn("No SKM to decrypt PQ");
                     return null;
                 }
-                CloveSet rv = _context.eciesEngine().decrypt(encData, encryptionKey, rskm);
+                CloveSet rv = _context.eciesEngine().decrypt(encData, encryptionKey, rskm, handler);
                 if (rv != null) {
                     if (_log.shouldDebug())
                         _log.debug("PQ decrypt success, cloves: " + rv.getCloveCount());
@@ -151,31 +154,34 @@ public class GarlicMessageParser {
      *  @param elgKey must be ElG OR PQ, non-null
      *  @param ecKey must be EC, non-null
      *  @param skm use tags from this session key manager
+     *  @param handler may be null. If non-null, the cloves of ratchet existing session messages
+     *                 are passed to it and not included in the returned CloveSet. Since 0.9.71
      *  @return null on error
      *  @since 0.9.44
      */
-    CloveSet getGarlicCloves(GarlicMessage message, PrivateKey elgKey, PrivateKey ecKey, SessionKeyManager skm) {
+    CloveSet getGarlicCloves(GarlicMessage message, PrivateKey elgKey, PrivateKey ecKey, SessionKeyManager skm,
+                             CloveHandler handler) {
         byte encData[] = message.getData();
         CloveSet rv;
         try {
             switch (skm.getSKMType()) {
               case MUXED: {
                 MuxedSKM mskm = (MuxedSKM) skm;
-                rv = _context.eciesEngine().decrypt(encData, elgKey, ecKey, mskm);
+                rv = _context.eciesEngine().decrypt(encData, elgKey, ecKey, mskm, handler);
                 break;
               }
 
               case MUXEDPQ: {
                 MuxedPQSKM mskm = (MuxedPQSKM) skm;
                 // EC is first
-                rv = _context.eciesEngine().decrypt(encData, ecKey, elgKey, mskm);
+                rv = _context.eciesEngine().decrypt(encData, ecKey, elgKey, mskm, handler);
                 break;
               }
 
               case RATCHET:
                 // unlikely, if we have two keys we should have a MuxedSKM
                 RatchetSKM rskm = (RatchetSKM) skm;
-                rv = _context.eciesEngine().decrypt(encData, ecKey, rskm);
+                rv = _context.eciesEngine().decrypt(encData, ecKey, rskm, handler);
                 break;
 
               default:
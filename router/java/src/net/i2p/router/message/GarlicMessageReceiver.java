@@ -25,8 +25,10 @@ import net.i2p.util.Log;
  * Decrypt a garlic message and pass off any valid cloves to the configured
  * receiver to dispatch as they choose.
  *
+ * As of 0.9.71, cloves from ratchet existing session messages are handed
+ * to us directly by the decrypting engine, without building a CloveSet.
  */
-public class GarlicMessageReceiver {
+public class GarlicMessageReceiver implements CloveHandler {
     private final RouterContext _context;
     private final Log _log;
     private final CloveReceiver _receiver;
@@ -97,9 +99,9 @@ public class GarlicMessageReceiver {
         // Pass both keys if available for muxed decrypt
         CloveSet set;
         if (decryptionKey2 != null)
-            set = _context.garlicMessageParser().getGarlicCloves(message, decryptionKey, decryptionKey2, skm);
+            set = _context.garlicMessageParser().getGarlicCloves(message, decryptionKey, decryptionKey2, skm, this);
         else
-            set = _context.garlicMessageParser().getGarlicCloves(message, decryptionKey, skm);
+            set = _context.garlicMessageParser().getGarlicCloves(message, decryptionKey, skm, this);
         if (set != null) {
             for (int i = 0; i < set.getCloveCount(); i++) {
                 GarlicClove clove = set.getClove(i);
@@ -121,8 +123,9 @@ public class GarlicMessageReceiver {
     /**
      * Validate and pass off any valid cloves to the receiver
      *
+     * @since public since 0.9.71, for CloveHandler
      */
-    private void handleClove(GarlicClove clove) {
+    public void handleClove(GarlicClove clove) {
         if (!isValid(clove)) {
             //if (_log.shouldLog(Log.WARN))
             //    _log.warn("Invalid clove " + clove);
@@ -1,100 +1,50 @@
 package net.i2p.router.message;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.i2p.data.Hash;
-import net.i2p.data.Lease;
 import net.i2p.data.LeaseSet;
-import net.i2p.router.Router;
+import net.i2p.data.Lease;
 import net.i2p.router.RouterContext;
 import net.i2p.router.TunnelInfo;
-import net.i2p.util.SimpleTimer;
+import net.i2p.util.SystemVersion;
 
 /**
  *  Helper for OCMOSJ
  *
  * This is the place where we make I2P go fast.
  *
- * We have five static caches.
- * - The LeaseSet cache is used to decide whether to bundle our own leaseset,
+ * We keep one Route record per source+dest pair, holding:
+ * - The LeaseSet last acked by the far end, used to decide whether to bundle our own leaseset,
  *   which minimizes overhead.
- * - The Lease cache is used to persistently send to the same lease for the destination,
+ * - The Lease, used to persistently send to the same lease for the destination,
  *   which keeps the streaming lib happy by minimizing out-of-order delivery.
- * - The Tunnel and BackloggedTunnel caches are used to persistently use the same outbound tunnel
+ * - The Tunnel and BackloggedTunnel, used to persistently use the same outbound tunnel
  *   for the same destination,
  *   which keeps the streaming lib happy by minimizing out-of-order delivery.
- * - The last reply requested cache ensures that a reply is requested every so often,
+ * - The last reply requested time, which ensures that a reply is requested every so often,
  *   so that failed tunnels are recognized.
  *
+ * As of 0.9.71, these are fields in a single concurrent record instead of five
+ * separate maps, so each message does one lookup and takes no global lock.
+ * Idle records are removed incrementally as new ones are added,
+ * and the total is bounded, except that records used recently enough
+ * to still be held by a job are never removed, so its updates aren't lost.
+ *
  *  @since 0.9 moved out of OCMOSJ
  */
 public class OutboundCache {
 
-    /**
-     * Use the same outbound tunnel as we did for the same destination previously,
-     * if possible, to keep the streaming lib happy
-     * Use two caches - although a cache of a list of tunnels per dest might be
-     * more elegant.
-     * Key the caches on the source+dest pair.
-     *
-     * NOT concurrent.
-     */
-    final Map<HashPair, TunnelInfo> tunnelCache = new HashMap<HashPair, TunnelInfo>(64);
-
-    /*
-     * NOT concurrent.
-     */
-    final Map<HashPair, TunnelInfo> backloggedTunnelCache = new HashMap<HashPair, TunnelInfo>(64);
-
-    /**
-      * Returns the reply lease set if forced to do so,
-      * or if configured to do so,
-      * or if a certain percentage of the time if configured to do so,
-      * or if our lease set has changed since we last talked to them,
-      * or 10% of the time anyway so they don't forget us (disabled for now),
-      * or null otherwise.
-      *
-      * Note that wantACK randomly forces us another 5% of the time.
-      *
-      * We don't want to do this too often as a typical 2-lease leaseset
-      * in a DatabaseStoreMessage is 861+37=898 bytes -
-      * when added to garlic it's a 1056-byte addition total, which is huge.
-      *
-      * Key the cache on the source+dest pair.
-      *
-      * Concurrent.
-      */
-    final ConcurrentHashMap<HashPair, LeaseSet> leaseSetCache = new ConcurrentHashMap<HashPair, LeaseSet>(64);
+    private final ConcurrentHashMap<HashPair, Route> _routes = new ConcurrentHashMap<HashPair, Route>(64);
 
     /**
-     * Use the same inbound tunnel (i.e. lease) as we did for the same destination previously,
-     * if possible, to keep the streaming lib happy
-     * Key the caches on the source+dest pair.
-     *
-     * We're going to use the lease until it expires, as long as it remains in the current leaseSet.
-     *
-     * If not found,
-     * fetch the next lease that we should try sending through, randomly chosen
-     * from within the sorted leaseSet (NOT sorted by # of failures through each 
-     * lease).
-     *
-     * Concurrent.
+     * Routes in insertion order, for incremental cleanup.
+     * Active routes are moved to the tail when they come up.
      */
-    final ConcurrentHashMap<HashPair, Lease> leaseCache = new ConcurrentHashMap<HashPair, Lease>(64);
-
-    /**
-     * This cache is used to ensure that we request a reply every so often.
-     * Hopefully this allows the router to recognize a failed tunnel and switch,
-     * before upper layers like streaming lib fail, even for low-bandwidth
-     * connections like IRC.
-     *
-     * Concurrent.
-     */
-    final Map<HashPair, Long> lastReplyRequestCache = new ConcurrentHashMap<HashPair, Long>(64);
-
+    private final Queue<Route> _cleanQueue = new ConcurrentLinkedQueue<Route>();
 
     /**
      * This cache is used to keep track of when we receive a leaseSet from a router
@@ -106,11 +56,24 @@ public class OutboundCache {
 
     private final RouterContext _context;
 
-    private static final int CLEAN_INTERVAL = 5*60*1000;
-    
+    /**
+     * Remove routes that haven't been used in this long.
+     * Leases and the leases in our leasesets are all expired by then.
+     */
+    static final long IDLE_TIME = 10*60*1000;
+    /**
+     * Don't remove routes used more recently than this, even when over the limit.
+     * Longer than a job can hold one, i.e. the max OCMOSJ timeout plus the ack.
+     */
+    static final long IN_USE_TIME = 2*60*1000;
+    /** how many queued routes to check each time we add one */
+    private static final int CLEAN_PER_ADD = 2;
+    /** how many queued routes to check each time we add one, when over the limit */
+    private static final int MAX_CLEAN_PER_ADD = 16;
+    private static final int MAX_ROUTES = SystemVersion.isSlow() ? 2048 : 8192;
+
     public OutboundCache(RouterContext ctx) {
         _context = ctx;
-        _context.simpleTimer2().addPeriodicEvent(new OCMOSJCacheCleaner(), CLEAN_INTERVAL, CLEAN_INTERVAL);
     }
 
     /**
@@ -138,108 +101,157 @@ public class OutboundCache {
     }
 
     /**
-     * Called on failure to give us a better chance of success next time.
-     * Of course this is probably 60s too late.
-     * And we could pick the bad ones at random again.
-     * Or remove entries that were sent and succeeded after this was sent but before this failed.
-     * But it's a start.
+     * Everything we cache for a source + dest pair.
      *
-     * @param lease may be null
-     * @param inTunnel may be null
-     * @param outTunnel may be null
+     * The lease set, lease, and reply request fields are atomic.
+     * The two tunnel fields are read and written together,
+     * caller must synch on the Route.
+     *
+     * @since 0.9.71
      */
-    void clearCaches(HashPair hashPair, Lease lease, TunnelInfo inTunnel, TunnelInfo outTunnel) {
-        if (inTunnel != null) {   // if we wanted an ack, we sent our lease too
-                leaseSetCache.remove(hashPair);
-        }
-        if (lease != null) {
-            // remove only if still equal to lease (concurrent)
-            leaseCache.remove(hashPair, lease);
+    static class Route {
+        final HashPair key;
+        /** last reply LS acked by the far end */
+        final AtomicReference<LeaseSet> leaseSet = new AtomicReference<LeaseSet>();
+        /** the far end's lease we're sending to */
+        final AtomicReference<Lease> lease = new AtomicReference<Lease>();
+        /** LOCKING: this */
+        TunnelInfo tunnel;
+        /** LOCKING: this */
+        TunnelInfo backloggedTunnel;
+        /** 0 if never */
+        volatile long lastReplyRequest;
+        volatile long lastUsed;
+
+        private Route(HashPair hp, long now) {
+            key = hp;
+            lastUsed = now;
         }
-        if (outTunnel != null) {
-            synchronized(tunnelCache) {
-                TunnelInfo t = backloggedTunnelCache.get(hashPair);
-                if (t != null && t.equals(outTunnel))
-                    backloggedTunnelCache.remove(hashPair);
-                t = tunnelCache.get(hashPair);
-                if (t != null && t.equals(outTunnel))
-                    tunnelCache.remove(hashPair);
+
+        /**
+         * Only write if changed by a second or more,
+         * to avoid contention on busy routes.
+         *
+         * @return true if written
+         */
+        private boolean touch(long now) {
+            if (now - lastUsed >= 1000) {
+                lastUsed = now;
+                return true;
             }
+            return false;
         }
-    }
 
-    /**
-     *  @since 0.8.8
-     */
-    public void clearAllCaches() {
-        leaseSetCache.clear();
-        leaseCache.clear();
-        synchronized(tunnelCache) {
-            backloggedTunnelCache.clear();
-            tunnelCache.clear();
+        /** the local destination */
+        Hash getFrom() {
+            return key.sh;
         }
-        lastReplyRequestCache.clear();
     }
 
     /**
-     * Clean out old leaseSets
+     * Get or create the record for this pair, and mark it as used.
+     *
+     * @param now the caller's current time, so we don't need to ask the clock again
+     * @return non-null
+     * @since 0.9.71
      */
-    private static void cleanLeaseSetCache(RouterContext ctx, Map<HashPair, LeaseSet> tc) {
-        long now = ctx.clock().now();
-        for (Iterator<LeaseSet> iter = tc.values().iterator(); iter.hasNext(); ) {
-            LeaseSet l = iter.next();
-            if (l.getEarliestLeaseDate() < now)
-                iter.remove();
+    Route getRoute(HashPair hashPair, long now) {
+        Route rv = _routes.get(hashPair);
+        if (rv != null) {
+            // clean() may have removed it before seeing the touch,
+            // check again so we don't hand out a removed route
+            if (!rv.touch(now) || _routes.get(hashPair) == rv)
+                return rv;
+            Route old = _routes.putIfAbsent(hashPair, rv);
+            if (old == null) {
+                _cleanQueue.offer(rv);
+                return rv;
+            }
+            old.touch(now);
+            return old;
         }
+        Route route = new Route(hashPair, now);
+        rv = _routes.putIfAbsent(hashPair, route);
+        if (rv != null) {
+            rv.touch(now);
+            return rv;
+        }
+        _cleanQueue.offer(route);
+        clean(now);
+        return route;
     }
 
     /**
-     * Clean out old leases
+     * Check a few of the oldest routes, removing them if idle,
+     * or if we are over the limit and they are not in use.
+     * Other routes go back on the tail.
      */
-    private static void cleanLeaseCache(Map<HashPair, Lease> tc) {
-        for (Iterator<Lease> iter = tc.values().iterator(); iter.hasNext(); ) {
-            Lease l = iter.next();
-            if (l.isExpired(Router.CLOCK_FUDGE_FACTOR))
-                iter.remove();
+    private void clean(long now) {
+        long idle = now - IDLE_TIME;
+        long inUse = now - IN_USE_TIME;
+        for (int i = 0; i < CLEAN_PER_ADD || (i < MAX_CLEAN_PER_ADD && _routes.size() > MAX_ROUTES); i++) {
+            Route r = _cleanQueue.poll();
+            if (r == null)
+                break;
+            if (_routes.get(r.key) != r)
+                continue;  // already removed or replaced
+            long lastUsed = r.lastUsed;
+            if (lastUsed < idle || (lastUsed < inUse && _routes.size() > MAX_ROUTES)) {
+                if (_routes.remove(r.key, r) && r.lastUsed != lastUsed) {
+                    // touched by getRoute() meanwhile, put it back
+                    if (_routes.putIfAbsent(r.key, r) == null)
+                        _cleanQueue.offer(r);
+                }
+            } else {
+                _cleanQueue.offer(r);
+            }
         }
     }
 
     /**
-     * Clean out old tunnels
-     * Caller must synchronize on tc.
+     * @return current number of routes
+     * @since 0.9.71
      */
-    private static void cleanTunnelCache(RouterContext ctx, Map<HashPair, TunnelInfo> tc) {
-        for (Iterator<Map.Entry<HashPair, TunnelInfo>> iter = tc.entrySet().iterator(); iter.hasNext(); ) {
-            Map.Entry<HashPair, TunnelInfo> entry = iter.next();
-            HashPair k = entry.getKey();
-            TunnelInfo tunnel = entry.getValue();
-            // This is a little sneaky, but get the _from back out of the "opaque" hash key
-            if (!ctx.tunnelManager().isValidTunnel(k.sh, tunnel))
-                iter.remove();
-        }
+    int size() {
+        return _routes.size();
     }
 
     /**
-     * Clean out old reply times
+     * Called on failure to give us a better chance of success next time.
+     * Of course this is probably 60s too late.
+     * And we could pick the bad ones at random again.
+     * Or remove entries that were sent and succeeded after this was sent but before this failed.
+     * But it's a start.
+     *
+     * @param lease may be null
+     * @param inTunnel may be null
+     * @param outTunnel may be null
      */
-    private static void cleanReplyCache(RouterContext ctx, Map<HashPair, Long> tc) {
-        long now = ctx.clock().now();
-        for (Iterator<Long> iter = tc.values().iterator(); iter.hasNext(); ) {
-            Long l = iter.next();
-            if (l.longValue() < now - CLEAN_INTERVAL)
-                iter.remove();
+    void clearCaches(Route route, Lease lease, TunnelInfo inTunnel, TunnelInfo outTunnel) {
+        if (inTunnel != null) {   // if we wanted an ack, we sent our lease too
+                route.leaseSet.set(null);
         }
-    }
-
-    private class OCMOSJCacheCleaner implements SimpleTimer.TimedEvent {
-        public void timeReached() {
-            cleanLeaseSetCache(_context, leaseSetCache);
-            cleanLeaseCache(leaseCache);
-            synchronized(tunnelCache) {
-                cleanTunnelCache(_context, tunnelCache);
-                cleanTunnelCache(_context, backloggedTunnelCache);
+        if (lease != null) {
+            // remove only if still equal to lease (concurrent)
+            route.lease.compareAndSet(lease, null);
+        }
+        if (outTunnel != null) {
+            synchronized(route) {
+                TunnelInfo t = route.backloggedTunnel;
+                if (t != null && t.equals(outTunnel))
+                    route.backloggedTunnel = null;
+                t = route.tunnel;
+                if (t != null && t.equals(outTunnel))
+                    route.tunnel = null;
             }
-            cleanReplyCache(_context, lastReplyRequestCache);
         }
     }
+
+    /**
+     *  @since 0.8.8
+     */
+    public void clearAllCaches() {
+        _routes.clear();
+        _cleanQueue.clear();
+    }
 }
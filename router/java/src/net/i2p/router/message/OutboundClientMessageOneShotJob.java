@@ -32,9 +32,9 @@ import net.i2p.data.i2np.DeliveryStatusMessage;
 import net.i2p.data.i2np.GarlicMessage;
 import net.i2p.data.i2np.I2NPMessage;
 import net.i2p.router.ClientMessage;
+import net.i2p.router.IndexedMessageSelector;
 import net.i2p.router.JobImpl;
 import net.i2p.router.LeaseSetKeys;
-import net.i2p.router.MessageSelector;
 import net.i2p.router.NetworkDatabaseFacade;
 import net.i2p.router.ReplyJob;
 import net.i2p.router.Router;
@@ -135,7 +135,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
     /**
      * Key used to cache things with, based on source + dest
      */
-    private final OutboundCache.HashPair _hashPair;
+    private final OutboundCache.Route _route;
 
 
     /**
@@ -208,7 +208,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
         _from = msg.getFromDestination();
         _to = msg.getDestination();
         Hash toHash = _to.calculateHash();
-        _hashPair = new OutboundCache.HashPair(_from.calculateHash(), toHash);
+        _route = cache.getRoute(new OutboundCache.HashPair(_from.calculateHash(), toHash), _start);
         _toString = toHash.toBase32();
         // we look up here rather than runJob() so we may adjust the timeout
         _leaseSet = ctx.clientNetDb(_from.calculateHash()).lookupLeaseSetLocally(toHash);
@@ -361,7 +361,10 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
         // and do it in SendSuccessJob.
 
             if (!force) {
-                LeaseSet ls = _cache.leaseSetCache.get(_hashPair);
+                LeaseSet ls = _route.leaseSet.get();
+                // the far end has probably forgotten it if expired
+                if (ls != null && ls.getEarliestLeaseDate() < getContext().clock().now())
+                    ls = null;
                 if (ls != null) {
                     if (ls.getDate() >= newLS.getDate()) {
                             if (_log.shouldLog(Log.INFO))
@@ -472,7 +475,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
 
         // Use the same lease if it's still good
         // Even if _leaseSet changed, _leaseSet.getEncryptionKey() didn't...
-            _lease = _cache.leaseCache.get(_hashPair);
+            _lease = _route.lease.get();
             if (_lease != null) {
                 // if outbound tunnel length == 0 && lease.firsthop.isBacklogged() don't use it ??
                 if (!_lease.isExpired(Router.CLOCK_FUDGE_FACTOR / 4)) {
@@ -492,7 +495,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
                     }
                 }
                 // remove only if still equal to _lease (concurrent)
-                _cache.leaseCache.remove(_hashPair, _lease);
+                _route.lease.compareAndSet(_lease, null);
                 if (_log.shouldLog(Log.INFO))
                     _log.info(getJobId() + ": Expired from cache - lease for " + _toString); 
             }
@@ -570,7 +573,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
             if (_log.shouldLog(Log.WARN))
                 _log.warn(getJobId() + ": All leases are unreachable for " + _toString); 
         }
-        _cache.leaseCache.put(_hashPair, _lease);
+        _route.lease.set(_lease);
         if (_log.shouldLog(Log.INFO))
             _log.info(getJobId() + ": Added to cache - lease for " + _toString); 
         _wantACK = true;
@@ -646,9 +649,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
         // DONE (selectOutboundTunnel() moved above here): wantACK if we changed our outbound tunnel (selectOutboundTunnel() sets _wantACK)
         // DONE (added new cache): wantACK if we haven't in last 1m (requires a new static cache probably)
 
-        Long lastReplyRequestSent = _cache.lastReplyRequestCache.get(_hashPair);
-        boolean shouldRequestReply = lastReplyRequestSent == null ||
-                                     lastReplyRequestSent.longValue() < now - REPLY_REQUEST_INTERVAL;
+        boolean shouldRequestReply = _route.lastReplyRequest < now - REPLY_REQUEST_INTERVAL;
 
         int sendFlags = _clientMessage.getFlags();
         // Per-message flag > 0 overrides per-session option
@@ -678,7 +679,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
 
         long token;
         if (wantACK) {
-            _cache.lastReplyRequestCache.put(_hashPair, Long.valueOf(now));
+            _route.lastReplyRequest = now;
             token = getContext().random().nextLong(I2NPMessage.MAX_ID_VALUE);
             // 0.9.38 change to DESTINATION reply delivery
             // NOPE! Rejected in InboundMessageDistributor
@@ -866,7 +867,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
      * But it's a start.
      */
     private void clearCaches() {
-        _cache.clearCaches(_hashPair, _lease, _inTunnel, _outTunnel);
+        _cache.clearCaches(_route, _lease, _inTunnel, _outTunnel);
     }
 
     /**
@@ -876,29 +877,29 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
      */
     private TunnelInfo selectOutboundTunnel(Destination to) {
         TunnelInfo tunnel;
-        synchronized (_cache.tunnelCache) {
+        synchronized (_route) {
             /**
              * If old tunnel is valid and no longer backlogged, use it.
              * This prevents an active anonymity attack, where a peer could tell
              * if you were the originator by backlogging the tunnel, then removing the
              * backlog and seeing if traffic came back or not.
              */
-            tunnel = _cache.backloggedTunnelCache.get(_hashPair);
+            tunnel = _route.backloggedTunnel;
             if (tunnel != null) {
                 if (getContext().tunnelManager().isValidTunnel(_from.calculateHash(), tunnel)) {
                     if (!getContext().commSystem().isBacklogged(tunnel.getPeer(1))) {
                         if (_log.shouldLog(Log.WARN))
                             _log.warn("Switching back to tunnel " + tunnel + " for " + _toString); 
-                        _cache.backloggedTunnelCache.remove(_hashPair);
-                        _cache.tunnelCache.put(_hashPair, tunnel);
+                        _route.backloggedTunnel = null;
+                        _route.tunnel = tunnel;
                         _wantACK = true;
                         return tunnel;
                     }  // else still backlogged
                 } else // no longer valid
-                    _cache.backloggedTunnelCache.remove(_hashPair);
+                    _route.backloggedTunnel = null;
             }
             // Use the same tunnel unless backlogged
-            tunnel = _cache.tunnelCache.get(_hashPair);
+            tunnel = _route.tunnel;
             if (tunnel != null) {
                 if (getContext().tunnelManager().isValidTunnel(_from.calculateHash(), tunnel)) {
                     if (tunnel.getLength() <= 1 || !getContext().commSystem().isBacklogged(tunnel.getPeer(1)))
@@ -906,14 +907,14 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
                     // backlogged
                     if (_log.shouldLog(Log.WARN))
                         _log.warn("Switching from backlogged " + tunnel + " for " + _toString); 
-                    _cache.backloggedTunnelCache.put(_hashPair, tunnel);
+                    _route.backloggedTunnel = tunnel;
                 } // else no longer valid
-                _cache.tunnelCache.remove(_hashPair);
+                _route.tunnel = null;
             }
             // Pick a new tunnel
             tunnel = selectOutboundTunnel();
             if (tunnel != null)
-                _cache.tunnelCache.put(_hashPair, tunnel);
+                _route.tunnel = tunnel;
             _wantACK = true;
         }
         return tunnel;
@@ -1035,7 +1036,7 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
      * sent down the various tunnels to deliver this message
      *
      */
-    private static class ReplySelector implements MessageSelector {
+    private static class ReplySelector implements IndexedMessageSelector {
         private final long _pendingToken;
         private final long _expiration;
 
@@ -1050,6 +1051,11 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
 
         public long getExpiration() { return _expiration; }
         
+        /**
+         *  @since 0.9.71
+         */
+        public Object getReplyKey() { return Long.valueOf(_pendingToken); }
+
         public boolean isMatch(I2NPMessage inMsg) {
             if (inMsg.getType() == DeliveryStatusMessage.MESSAGE_TYPE) {
                 //if (_log.shouldLog(Log.DEBUG))
@@ -1105,14 +1111,14 @@ public class OutboundClientMessageOneShotJob extends JobImpl {
         public void runJob() {
             if (_deliveredLS != null) {
                 // note that the delivered LS was acked
-                LeaseSet oldls = _cache.leaseSetCache.putIfAbsent(_hashPair, _deliveredLS);
+                LeaseSet oldls = _route.leaseSet.get();
                 if (oldls != null) {
                     if (_deliveredLS.getDate() > oldls.getDate()) {
-                        _cache.leaseSetCache.put(_hashPair, _deliveredLS);
+                        _route.leaseSet.compareAndSet(oldls, _deliveredLS);
                          if (_log.shouldInfo())
                              _log.info(getJobId() + ": added to cache - got reply LS from " + _toString); 
                     }
-                } else {
+                } else if (_route.leaseSet.compareAndSet(null, _deliveredLS)) {
                     if (_log.shouldInfo())
                          _log.info(getJobId() + ": added to cache - got reply LS from " + _toString); 
                 }
@@ -3,14 +3,14 @@ package net.i2p.router.networkdb.kademlia;
 import net.i2p.data.i2np.DatabaseSearchReplyMessage;
 import net.i2p.data.i2np.DatabaseStoreMessage;
 import net.i2p.data.i2np.I2NPMessage;
-import net.i2p.router.MessageSelector;
+import net.i2p.router.IndexedMessageSelector;
 import net.i2p.router.RouterContext;
 import net.i2p.util.Log;
 
 /**
  * Mostly replaced by IterativeLookupSelector
  */
-class FloodOnlyLookupSelector implements MessageSelector {
+class FloodOnlyLookupSelector implements IndexedMessageSelector {
     private final RouterContext _context;
     private final FloodOnlySearchJob _search;
     private boolean _matchFound;
@@ -28,6 +28,11 @@ class FloodOnlyLookupSelector implements MessageSelector {
 
     public long getExpiration() { return (_matchFound ? -1 : _search.getExpiration()); }
 
+    /**
+     *  @since 0.9.71
+     */
+    public Object getReplyKey() { return _search.getKey(); }
+
     public boolean isMatch(I2NPMessage message) {
         if (message == null) return false;
         int type = message.getType();
@@ -16,9 +16,9 @@ import net.i2p.data.i2np.DatabaseLookupMessage;
 import net.i2p.data.i2np.DatabaseSearchReplyMessage;
 import net.i2p.data.i2np.DatabaseStoreMessage;
 import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.router.IndexedMessageSelector;
 import net.i2p.router.JobImpl;
 import net.i2p.router.LeaseSetKeys;
-import net.i2p.router.MessageSelector;
 import net.i2p.router.ProfileManager;
 import net.i2p.router.ReplyJob;
 import net.i2p.router.RouterContext;
@@ -321,12 +321,17 @@ class FloodfillVerifyStoreJob extends JobImpl {
         return m;
     }
     
-    private class VerifyReplySelector implements MessageSelector {
+    private class VerifyReplySelector implements IndexedMessageSelector {
         public boolean continueMatching() { 
             return false; // only want one match
         }
         
         public long getExpiration() { return _expiration; }
+        /**
+         *  @since 0.9.71
+         */
+        public Object getReplyKey() { return _key; }
+
         public boolean isMatch(I2NPMessage message) {
             int type = message.getType();
             if (type == DatabaseStoreMessage.MESSAGE_TYPE) {
@@ -8,8 +8,8 @@ package net.i2p.router.networkdb.kademlia;
  *
  */
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -26,8 +26,17 @@ import java.util.Map;
 import java.util.Set;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.data.Base64;
+import net.i2p.data.DataHelper;
 import net.i2p.data.DatabaseEntry;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.Hash;
@@ -59,12 +68,27 @@ public class PersistentDataStore extends TransientDataStore {
     private volatile boolean _initialized;
     private final boolean _flat;
     private final int _networkID;
+    /** null unless enabled */
+    private final SegmentStore _segments;
     
     private final static int READ_DELAY = 2*60*1000;
     private static final String PROP_FLAT = "router.networkDatabase.flat";
+    /**
+     *  Store RouterInfos in append-only segment files instead of one file each.
+     *  Not compatible with PROP_FLAT.
+     *  @since 0.9.71
+     */
+    private static final String PROP_SEGMENTS = "router.networkDatabase.segments";
     static final String DIR_PREFIX = "r";
     private static final String B64 = Base64.ALPHABET_I2P;
     private static final int MAX_ROUTERS_INIT = SystemVersion.isSlow() ? 1000 : 4000;
+    /** below this, read inline */
+    private static final int MIN_PARALLEL_READ = 64;
+    /** at least 2 even on one core, to overlap disk reads with verification */
+    private static final int LOADER_THREADS = Math.max(2, Math.min(4, SystemVersion.getCores()));
+    /** how far ahead of the kbucket inserts the loaders may read */
+    private static final int LOADER_WINDOW = 8 * LOADER_THREADS;
+    private static final AtomicInteger _loaderCount = new AtomicInteger();
 
     /**
      *  @param dbDir relative path
@@ -75,6 +99,22 @@ public class PersistentDataStore extends TransientDataStore {
         _flat = ctx.getBooleanProperty(PROP_FLAT);
         _dbDir = getDbDir(dbDir);
         _facade = facade;
+        if (!_flat && ctx.getBooleanProperty(PROP_SEGMENTS)) {
+            // any RI files are migrated by the ReadJob
+            SegmentStore segments = new SegmentStore(ctx, _dbDir);
+            try {
+                segments.open();
+            } catch (IOException ioe) {
+                _log.error("Unable to open the netDb segments, using files", ioe);
+                segments.close();
+                segments = null;
+            }
+            _segments = segments;
+        } else {
+            _segments = null;
+            if (SegmentStore.exists(_dbDir))
+                unmigrateSegments();
+        }
         _readJob = new ReadJob();
         _context.jobQueue().addJob(_readJob);
         ctx.statManager().createRateStat("netDb.writeClobber", "How often we clobber a pending netDb write", "NetworkDatabase", new long[] { 20*60*1000 });
@@ -82,6 +122,8 @@ public class PersistentDataStore extends TransientDataStore {
         ctx.statManager().createRateStat("netDb.writeOut", "How many we wrote", "NetworkDatabase", new long[] { 20*60*1000 });
         ctx.statManager().createRateStat("netDb.writeTime", "How long it took", "NetworkDatabase", new long[] { 20*60*1000 });
         //ctx.statManager().createRateStat("netDb.readTime", "How long one took", "NetworkDatabase", new long[] { 20*60*1000 });
+        ctx.statManager().createRateStat("netDb.loadTime", "Time to read a batch of RouterInfo files (ms)", "NetworkDatabase", new long[] { 60*60*1000 });
+        ctx.statManager().createRateStat("netDb.loadRate", "RouterInfo files read per second in a batch", "NetworkDatabase", new long[] { 60*60*1000 });
         _writer = new Writer();
         I2PThread writer = new I2PThread(_writer, "DBWriter");
         // stop() must be called to flush data to disk
@@ -281,6 +323,8 @@ public class PersistentDataStore extends TransientDataStore {
                     count = 0;
                 if (count == 0) {
                     removeQueued();
+                    if (_segments != null)
+                        syncSegments();
                     if (lastCount > 0) {
                         long time = _context.clock().now() - startTime;
                         if (_log.shouldLog(Log.INFO))
@@ -288,8 +332,11 @@ public class PersistentDataStore extends TransientDataStore {
                          _context.statManager().addRateData("netDb.writeOut", lastCount);
                          _context.statManager().addRateData("netDb.writeTime", time);
                     }
-                    if (_quit)
+                    if (_quit) {
+                        if (_segments != null)
+                            _segments.close();
                         break;
+                    }
                     synchronized (_waitLock) {
                         try {
                             _waitLock.wait(WRITE_DELAY);
@@ -321,6 +368,11 @@ public class PersistentDataStore extends TransientDataStore {
             else
                 throw new IOException("We don't know how to write objects of type " + data.getClass().getName());
 
+            if (_segments != null) {
+                // checks the date
+                _segments.put(key, getPublishDate(data), data.toByteArray());
+                return;
+            }
             dbFile = new File(_dbDir, filename);
             long dataPublishDate = getPublishDate(data);
             if (dbFile.lastModified() < dataPublishDate) {
@@ -349,6 +401,54 @@ public class PersistentDataStore extends TransientDataStore {
         }
     }
 
+    /**
+     *  Sync the writes and removals, compact if necessary
+     *  @since 0.9.71
+     */
+    private void syncSegments() {
+        // synch with the reader job
+        synchronized (_dbDir) {
+            try {
+                _segments.sync();
+                _segments.compactIfNeeded();
+            } catch (IOException ioe) {
+                _log.error("Error writing the netDb segments", ioe);
+            }
+        }
+    }
+
+    /**
+     *  Write the segment entries to RI files and delete the segments,
+     *  when the segments are disabled.
+     *  @since 0.9.71
+     */
+    private void unmigrateSegments() {
+        SegmentStore segments = new SegmentStore(_context, _dbDir);
+        int count = 0;
+        try {
+            segments.open();
+            for (Hash key : segments.getKeys()) {
+                byte[] data = segments.get(key);
+                File f = new File(_dbDir, getRouterInfoName(key));
+                OutputStream out = null;
+                try {
+                    out = new SecureFileOutputStream(f);
+                    out.write(data);
+                } finally {
+                    if (out != null) try { out.close(); } catch (IOException ioe) {}
+                }
+                f.setLastModified(segments.getDate(key));
+                count++;
+            }
+            segments.delete();
+            if (_log.shouldInfo())
+                _log.info("Moved " + count + " RouterInfos from the segments to files");
+        } catch (IOException ioe) {
+            _log.error("Error moving the netDb segments to files", ioe);
+            segments.close();
+        }
+    }
+
     private static long getPublishDate(DatabaseEntry data) {
         return data.getDate();
     }
@@ -445,7 +545,14 @@ public class PersistentDataStore extends TransientDataStore {
                 // Loading the files in-order causes clumping in the kbuckets,
                 // and bias on early peer selection, so first collect all the files,
                 // then shuffle and load.
-                List<File> toRead = new ArrayList<File>(2048);
+                List<ReadRouterJob> toRead = new ArrayList<ReadRouterJob>(2048);
+                if (_segments != null && !_initialized) {
+                    List<Hash> keys = _segments.getKeys();
+                    routerCount = keys.size();
+                    for (Hash key : keys) {
+                        toRead.add(new ReadRouterJob(key));
+                    }
+                }
                 for (int j = 0; j < B64.length(); j++) {
                     File subdir = new File(_dbDir, DIR_PREFIX + B64.charAt(j));
                     File[] files = subdir.listFiles(RI_FILTER);
@@ -458,34 +565,16 @@ public class PersistentDataStore extends TransientDataStore {
                     if (lastMod <= _lastModified)
                         continue;
                     for (int i = 0; i < files.length; i++) {
-                        toRead.add(files[i]);
+                        toRead.add(new ReadRouterJob(files[i], getRouterInfoHash(files[i].getName())));
                     }
                 }
                 Collections.shuffle(toRead, _context.random());
-                int i = 0;
-                for (File file : toRead) {
-                    // Take the first 4000 good ones, delete the rest
-                    if (i >= MAX_ROUTERS_INIT && !_initialized) {
-                        file.delete();
-                        continue;
-                    }
-                    Hash key = getRouterInfoHash(file.getName());
-                    if (key != null) {
-                        ReadRouterJob rrj = new ReadRouterJob(file, key);
-                        if (!rrj.read())
-                            continue;
-                        if (i++ == 150 && SystemVersion.isSlow() && !_initialized) {
-                            // Can take 2 minutes to load them all on Android,
-                            // after we have already built expl. tunnels.
-                            // This is enough to let i2ptunnel get started.
-                            // Do not set _initialized yet so we don't start rescanning.
-                            _setNetDbReady = true;
-                            _context.router().setNetDbReady();
-                        } else if (i == 500 && !_setNetDbReady) {
-                            // do this for faster systems also at 500
-                            _setNetDbReady = true;
-                            _context.router().setNetDbReady();
-                        }
+                readRouterFiles(toRead);
+                if (_segments != null) {
+                    try {
+                        _segments.sync();
+                    } catch (IOException ioe) {
+                        _log.error("Error syncing the netDb segments", ioe);
                     }
                 }
             }
@@ -522,15 +611,129 @@ public class PersistentDataStore extends TransientDataStore {
                 }
             }
         }
+
+        /**
+         *  Read, verify, and store the files or segment entries, in the given order.
+         *  Take the first MAX_ROUTERS_INIT good ones, delete the rest.
+         *
+         *  For more than a few files, the reading and signature verification
+         *  is done on a pool of loader threads, a little ahead of the stores.
+         *  The stores are done here, in order, so the kbuckets are
+         *  filled in the shuffled order as before.
+         *
+         *  @since 0.9.71 split out of readFiles()
+         */
+        private void readRouterFiles(List<ReadRouterJob> jobs) {
+            int count = jobs.size();
+            if (count <= 0)
+                return;
+            long start = System.currentTimeMillis();
+            ThreadPoolExecutor pool = null;
+            List<Future<?>> parsed = null;
+            if (count >= MIN_PARALLEL_READ) {
+                pool = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS, 10*1000, TimeUnit.MILLISECONDS,
+                                              new LinkedBlockingQueue<Runnable>(), new LoaderThreadFactory());
+                parsed = new ArrayList<Future<?>>(count);
+            }
+            int i = 0;
+            try {
+                for (int j = 0; j < count; j++) {
+                    ReadRouterJob rrj = jobs.get(j);
+                    boolean full = i >= MAX_ROUTERS_INIT && !_initialized;
+                    if (pool != null) {
+                        // stop reading ahead once we have enough
+                        while (!full && parsed.size() < count && parsed.size() <= j + LOADER_WINDOW) {
+                            parsed.add(pool.submit(new Parser(jobs.get(parsed.size()))));
+                        }
+                        if (j < parsed.size()) {
+                            try {
+                                parsed.get(j).get();
+                            } catch (ExecutionException ee) {
+                                continue;
+                            } catch (InterruptedException ie) {
+                                break;
+                            }
+                            parsed.set(j, null);
+                        }
+                    }
+                    // Take the first 4000 good ones, delete the rest
+                    if (full) {
+                        rrj.deleteFile();
+                        continue;
+                    }
+                    if (pool == null)
+                        rrj.parse();
+                    if (!rrj.store())
+                        continue;
+                    if (i++ == 150 && SystemVersion.isSlow() && !_initialized) {
+                        // Can take 2 minutes to load them all on Android,
+                        // after we have already built expl. tunnels.
+                        // This is enough to let i2ptunnel get started.
+                        // Do not set _initialized yet so we don't start rescanning.
+                        _setNetDbReady = true;
+                        _context.router().setNetDbReady();
+                    } else if (i == 500 && !_setNetDbReady) {
+                        // do this for faster systems also at 500
+                        _setNetDbReady = true;
+                        _context.router().setNetDbReady();
+                    }
+                }
+            } finally {
+                if (pool != null)
+                    pool.shutdownNow();
+            }
+            long time = System.currentTimeMillis() - start;
+            _context.statManager().addRateData("netDb.loadTime", time);
+            if (time > 0)
+                _context.statManager().addRateData("netDb.loadRate", count * 1000L / time);
+            if (_log.shouldInfo())
+                _log.info("Read " + count + " RouterInfos, stored " + i + " in " + time + "ms with " +
+                          (pool != null ? LOADER_THREADS : 1) + " threads");
+        }
+    }
+
+    /**
+     *  Runs ReadRouterJob.parse() on a loader thread
+     *  @since 0.9.71
+     */
+    private static class Parser implements Runnable {
+        private final ReadRouterJob _job;
+
+        public Parser(ReadRouterJob job) {
+            _job = job;
+        }
+
+        public void run() {
+            _job.parse();
+        }
+    }
+
+    /**
+     *  @since 0.9.71
+     */
+    private static class LoaderThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable r) {
+            Thread rv = Executors.defaultThreadFactory().newThread(r);
+            rv.setName("NetDb Loader " + _loaderCount.incrementAndGet() + '/' + LOADER_THREADS);
+            rv.setDaemon(true);
+            return rv;
+        }
     }
     
     private class ReadRouterJob extends JobImpl {
+        /** null if from the segments */
         private final File _routerFile;
         private final Hash _key;
         private long _knownDate;
+        /** set by parse(), to be stored by store() */
+        private RouterInfo _ri;
+        /** the bytes of _ri */
+        private byte[] _data;
+        /** set by parse(), cleared by store() on failure */
+        private boolean _ok;
 
         /**
-         *  @param key must match the RI hash in the file
+         *  @param key must match the RI hash in the file, if null the file is ignored
          */
         public ReadRouterJob(File routerFile, Hash key) {
             super(PersistentDataStore.this._context);
@@ -538,6 +741,14 @@ public class PersistentDataStore extends TransientDataStore {
             _key = key;
         }
 
+        /**
+         *  Read from the segments
+         *  @since 0.9.71
+         */
+        public ReadRouterJob(Hash key) {
+            this(null, key);
+        }
+
         public String getName() { return "Read RouterInfo"; }
         
         private boolean shouldRead() {
@@ -546,12 +757,12 @@ public class PersistentDataStore extends TransientDataStore {
             if (data == null) return true;
             if (data.getType() == DatabaseEntry.KEY_TYPE_ROUTERINFO) {
                 _knownDate = ((RouterInfo)data).getPublished();
-                long fileDate = _routerFile.lastModified();
+                long fileDate = _routerFile != null ? _routerFile.lastModified() : _segments.getDate(_key);
                 // don't overwrite recent netdb RIs with reseed data
                 return fileDate > _knownDate + (60*60*1000);
             } else {
                 // safety measure - prevent injection from reseeding
-                _log.error("Prevented LS overwrite by RI " + _key + " from " + _routerFile);
+                _log.error("Prevented LS overwrite by RI " + _key + " from " + getSource());
                 return false;
             }
         }
@@ -565,23 +776,47 @@ public class PersistentDataStore extends TransientDataStore {
          *  @since 0.9.58
          */
         public boolean read() {
-            if (_routerFile.length() > RouterInfo.MAX_UNCOMPRESSED_SIZE) {
+            parse();
+            return store();
+        }
+
+        /**
+         *  Read the file and verify the RouterInfo, but don't store it.
+         *  Deletes the file if bad.
+         *  Does not change the netDb, so it may be called from a loader thread,
+         *  but store() must then be called in the desired order.
+         *
+         *  @since 0.9.71 split out of read()
+         */
+        public void parse() {
+            if (_key == null)
+                return;
+            long length = _routerFile != null ? _routerFile.length() : _segments.getLength(_key);
+            if (length > RouterInfo.MAX_UNCOMPRESSED_SIZE) {
                 if (_log.shouldWarn())
-                    _log.warn("RI file too big " + _routerFile.length() + ": " + _routerFile);
-                _routerFile.delete();
-                return false;
+                    _log.warn("RI file too big " + length + ": " + getSource());
+                deleteSource();
+                return;
             }
-            if (!shouldRead()) return false;
+            if (!shouldRead()) return;
             if (_log.shouldLog(Log.DEBUG))
-                _log.debug("Reading " + _routerFile);
+                _log.debug("Reading " + getSource());
 
                 InputStream fis = null;
                 boolean corrupt = false;
                 try {
-                    fis = new FileInputStream(_routerFile);
-                    fis = new BufferedInputStream(fis);
+                    byte[] data;
+                    if (_routerFile != null) {
+                        fis = new FileInputStream(_routerFile);
+                        data = new byte[(int) length];
+                        DataHelper.read(fis, data);
+                    } else {
+                        data = _segments.get(_key);
+                        if (data == null)
+                            throw new IOException("gone");
+                    }
                     RouterInfo ri = new RouterInfo();
-                    ri.readBytes(fis, true);  // true = verify sig on read
+                    ri.readBytes(new ByteArrayInputStream(data), true);  // true = verify sig on read
                     Hash h = ri.getIdentity().calculateHash();
                     if (ri.getNetworkId() != _networkID) {
                         corrupt = true;
@@ -594,47 +829,108 @@ public class PersistentDataStore extends TransientDataStore {
                         // this is checked in KNDF.validate() but catch it sooner and log as error.
                         corrupt = true;
                         if (_log.shouldLog(Log.WARN))
-                            _log.warn(h + " does not match " + _key + " from " + _routerFile);
+                            _log.warn(h + " does not match " + _key + " from " + getSource());
                     } else if (ri.getPublished() <= _knownDate) {
                         // Don't store but don't delete
                         if (_log.shouldLog(Log.WARN))
-                            _log.warn("Skipping since netdb newer than " + _routerFile);
+                            _log.warn("Skipping since netdb newer than " + getSource());
                     } else if (getContext().blocklist().isBlocklisted(ri)) {
                         corrupt = true;
                         if (_log.shouldLog(Log.WARN))
                             _log.warn(h + " is blocklisted");
                     } else {
-                        try {
-                            // persist = false so we don't write what we just read
-                            _facade.store(h, ri, false);
-                            // when heardAbout() was removed from TransientDataStore, it broke
-                            // profile bootstrapping for new routers,
-                            // so add it here.
-                            getContext().profileManager().heardAbout(h, ri.getCapabilities(), ri.getPublished());
-                        } catch (IllegalArgumentException iae) {
-                            if (_log.shouldLog(Log.INFO))
-                                _log.info("Refused locally loaded routerInfo - deleting", iae);
-                            corrupt = true;
-                        }
+                        _ri = ri;
+                        _data = data;
                     }
                 } catch (DataFormatException dfe) {
                     if (_log.shouldLog(Log.INFO))
-                        _log.info("Error reading the routerInfo from " + _routerFile.getName(), dfe);
+                        _log.info("Error reading the routerInfo from " + getSource(), dfe);
                     corrupt = true;
                 } catch (IOException ioe) {
                     if (_log.shouldLog(Log.INFO))
-                        _log.info("Unable to read the router reference in " + _routerFile.getName(), ioe);
+                        _log.info("Unable to read the router reference in " + getSource(), ioe);
                     corrupt = true;
                 } catch (RuntimeException e) {
                     // key certificate problems, etc., don't let one bad RI kill the whole thing
                     if (_log.shouldLog(Log.INFO))
-                        _log.info("Unable to read the router reference in " + _routerFile.getName(), e);
+                        _log.info("Unable to read the router reference in " + getSource(), e);
                     corrupt = true;
                 } finally {
                     if (fis != null) try { fis.close(); } catch (IOException ioe) {}
                 }
-                if (corrupt) _routerFile.delete();
-                return !corrupt;
+                if (corrupt) deleteSource();
+                _ok = !corrupt;
+        }
+
+        /**
+         *  Store the RouterInfo found by parse(), if any.
+         *
+         *  @return success, as returned by read()
+         *  @since 0.9.71 split out of read()
+         */
+        public boolean store() {
+            RouterInfo ri = _ri;
+            if (ri == null)
+                return _ok;
+            _ri = null;
+            byte[] data = _data;
+            _data = null;
+            Hash h = ri.getIdentity().calculateHash();
+            try {
+                // persist = false so we don't write what we just read
+                _facade.store(h, ri, false);
+                // when heardAbout() was removed from TransientDataStore, it broke
+                // profile bootstrapping for new routers,
+                // so add it here.
+                getContext().profileManager().heardAbout(h, ri.getCapabilities(), ri.getPublished());
+            } catch (IllegalArgumentException iae) {
+                if (_log.shouldLog(Log.INFO))
+                    _log.info("Refused locally loaded routerInfo - deleting", iae);
+                deleteSource();
+                _ok = false;
+                return false;
+            }
+            if (_segments != null && _routerFile != null) {
+                // migrate or reseed, move it to the segments
+                try {
+                    _segments.put(h, ri.getPublished(), data);
+                    _routerFile.delete();
+                } catch (IOException ioe) {
+                    _log.error("Error writing to the netDb segments", ioe);
+                }
+            }
+            return true;
+        }
+
+        /**
+         *  Over the limit, don't store it
+         *  @since 0.9.71
+         */
+        public void deleteFile() {
+            _ri = null;
+            _data = null;
+            deleteSource();
+        }
+
+        /**
+         *  @since 0.9.71
+         */
+        private void deleteSource() {
+            if (_routerFile != null) {
+                _routerFile.delete();
+            } else {
+                try {
+                    _segments.remove(_key);
+                } catch (IOException ioe) {}
+            }
+        }
+
+        /**
+         *  For logging
+         *  @since 0.9.71
+         */
+        private String getSource() {
+            return _routerFile != null ? _routerFile.toString() : "netDb segment entry " + _key.toBase64();
         }
     }
     
@@ -754,6 +1050,10 @@ public class PersistentDataStore extends TransientDataStore {
     }
     
     private void removeFile(Hash key, File dir) throws IOException {
+        if (_segments != null) {
+            _segments.remove(key);
+            return;
+        }
         String riName = getRouterInfoName(key);
         File f = new File(dir, riName);
         if (f.exists()) {
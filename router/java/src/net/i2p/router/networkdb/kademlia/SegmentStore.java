@@ -0,0 +1,532 @@
+package net.i2p.router.networkdb.kademlia;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.DataHelper;
+import net.i2p.data.Hash;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.util.FileSuffixFilter;
+import net.i2p.util.FileUtil;
+import net.i2p.util.Log;
+
+/**
+ * Append-only, log-structured store of RouterInfos,
+ * as an alternative to one file per RouterInfo in the r? subdirectories.
+ *
+ * The data is in one or more segment files, segment-NNNNNNNN.dat,
+ * read in numeric order at startup to build an in-memory index of
+ * hash to file offset. Later records override earlier ones.
+ * The highest-numbered segment is the only one appended to.
+ *
+ *<pre>
+ * Segment: "NDBSEG01" record*
+ * Record:  length (4 bytes, of the rest of the record)
+ *          type (1 byte, 1 = RouterInfo, 0 = removed)
+ *          hash (32 bytes)
+ *          published date (8 bytes)
+ *          RouterInfo (0 or more bytes)
+ *          CRC32 of type through RouterInfo (4 bytes)
+ *</pre>
+ *
+ * A record that is truncated or fails the CRC, as after a crash
+ * during a write, ends the segment, and the last segment is truncated there.
+ *
+ * When more than half the bytes are dead, compact() copies the live
+ * records to a new segment, and deletes the old ones after the new one
+ * is synced and renamed into place. If we crash before the old ones are
+ * deleted, they are read first at the next startup and the new one overrides them,
+ * except that entries removed before the compaction may come back.
+ *
+ * All methods are synchronized.
+ *
+ * @since 0.9.71
+ */
+class SegmentStore {
+    private final I2PAppContext _context;
+    private final Log _log;
+    private final File _dir;
+    /** hash to location of the latest record */
+    private final Map<Hash, Location> _index;
+    /** segment number to segment, in order */
+    private final List<Segment> _segments;
+    private long _liveBytes;
+    private long _deadBytes;
+    private boolean _open;
+
+    private static final byte[] MAGIC = DataHelper.getASCII("NDBSEG01");
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".dat";
+    private static final String TMP_SUFFIX = ".tmp";
+    static final FileFilter SEGMENT_FILTER = new FileSuffixFilter(PREFIX, SUFFIX);
+    private static final byte TYPE_REMOVED = 0;
+    private static final byte TYPE_ROUTERINFO = 1;
+    /** type + hash + date + crc */
+    private static final int OVERHEAD = 1 + Hash.HASH_LENGTH + 8 + 4;
+    /** length field + the above */
+    private static final int RECORD_OVERHEAD = 4 + OVERHEAD;
+    private static final int MAX_DATA = RouterInfo.MAX_UNCOMPRESSED_SIZE;
+    private static final long MIN_COMPACT_SIZE = 1024*1024;
+
+    private static class Segment {
+        final int num;
+        final File file;
+        RandomAccessFile raf;
+        /** write position */
+        long end;
+
+        Segment(int num, File file) {
+            this.num = num;
+            this.file = file;
+        }
+    }
+
+    /** Where a RouterInfo is */
+    private static class Location {
+        final Segment segment;
+        /** of the data */
+        final long offset;
+        final int length;
+        final long date;
+
+        Location(Segment segment, long offset, int length, long date) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.date = date;
+        }
+
+        int recordLength() {
+            return RECORD_OVERHEAD + length;
+        }
+    }
+
+    /**
+     *  Call open() before use
+     *  @param dir the netDb directory
+     */
+    public SegmentStore(I2PAppContext ctx, File dir) {
+        _context = ctx;
+        _log = ctx.logManager().getLog(SegmentStore.class);
+        _dir = dir;
+        _index = new HashMap<Hash, Location>(4096);
+        _segments = new ArrayList<Segment>(4);
+    }
+
+    /**
+     *  Are there any segments in this directory?
+     */
+    public static boolean exists(File dir) {
+        File[] files = dir.listFiles(SEGMENT_FILTER);
+        return files != null && files.length > 0;
+    }
+
+    /**
+     *  Read all the segments and build the index, truncating a bad tail
+     *  on the last segment. Creates the first segment if none.
+     */
+    public synchronized void open() throws IOException {
+        if (_open)
+            return;
+        // leftover from an interrupted compaction
+        File[] tmps = _dir.listFiles(new FileSuffixFilter(PREFIX, TMP_SUFFIX));
+        if (tmps != null) {
+            for (File f : tmps) {
+                f.delete();
+            }
+        }
+        File[] files = _dir.listFiles(SEGMENT_FILTER);
+        if (files != null) {
+            for (File f : files) {
+                int num = getNumber(f);
+                if (num >= 0)
+                    _segments.add(new Segment(num, f));
+            }
+        }
+        Collections.sort(_segments, new SegmentComparator());
+        for (int i = 0; i < _segments.size(); i++) {
+            Segment seg = _segments.get(i);
+            long good = scan(seg);
+            if (i == _segments.size() - 1) {
+                if (good < seg.file.length()) {
+                    _log.logAlways(Log.WARN, "Truncating netDb segment " + seg.file + " from " +
+                                   seg.file.length() + " to " + good + " bytes");
+                }
+            } else if (good < seg.file.length()) {
+                _log.logAlways(Log.WARN, "Ignoring the end of netDb segment " + seg.file +
+                               " after " + good + " bytes");
+            }
+            seg.end = good;
+            if (i < _segments.size() - 1)
+                seg.raf = new RandomAccessFile(seg.file, "r");
+        }
+        if (_segments.isEmpty())
+            _segments.add(newSegment(0));
+        Segment last = _segments.get(_segments.size() - 1);
+        openForWrite(last);
+        _open = true;
+        if (_log.shouldInfo())
+            _log.info("Opened " + _segments.size() + " netDb segments with " + _index.size() +
+                      " entries, " + _liveBytes + " live bytes, " + _deadBytes + " dead bytes");
+    }
+
+    private static class SegmentComparator implements Comparator<Segment> {
+        public int compare(Segment l, Segment r) {
+            return Integer.compare(l.num, r.num);
+        }
+    }
+
+    /**
+     *  @return the number or -1
+     */
+    private static int getNumber(File f) {
+        String name = f.getName();
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    private Segment newSegment(int num) {
+        return new Segment(num, new File(_dir, segmentName(num, SUFFIX)));
+    }
+
+    private static String segmentName(int num, String suffix) {
+        String n = Integer.toString(num);
+        StringBuilder buf = new StringBuilder(PREFIX.length() + 8 + suffix.length());
+        buf.append(PREFIX);
+        for (int i = n.length(); i < 8; i++) {
+            buf.append('0');
+        }
+        buf.append(n).append(suffix);
+        return buf.toString();
+    }
+
+    /**
+     *  Read the segment and add its records to the index.
+     *
+     *  @return the offset after the last good record
+     */
+    private long scan(Segment seg) throws IOException {
+        InputStream in = null;
+        long pos = 0;
+        try {
+            in = new BufferedInputStream(new FileInputStream(seg.file), 64*1024);
+            DataInputStream din = new DataInputStream(in);
+            byte[] magic = new byte[MAGIC.length];
+            din.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                return 0;
+            pos = MAGIC.length;
+            byte[] buf = new byte[OVERHEAD + 1024];
+            CRC32 crc = new CRC32();
+            while (true) {
+                int len = din.readInt();
+                if (len < OVERHEAD || len > OVERHEAD + MAX_DATA)
+                    break;
+                if (buf.length < len)
+                    buf = new byte[len];
+                din.readFully(buf, 0, len);
+                crc.reset();
+                crc.update(buf, 0, len - 4);
+                if ((int) crc.getValue() != (int) DataHelper.fromLong(buf, len - 4, 4))
+                    break;
+                byte type = buf[0];
+                Hash h = Hash.create(buf, 1);
+                long date = DataHelper.fromLong8(buf, 1 + Hash.HASH_LENGTH);
+                int dataLen = len - OVERHEAD;
+                if (type == TYPE_ROUTERINFO) {
+                    Location loc = new Location(seg, pos + 4 + 1 + Hash.HASH_LENGTH + 8, dataLen, date);
+                    indexPut(h, loc);
+                } else {
+                    indexRemove(h);
+                    _deadBytes += 4 + len;
+                }
+                pos += 4 + len;
+            }
+        } catch (EOFException eofe) {
+            // truncated
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException ioe) {}
+        }
+        return pos;
+    }
+
+    private void indexPut(Hash h, Location loc) {
+        Location old = _index.put(h, loc);
+        if (old != null) {
+            _liveBytes -= old.recordLength();
+            _deadBytes += old.recordLength();
+        }
+        _liveBytes += loc.recordLength();
+    }
+
+    private void indexRemove(Hash h) {
+        Location old = _index.remove(h);
+        if (old != null) {
+            _liveBytes -= old.recordLength();
+            _deadBytes += old.recordLength();
+        }
+    }
+
+    private void openForWrite(Segment seg) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(seg.file, "rw");
+        seg.raf = raf;
+        if (seg.end < MAGIC.length) {
+            raf.setLength(0);
+            raf.write(MAGIC);
+            seg.end = MAGIC.length;
+        } else if (raf.length() > seg.end) {
+            raf.setLength(seg.end);
+        }
+    }
+
+    /**
+     *  @return a copy of all the hashes
+     */
+    public synchronized List<Hash> getKeys() {
+        return new ArrayList<Hash>(_index.keySet());
+    }
+
+    public synchronized int size() {
+        return _index.size();
+    }
+
+    /**
+     *  @return published date or 0 if not present
+     */
+    public synchronized long getDate(Hash h) {
+        Location loc = _index.get(h);
+        return loc != null ? loc.date : 0;
+    }
+
+    /**
+     *  @return length or -1 if not present
+     */
+    public synchronized int getLength(Hash h) {
+        Location loc = _index.get(h);
+        return loc != null ? loc.length : -1;
+    }
+
+    /**
+     *  @return the RouterInfo bytes or null if not present
+     */
+    public synchronized byte[] get(Hash h) throws IOException {
+        Location loc = _index.get(h);
+        if (loc == null)
+            return null;
+        return read(loc);
+    }
+
+    private static byte[] read(Location loc) throws IOException {
+        RandomAccessFile raf = loc.segment.raf;
+        byte[] rv = new byte[loc.length];
+        raf.seek(loc.offset);
+        raf.readFully(rv);
+        return rv;
+    }
+
+    /**
+     *  Append the RouterInfo if it is newer than what we have.
+     *  Not synced to disk until sync().
+     *
+     *  @param date the published date
+     *  @return true if written
+     */
+    public synchronized boolean put(Hash h, long date, byte[] data) throws IOException {
+        if (!_open)
+            throw new IOException("closed");
+        if (data.length > MAX_DATA)
+            throw new IOException("too big");
+        Location old = _index.get(h);
+        if (old != null && old.date >= date)
+            return false;
+        Segment seg = _segments.get(_segments.size() - 1);
+        long offset = append(seg, TYPE_ROUTERINFO, h, date, data);
+        indexPut(h, new Location(seg, offset, data.length, date));
+        return true;
+    }
+
+    /**
+     *  Append a removal record if we have it.
+     *  Not synced to disk until sync().
+     *
+     *  @return true if it was present
+     */
+    public synchronized boolean remove(Hash h) throws IOException {
+        if (!_open)
+            throw new IOException("closed");
+        if (!_index.containsKey(h))
+            return false;
+        Segment seg = _segments.get(_segments.size() - 1);
+        append(seg, TYPE_REMOVED, h, 0, null);
+        indexRemove(h);
+        _deadBytes += RECORD_OVERHEAD;
+        return true;
+    }
+
+    /**
+     *  @param data may be null
+     *  @return the offset of the data in the segment
+     */
+    private static long append(Segment seg, byte type, Hash h, long date, byte[] data) throws IOException {
+        byte[] rec = encode(type, h, date, data);
+        RandomAccessFile raf = seg.raf;
+        raf.seek(seg.end);
+        raf.write(rec);
+        long rv = seg.end + 4 + 1 + Hash.HASH_LENGTH + 8;
+        seg.end += rec.length;
+        return rv;
+    }
+
+    /**
+     *  @param data may be null
+     */
+    private static byte[] encode(byte type, Hash h, long date, byte[] data) {
+        int dataLen = data != null ? data.length : 0;
+        int len = OVERHEAD + dataLen;
+        byte[] rec = new byte[4 + len];
+        DataHelper.toLong(rec, 0, 4, len);
+        rec[4] = type;
+        System.arraycopy(h.getData(), 0, rec, 5, Hash.HASH_LENGTH);
+        DataHelper.toLong8(rec, 5 + Hash.HASH_LENGTH, date);
+        if (dataLen > 0)
+            System.arraycopy(data, 0, rec, 5 + Hash.HASH_LENGTH + 8, dataLen);
+        CRC32 crc = new CRC32();
+        crc.update(rec, 4, len - 4);
+        DataHelper.toLong(rec, 4 + len - 4, 4, crc.getValue());
+        return rec;
+    }
+
+    /**
+     *  Force the appended records to disk
+     */
+    public synchronized void sync() throws IOException {
+        if (!_open)
+            return;
+        Segment seg = _segments.get(_segments.size() - 1);
+        seg.raf.getFD().sync();
+    }
+
+    /**
+     *  Compact if more than half of a sizable store is dead
+     *
+     *  @return true if compacted
+     */
+    public synchronized boolean compactIfNeeded() throws IOException {
+        if (_deadBytes > _liveBytes && _liveBytes + _deadBytes > MIN_COMPACT_SIZE) {
+            compact();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     *  Copy the live records to a new segment and delete the old ones.
+     */
+    public synchronized void compact() throws IOException {
+        if (!_open)
+            throw new IOException("closed");
+        long start = System.currentTimeMillis();
+        long before = _liveBytes + _deadBytes;
+        int num = _segments.get(_segments.size() - 1).num + 1;
+        File tmp = new File(_dir, segmentName(num, TMP_SUFFIX));
+        Segment seg = new Segment(num, tmp);
+        Map<Hash, Location> newIndex = new HashMap<Hash, Location>(_index.size() * 2);
+        long live = 0;
+        try {
+            seg.raf = new RandomAccessFile(tmp, "rw");
+            seg.raf.setLength(0);
+            seg.raf.write(MAGIC);
+            seg.end = MAGIC.length;
+            for (Map.Entry<Hash, Location> e : _index.entrySet()) {
+                Location loc = e.getValue();
+                byte[] data = read(loc);
+                long offset = append(seg, TYPE_ROUTERINFO, e.getKey(), loc.date, data);
+                Location nloc = new Location(seg, offset, data.length, loc.date);
+                newIndex.put(e.getKey(), nloc);
+                live += nloc.recordLength();
+            }
+            seg.raf.getFD().sync();
+            seg.raf.close();
+        } catch (IOException ioe) {
+            if (seg.raf != null) try { seg.raf.close(); } catch (IOException ioe2) {}
+            tmp.delete();
+            throw ioe;
+        }
+        Segment done = newSegment(num);
+        if (!FileUtil.rename(tmp, done.file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + done.file);
+        }
+        done.end = seg.end;
+        openForWrite(done);
+        // now the old ones are redundant
+        for (Segment old : _segments) {
+            try {
+                old.raf.close();
+            } catch (IOException ioe) {}
+            old.file.delete();
+        }
+        _segments.clear();
+        _segments.add(done);
+        _index.clear();
+        for (Map.Entry<Hash, Location> e : newIndex.entrySet()) {
+            Location loc = e.getValue();
+            _index.put(e.getKey(), new Location(done, loc.offset, loc.length, loc.date));
+        }
+        _liveBytes = live;
+        _deadBytes = 0;
+        if (_log.shouldInfo())
+            _log.info("Compacted netDb segments from " + before + " to " + live + " bytes in " +
+                      (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     *  Sync and close. May not be reopened.
+     */
+    public synchronized void close() {
+        if (!_open)
+            return;
+        _open = false;
+        try {
+            _segments.get(_segments.size() - 1).raf.getFD().sync();
+        } catch (IOException ioe) {}
+        for (Segment seg : _segments) {
+            try {
+                seg.raf.close();
+            } catch (IOException ioe) {}
+        }
+    }
+
+    /**
+     *  Close and delete all segments
+     */
+    public synchronized void delete() {
+        close();
+        for (Segment seg : _segments) {
+            seg.file.delete();
+        }
+        _segments.clear();
+        _index.clear();
+        _liveBytes = 0;
+        _deadBytes = 0;
+    }
+}
@@ -0,0 +1,355 @@
+package net.i2p.router.networkdb.reseed;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import net.i2p.crypto.SU3File;
+import net.i2p.data.Base64;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Hash;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.router.RouterContext;
+import net.i2p.util.ByteArrayStream;
+import net.i2p.util.Log;
+import net.i2p.util.SecureDirectory;
+import net.i2p.util.SecureFileOutputStream;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Import a reseed su3 or zip file straight into the netDb,
+ *  all in memory.
+ *
+ *  The su3 signature is verified in one pass over the data,
+ *  the zip entries are read from memory, and the RouterInfos
+ *  are parsed and verified on a few threads, then stored
+ *  in the netDb facade. No temporary files are written, and the
+ *  RouterInfos are not read and verified again by PersistentDataStore.
+ *
+ *  If the netDb is not yet initialized, the RouterInfos are written
+ *  to the netDb directory and a rescan is requested, as before.
+ *
+ *  @since 0.9.71
+ */
+class ReseedImporter {
+    private final RouterContext _context;
+    private final Log _log;
+
+    /** 400 max from one URL */
+    private static final int MAX_ROUTERS = 400;
+    /** give up on this file after this many errors */
+    private static final int MAX_ERRORS = 5;
+    /** RouterInfos per verification task */
+    private static final int BATCH_SIZE = 64;
+    private static final int THREADS = Math.min(4, SystemVersion.getCores());
+    private static final AtomicInteger _threadCount = new AtomicInteger();
+
+    private static final String ROUTERINFO_PREFIX = "routerInfo-";
+    private static final String ROUTERINFO_SUFFIX = ".dat";
+
+    /** one zip entry, filled in by the Verifier */
+    private static class Entry {
+        final String name;
+        final Hash hash;
+        final byte[] data;
+        RouterInfo ri;
+
+        public Entry(String name, Hash hash, byte[] data) {
+            this.name = name;
+            this.hash = hash;
+            this.data = data;
+        }
+    }
+
+    public ReseedImporter(RouterContext ctx) {
+        _context = ctx;
+        _log = ctx.logManager().getLog(ReseedImporter.class);
+    }
+
+    /**
+     *  Verify the su3 and import the zip inside it.
+     *
+     *  @param in the complete su3 file, will not be closed
+     *  @param maxAge reject su3 files with a version date older than this (ms)
+     *  @return 2 ints: number successful and number of errors
+     *  @throws IOException on bad signature, content type, age, or zip format
+     */
+    public int[] importSU3(InputStream in, long maxAge) throws IOException {
+        SU3File su3 = new SU3File(_context, (File) null);
+        ByteArrayStream zip = new ByteArrayStream(256*1024);
+        if (!su3.verifyAndMigrate(in, zip))
+            throw new IOException("Bad signature");
+        int type = su3.getContentType();
+        if (type != SU3File.CONTENT_RESEED)
+            throw new IOException("Bad content type " + type);
+        String version = su3.getVersionString();
+        try {
+            Long ver = Long.parseLong(version.trim());
+            if (ver >= 1400000000L) {
+                // preliminary code was using "3"
+                // new format is date +%s
+                ver *= 1000;
+                if (ver < _context.clock().now() - maxAge)
+                    throw new IOException("su3 file too old");
+            }
+        } catch (NumberFormatException nfe) {}
+        return importZip(zip.asInputStream(), maxAge);
+    }
+
+    /**
+     *  Import the routerInfo-xxx.dat files in a zip.
+     *
+     *  @param in the zip file, will not be closed
+     *  @param maxAge skip entries older than this (ms)
+     *  @return 2 ints: number successful and number of errors
+     *  @throws IOException on zip format errors or if no files in zip
+     */
+    public int[] importZip(InputStream in, long maxAge) throws IOException {
+        long start = System.currentTimeMillis();
+        Hash ourHash = _context.routerHash();
+        String ourB64 = ourHash != null ? ROUTERINFO_PREFIX + ourHash.toBase64() + ROUTERINFO_SUFFIX : "";
+        long minTime = _context.clock().now() - maxAge;
+        // skipped entries are included, with null data
+        List<Entry> entries = new ArrayList<Entry>(128);
+        ZipInputStream zis = new ZipInputStream(in);
+        ZipEntry ze;
+        while ((ze = zis.getNextEntry()) != null) {
+            String name = ze.getName();
+            long time = ze.getTime();
+            byte[] data = null;
+            Hash h = null;
+            if (!ze.isDirectory() &&
+                name.length() == ROUTERINFO_PREFIX.length() + 44 + ROUTERINFO_SUFFIX.length() &&
+                !name.equals(ourB64) &&
+                (time < 0 || time >= minTime) &&
+                name.startsWith(ROUTERINFO_PREFIX) &&
+                name.endsWith(ROUTERINFO_SUFFIX)) {
+                byte[] b = Base64.decode(name.substring(ROUTERINFO_PREFIX.length(), ROUTERINFO_PREFIX.length() + 44));
+                if (b != null && b.length == Hash.HASH_LENGTH) {
+                    h = Hash.create(b);
+                    data = readEntry(zis);
+                }
+            }
+            entries.add(new Entry(name, h, data));
+        }
+        if (entries.isEmpty())
+            throw new IOException("No files in zip");
+
+        // As before, the entries are taken in random order,
+        // skipped entries count as errors, and we stop at MAX_ROUTERS
+        // successful or MAX_ERRORS errors, so at most
+        // MAX_ROUTERS + MAX_ERRORS - 1 entries need to be verified.
+        Collections.shuffle(entries, _context.random());
+        List<Entry> toVerify = new ArrayList<Entry>(Math.min(entries.size(), MAX_ROUTERS + MAX_ERRORS));
+        for (Entry e : entries) {
+            if (e.data != null) {
+                toVerify.add(e);
+                if (toVerify.size() >= MAX_ROUTERS + MAX_ERRORS - 1)
+                    break;
+            }
+        }
+        verifyAll(toVerify);
+
+        int fetched = 0;
+        int errors = 0;
+        boolean direct = _context.netDb().isInitialized();
+        File netDbDir = null;
+        if (!direct) {
+            netDbDir = new SecureDirectory(_context.getRouterDir(), "netDb");
+            if (!netDbDir.exists())
+                netDbDir.mkdirs();
+        }
+        for (Entry e : entries) {
+            if (fetched >= MAX_ROUTERS)
+                break;
+            boolean ok;
+            if (e.data == null) {
+                if (_log.shouldLog(Log.WARN))
+                    _log.warn("Skipping " + e.name);
+                ok = false;
+            } else if (e.ri == null) {
+                ok = false;
+            } else if (direct) {
+                ok = store(e);
+            } else {
+                ok = write(netDbDir, e);
+            }
+            if (ok)
+                fetched++;
+            else
+                errors++;
+            // Give up on this host after lots of errors
+            if (errors >= MAX_ERRORS)
+                break;
+        }
+        if (!direct && fetched > 0)
+            _context.netDb().rescan();
+        if (_log.shouldInfo())
+            _log.info("Imported " + fetched + " RouterInfos with " + errors + " errors in " +
+                      (System.currentTimeMillis() - start) + " ms" + (direct ? "" : " to " + netDbDir));
+        int[] rv = new int[2];
+        rv[0] = fetched;
+        rv[1] = errors;
+        return rv;
+    }
+
+    /**
+     *  @return null if too big
+     */
+    private static byte[] readEntry(ZipInputStream zis) throws IOException {
+        ByteArrayStream baos = new ByteArrayStream(2048);
+        byte[] buf = new byte[2048];
+        int read;
+        while ((read = zis.read(buf)) > 0) {
+            if (baos.size() + read > RouterInfo.MAX_UNCOMPRESSED_SIZE)
+                return null;
+            baos.write(buf, 0, read);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     *  Parse and verify all the entries, on up to THREADS threads.
+     *  Sets Entry.ri for the good ones.
+     */
+    private void verifyAll(List<Entry> entries) {
+        int count = entries.size();
+        if (THREADS <= 1 || count < 2 * BATCH_SIZE) {
+            new Verifier(entries).run();
+            return;
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 10*1000, TimeUnit.MILLISECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(), new ImportThreadFactory());
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>((count + BATCH_SIZE - 1) / BATCH_SIZE);
+            for (int i = 0; i < count; i += BATCH_SIZE) {
+                futures.add(pool.submit(new Verifier(entries.subList(i, Math.min(count, i + BATCH_SIZE)))));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException ee) {
+                    _log.error("Error verifying RouterInfos", ee);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     *  Parse the entries, check them as PersistentDataStore does,
+     *  and verify the signatures.
+     */
+    private class Verifier implements Runnable {
+        private final List<Entry> _entries;
+
+        public Verifier(List<Entry> entries) {
+            _entries = entries;
+        }
+
+        public void run() {
+            int netID = _context.router().getNetworkID();
+            for (Entry e : _entries) {
+                RouterInfo ri = new RouterInfo();
+                try {
+                    ri.readBytes(new ByteArrayInputStream(e.data));
+                } catch (DataFormatException dfe) {
+                    if (_log.shouldInfo())
+                        _log.info("Error reading " + e.name, dfe);
+                    continue;
+                } catch (IOException ioe) {
+                    if (_log.shouldInfo())
+                        _log.info("Error reading " + e.name, ioe);
+                    continue;
+                } catch (RuntimeException re) {
+                    // key certificate problems, etc.
+                    if (_log.shouldInfo())
+                        _log.info("Error reading " + e.name, re);
+                    continue;
+                }
+                Hash h = ri.getIdentity().calculateHash();
+                if (ri.getNetworkId() != netID) {
+                    if (_log.shouldWarn())
+                        _log.warn("The router " + h.toBase64() + " is from a different network");
+                } else if (!h.equals(e.hash)) {
+                    // prevent injection from reseeding
+                    if (_log.shouldWarn())
+                        _log.warn(h + " does not match " + e.name);
+                } else if (_context.blocklist().isBlocklisted(ri)) {
+                    if (_log.shouldWarn())
+                        _log.warn(h + " is blocklisted");
+                } else if (ri.isValid()) {
+                    e.ri = ri;
+                }
+            }
+        }
+    }
+
+    /**
+     *  Store a verified RouterInfo in the netDb, which will persist it.
+     *
+     *  @return success
+     */
+    private boolean store(Entry e) {
+        RouterInfo ri = e.ri;
+        try {
+            _context.netDb().store(e.hash, ri);
+        } catch (IllegalArgumentException iae) {
+            if (_log.shouldInfo())
+                _log.info("Refused reseed routerInfo " + e.name, iae);
+            return false;
+        }
+        // as in PersistentDataStore, for profile bootstrapping
+        _context.profileManager().heardAbout(e.hash, ri.getCapabilities(), ri.getPublished());
+        return true;
+    }
+
+    /**
+     *  Netdb not ready, write it out for PersistentDataStore to read
+     *
+     *  @return success
+     */
+    private boolean write(File netDbDir, Entry e) {
+        File to = new File(netDbDir, e.name);
+        FileOutputStream fos = null;
+        try {
+            fos = new SecureFileOutputStream(to);
+            fos.write(e.data);
+            return true;
+        } catch (IOException ioe) {
+            if (_log.shouldWarn())
+                _log.warn("Error writing " + to, ioe);
+            to.delete();
+            return false;
+        } finally {
+            if (fos != null) try { fos.close(); } catch (IOException ioe) {}
+        }
+    }
+
+    private static class ImportThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable r) {
+            Thread rv = Executors.defaultThreadFactory().newThread(r);
+            rv.setName("Reseed Import " + _threadCount.incrementAndGet() + '/' + THREADS);
+            rv.setDaemon(true);
+            return rv;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package net.i2p.router.networkdb.reseed;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -29,8 +31,8 @@ import net.i2p.data.router.RouterInfo;
 import net.i2p.router.RouterClock;
 import net.i2p.router.RouterContext;
 import net.i2p.router.util.EventLog;
+import net.i2p.util.ByteArrayStream;
 import net.i2p.util.EepGet;
-import net.i2p.util.FileUtil;
 import net.i2p.util.I2PAppThread;
 import net.i2p.util.Log;
 import net.i2p.util.PortMapper;
@@ -220,6 +222,7 @@ public class Reseeder {
         byte[] magic = new byte[len];
         File tmp =  null;
         OutputStream out = null;
+        InputStream fin = null;
         try {
             DataHelper.read(in, magic);
             boolean isSU3;
@@ -229,18 +232,21 @@ public class Reseeder {
                 isSU3 = false;
             else
                 throw new IOException("Not a zip or su3 file");
+            // no size limit, so spool to disk rather than memory
             tmp =  new File(_context.getTempDir(), "manualreseeds-" + _context.random().nextInt() + (isSU3 ? ".su3" : ".zip"));
             out = new BufferedOutputStream(new SecureFileOutputStream(tmp));
             out.write(magic);
             DataHelper.copy(in, out);
             out.close();
+            out = null;
+            fin = new BufferedInputStream(new FileInputStream(tmp));
             int[] stats;
-            ReseedRunner reseedRunner = new ReseedRunner();
+            ReseedImporter importer = new ReseedImporter(_context);
             // inline
             if (isSU3)
-                stats = reseedRunner.extractSU3(tmp);
+                stats = importer.importSU3(fin, MAX_FILE_AGE);
             else
-                stats = reseedRunner.extractZip(tmp);
+                stats = importer.importZip(fin, MAX_FILE_AGE);
             int fetched = stats[0];
             int errors = stats[1];
             if (fetched <= 0)
@@ -254,6 +260,7 @@ public class Reseeder {
         } finally {
             try { in.close(); } catch (IOException ioe) {}
             if (out != null)  try { out.close(); } catch (IOException ioe) {}
+            if (fin != null)  try { fin.close(); } catch (IOException ioe) {}
             if (tmp != null)
                 tmp.delete();
         }
@@ -794,7 +801,6 @@ public class Reseeder {
         private int reseedSU3OrZip(URI seedURL, boolean isSU3, boolean echoStatus) {
             int fetched = 0;
             int errors = 0;
-            File contentRaw = null;
             try {
                 _checker.setStatus(_t("Reseeding: fetching seed URL."));
                 String s = getDisplayString(seedURL);
@@ -802,9 +808,9 @@ public class Reseeder {
                 // don't use context time, as we may be step-changing it
                 // from the server header
                 long startTime = System.currentTimeMillis();
-                contentRaw = fetchURL(seedURL);
+                ByteArrayStream content = readURL(seedURL, MAX_SU3_RESPONSE_SIZE);
                 long totalTime = System.currentTimeMillis() - startTime;
-                if (contentRaw == null) {
+                if (content == null) {
                     // Logging deprecated here since attemptFailed() provides better info
                     if (_log.shouldWarn())
                         _log.warn("Failed reading " + s);
@@ -812,7 +818,7 @@ public class Reseeder {
                     return 0;
                 }
                 if (totalTime > 0) {
-                    long sz = contentRaw.length();
+                    long sz = content.size();
                     long bw = 1000 * sz / totalTime;
                     _bandwidths.add(Long.valueOf(bw));
                     if (_log.shouldLog(Log.DEBUG))
@@ -820,9 +826,9 @@ public class Reseeder {
                 }
                 int[] stats;
                 if (isSU3)
-                    stats = extractSU3(contentRaw);
+                    stats = importSU3(content.asInputStream());
                 else
-                    stats = extractZip(contentRaw);
+                    stats = importZip(content.asInputStream());
                 fetched = stats[0];
                 errors = stats[1];
                 if (fetched == 0) {
@@ -835,9 +841,6 @@ public class Reseeder {
                 System.err.println("Error reseeding " + s + ": " + t);
                 _log.error("Error reseeding " + s, t);
                 errors++;
-            } finally {
-                if (contentRaw != null)
-                    contentRaw.delete();
             }
             _checker.setStatus(
                 _t("Reseeding: fetching router info from seed URL ({0} successful, {1} errors).", fetched, errors));
@@ -847,117 +850,32 @@ public class Reseeder {
 
 
         /**
+         *  Verify the su3 and import the RouterInfos straight into the netDb.
+         *
+         *  @param in the su3 file
          *  @return 2 ints: number successful and number of errors
-         *  @since 0.9.19 pulled from reseedSU3
+         *  @since 0.9.71 replaces extractSU3(File)
          */
-        public int[] extractSU3(File contentRaw) throws IOException {
-            int fetched = 0;
-            int errors = 0;
-            File zip = null;
+        public int[] importSU3(InputStream in) {
             try {
-                SU3File su3 = new SU3File(_context, contentRaw);
-                zip = new File(_context.getTempDir(), "reseed-" + _context.random().nextInt() + ".zip");
-                if (!su3.verifyAndMigrate(zip))
-                    throw new IOException("Bad signature");
-                int type = su3.getContentType();
-                if (type != SU3File.CONTENT_RESEED)
-                    throw new IOException("Bad content type " + type);
-                String version = su3.getVersionString();
-                try {
-                    Long ver = Long.parseLong(version.trim());
-                    if (ver >= 1400000000L) {
-                        // preliminary code was using "3"
-                        // new format is date +%s
-                        ver *= 1000;
-                        if (ver < _context.clock().now() - MAX_FILE_AGE)
-                            throw new IOException("su3 file too old");
-                    }
-                } catch (NumberFormatException nfe) {}
-
-                int[] stats = extractZip(zip);
-                fetched = stats[0];
-                errors = stats[1];
+                return new ReseedImporter(_context).importSU3(in, MAX_FILE_AGE);
             } catch (Throwable t) {
                 System.err.println("Error reseeding: " + t);
                 _log.error("Error reseeding", t);
-                errors++;
-            } finally {
-                contentRaw.delete();
-                if (zip != null)
-                    zip.delete();
+                return new int[] { 0, 1 };
             }
-
-            int[] rv = new int[2];
-            rv[0] = fetched;
-            rv[1] = errors;
-            return rv;
         }
 
         /**
+         *  Import the RouterInfos straight into the netDb.
+         *
+         *  @param in the zip file
          *  @return 2 ints: number successful and number of errors
-         *  @since 0.9.19 pulled from reseedSU3
+         *  @throws IOException on zip format errors
+         *  @since 0.9.71 replaces extractZip(File)
          */
-        public int[] extractZip(File zip) throws IOException {
-            int fetched = 0;
-            int errors = 0;
-            File tmpDir = null;
-            try {
-                tmpDir = new File(_context.getTempDir(), "reseeds-" + _context.random().nextInt());
-                if (!FileUtil.extractZip(zip, tmpDir))
-                    throw new IOException("Bad zip file");
-
-                Hash ourHash = _context.routerHash();
-                String ourB64 = ourHash != null ? ROUTERINFO_PREFIX + ourHash.toBase64() + ROUTERINFO_SUFFIX : "";
-
-                File[] files = tmpDir.listFiles();
-                if (files == null || files.length == 0)
-                    throw new IOException("No files in zip");
-                List<File> fList = Arrays.asList(files);
-                Collections.shuffle(fList, _context.random());
-                long minTime = _context.clock().now() - MAX_FILE_AGE;
-                File netDbDir = new SecureDirectory(_context.getRouterDir(), "netDb");
-                if (!netDbDir.exists())
-                    netDbDir.mkdirs();
-
-                // 400 max from one URL
-                for (Iterator<File> iter = fList.iterator(); iter.hasNext() && fetched < 400; ) {
-                    File f = iter.next();
-                    String name = f.getName();
-                    if (name.length() != ROUTERINFO_PREFIX.length() + 44 + ROUTERINFO_SUFFIX.length() ||
-                        name.equals(ourB64) ||
-                        f.length() > RouterInfo.MAX_UNCOMPRESSED_SIZE ||
-                        f.lastModified() < minTime ||
-                        !name.startsWith(ROUTERINFO_PREFIX) ||
-                        !name.endsWith(ROUTERINFO_SUFFIX) ||
-                        !f.isFile()) {
-                        if (_log.shouldLog(Log.WARN))
-                            _log.warn("Skipping " + f);
-                        f.delete();
-                        errors++;
-                        continue;
-                    }
-                    File to = new File(netDbDir, name);
-                    if (FileUtil.rename(f, to)) {
-                        fetched++;
-                    } else {
-                        f.delete();
-                        errors++;
-                    }
-                    // Give up on this host after lots of errors
-                    if (errors >= 5)
-                        break;
-                }
-            } finally {
-                if (tmpDir != null)
-                    FileUtil.rmdir(tmpDir, false);
-            }
-
-            if (fetched > 0)
-                _context.netDb().rescan();
-            int[] rv = new int[2];
-            rv[0] = fetched;
-            rv[1] = errors;
-            return rv;
+        public int[] importZip(InputStream in) throws IOException {
+            return new ReseedImporter(_context).importZip(in, MAX_FILE_AGE);
         }
 
         /**
@@ -992,82 +910,39 @@ public class Reseeder {
 
         /** @return null on error */
         private byte[] readURL(URI url) throws IOException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream(4*1024);
-            EepGet get;
-            boolean ssl = "https".equals(url.getScheme());
-            if (ssl) {
-                SSLEepGet sslget;
-                if (_sslState == null) {
-                    if (_shouldProxySSL)
-                        sslget = new SSLEepGet(_context, _sproxyType, _sproxyHost, _sproxyPort,
-                                               baos, url.toString());
-                    else
-                        sslget = new SSLEepGet(_context, baos, url.toString());
-                    // save state for next time
-                    _sslState = sslget.getSSLState();
-                } else {
-                    if (_shouldProxySSL)
-                        sslget = new SSLEepGet(_context, _sproxyType, _sproxyHost, _sproxyPort,
-                                               baos, url.toString(), _sslState);
-                    else
-                        sslget = new SSLEepGet(_context, baos, url.toString(), _sslState);
-                }
-                get = sslget;
-                if (_shouldProxySSL && _context.getBooleanProperty(PROP_SPROXY_AUTH_ENABLE)) {
-                    String user = _context.getProperty(PROP_SPROXY_USERNAME);
-                    String pass = _context.getProperty(PROP_SPROXY_PASSWORD);
-                    if (user != null && user.length() > 0 &&
-                        pass != null && pass.length() > 0)
-                        get.addAuthorization(user, pass);
-                }
-            } else {
-                // Do a (probably) non-proxied eepget into our ByteArrayOutputStream with 0 retries
-                get = new EepGet(_context, _shouldProxyHTTP, _proxyHost, _proxyPort, 0, 0, MAX_RESEED_RESPONSE_SIZE,
-                                 null, baos, url.toString(), false, null, null);
-                if (_shouldProxyHTTP && _context.getBooleanProperty(PROP_PROXY_AUTH_ENABLE)) {
-                    String user = _context.getProperty(PROP_PROXY_USERNAME);
-                    String pass = _context.getProperty(PROP_PROXY_PASSWORD);
-                    if (user != null && user.length() > 0 &&
-                        pass != null && pass.length() > 0)
-                        get.addAuthorization(user, pass);
-                }
-            }
-            if (!url.toString().endsWith("/")) {
-                String minLastMod = RFC822Date.to822Date(_context.clock().now() - MAX_FILE_AGE);
-                get.addHeader("If-Modified-Since", minLastMod);
-            }
-            get.addStatusListener(ReseedRunner.this);
-            if (get.fetch() && get.getStatusCode() == 200)
-                return baos.toByteArray();
-            return null;
+            ByteArrayStream rv = readURL(url, MAX_RESEED_RESPONSE_SIZE);
+            return rv != null ? rv.toByteArray() : null;
         }
 
         /**
-         *  Fetch a URL to a file.
+         *  Fetch a URL into memory.
          *
+         *  @param maxSize abort the fetch if the response is bigger
          *  @return null on error
-         *  @since 0.9.14
+         *  @since 0.9.71 from fetchURL(), which fetched to a file
          */
-        private File fetchURL(URI url) throws IOException {
-            File out = new File(_context.getTempDir(), "reseed-" + _context.random().nextInt() + ".tmp");
+        private ByteArrayStream readURL(URI url, long maxSize) throws IOException {
+            ByteArrayStream baos = new ByteArrayStream(4*1024);
             EepGet get;
             boolean ssl = "https".equals(url.getScheme());
             if (ssl) {
+                // SSLEepGet only checks the Content-Length against a max size, if any
+                OutputStream out = new LimitOutputStream(baos, maxSize);
                 SSLEepGet sslget;
                 if (_sslState == null) {
                     if (_shouldProxySSL)
                         sslget = new SSLEepGet(_context, _sproxyType, _sproxyHost, _sproxyPort,
-                                               out.getPath(), url.toString());
+                                               out, url.toString());
                     else
-                        sslget = new SSLEepGet(_context, out.getPath(), url.toString());
+                        sslget = new SSLEepGet(_context, out, url.toString());
                     // save state for next time
                     _sslState = sslget.getSSLState();
                 } else {
                     if (_shouldProxySSL)
                         sslget = new SSLEepGet(_context, _sproxyType, _sproxyHost, _sproxyPort,
-                                               out.getPath(), url.toString(), _sslState);
+                                               out, url.toString(), _sslState);
                     else
-                        sslget = new SSLEepGet(_context, out.getPath(), url.toString(), _sslState);
+                        sslget = new SSLEepGet(_context, out, url.toString(), _sslState);
                 }
                 get = sslget;
                 if (_shouldProxySSL && _context.getBooleanProperty(PROP_SPROXY_AUTH_ENABLE)) {
@@ -1078,9 +953,9 @@ public class Reseeder {
                         get.addAuthorization(user, pass);
                 }
             } else {
-                // Do a (probably) non-proxied eepget into file with 0 retries
-                get = new EepGet(_context, _shouldProxyHTTP, _proxyHost, _proxyPort, 0, 0, MAX_SU3_RESPONSE_SIZE,
-                                 out.getPath(), null, url.toString(), false, null, null);
+                // Do a (probably) non-proxied eepget into our ByteArrayOutputStream with 0 retries
+                get = new EepGet(_context, _shouldProxyHTTP, _proxyHost, _proxyPort, 0, 0, maxSize,
+                                 null, baos, url.toString(), false, null, null);
                 if (_shouldProxyHTTP && _context.getBooleanProperty(PROP_PROXY_AUTH_ENABLE)) {
                     String user = _context.getProperty(PROP_PROXY_USERNAME);
                     String pass = _context.getProperty(PROP_PROXY_PASSWORD);
@@ -1095,8 +970,7 @@ public class Reseeder {
             }
             get.addStatusListener(ReseedRunner.this);
             if (get.fetch() && get.getStatusCode() == 200)
-                return out;
-            out.delete();
+                return baos;
             return null;
         }
 
@@ -1214,6 +1088,40 @@ public class Reseeder {
         }
     }
 
+    /**
+     *  Throws an IOException, aborting the fetch, when more than
+     *  the max size is written.
+     *
+     *  @since 0.9.71
+     */
+    private static class LimitOutputStream extends FilterOutputStream {
+        private final long _maxSize;
+        private long _written;
+
+        public LimitOutputStream(OutputStream out, long maxSize) {
+            super(out);
+            _maxSize = maxSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            check(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            check(len);
+            out.write(b, off, len);
+        }
+
+        private void check(int len) throws IOException {
+            _written += len;
+            if (_written > _maxSize)
+                throw new IOException("Response size violates maximum of " + _maxSize + " bytes");
+        }
+    }
+
     private static final String BUNDLE_NAME = "net.i2p.router.web.messages";
 
     /** translate */
@@ -172,9 +172,19 @@ class PeerManager {
         try {
             Set<Hash> peers = selectPeers();
             total = peers.size();
-            for (Hash peer : peers) {
-                if (storeProfile(peer, cutoff))
-                    i++;
+            if (_persistenceHelper.isBinary()) {
+                List<PeerProfile> profiles = new ArrayList<PeerProfile>(total);
+                for (Hash peer : peers) {
+                    PeerProfile prof = _organizer.getProfile(peer);
+                    if (prof != null && prof.getLastSendSuccessful() > cutoff)
+                        profiles.add(prof);
+                }
+                i = _persistenceHelper.writeProfiles(profiles);
+            } else {
+                for (Hash peer : peers) {
+                    if (storeProfile(peer, cutoff))
+                        i++;
+                }
             }
         } finally {
             _storeLock.set(false);
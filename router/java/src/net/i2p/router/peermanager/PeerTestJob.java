@@ -10,8 +10,8 @@ import net.i2p.data.TunnelId;
 import net.i2p.data.i2np.DatabaseStoreMessage;
 import net.i2p.data.i2np.DeliveryStatusMessage;
 import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.router.IndexedMessageSelector;
 import net.i2p.router.JobImpl;
-import net.i2p.router.MessageSelector;
 import net.i2p.router.ReplyJob;
 import net.i2p.router.RouterContext;
 import net.i2p.router.TunnelInfo;
@@ -191,7 +191,7 @@ class PeerTestJob extends JobImpl {
      * Simple selector looking for a dbStore of the peer specified
      *
      */
-    private class ReplySelector implements MessageSelector {
+    private class ReplySelector implements IndexedMessageSelector {
         private final long _expiration;
         private final long _nonce;
         private final Hash _peer;
@@ -205,6 +205,11 @@ class PeerTestJob extends JobImpl {
         }
         public boolean continueMatching() { return false; }
         public long getExpiration() { return _expiration; }
+        /**
+         *  @since 0.9.71
+         */
+        public Object getReplyKey() { return Long.valueOf(_nonce); }
+
         public boolean isMatch(I2NPMessage message) {
             if (message.getType() == DeliveryStatusMessage.MESSAGE_TYPE) {
                 DeliveryStatusMessage msg = (DeliveryStatusMessage)message;
@@ -9,10 +9,13 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -32,6 +35,10 @@ import net.i2p.util.SystemVersion;
  *  The files are gzip compressed, we previously stored them
  *  with a ".dat" extension instead of ".txt.gz", so it wasn't apparent.
  *  Now migrated to a ".txt.gz" extension.
+ *
+ *  As of 0.9.71, if router.binaryProfileStore=true, all the profiles
+ *  are stored in a few segment files instead, see ProfileStore.
+ *  Profiles in the other format are converted at startup.
  */
 class ProfilePersistenceHelper {
     private final Log _log;
@@ -39,6 +46,8 @@ class ProfilePersistenceHelper {
     
     public final static String PROP_PEER_PROFILE_DIR = "router.profileDir";
     public final static String DEFAULT_PEER_PROFILE_DIR = "peerProfiles";
+    /** @since 0.9.71 */
+    public final static String PROP_BINARY_STORE = "router.binaryProfileStore";
     private final static String NL = System.getProperty("line.separator");
     private static final String PREFIX = "profile-";
     private static final String SUFFIX = ".txt.gz";
@@ -51,6 +60,8 @@ class ProfilePersistenceHelper {
     private static final int LIMIT_PROFILES = SystemVersion.isSlow() ? 1000 : 4000;
     
     private final File _profileDir;
+    private final ProfileStore _store;
+    private final boolean _isBinary;
     private Hash _us;
     
     public ProfilePersistenceHelper(RouterContext ctx) {
@@ -65,6 +76,30 @@ class ProfilePersistenceHelper {
             if (!subdir.exists())
                 subdir.mkdir();
         }
+        _store = new ProfileStore(ctx, this, _profileDir);
+        _isBinary = ctx.getBooleanProperty(PROP_BINARY_STORE);
+    }
+
+    /**
+     *  @return true if profiles are stored in a ProfileStore
+     *  @since 0.9.71
+     */
+    public boolean isBinary() {
+        return _isBinary;
+    }
+
+    /**
+     *  Binary store only. Store these profiles and remove all others.
+     *  Only changed profiles are written.
+     *
+     *  @param profiles all the profiles to keep
+     *  @return number written
+     *  @since 0.9.71
+     */
+    public int writeProfiles(Collection<PeerProfile> profiles) {
+        synchronized(_store) {
+            return _store.store(profiles);
+        }
     }
     
     public void setUs(Hash routerIdentHash) { _us = routerIdentHash; }
@@ -103,23 +138,22 @@ class ProfilePersistenceHelper {
      */
     @SuppressWarnings("deprecation")
     public void writeProfile(PeerProfile profile, OutputStream out, boolean addComments) throws IOException {
-        String groups = null;
-        if (_context.profileOrganizer().isFailing(profile.getPeer())) {
-            groups = "Failing";
-        } else if (!_context.profileOrganizer().isHighCapacity(profile.getPeer())) {
-            groups = "Standard";
-        } else {
-            if (_context.profileOrganizer().isFast(profile.getPeer()))
-                groups = "Fast, High Capacity";
-            else
-                groups = "High Capacity";
-            
-            if (_context.profileOrganizer().isWellIntegrated(profile.getPeer()))
-                groups = groups + ", Integrated";
-        }
-        
         StringBuilder buf = new StringBuilder(512);
         if (addComments) {
+            String groups;
+            if (_context.profileOrganizer().isFailing(profile.getPeer())) {
+                groups = "Failing";
+            } else if (!_context.profileOrganizer().isHighCapacity(profile.getPeer())) {
+                groups = "Standard";
+            } else {
+                if (_context.profileOrganizer().isFast(profile.getPeer()))
+                    groups = "Fast, High Capacity";
+                else
+                    groups = "High Capacity";
+
+                if (_context.profileOrganizer().isWellIntegrated(profile.getPeer()))
+                    groups = groups + ", Integrated";
+            }
             buf.append("########################################################################").append(NL);
             buf.append("# Profile for peer ").append(profile.getPeer().toBase64()).append(NL);
             if (_us != null)
@@ -196,17 +230,79 @@ class ProfilePersistenceHelper {
             buf.append(NL);
     }
     
+    /**
+     *  Read from the configured format, and convert any profiles
+     *  found in the other format.
+     */
     public List<PeerProfile> readProfiles() {
         long start = System.currentTimeMillis();
         long down = _context.router().getEstimatedDowntime();
         long cutoff = down < 15*24*60*60*1000L ? start - down - 24*60*60*1000 : start;
-        List<File> files = selectFiles();
-        if (files.size() > LIMIT_PROFILES)
+        List<PeerProfile> profiles;
+        if (_isBinary) {
+            synchronized(_store) {
+                profiles = _store.read(cutoff, LIMIT_PROFILES);
+                List<File> files = selectFiles();
+                if (!files.isEmpty()) {
+                    // convert
+                    Set<Hash> have = new HashSet<Hash>(profiles.size());
+                    for (PeerProfile prof : profiles) {
+                        have.add(prof.getPeer());
+                    }
+                    List<PeerProfile> text = readProfiles(files, cutoff, LIMIT_PROFILES - profiles.size());
+                    for (PeerProfile prof : text) {
+                        if (have.add(prof.getPeer()))
+                            profiles.add(prof);
+                    }
+                    _store.store(profiles);
+                    for (File f : files) {
+                        f.delete();
+                    }
+                    if (_log.shouldWarn())
+                        _log.warn("Converted " + text.size() + " profiles to the binary store");
+                }
+            }
+        } else {
+            profiles = readProfiles(selectFiles(), cutoff, LIMIT_PROFILES);
+            synchronized(_store) {
+                if (_store.exists()) {
+                    // convert
+                    Set<Hash> have = new HashSet<Hash>(profiles.size());
+                    for (PeerProfile prof : profiles) {
+                        have.add(prof.getPeer());
+                    }
+                    List<PeerProfile> binary = _store.read(cutoff, LIMIT_PROFILES - profiles.size());
+                    int count = 0;
+                    for (PeerProfile prof : binary) {
+                        if (have.add(prof.getPeer())) {
+                            profiles.add(prof);
+                            if (writeProfile(prof))
+                                count++;
+                        }
+                    }
+                    _store.delete();
+                    if (_log.shouldWarn())
+                        _log.warn("Converted " + count + " profiles from the binary store");
+                }
+            }
+        }
+        long duration = System.currentTimeMillis() - start;
+        if (_log.shouldLog(Log.DEBUG))
+            _log.debug("Loading " + profiles.size() + " profiles took " + duration + "ms");
+        return profiles;
+    }
+
+    /**
+     *  @param files will be shuffled if more than limit
+     *  @since 0.9.71 split out from readProfiles()
+     */
+    private List<PeerProfile> readProfiles(List<File> files, long cutoff, int limit) {
+        if (files.size() > limit)
             Collections.shuffle(files, _context.random());
-        List<PeerProfile> profiles = new ArrayList<PeerProfile>(Math.min(LIMIT_PROFILES, files.size()));
+        List<PeerProfile> profiles = new ArrayList<PeerProfile>(Math.max(0, Math.min(limit, files.size())));
         int count = 0;
         for (File f :  files) {
-            if (count >= LIMIT_PROFILES) {
+            if (count >= limit) {
                 f.delete();
                 continue;
             }
@@ -216,9 +312,6 @@ class ProfilePersistenceHelper {
                 count++;
             }
         }
-        long duration = System.currentTimeMillis() - start;
-        if (_log.shouldLog(Log.DEBUG))
-            _log.debug("Loading " + count + " profiles took " + duration + "ms");
         return profiles;
     }
     
@@ -268,6 +361,9 @@ class ProfilePersistenceHelper {
      *  @since 0.9.28
      */
     public int deleteOldProfiles(long age) {
+        // the binary store removes them on store
+        if (_isBinary)
+            return 0;
         long cutoff = System.currentTimeMillis() - age;
         List<File> files = selectFiles();
         int i = 0;
@@ -299,13 +395,12 @@ class ProfilePersistenceHelper {
                 _log.error("The file " + file.getName() + " is not a valid hash");
                 return null;
             }
-            PeerProfile profile = new PeerProfile(_context, peer);
             Properties props = new Properties();
             
             loadProps(props, file);
             
-            long lastSentToSuccessfully = getLong(props, "lastSentToSuccessfully");
-            if (lastSentToSuccessfully <= cutoff) {
+            PeerProfile profile = readProfile(peer, props, file.lastModified(), cutoff);
+            if (profile == null) {
                 if (_log.shouldLog(Log.INFO))
                     _log.info("Dropping old profile " + file.getName() + 
                               ", since we haven't heard from them in a long time");
@@ -321,55 +416,8 @@ class ProfilePersistenceHelper {
                     file.delete();
             }
             
-            profile.setCapacityBonus((int) getLong(props, "capacityBonus"));
-            profile.setIntegrationBonus((int) getLong(props, "integrationBonus"));
-            profile.setSpeedBonus((int) getLong(props, "speedBonus"));
-            
-            long fh = getLong(props, "firstHeardAbout");
-            if (fh <= 0)
-                fh = file.lastModified();
-            profile.setFirstHeardAbout(fh);
-            long lh = getLong(props, "lastHeardAbout");
-            if (lh <= 0)
-                lh = fh;
-            profile.setLastHeardAbout(lh);
-            profile.setLastSendSuccessful(getLong(props, "lastSentToSuccessfully"));
-            profile.setLastSendFailed(getLong(props, "lastFailedSend"));
-            profile.setLastHeardFrom(getLong(props, "lastHeardFrom"));
-
-            if (PeerProfile.ENABLE_TUNNEL_TEST_RESPONSE_TIME)
-                profile.setTunnelTestTimeAverage(getFloat(props, "tunnelTestTimeAverage"));
-
-            profile.setPeakThroughputKBps(getFloat(props, "tunnelPeakThroughput"));
-            profile.setPeakTunnelThroughputKBps(getFloat(props, "tunnelPeakTunnelThroughput"));
-            profile.setPeakTunnel1mThroughputKBps(getFloat(props, "tunnelPeakTunnel1mThroughput"));
-            
-            profile.getTunnelHistory().load(props);
-
-            // In the interest of keeping the in-memory profiles small,
-            // don't load the DB info at all unless there is something interesting there
-            // (i.e. floodfills)
-            if (getLong(props, "dbHistory.lastLookupSuccessful") > 0 ||
-                getLong(props, "dbHistory.lastLookupFailed") > 0 ||
-                getLong(props, "dbHistory.lastStoreSuccessful") > 0 ||
-                getLong(props, "dbHistory.lastStoreFailed") > 0) {
-                profile.expandDBProfile();
-                profile.getDBHistory().load(props);
-                profile.getDbIntroduction().load(props, "dbIntroduction", true);
-                profile.getDbResponseTime().load(props, "dbResponseTime", true);
-            }
-
-            //profile.getReceiveSize().load(props, "receiveSize", true);
-            //profile.getSendSuccessSize().load(props, "sendSuccessSize", true);
-            profile.getTunnelCreateResponseTime().load(props, "tunnelCreateResponseTime", true);
-
-            if (PeerProfile.ENABLE_TUNNEL_TEST_RESPONSE_TIME)
-                profile.getTunnelTestResponseTime().load(props, "tunnelTestResponseTime", true);
-            
             if (_log.shouldLog(Log.DEBUG))
                 _log.debug("Loaded the profile for " + peer.toBase64() + " from " + file.getName());
-            
-            fixupFirstHeardAbout(profile);
             return profile;
         } catch (Exception e) {
             if (_log.shouldLog(Log.WARN))
@@ -379,6 +427,68 @@ class ProfilePersistenceHelper {
         }
     }
 
+    /**
+     *  @param modified when it was stored, used if firstHeardAbout is not set
+     *  @param cutoff return null if the last successful send is older than this (absolute time)
+     *  @return null if too old
+     *  @since 0.9.71 split out from readProfile(File, long)
+     */
+    @SuppressWarnings("deprecation")
+    PeerProfile readProfile(Hash peer, Properties props, long modified, long cutoff) {
+        long lastSentToSuccessfully = getLong(props, "lastSentToSuccessfully");
+        if (lastSentToSuccessfully <= cutoff)
+            return null;
+        PeerProfile profile = new PeerProfile(_context, peer);
+        
+        profile.setCapacityBonus((int) getLong(props, "capacityBonus"));
+        profile.setIntegrationBonus((int) getLong(props, "integrationBonus"));
+        profile.setSpeedBonus((int) getLong(props, "speedBonus"));
+        
+        long fh = getLong(props, "firstHeardAbout");
+        if (fh <= 0)
+            fh = modified;
+        profile.setFirstHeardAbout(fh);
+        long lh = getLong(props, "lastHeardAbout");
+        if (lh <= 0)
+            lh = fh;
+        profile.setLastHeardAbout(lh);
+        profile.setLastSendSuccessful(getLong(props, "lastSentToSuccessfully"));
+        profile.setLastSendFailed(getLong(props, "lastFailedSend"));
+        profile.setLastHeardFrom(getLong(props, "lastHeardFrom"));
+
+        if (PeerProfile.ENABLE_TUNNEL_TEST_RESPONSE_TIME)
+            profile.setTunnelTestTimeAverage(getFloat(props, "tunnelTestTimeAverage"));
+
+        profile.setPeakThroughputKBps(getFloat(props, "tunnelPeakThroughput"));
+        profile.setPeakTunnelThroughputKBps(getFloat(props, "tunnelPeakTunnelThroughput"));
+        profile.setPeakTunnel1mThroughputKBps(getFloat(props, "tunnelPeakTunnel1mThroughput"));
+        
+        profile.getTunnelHistory().load(props);
+
+        // In the interest of keeping the in-memory profiles small,
+        // don't load the DB info at all unless there is something interesting there
+        // (i.e. floodfills)
+        if (getLong(props, "dbHistory.lastLookupSuccessful") > 0 ||
+            getLong(props, "dbHistory.lastLookupFailed") > 0 ||
+            getLong(props, "dbHistory.lastStoreSuccessful") > 0 ||
+            getLong(props, "dbHistory.lastStoreFailed") > 0) {
+            profile.expandDBProfile();
+            profile.getDBHistory().load(props);
+            profile.getDbIntroduction().load(props, "dbIntroduction", true);
+            profile.getDbResponseTime().load(props, "dbResponseTime", true);
+        }
+
+        //profile.getReceiveSize().load(props, "receiveSize", true);
+        //profile.getSendSuccessSize().load(props, "sendSuccessSize", true);
+        profile.getTunnelCreateResponseTime().load(props, "tunnelCreateResponseTime", true);
+
+        if (PeerProfile.ENABLE_TUNNEL_TEST_RESPONSE_TIME)
+            profile.getTunnelTestResponseTime().load(props, "tunnelTestResponseTime", true);
+        
+        fixupFirstHeardAbout(profile);
+        return profile;
+    }
+
     /**
      *  First heard about wasn't always set correctly before,
      *  set it to the minimum of all recorded timestamps.
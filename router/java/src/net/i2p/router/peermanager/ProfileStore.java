@@ -0,0 +1,454 @@
+package net.i2p.router.peermanager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.i2p.data.DataHelper;
+import net.i2p.data.Hash;
+import net.i2p.router.RouterContext;
+import net.i2p.util.FileUtil;
+import net.i2p.util.I2PThread;
+import net.i2p.util.Log;
+import net.i2p.util.SecureFile;
+import net.i2p.util.SecureFileOutputStream;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  All the profiles in 16 segment files, selected by the
+ *  first 4 bits of the peer hash, instead of one file per profile.
+ *
+ *  Segment format:
+ *<pre>
+ *   8 bytes  "I2Pprof" + version (1)
+ *   records until EOF:
+ *     32 bytes  peer hash
+ *      8 bytes  time stored
+ *      4 bytes  length
+ *     length bytes  the profile properties, as written by
+ *                   ProfilePersistenceHelper.writeProfile(), deflated
+ *</pre>
+ *
+ *  A segment is only rewritten if a profile in it has seen activity
+ *  since the last store, or a profile was added or removed.
+ *  Segments are written to a temp file and renamed.
+ *  At startup, the segments are read sequentially and decoded in parallel.
+ *
+ *  Not thread safe, the caller must synchronize.
+ *
+ *  @since 0.9.71
+ */
+class ProfileStore {
+    private final RouterContext _context;
+    private final Log _log;
+    private final ProfilePersistenceHelper _helper;
+    private final File _dir;
+    /** the hashes in each segment file */
+    private final List<Set<Hash>> _onDisk;
+    /** segments with records that were dropped on load */
+    private final boolean[] _stale;
+    private long _lastStore;
+
+    private static final int SEGMENTS = 16;
+    private static final String PREFIX = "profiles-";
+    private static final String SUFFIX = ".dat";
+    private static final byte[] MAGIC = DataHelper.getASCII("I2Pprof");
+    private static final int VERSION = 1;
+    private static final int HEADER_LEN = MAGIC.length + 1;
+    private static final int MAX_RECORD_LEN = 256*1024;
+    private static final int MAX_THREADS = 4;
+
+    /**
+     *  @param dir the profile directory
+     */
+    public ProfileStore(RouterContext ctx, ProfilePersistenceHelper helper, File dir) {
+        _context = ctx;
+        _log = ctx.logManager().getLog(ProfileStore.class);
+        _helper = helper;
+        _dir = dir;
+        _onDisk = new ArrayList<Set<Hash>>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            _onDisk.add(new HashSet<Hash>(256));
+        }
+        _stale = new boolean[SEGMENTS];
+    }
+
+    /**
+     *  @return true if any segment exists
+     */
+    public boolean exists() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            if (getFile(i).exists())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     *  Read and decode all the segments.
+     *  Profiles stored before the cutoff are dropped.
+     *  If there are more than limit, a random selection is returned.
+     *
+     *  @param cutoff absolute time
+     *  @return non-null
+     */
+    public List<PeerProfile> read(final long cutoff, int limit) {
+        long start = System.currentTimeMillis();
+        List<Record> records = new ArrayList<Record>(1024);
+        for (int i = 0; i < SEGMENTS; i++) {
+            Map<Hash, Record> seg = readSegment(i);
+            Set<Hash> onDisk = _onDisk.get(i);
+            onDisk.clear();
+            onDisk.addAll(seg.keySet());
+            for (Record r : seg.values()) {
+                if (r.stored < cutoff)
+                    _stale[i] = true;
+                else
+                    records.add(r);
+            }
+        }
+        if (limit < 0)
+            limit = 0;
+        if (records.size() > limit) {
+            Collections.shuffle(records, _context.random());
+            for (int i = limit; i < records.size(); i++) {
+                _stale[segment(records.get(i).peer)] = true;
+            }
+            records = records.subList(0, limit);
+        }
+        long readTime = System.currentTimeMillis() - start;
+
+        // don't rewrite profiles that haven't changed since they were loaded
+        _lastStore = _context.clock().now();
+        List<PeerProfile> rv = new ArrayList<PeerProfile>(records.size());
+        if (records.isEmpty())
+            return rv;
+        int threads = Math.max(1, Math.min(MAX_THREADS, SystemVersion.getCores()));
+        int chunk = (records.size() + threads - 1) / threads;
+        List<Callable<List<PeerProfile>>> tasks = new ArrayList<Callable<List<PeerProfile>>>(threads);
+        for (int i = 0; i < records.size(); i += chunk) {
+            final List<Record> recs = records.subList(i, Math.min(i + chunk, records.size()));
+            tasks.add(new Callable<List<PeerProfile>>() {
+                public List<PeerProfile> call() {
+                    List<PeerProfile> profs = new ArrayList<PeerProfile>(recs.size());
+                    for (Record r : recs) {
+                        PeerProfile prof = decode(r, cutoff);
+                        if (prof != null)
+                            profs.add(prof);
+                        else
+                            _stale[segment(r.peer)] = true;
+                    }
+                    return profs;
+                }
+            });
+        }
+        if (tasks.size() == 1) {
+            try {
+                rv.addAll(tasks.get(0).call());
+            } catch (Exception e) {}
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(),
+                                                             new LoaderThreadFactory(threads));
+            try {
+                for (Future<List<PeerProfile>> f : pool.invokeAll(tasks)) {
+                    try {
+                        rv.addAll(f.get());
+                    } catch (ExecutionException ee) {
+                        _log.error("Error decoding profiles", ee.getCause());
+                    }
+                }
+            } catch (InterruptedException ie) {
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        if (_log.shouldInfo())
+            _log.info("Loaded " + rv.size() + " profiles from " + _dir + " in " +
+                      (System.currentTimeMillis() - start) + "ms, read took " + readTime + "ms");
+        return rv;
+    }
+
+    /**
+     *  Store the profiles, and remove any others.
+     *  Only segments with changes are rewritten, and only the profiles
+     *  with activity since the last store are encoded again.
+     *
+     *  @param profiles all the profiles to keep
+     *  @return number of profiles encoded
+     */
+    public int store(Collection<PeerProfile> profiles) {
+        long now = _context.clock().now();
+        List<List<PeerProfile>> bySegment = new ArrayList<List<PeerProfile>>(SEGMENTS);
+        List<Set<Hash>> keep = new ArrayList<Set<Hash>>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            bySegment.add(new ArrayList<PeerProfile>(profiles.size() / 8));
+            keep.add(new HashSet<Hash>(profiles.size() / 8));
+        }
+        for (PeerProfile prof : profiles) {
+            int seg = segment(prof.getPeer());
+            bySegment.get(seg).add(prof);
+            keep.get(seg).add(prof.getPeer());
+        }
+        int encoded = 0;
+        int written = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Set<Hash> onDisk = _onDisk.get(i);
+            List<PeerProfile> dirty = new ArrayList<PeerProfile>();
+            for (PeerProfile prof : bySegment.get(i)) {
+                if (!onDisk.contains(prof.getPeer()) || getLastActivity(prof) >= _lastStore)
+                    dirty.add(prof);
+            }
+            if (dirty.isEmpty() && !_stale[i] && keep.get(i).equals(onDisk))
+                continue;
+            Map<Hash, Record> seg = readSegment(i);
+            seg.keySet().retainAll(keep.get(i));
+            for (PeerProfile prof : dirty) {
+                try {
+                    seg.put(prof.getPeer(), encode(prof, now));
+                    encoded++;
+                } catch (IOException ioe) {
+                    _log.error("Error encoding profile " + prof.getPeer(), ioe);
+                }
+            }
+            if (writeSegment(i, seg.values())) {
+                onDisk.clear();
+                onDisk.addAll(seg.keySet());
+                _stale[i] = false;
+                written++;
+            }
+        }
+        _lastStore = now;
+        if (_log.shouldInfo())
+            _log.info("Stored " + encoded + " changed profiles out of " + profiles.size() +
+                      " in " + written + " segments");
+        return encoded;
+    }
+
+    /**
+     *  Delete all the segments
+     */
+    public void delete() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            getFile(i).delete();
+            _onDisk.get(i).clear();
+        }
+    }
+
+    /**
+     *  The most recent timestamp in the profile.
+     *  Rates are also updated by coalescing, but those changes alone
+     *  aren't worth a disk write.
+     */
+    private static long getLastActivity(PeerProfile p) {
+        long rv = Math.max(p.getLastHeardAbout(), p.getLastHeardFrom());
+        rv = Math.max(rv, p.getLastSendSuccessful());
+        rv = Math.max(rv, p.getLastSendFailed());
+        TunnelHistory th = p.getTunnelHistory();
+        if (th != null) {
+            rv = Math.max(rv, th.getLastAgreedTo());
+            rv = Math.max(rv, th.getLastRejectedCritical());
+            rv = Math.max(rv, th.getLastRejectedBandwidth());
+            rv = Math.max(rv, th.getLastRejectedTransient());
+            rv = Math.max(rv, th.getLastRejectedProbabalistic());
+            rv = Math.max(rv, th.getLastFailed());
+        }
+        if (p.getIsExpandedDB()) {
+            DBHistory dh = p.getDBHistory();
+            rv = Math.max(rv, dh.getLastLookupSuccessful());
+            rv = Math.max(rv, dh.getLastLookupFailed());
+            rv = Math.max(rv, dh.getLastStoreSuccessful());
+            rv = Math.max(rv, dh.getLastStoreFailed());
+        }
+        return rv;
+    }
+
+    private static int segment(Hash h) {
+        return (h.getData()[0] & 0xff) >> 4;
+    }
+
+    private File getFile(int segment) {
+        return new SecureFile(_dir, PREFIX + Integer.toHexString(segment) + SUFFIX);
+    }
+
+    /**
+     *  A segment record, not decoded
+     */
+    private static class Record {
+        public final Hash peer;
+        public final long stored;
+        public final byte[] data;
+
+        public Record(Hash peer, long stored, byte[] data) {
+            this.peer = peer;
+            this.stored = stored;
+            this.data = data;
+        }
+    }
+
+    private Record encode(PeerProfile prof, long now) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(2048);
+        Deflater def = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(baos, def, 2048);
+            _helper.writeProfile(prof, out, false);
+            out.finish();
+        } finally {
+            def.end();
+        }
+        return new Record(prof.getPeer(), now, baos.toByteArray());
+    }
+
+    /**
+     *  @return null on error or if older than cutoff
+     */
+    private PeerProfile decode(Record r, long cutoff) {
+        Properties props = new Properties();
+        InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(r.data));
+        try {
+            DataHelper.loadProps(props, in);
+            return _helper.readProfile(r.peer, props, r.stored, cutoff);
+        } catch (Exception e) {
+            if (_log.shouldWarn())
+                _log.warn("Error decoding profile " + r.peer, e);
+            return null;
+        } finally {
+            try { in.close(); } catch (IOException ioe) {}
+        }
+    }
+
+    /**
+     *  Read the whole segment with a single read, then split.
+     *  A truncated or corrupt record ends the segment.
+     *
+     *  @return non-null, in file order
+     */
+    private Map<Hash, Record> readSegment(int segment) {
+        Map<Hash, Record> rv = new LinkedHashMap<Hash, Record>(256);
+        File f = getFile(segment);
+        long len = f.length();
+        if (len < HEADER_LEN)
+            return rv;
+        byte[] data;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(f);
+            data = new byte[(int) len];
+            DataHelper.read(in, data);
+        } catch (IOException ioe) {
+            if (_log.shouldWarn())
+                _log.warn("Error reading " + f, ioe);
+            _stale[segment] = true;
+            return rv;
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException ioe) {}
+        }
+        if (!DataHelper.eq(data, 0, MAGIC, 0, MAGIC.length) || (data[MAGIC.length] & 0xff) != VERSION) {
+            if (_log.shouldWarn())
+                _log.warn("Bad header or unknown version in " + f);
+            _stale[segment] = true;
+            return rv;
+        }
+        int off = HEADER_LEN;
+        while (off < data.length) {
+            if (data.length - off < Hash.HASH_LENGTH + 8 + 4) {
+                _stale[segment] = true;
+                break;
+            }
+            Hash peer = Hash.create(data, off);
+            off += Hash.HASH_LENGTH;
+            long stored = DataHelper.fromLong8(data, off);
+            off += 8;
+            int rlen = (int) DataHelper.fromLong(data, off, 4);
+            off += 4;
+            if (rlen < 0 || rlen > MAX_RECORD_LEN || rlen > data.length - off || segment(peer) != segment) {
+                if (_log.shouldWarn())
+                    _log.warn("Corrupt record in " + f);
+                _stale[segment] = true;
+                break;
+            }
+            byte[] rdata = new byte[rlen];
+            System.arraycopy(data, off, rdata, 0, rlen);
+            off += rlen;
+            rv.put(peer, new Record(peer, stored, rdata));
+        }
+        return rv;
+    }
+
+    /**
+     *  Write to a temp file and rename, so a crash leaves the old or the new segment.
+     *  If there are no records, the segment is deleted.
+     *
+     *  @return success
+     */
+    private boolean writeSegment(int segment, Collection<Record> records) {
+        File f = getFile(segment);
+        if (records.isEmpty())
+            return f.delete() || !f.exists();
+        File tmp = new SecureFile(_dir, f.getName() + ".tmp");
+        DataOutputStream out = null;
+        boolean ok = false;
+        try {
+            SecureFileOutputStream fos = new SecureFileOutputStream(tmp);
+            out = new DataOutputStream(new BufferedOutputStream(fos, 16*1024));
+            out.write(MAGIC);
+            out.write(VERSION);
+            for (Record r : records) {
+                out.write(r.peer.getData());
+                out.writeLong(r.stored);
+                out.writeInt(r.data.length);
+                out.write(r.data);
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            out = null;
+            ok = FileUtil.rename(tmp, f);
+        } catch (IOException ioe) {
+            _log.error("Error writing " + f, ioe);
+        } finally {
+            if (out != null) try { out.close(); } catch (IOException ioe) {}
+            if (!ok)
+                tmp.delete();
+        }
+        return ok;
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger _count = new AtomicInteger();
+        private final int _total;
+
+        public LoaderThreadFactory(int total) { _total = total; }
+
+        public Thread newThread(Runnable r) {
+            Thread rv = new I2PThread(r, "Profile Loader " + _count.incrementAndGet() + '/' + _total);
+            rv.setDaemon(true);
+            return rv;
+        }
+    }
+}
@@ -2,7 +2,6 @@ package net.i2p.router.sybil;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
 import java.math.BigInteger;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -10,10 +9,21 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.app.ClientAppManager;
 import net.i2p.app.ClientAppState;
@@ -43,7 +53,6 @@ import net.i2p.stat.RateStat;
 import net.i2p.util.Addresses;
 import net.i2p.util.I2PAppThread;
 import net.i2p.util.Log;
-import net.i2p.util.ObjectCounterUnsafe;
 import net.i2p.util.SystemVersion;
 import net.i2p.util.Translate;
 
@@ -59,6 +68,7 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
     private final ClientAppManager _cmgr;
     private final PersistSybil _persister;
     private volatile ClientAppState _state = UNINITIALIZED;
+    /** synchronize on it */
     private final DecimalFormat fmt = new DecimalFormat("#0.00");
     private boolean _wasRun;
     private final List<String> _familyExemptPoints24 = new ArrayList<String>(2);
@@ -78,6 +88,9 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
 
     public static final int PAIRMAX = 20;
     public static final int MAX = 10;
+    private static final int MAX_THREADS = 4;
+    /** pairs to compare for the average pair distance */
+    private static final int AVG_SAMPLES = 20000;
     // multiplied by size - 1, will also get POINTS24 added
     private static final double POINTS32 = 5.0;
     // multiplied by size - 1, will also get POINTS16 added
@@ -287,36 +300,22 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
         }
     }
 
-    private static class RouterInfoRoutingKeyComparator implements Comparator<RouterInfo>, Serializable {
-         private final Hash _us;
-         /** @param us ROUTING KEY */
-         public RouterInfoRoutingKeyComparator(Hash us) {
-             _us = us;
-         }
-         public int compare(RouterInfo l, RouterInfo r) {
-             return HashDistance.getDistance(_us, l.getHash()).compareTo(HashDistance.getDistance(_us, r.getHash()));
-        }
-    }
-
     /**
      *  Merge points1 into points2.
-     *  points1 is unmodified.
+     *  points1 is unmodified, but the Points in it may be added to points2.
      */
-/****
-    private void mergePoints(Map<Hash, Points> points1, Map<Hash, Points> points2) {
+    private static void mergePoints(Map<Hash, Points> points1, Map<Hash, Points> points2) {
         for (Map.Entry<Hash, Points> e : points1.entrySet()) {
              Hash h = e.getKey();
              Points p1 = e.getValue();
              Points p2 = points2.get(h);
              if (p2 != null) {
-                 p2.points += p1.points;
-                 p2.reasons.addAll(p1.reasons);
+                 p2.merge(p1);
              } else {
                  points2.put(h, p1);
              }
         }
     }
-****/
 
     /** */
     private void addPoints(Map<Hash, Points> points, Hash h, double d, String reason) {
@@ -360,32 +359,72 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
     }
 
     public double getAvgMinDist(List<RouterInfo> ris) {
+        return getAvgMinDist(new RoutingKeyIndex(ris));
+    }
+
+    /**
+     *  @since 0.9.71
+     */
+    public double getAvgMinDist(RoutingKeyIndex index) {
         double tot = 0;
         int count = 200;
         byte[] b = new byte[32];
         for (int i = 0; i < count; i++) {
             _context.random().nextBytes(b);
             Hash h = new Hash(b);
-            double d = closestDistance(h, ris);
+            double d = index.closestDistance(h);
             tot += d;
         }
         double avgMinDist = tot / count;
         return avgMinDist;
     }
 
+    /**
+     *  Progress of backgroundAnalysis(), for the console.
+     *
+     *  @since 0.9.71
+     */
+    public interface Listener {
+        /**
+         *  Called from the thread that called backgroundAnalysis(),
+         *  in the order the stages complete.
+         *
+         *  @param stage HTML escaped
+         *  @param stagePoints the results of this stage only, do not modify
+         *  @param done number of stages complete, including this one
+         *  @param total number of stages
+         */
+        public void stageComplete(String stage, Map<Hash, Points> stagePoints, int done, int total);
+    }
+
     /**
      *  Analyze threats. No output.
      *  Return separate maps for each cause instead?
      *  @param includeAll false for floodfills only
      *  @since 0.9.38
      */
-    public synchronized Map<Hash, Points> backgroundAnalysis(boolean includeAll) {
+    public Map<Hash, Points> backgroundAnalysis(boolean includeAll) {
+        return backgroundAnalysis(includeAll, null);
+    }
+
+    /**
+     *  Analyze threats. No output.
+     *
+     *  The independent parts of the analysis are run in parallel
+     *  on a thread pool that only exists for the duration of the call,
+     *  each with its own points map, merged as they complete.
+     *
+     *  @param includeAll false for floodfills only
+     *  @param listener may be null
+     *  @since 0.9.71
+     */
+    public synchronized Map<Hash, Points> backgroundAnalysis(boolean includeAll, Listener listener) {
         _wasRun = true;
         Map<Hash, Points> points = new HashMap<Hash, Points>(64);
-        Hash us = _context.routerHash();
+        final Hash us = _context.routerHash();
         if (us == null)
             return points;
-        List<RouterInfo> ris;
+        final List<RouterInfo> ris;
         if (includeAll) {
             ris = getAllRouters(us);
         } else {
@@ -395,67 +434,164 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
             return points;
         if (_log.shouldWarn())
             _log.warn("Analyzing " + ris.size() + " routers, including non-floodfills? " + includeAll);
+        long start = System.currentTimeMillis();
+
+        List<Stage> stages = new ArrayList<Stage>(6);
 
         // IP analysis
-        calculateIPGroupsFamily(ris, points);
-        // unused here, just for the console, so use the same for all of them
-        List<RouterInfo> dummy = new DummyList();
-        calculateIPGroupsUs(ris, points, dummy, dummy, dummy, dummy, dummy);
-        //calculateIPGroups32(ris, points);
-        //calculateIPGroups24(ris, points);
-        //calculateIPGroups16(ris, points);
-        //calculateIPGroups64(ris, points);
-        //calculateIPGroups48(ris, points);
+        stages.add(new Stage("Family") {
+            protected void analyze(Map<Hash, Points> p) {
+                calculateIPGroupsFamily(ris, p);
+            }
+        });
+        stages.add(new Stage("IP close to us") {
+            protected void analyze(Map<Hash, Points> p) {
+                // unused here, just for the console, so use the same for all of them
+                List<RouterInfo> dummy = new DummyList();
+                calculateIPGroupsUs(ris, p, dummy, dummy, dummy, dummy, dummy);
+                //calculateIPGroups32(ris, p);
+                //calculateIPGroups24(ris, p);
+                //calculateIPGroups16(ris, p);
+                //calculateIPGroups64(ris, p);
+                //calculateIPGroups48(ris, p);
+            }
+        });
 
         // Pairwise distance analysis
-        // O(n**2)
-        long sz = ris.size();
-        if (sz * sz < SystemVersion.getMaxMemory() / 10) {
-            List<Pair> pairs = new ArrayList<Pair>(PAIRMAX);
-            calculatePairDistance(ris, points, pairs);
-        }
+        stages.add(new Stage("Pair distance") {
+            protected void analyze(Map<Hash, Points> p) {
+                List<Pair> pairs = new ArrayList<Pair>(PAIRMAX);
+                calculatePairDistance(ris, p, pairs);
+            }
+        });
+
+        stages.add(new Stage("Close to our keys") {
+            protected void analyze(Map<Hash, Points> p) {
+                RoutingKeyIndex index = new RoutingKeyIndex(ris);
+                // Distance to our router analysis
+                // closest to our routing key today
+                Hash ourRKey = _context.router().getRouterInfo().getRoutingKey();
+                calculateRouterInfo(ourRKey, "our rkey", index, p);
+                // closest to our routing key tomorrow
+                RouterKeyGenerator rkgen = _context.routerKeyGenerator();
+                Hash nkey = rkgen.getNextRoutingKey(us);
+                calculateRouterInfo(nkey, "our rkey (tomorrow)", index, p);
+                // closest to us
+                calculateRouterInfo(us, "our router", index, p);
+
+                // Distance to our published destinations analysis
+                Map<Hash, TunnelPool> clientInboundPools = _context.tunnelManager().getInboundClientPools();
+                List<Hash> destinations = new ArrayList<Hash>(clientInboundPools.keySet());
+                for (Hash client : destinations) {
+                    boolean isLocal = _context.clientManager().isLocal(client);
+                    if (!isLocal)
+                        continue;
+                    if (! _context.clientManager().shouldPublishLeaseSet(client))
+                        continue;
+                    LeaseSet ls = _context.netDb().lookupLeaseSetLocally(client);
+                    if (ls == null)
+                        continue;
+                    Hash rkey = ls.getRoutingKey();
+                    TunnelPool in = clientInboundPools.get(client);
+                    String name = (in != null) ? DataHelper.escapeHTML(in.getSettings().getDestinationNickname()) : client.toBase64().substring(0,4);
+                    // closest to routing key today
+                    calculateRouterInfo(rkey, name, index, p);
+                    // closest to routing key tomorrow
+                    nkey = rkgen.getNextRoutingKey(ls.getHash());
+                    calculateRouterInfo(nkey, name + " (tomorrow)", index, p);
+                }
+            }
+        });
 
-        // Distance to our router analysis
-        // closest to our routing key today
-        Hash ourRKey = _context.router().getRouterInfo().getRoutingKey();
-        calculateRouterInfo(ourRKey, "our rkey", ris, points);
-        // closest to our routing key tomorrow
-        RouterKeyGenerator rkgen = _context.routerKeyGenerator();
-        Hash nkey = rkgen.getNextRoutingKey(us);
-        calculateRouterInfo(nkey, "our rkey (tomorrow)", ris, points);
-        // closest to us
-        calculateRouterInfo(us, "our router", ris, points);
-
-        // Distance to our published destinations analysis
-        Map<Hash, TunnelPool> clientInboundPools = _context.tunnelManager().getInboundClientPools();
-        List<Hash> destinations = new ArrayList<Hash>(clientInboundPools.keySet());
-        for (Hash client : destinations) {
-            boolean isLocal = _context.clientManager().isLocal(client);
-            if (!isLocal)
-                continue;
-            if (! _context.clientManager().shouldPublishLeaseSet(client))
-                continue;
-            LeaseSet ls = _context.netDb().lookupLeaseSetLocally(client);
-            if (ls == null)
-                continue;
-            Hash rkey = ls.getRoutingKey();
-            TunnelPool in = clientInboundPools.get(client);
-            String name = (in != null) ? DataHelper.escapeHTML(in.getSettings().getDestinationNickname()) : client.toBase64().substring(0,4);
-            // closest to routing key today
-            calculateRouterInfo(rkey, name, ris, points);
-            // closest to routing key tomorrow
-            nkey = rkgen.getNextRoutingKey(ls.getHash());
-            calculateRouterInfo(nkey, name + " (tomorrow)", ris, points);
+        // Profile analysis
+        stages.add(new Stage("Profiles") {
+            protected void analyze(Map<Hash, Points> p) {
+                addProfilePoints(ris, p);
+            }
+        });
+        stages.add(new Stage("Versions") {
+            protected void analyze(Map<Hash, Points> p) {
+                addVersionPoints(ris, p);
+            }
+        });
+
+        int total = stages.size();
+        int threads = Math.min(MAX_THREADS, SystemVersion.getCores());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         new AnalysisThreadFactory(threads));
+        try {
+            CompletionService<Map<Hash, Points>> cs = new ExecutorCompletionService<Map<Hash, Points>>(pool);
+            Map<Future<Map<Hash, Points>>, String> names =
+                new HashMap<Future<Map<Hash, Points>>, String>(total);
+            for (Stage stage : stages) {
+                names.put(cs.submit(stage), stage.name);
+            }
+            for (int done = 1; done <= total; done++) {
+                Future<Map<Hash, Points>> f = cs.take();
+                String name = names.get(f);
+                Map<Hash, Points> p;
+                try {
+                    p = f.get();
+                } catch (ExecutionException ee) {
+                    _log.error("Sybil analysis stage " + name + " failed", ee.getCause());
+                    p = new HashMap<Hash, Points>(0);
+                }
+                if (_log.shouldInfo())
+                    _log.info("Sybil analysis stage " + name + " complete, " + p.size() + " routers");
+                if (listener != null)
+                    listener.stageComplete(name, p, done, total);
+                mergePoints(p, points);
+            }
+        } catch (InterruptedException ie) {
+            return points;
+        } finally {
+            pool.shutdownNow();
         }
+        if (_log.shouldWarn())
+            _log.warn("Analysis of " + ris.size() + " routers took " + (System.currentTimeMillis() - start) + "ms");
 
-        // Profile analysis
-        addProfilePoints(ris, points);
-        addVersionPoints(ris, points);
         if (_context.getProperty(PROP_BLOCK, DEFAULT_BLOCK))
             doBlocking(points);
         return points;
     }
 
+    /**
+     *  One independent part of the analysis, with its own points map
+     *
+     *  @since 0.9.71
+     */
+    private static abstract class Stage implements Callable<Map<Hash, Points>> {
+        public final String name;
+
+        public Stage(String name) { this.name = name; }
+
+        public Map<Hash, Points> call() {
+            Map<Hash, Points> rv = new HashMap<Hash, Points>(64);
+            analyze(rv);
+            return rv;
+        }
+
+        protected abstract void analyze(Map<Hash, Points> points);
+    }
+
+    /**
+     *  @since 0.9.71
+     */
+    private static class AnalysisThreadFactory implements ThreadFactory {
+        private final AtomicInteger _count = new AtomicInteger();
+        private final int _total;
+
+        public AnalysisThreadFactory(int total) { _total = total; }
+
+        public Thread newThread(Runnable r) {
+            Thread rv = new I2PAppThread(r, "Sybil Analysis " + _count.incrementAndGet() + '/' + _total);
+            rv.setDaemon(true);
+            rv.setPriority(Thread.MIN_PRIORITY);
+            return rv;
+        }
+    }
+
     /**
      *  @since 0.9.57
      */
@@ -496,7 +632,7 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
                             blocks.add(host);
                     }
                 }
-                String reason = "Sybil analysis " + day + " with " + fmt.format(p) + " threat points";
+                String reason = "Sybil analysis " + day + " with " + format(p) + " threat points";
                 if (_log.shouldWarn()) {
                     if (ri != null)
                         _log.warn("Banned by " + reason + " and blocking IPs:\n" + ri);
@@ -511,39 +647,26 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
     }
 
     /**
+     *  Floodfills only.
+     *  As of 0.9.71, uses a RoutingKeyIndex instead of comparing every pair,
+     *  and the average is estimated from a sample of pairs.
+     *
      *  @param pairs out parameter, sorted
      *  @return average distance
      *  @since 0.9.38 split out from renderPairDistance()
      */
     public double calculatePairDistance(List<RouterInfo> ris, Map<Hash, Points> points,
                                         List<Pair> pairs) {
-        int sz = ris.size();
-        double total = 0;
-        for (int i = 0; i < sz; i++) {
-            RouterInfo info1 = ris.get(i);
-            // don't do distance calculation for non-floodfills
-            if (!info1.getCapabilities().contains("f"))
-                continue;
-            for (int j = i + 1; j < sz; j++) {
-                RouterInfo info2 = ris.get(j);
-                // don't do distance calculation for non-floodfills
-                if (!info2.getCapabilities().contains("f"))
-                    continue;
-                BigInteger dist = HashDistance.getDistance(info1.getHash(), info2.getHash());
-                if (pairs.isEmpty()) {
-                    pairs.add(new Pair(info1, info2, dist));
-                } else if (pairs.size() < PAIRMAX) {
-                    pairs.add(new Pair(info1, info2, dist));
-                    Collections.sort(pairs);
-                } else if (dist.compareTo(pairs.get(PAIRMAX - 1).dist) < 0) {
-                    pairs.set(PAIRMAX - 1, new Pair(info1, info2, dist));
-                    Collections.sort(pairs);
-                }
-                total += biLog2(dist);
-            }
+        // don't do distance calculation for non-floodfills
+        List<RouterInfo> ffs = new ArrayList<RouterInfo>(ris.size());
+        for (RouterInfo info : ris) {
+            if (info.getCapabilities().contains("f"))
+                ffs.add(info);
         }
+        RoutingKeyIndex index = new RoutingKeyIndex(ffs);
+        pairs.addAll(index.getClosestPairs(PAIRMAX));
+        double avg = index.getAvgPairDistance(AVG_SAMPLES, _context.random());
 
-        double avg = total / (sz * sz / 2d);
         String other = _context.getBooleanProperty(PROP_NONFF) ? "router" : "floodfill";
         for (Pair p : pairs) {
             double distance = biLog2(p.dist);
@@ -552,27 +675,15 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
                 break;  // sorted;
             point *= PAIR_DISTANCE_FACTOR;
             String b2 = p.r2.getHash().toBase64();
-            addPoints(points, p.r1.getHash(), point, "Very close (" + fmt.format(distance) +
+            addPoints(points, p.r1.getHash(), point, "Very close (" + format(distance) +
                           ") to other " + other + " <a href=\"netdb?r=" + b2 + "\">" + b2 + "</a>");
             String b1 = p.r1.getHash().toBase64();
-            addPoints(points, p.r2.getHash(), point, "Very close (" + fmt.format(distance) +
+            addPoints(points, p.r2.getHash(), point, "Very close (" + format(distance) +
                           ") to other " + other + " <a href=\"netdb?r=" + b1 + "\">" + b1 + "</a>");
         }
         return avg;
     }
 
-    private static final BigInteger BI_MAX = (new BigInteger("2")).pow(256);
-
-    private static double closestDistance(Hash h, List<RouterInfo> ris) {
-        BigInteger min = BI_MAX;
-        for (RouterInfo info : ris) {
-            BigInteger dist = HashDistance.getDistance(h, info.getHash());
-            if (dist.compareTo(min) < 0)
-                min = dist;
-        }
-        return biLog2(min);
-    }
-
     /** v4 only */
     private static byte[] getIP(RouterInfo ri) {
         for (RouterAddress ra : ri.getAddresses()) {
@@ -706,25 +817,20 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
      *  @since 0.9.38 split out from renderIPGroups32()
      */
     public Map<Integer, List<RouterInfo>> calculateIPGroups32(List<RouterInfo> ris, Map<Hash, Points> points) {
-        ObjectCounterUnsafe<Integer> oc = new ObjectCounterUnsafe<Integer>();
+        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
         for (RouterInfo info : ris) {
             byte[] ip = getIP(info);
             if (ip == null)
                 continue;
             Integer x = Integer.valueOf((int) DataHelper.fromLong(ip, 0, 4));
-            oc.increment(x);
-        }
-        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
-        for (Integer ii : oc.objects()) {
-            int count = oc.count(ii);
-            if (count >= 2)
-                rv.put(ii, new ArrayList<RouterInfo>(count));
+            addToGroup(rv, x, info);
         }
+        removeSmallGroups(rv, 2);
         for (Map.Entry<Integer, List<RouterInfo>> e : rv.entrySet()) {
-            Integer ii = e.getKey();
-            int count = oc.count(ii);
+            List<RouterInfo> list = e.getValue();
+            int count = list.size();
             double point = POINTS32 * (count - 1);
-            int i = ii.intValue();
+            int i = e.getKey().intValue();
             int i0 = (i >> 24) & 0xff;
             int i1 = (i >> 16) & 0xff;
             int i2 = (i >> 8) & 0xff;
@@ -732,19 +838,7 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
             String reason = "Same IP with <a href=\"/netdb?ip=" +
                             i0 + '.' + i1 + '.' + i2 + '.' + i3 + "&amp;sybil\">" +
                             (count - 1) + " other" + (( count > 2) ? "s" : "") + "</a>";
-            for (RouterInfo info : ris) {
-                byte[] ip = getIP(info);
-                if (ip == null)
-                    continue;
-                if ((ip[0] & 0xff) != i0)
-                    continue;
-                if ((ip[1] & 0xff) != i1)
-                    continue;
-                if ((ip[2] & 0xff) != i2)
-                    continue;
-                if ((ip[3] & 0xff) != i3)
-                    continue;
-                e.getValue().add(info);
+            for (RouterInfo info : list) {
                 addPoints(points, info.getHash(), point, reason);
             }
         }
@@ -755,49 +849,38 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
      *  @since 0.9.38 split out from renderIPGroups24()
      */
     public Map<Integer, List<RouterInfo>> calculateIPGroups24(List<RouterInfo> ris, Map<Hash, Points> points) {
-        ObjectCounterUnsafe<Integer> oc = new ObjectCounterUnsafe<Integer>();
+        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
         for (RouterInfo info : ris) {
             byte[] ip = getIP(info);
             if (ip == null)
                 continue;
             Integer x = Integer.valueOf((int) DataHelper.fromLong(ip, 0, 3));
-            oc.increment(x);
-        }
-        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
-        for (Integer ii : oc.objects()) {
-            int count = oc.count(ii);
-            if (count >= 2)
-                rv.put(ii, new ArrayList<RouterInfo>(count));
+            addToGroup(rv, x, info);
         }
+        removeSmallGroups(rv, 2);
         FamilyKeyCrypto fkc = _context.router().getFamilyKeyCrypto();
         for (Map.Entry<Integer, List<RouterInfo>> e : rv.entrySet()) {
-            Integer ii = e.getKey();
-            int count = oc.count(ii);
+            List<RouterInfo> list = e.getValue();
+            // exempt routers count toward the group size but are removed from the group
+            int count = list.size();
             double point = POINTS24 * (count - 1);
-            int i = ii.intValue();
+            int i = e.getKey().intValue();
             int i0 = i >> 16;
             int i1 = (i >> 8) & 0xff;
             int i2 = i & 0xff;
             String reason = "Same IPv4 /24 with <a href=\"/netdb?ip=" +
                             i0 + '.' + i1 + '.' + i2 + ".0/24&amp;sybil\">" +
                             (count - 1) + " other" + (( count > 2) ? "s" : "") + "</a>";
-            for (RouterInfo info : ris) {
-                byte[] ip = getIP(info);
-                if (ip == null)
-                    continue;
-                if ((ip[0] & 0xff) != i0)
-                    continue;
-                if ((ip[1] & 0xff) != i1)
-                    continue;
-                if ((ip[2] & 0xff) != i2)
-                    continue;
+            for (Iterator<RouterInfo> iter = list.iterator(); iter.hasNext(); ) {
+                RouterInfo info = iter.next();
                 if (fkc != null) {
                     String f = info.getOption("family");
                     if (f != null && _familyExemptPoints24.contains(f) &&
-                        fkc.verify(info) == FamilyKeyCrypto.Result.STORED_KEY)
+                        fkc.verify(info) == FamilyKeyCrypto.Result.STORED_KEY) {
+                        iter.remove();
                         continue;
+                    }
                 }
-                e.getValue().add(info);
                 addPoints(points, info.getHash(), point, reason);
             }
         }
@@ -808,39 +891,26 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
      *  @since 0.9.38 split out from renderIPGroups16()
      */
     public Map<Integer, List<RouterInfo>> calculateIPGroups16(List<RouterInfo> ris, Map<Hash, Points> points) {
-        ObjectCounterUnsafe<Integer> oc = new ObjectCounterUnsafe<Integer>();
+        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
         for (RouterInfo info : ris) {
             byte[] ip = getIP(info);
             if (ip == null)
                 continue;
             Integer x = Integer.valueOf((int) DataHelper.fromLong(ip, 0, 2));
-            oc.increment(x);
-        }
-        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
-        for (Integer ii : oc.objects()) {
-            int count = oc.count(ii);
-            if (count >= 4)
-                rv.put(ii, new ArrayList<RouterInfo>(count));
+            addToGroup(rv, x, info);
         }
+        removeSmallGroups(rv, 4);
         for (Map.Entry<Integer, List<RouterInfo>> e : rv.entrySet()) {
-            Integer ii = e.getKey();
-            int count = oc.count(ii);
+            List<RouterInfo> list = e.getValue();
+            int count = list.size();
             double point = POINTS16 * (count - 1);
-            int i = ii.intValue();
+            int i = e.getKey().intValue();
             int i0 = i >> 8;
             int i1 = i & 0xff;
             String reason = "Same IPv4 /16 with <a href=\"/netdb?ip=" +
                             i0 + '.' + i1 + ".0.0/16&amp;sybil\">" +
                             (count - 1) + " other" + (( count > 2) ? "s" : "") + "</a>";
-            for (RouterInfo info : ris) {
-                byte[] ip = getIP(info);
-                if (ip == null)
-                    continue;
-                if ((ip[0] & 0xff) != i0)
-                    continue;
-                if ((ip[1] & 0xff) != i1)
-                    continue;
-                e.getValue().add(info);
+            for (RouterInfo info : list) {
                 addPoints(points, info.getHash(), point, reason);
             }
         }
@@ -851,25 +921,20 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
      *  @since 0.9.57
      */
     public Map<Long, List<RouterInfo>> calculateIPGroups64(List<RouterInfo> ris, Map<Hash, Points> points) {
-        ObjectCounterUnsafe<Long> oc = new ObjectCounterUnsafe<Long>();
+        Map<Long, List<RouterInfo>> rv = new HashMap<Long, List<RouterInfo>>();
         for (RouterInfo info : ris) {
             byte[] ip = getIPv6(info);
             if (ip == null)
                 continue;
             Long x = Long.valueOf(DataHelper.fromLong8(ip, 0));
-            oc.increment(x);
-        }
-        Map<Long, List<RouterInfo>> rv = new HashMap<Long, List<RouterInfo>>();
-        for (Long ii : oc.objects()) {
-            int count = oc.count(ii);
-            if (count >= 2)
-                rv.put(ii, new ArrayList<RouterInfo>(count));
+            addToGroup(rv, x, info);
         }
+        removeSmallGroups(rv, 2);
         for (Map.Entry<Long, List<RouterInfo>> e : rv.entrySet()) {
-            Long ii = e.getKey();
-            int count = oc.count(ii);
+            List<RouterInfo> list = e.getValue();
+            int count = list.size();
             double point = POINTS64 * (count - 1);
-            long i = ii.longValue();
+            long i = e.getKey().longValue();
             int i0 = (int) ((i >> 56) & 0xff);
             int i1 = (int) ((i >> 48) & 0xff);
             int i2 = (int) ((i >> 40) & 0xff);
@@ -885,27 +950,7 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
                             Integer.toString((i6 << 8) | i7, 16) +
                             "::&amp;sybil\">" +
                             (count - 1) + " other" + (( count > 2) ? "s" : "") + "</a>";
-            for (RouterInfo info : ris) {
-                byte[] ip = getIPv6(info);
-                if (ip == null)
-                    continue;
-                if ((ip[0] & 0xff) != i0)
-                    continue;
-                if ((ip[1] & 0xff) != i1)
-                    continue;
-                if ((ip[2] & 0xff) != i2)
-                    continue;
-                if ((ip[3] & 0xff) != i3)
-                    continue;
-                if ((ip[4] & 0xff) != i4)
-                    continue;
-                if ((ip[5] & 0xff) != i5)
-                    continue;
-                if ((ip[6] & 0xff) != i6)
-                    continue;
-                if ((ip[7] & 0xff) != i7)
-                    continue;
-                e.getValue().add(info);
+            for (RouterInfo info : list) {
                 addPoints(points, info.getHash(), point, reason);
             }
         }
@@ -916,25 +961,20 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
      *  @since 0.9.57
      */
     public Map<Long, List<RouterInfo>> calculateIPGroups48(List<RouterInfo> ris, Map<Hash, Points> points) {
-        ObjectCounterUnsafe<Long> oc = new ObjectCounterUnsafe<Long>();
+        Map<Long, List<RouterInfo>> rv = new HashMap<Long, List<RouterInfo>>();
         for (RouterInfo info : ris) {
             byte[] ip = getIPv6(info);
             if (ip == null)
                 continue;
             Long x = Long.valueOf(DataHelper.fromLong(ip, 0, 6));
-            oc.increment(x);
-        }
-        Map<Long, List<RouterInfo>> rv = new HashMap<Long, List<RouterInfo>>();
-        for (Long ii : oc.objects()) {
-            int count = oc.count(ii);
-            if (count >= 4)
-                rv.put(ii, new ArrayList<RouterInfo>(count));
+            addToGroup(rv, x, info);
         }
+        removeSmallGroups(rv, 4);
         for (Map.Entry<Long, List<RouterInfo>> e : rv.entrySet()) {
-            Long ii = e.getKey();
-            int count = oc.count(ii);
+            List<RouterInfo> list = e.getValue();
+            int count = list.size();
             double point = POINTS48 * (count - 1);
-            long i = ii.longValue();
+            long i = e.getKey().longValue();
             int i0 = (int) ((i >> 40) & 0xff);
             int i1 = (int) ((i >> 32) & 0xff);
             int i2 = (int) ((i >> 24) & 0xff);
@@ -947,29 +987,35 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
                             Integer.toString((i4 << 8) | i5, 16) +
                             "::&amp;sybil\">" +
                             (count - 1) + " other" + (( count > 2) ? "s" : "") + "</a>";
-            for (RouterInfo info : ris) {
-                byte[] ip = getIPv6(info);
-                if (ip == null)
-                    continue;
-                if ((ip[0] & 0xff) != i0)
-                    continue;
-                if ((ip[1] & 0xff) != i1)
-                    continue;
-                if ((ip[2] & 0xff) != i2)
-                    continue;
-                if ((ip[3] & 0xff) != i3)
-                    continue;
-                if ((ip[4] & 0xff) != i4)
-                    continue;
-                if ((ip[5] & 0xff) != i5)
-                    continue;
-                e.getValue().add(info);
+            for (RouterInfo info : list) {
                 addPoints(points, info.getHash(), point, reason);
             }
         }
         return rv;
     }
 
+    /**
+     *  @since 0.9.71
+     */
+    private static <K> void addToGroup(Map<K, List<RouterInfo>> groups, K key, RouterInfo info) {
+        List<RouterInfo> list = groups.get(key);
+        if (list == null) {
+            list = new ArrayList<RouterInfo>(2);
+            groups.put(key, list);
+        }
+        list.add(info);
+    }
+
+    /**
+     *  @since 0.9.71
+     */
+    private static <K> void removeSmallGroups(Map<K, List<RouterInfo>> groups, int min) {
+        for (Iterator<List<RouterInfo>> iter = groups.values().iterator(); iter.hasNext(); ) {
+            if (iter.next().size() < min)
+                iter.remove();
+        }
+    }
+
     /**
      *  @return map of family name to list of routers in that family
      *  @since 0.9.38 split out from renderIPGroupsFamily()
@@ -1160,10 +1206,28 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
      */
     public void calculateRouterInfo(Hash us, String usName,
                                      List<RouterInfo> ris, Map<Hash, Points> points) {
-        Collections.sort(ris, new RouterInfoRoutingKeyComparator(us));
-        int count = Math.min(MAX, ris.size());
-        for (int i = 0; i < count; i++) {
-            RouterInfo ri = ris.get(i);
+        Collections.sort(ris, new RoutingKeyIndex.RIXORComparator(us));
+        addClosePoints(us, usName, ris.subList(0, Math.min(MAX, ris.size())), points);
+    }
+
+    /**
+     *  @param usName HTML escaped
+     *  @return the MAX closest routers to us, closest first
+     *  @since 0.9.71
+     */
+    public List<RouterInfo> calculateRouterInfo(Hash us, String usName,
+                                                RoutingKeyIndex index, Map<Hash, Points> points) {
+        List<RouterInfo> rv = index.getClosest(us, MAX);
+        addClosePoints(us, usName, rv, points);
+        return rv;
+    }
+
+    /**
+     *  @param closest sorted, closest first
+     *  @since 0.9.71 split out from calculateRouterInfo()
+     */
+    private void addClosePoints(Hash us, String usName, List<RouterInfo> closest, Map<Hash, Points> points) {
+        for (RouterInfo ri : closest) {
             // don't do distance calculation for non-floodfills
             if (!ri.getCapabilities().contains("f"))
                 continue;
@@ -1173,7 +1237,17 @@ public class Analysis extends JobImpl implements RouterApp, Runnable {
             if (point <= 0)
                 break;
             point *= OUR_KEY_FACTOR;
-            addPoints(points, ri.getHash(), point, "Very close (" + fmt.format(dist) + ") to our key " + usName + ": " + us.toBase64());
+            addPoints(points, ri.getHash(), point, "Very close (" + format(dist) + ") to our key " + usName + ": " + us.toBase64());
+        }
+    }
+
+    /**
+     *  DecimalFormat is not thread safe, and the analysis stages run in parallel
+     *  @since 0.9.71
+     */
+    private String format(double d) {
+        synchronized(fmt) {
+            return fmt.format(d);
         }
     }
 
@@ -55,6 +55,16 @@ public class Points implements Comparable<Points> {
         reasons.add(rsn);
     }
 
+    /**
+     *  Add the points and reasons of p to this
+     *
+     *  @since 0.9.71
+     */
+    void merge(Points p) {
+        points += p.points;
+        reasons.addAll(p.reasons);
+    }
+
     public int compareTo(Points r) {
         return Double.compare(points, r.points);
     }
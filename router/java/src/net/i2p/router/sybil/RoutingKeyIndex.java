@@ -0,0 +1,245 @@
+package net.i2p.router.sybil;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import net.i2p.data.DataHelper;
+import net.i2p.data.Hash;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.kademlia.XORComparator;
+import net.i2p.router.util.HashDistance;
+
+/**
+ *  RouterInfos sorted by hash, for XOR distance queries without
+ *  comparing against every router.
+ *
+ *  In a list sorted by hash, the routers sharing a prefix with any key
+ *  are a contiguous range, and the longer the common prefix, the closer.
+ *  So the closest routers to a key are found by expanding outward from
+ *  its insertion point, and the closest pairs are among runs of
+ *  neighbors with a long common prefix.
+ *
+ *  Immutable after construction and safe for concurrent queries.
+ *
+ *  @since 0.9.71
+ */
+public class RoutingKeyIndex {
+
+    private final RouterInfo[] _ris;
+    private final byte[][] _keys;
+
+    private static final Comparator<RouterInfo> HASH_COMPARATOR = new HashComparator();
+
+    /**
+     *  @param ris will be copied, not modified
+     */
+    public RoutingKeyIndex(Collection<RouterInfo> ris) {
+        _ris = ris.toArray(new RouterInfo[ris.size()]);
+        Arrays.sort(_ris, HASH_COMPARATOR);
+        _keys = new byte[_ris.length][];
+        for (int i = 0; i < _ris.length; i++) {
+            _keys[i] = _ris[i].getHash().getData();
+        }
+    }
+
+    public int size() {
+        return _ris.length;
+    }
+
+    /**
+     *  @return unmodifiable, sorted by hash
+     */
+    public List<RouterInfo> getRouters() {
+        return Collections.unmodifiableList(Arrays.asList(_ris));
+    }
+
+    /**
+     *  The routers closest to the key by XOR distance.
+     *  Same result as sorting all of them by distance and taking the first max.
+     *
+     *  @param key a hash or routing key
+     *  @return closest first, size is the lesser of max and size()
+     */
+    public List<RouterInfo> getClosest(Hash key, int max) {
+        int sz = _ris.length;
+        if (max <= 0 || sz == 0)
+            return Collections.emptyList();
+        if (max > sz)
+            max = sz;
+        byte[] k = key.getData();
+        int idx = search(k);
+        // Routers with a common prefix length of at least p are a contiguous range
+        // around idx. Expand to the longest p with at least max routers,
+        // then the range is sorted and trimmed.
+        int lo = idx - 1;
+        int hi = idx;
+        int lcpl = lo >= 0 ? commonPrefix(k, _keys[lo]) : -1;
+        int hcpl = hi < sz ? commonPrefix(k, _keys[hi]) : -1;
+        int count = 0;
+        int p = Integer.MAX_VALUE;
+        while (lcpl >= 0 || hcpl >= 0) {
+            int next = Math.max(lcpl, hcpl);
+            if (count >= max && next < p)
+                break;
+            p = next;
+            if (lcpl == next) {
+                count++;
+                lo--;
+                lcpl = lo >= 0 ? commonPrefix(k, _keys[lo]) : -1;
+            } else {
+                count++;
+                hi++;
+                hcpl = hi < sz ? commonPrefix(k, _keys[hi]) : -1;
+            }
+        }
+        List<RouterInfo> rv = new ArrayList<RouterInfo>(count);
+        for (int i = lo + 1; i < hi; i++) {
+            rv.add(_ris[i]);
+        }
+        if (rv.size() > 1)
+            Collections.sort(rv, new RIXORComparator(key));
+        if (rv.size() > max)
+            rv = new ArrayList<RouterInfo>(rv.subList(0, max));
+        return rv;
+    }
+
+    /**
+     *  @return log2 of the XOR distance to the closest router, or 256 if empty
+     */
+    public double closestDistance(Hash key) {
+        List<RouterInfo> c = getClosest(key, 1);
+        if (c.isEmpty())
+            return 256;
+        return Util.biLog2(HashDistance.getDistance(key, c.get(0).getHash()));
+    }
+
+    /**
+     *  The closest pairs of routers by XOR distance.
+     *  Same result as comparing every pair and keeping the closest max,
+     *  except for the order of pairs at exactly the same distance.
+     *
+     *  @return closest first, size is the lesser of max and the number of pairs
+     */
+    public List<Pair> getClosestPairs(int max) {
+        int sz = _ris.length;
+        if (max <= 0 || sz < 2)
+            return Collections.emptyList();
+        // The common prefix of routers i and j is the minimum of that of all
+        // neighbors in between. Find the common prefix length t of the max-th closest
+        // neighbor pair; every one of the closest max pairs has a prefix of at least t.
+        int[] cpl = new int[sz - 1];
+        for (int i = 0; i < sz - 1; i++) {
+            cpl[i] = commonPrefix(_keys[i], _keys[i + 1]);
+        }
+        int t;
+        if (max >= sz - 1) {
+            t = 0;
+        } else {
+            int[] sorted = cpl.clone();
+            Arrays.sort(sorted);
+            t = sorted[sz - 1 - max];
+        }
+        List<Pair> rv = new ArrayList<Pair>(max);
+        for (int i = 0; i < sz - 1; i++) {
+            for (int j = i + 1; j < sz && cpl[j - 1] >= t; j++) {
+                rv.add(new Pair(_ris[i], _ris[j], HashDistance.getDistance(_ris[i].getHash(), _ris[j].getHash())));
+            }
+        }
+        Collections.sort(rv);
+        if (rv.size() > max)
+            rv = new ArrayList<Pair>(rv.subList(0, max));
+        return rv;
+    }
+
+    /**
+     *  The average log2 XOR distance between pairs of routers.
+     *  Exact up to samples * 2 routers, otherwise estimated from
+     *  that many random pairs.
+     *
+     *  @param samples max pairs to compare
+     *  @return 0 if fewer than 2 routers
+     */
+    public double getAvgPairDistance(int samples, Random rand) {
+        int sz = _ris.length;
+        if (sz < 2)
+            return 0;
+        double total = 0;
+        long pairs = ((long) sz) * (sz - 1) / 2;
+        if (pairs <= samples) {
+            for (int i = 0; i < sz - 1; i++) {
+                for (int j = i + 1; j < sz; j++) {
+                    total += Util.biLog2(HashDistance.getDistance(_ris[i].getHash(), _ris[j].getHash()));
+                }
+            }
+            return total / pairs;
+        }
+        for (int n = 0; n < samples; n++) {
+            int i = rand.nextInt(sz);
+            int j = rand.nextInt(sz - 1);
+            if (j >= i)
+                j++;
+            total += Util.biLog2(HashDistance.getDistance(_ris[i].getHash(), _ris[j].getHash()));
+        }
+        return total / samples;
+    }
+
+    /**
+     *  @return insertion point for key
+     */
+    private int search(byte[] key) {
+        int lo = 0;
+        int hi = _keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (DataHelper.compareTo(_keys[mid], key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     *  @return number of leading bits in common, 0-256
+     */
+    private static int commonPrefix(byte[] a, byte[] b) {
+        for (int i = 0; i < Hash.HASH_LENGTH; i++) {
+            int x = (a[i] ^ b[i]) & 0xff;
+            if (x != 0)
+                return (i * 8) + Integer.numberOfLeadingZeros(x) - 24;
+        }
+        return Hash.HASH_LENGTH * 8;
+    }
+
+    /**
+     *  Unsigned, by hash
+     */
+    private static class HashComparator implements Comparator<RouterInfo> {
+        public int compare(RouterInfo l, RouterInfo r) {
+            return DataHelper.compareTo(l.getHash().getData(), r.getHash().getData());
+        }
+    }
+
+    /**
+     *  Sort RouterInfos by XOR distance of their hash to a key,
+     *  without allocating
+     */
+    static class RIXORComparator implements Comparator<RouterInfo> {
+        private final XORComparator<Hash> _comp;
+
+        /** @param key ROUTING KEY */
+        public RIXORComparator(Hash key) {
+            _comp = new XORComparator<Hash>(key);
+        }
+
+        public int compare(RouterInfo l, RouterInfo r) {
+            return _comp.compare(l.getHash(), r.getHash());
+        }
+    }
+}
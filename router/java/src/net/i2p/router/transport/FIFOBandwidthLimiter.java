@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.util.PQEntry;
 import net.i2p.util.I2PThread;
@@ -30,12 +31,31 @@ import net.i2p.util.Log;
  *  methods for the common case where we are under the bandwidth limits.
  *  And the volatile counters are now AtomicIntegers / AtomicLongs.
  *
+ *  As of 0.9.71, the shortcuts take the bytes with compare-and-set,
+ *  so they no longer drive the available counters below zero,
+ *  and waiting outbound requests are queued by traffic class,
+ *  classified by the OutNetMessage priority passed to requestOutbound().
+ *  The classes are participating traffic, our own tunnel building,
+ *  netDb, and exploratory traffic, and local client traffic.
+ *  When there's not enough bandwidth, the classes with waiting requests
+ *  share it by weighted round robin, FIFO within each class.
+ *  Participating traffic is weighted by the share percentage,
+ *  and the other two split the rest.
+ *  Inbound requests aren't classified, as we don't know what they are
+ *  until they're read.
+ *
  */
 public class FIFOBandwidthLimiter {
     private final Log _log;
     private final RouterContext _context;
     private final List<SimpleRequest> _pendingInboundRequests;
-    private final List<SimpleRequest> _pendingOutboundRequests;
+    /** one per traffic class, LOCKING: itself */
+    private final ClassQueue[] _pendingOutboundRequests;
+    /** sizes of the pending lists, so the shortcuts don't need the locks */
+    private final AtomicInteger _pendingInboundCount = new AtomicInteger();
+    private final AtomicInteger _pendingOutboundCount = new AtomicInteger();
+    /** where the next weighted round robin starts, LOCKING: _pendingOutboundRequests */
+    private int _nextOutboundClass;
     /** how many bytes we can consume for inbound transmission immediately */
     private final AtomicInteger _availableInbound = new AtomicInteger();
     /** how many bytes we can consume for outbound transmission immediately */
@@ -63,6 +83,16 @@ public class FIFOBandwidthLimiter {
     // following is temp until switch to PBQ
     private static final AtomicLong __requestId = new AtomicLong();
 
+    /** traffic classes, index into _pendingOutboundRequests */
+    private static final int CLASS_PARTICIPATING = 0;
+    /** tunnel building, netDb, exploratory, and transport control traffic */
+    private static final int CLASS_TUNNELS = 1;
+    private static final int CLASS_LOCAL = 2;
+    private static final int NUM_CLASSES = 3;
+    /** bytes per round robin per unit of weight */
+    private static final int QUANTUM = 64;
+    private static final int MIN_WEIGHT = 5;
+
     /** lifetime counter of tokens available for use but exceeded our maxInboundBurst size */
     //private final AtomicLong _totalWastedInboundBytes = new AtomicLong();
     /** lifetime counter of tokens available for use but exceeded our maxOutboundBurst size */
@@ -92,7 +122,10 @@ public class FIFOBandwidthLimiter {
         _context.statManager().createRateStat("bwLimiter.outboundDelayedTime", "How long it takes to honor an outbound request (ignoring ones with that go instantly)?", "BandwidthLimiter", new long[] { 5*60*1000l, 60*60*1000l });
         _context.statManager().createRateStat("bwLimiter.inboundDelayedTime", "How long it takes to honor an inbound request (ignoring ones with that go instantly)?", "BandwidthLimiter", new long[] { 5*60*1000l, 60*60*1000l });
         _pendingInboundRequests = new ArrayList<SimpleRequest>(16);
-        _pendingOutboundRequests = new ArrayList<SimpleRequest>(16);
+        _pendingOutboundRequests = new ClassQueue[NUM_CLASSES];
+        for (int i = 0; i < NUM_CLASSES; i++) {
+            _pendingOutboundRequests[i] = new ClassQueue();
+        }
         _lastTotalSent = _totalAllocatedOutboundBytes.get();
         _lastTotalReceived = _totalAllocatedInboundBytes.get();
         _lastStatsUpdated = now();
@@ -171,8 +204,17 @@ public class FIFOBandwidthLimiter {
 
     /** @since 0.8.8 */
     private void clear() {
-        _pendingInboundRequests.clear();
-        _pendingOutboundRequests.clear();
+        synchronized (_pendingInboundRequests) {
+            _pendingInboundRequests.clear();
+            _pendingInboundCount.set(0);
+        }
+        synchronized (_pendingOutboundRequests) {
+            for (int i = 0; i < NUM_CLASSES; i++) {
+                _pendingOutboundRequests[i].requests.clear();
+                _pendingOutboundRequests[i].deficit = 0;
+            }
+            _pendingOutboundCount.set(0);
+        }
         _availableInbound.set(0);
         _availableOutbound.set(0);
         _maxInbound = 0;
@@ -243,6 +285,7 @@ public class FIFOBandwidthLimiter {
         synchronized (_pendingInboundRequests) {
             pending = _pendingInboundRequests.size();
             _pendingInboundRequests.add(req);
+            _pendingInboundCount.set(pending + 1);
         }
         satisfyInboundRequests(req.satisfiedBuffer);
         req.satisfiedBuffer.clear();
@@ -252,6 +295,9 @@ public class FIFOBandwidthLimiter {
 
     /**
      * Request some bytes. Does not block.
+     *
+     * @param priority the highest OutNetMessage priority of the data, for the traffic class,
+     *                 or 0 if unknown (participating)
      */
     public Request requestOutbound(int bytesOut, int priority, String purpose) {
         // try to satisfy without grabbing the global lock
@@ -267,8 +313,8 @@ public class FIFOBandwidthLimiter {
         //req.init(0, bytesOut, purpose);
         int pending;
         synchronized (_pendingOutboundRequests) {
-            pending = _pendingOutboundRequests.size();
-            _pendingOutboundRequests.add(req);
+            pending = _pendingOutboundCount.getAndIncrement();
+            _pendingOutboundRequests[getTrafficClass(req.getPriority())].requests.add(req);
         }
         satisfyOutboundRequests(req.satisfiedBuffer);
         req.satisfiedBuffer.clear();
@@ -276,6 +322,39 @@ public class FIFOBandwidthLimiter {
             _context.statManager().addRateData("bwLimiter.pendingOutboundRequests", pending);
     }
     
+    /**
+     *  Transport control and handshake traffic, which has no message priority,
+     *  must be requested at OutNetMessage.PRIORITY_HIGHEST to land in CLASS_TUNNELS.
+     *
+     *  @param priority OutNetMessage priority
+     *  @since 0.9.71
+     */
+    private static int getTrafficClass(int priority) {
+        if (priority >= OutNetMessage.PRIORITY_EXPLORATORY)
+            return CLASS_TUNNELS;
+        if (priority >= OutNetMessage.PRIORITY_MY_DATA)
+            return CLASS_LOCAL;
+        return CLASS_PARTICIPATING;
+    }
+
+    /**
+     *  Set the round robin weights of the traffic classes.
+     *  Participating traffic gets the share percentage,
+     *  the other two split the rest.
+     *
+     *  @param share 0.0 - 1.0
+     *  @since 0.9.71
+     */
+    void setSharePercentage(double share) {
+        int part = Math.max(MIN_WEIGHT, Math.min(100 - (2 * MIN_WEIGHT), (int) (share * 100)));
+        int other = Math.max(MIN_WEIGHT, (100 - part) / 2);
+        synchronized (_pendingOutboundRequests) {
+            _pendingOutboundRequests[CLASS_PARTICIPATING].weight = part;
+            _pendingOutboundRequests[CLASS_TUNNELS].weight = other;
+            _pendingOutboundRequests[CLASS_LOCAL].weight = other;
+        }
+    }
+
     void setInboundBurstKBps(int kbytesPerSecond) {
         _maxInbound = kbytesPerSecond * 1024;
     }
@@ -514,11 +593,13 @@ public class FIFOBandwidthLimiter {
     /** called from debug logging only */
     private long locked_getLongestOutboundWait() {
         long start = -1;
-        for (int i = 0; i < _pendingOutboundRequests.size(); i++) {
-            Request req = _pendingOutboundRequests.get(i);
-            if (req == null) continue;
-            if ( (start < 0) || (start > req.getRequestTime()) )
-                start = req.getRequestTime();
+        for (int c = 0; c < NUM_CLASSES; c++) {
+            List<SimpleRequest> reqs = _pendingOutboundRequests[c].requests;
+            for (int i = 0; i < reqs.size(); i++) {
+                Request req = reqs.get(i);
+                if ( (start < 0) || (start > req.getRequestTime()) )
+                    start = req.getRequestTime();
+            }
         }
         if (start == -1)
             return 0;
@@ -534,6 +615,7 @@ public class FIFOBandwidthLimiter {
     private final void locked_satisfyInboundUnlimited(List<Request> satisfied) {
         while (!_pendingInboundRequests.isEmpty()) {
             SimpleRequest req = _pendingInboundRequests.remove(0);
+            _pendingInboundCount.decrementAndGet();
             int allocated = req.getPendingRequested();
             _totalAllocatedInboundBytes.addAndGet(allocated);
             req.allocateBytes(allocated);
@@ -568,6 +650,7 @@ public class FIFOBandwidthLimiter {
                                 + waited
                                 + "ms) pending " + _pendingInboundRequests.size());
                 _pendingInboundRequests.remove(i);
+                _pendingInboundCount.decrementAndGet();
                 i--;
                 continue;
             }
@@ -613,6 +696,7 @@ public class FIFOBandwidthLimiter {
                                 + "ms) pending " + _pendingInboundRequests.size()
                                 + ", longest waited " + locked_getLongestInboundWait() + " out");
                 _pendingInboundRequests.remove(i);
+                _pendingInboundCount.decrementAndGet();
                 i--;
                 if (waited > 10)
                     _context.statManager().addRateData("bwLimiter.inboundDelayedTime", waited);
@@ -633,7 +717,7 @@ public class FIFOBandwidthLimiter {
                 } else {
                     // no bandwidth available
                     if (_log.shouldLog(Log.INFO))
-                        _log.info("Denying " + _pendingOutboundRequests.size() 
+                        _log.info("Denying " + _pendingOutboundCount.get()
                                   + " pending outbound requests (status: " + getOutboundStatus()
                                   + ", longest waited " + locked_getLongestOutboundWait() + ')');
                 }
@@ -654,33 +738,74 @@ public class FIFOBandwidthLimiter {
      * @param satisfied out param, list of requests that were completely satisfied
      */
     private final void locked_satisfyOutboundUnlimited(List<Request> satisfied) {
-        while (!_pendingOutboundRequests.isEmpty()) {
-            SimpleRequest req = _pendingOutboundRequests.remove(0);
-            int allocated = req.getPendingRequested();
-            _totalAllocatedOutboundBytes.addAndGet(allocated);
-            req.allocateBytes(allocated);
-            satisfied.add(req);
-            long waited = now() - req.getRequestTime();
-            if (_log.shouldLog(Log.DEBUG))
-                 _log.debug("Granting outbound request " + req + " fully (waited " 
-                            + waited
-                            + "ms) pending " + _pendingOutboundRequests.size()
-                            + ", longest waited " + locked_getLongestOutboundWait() + " out");
-            if (waited > 10)
-                _context.statManager().addRateData("bwLimiter.outboundDelayedTime", waited);
+        for (int c = 0; c < NUM_CLASSES; c++) {
+            List<SimpleRequest> reqs = _pendingOutboundRequests[c].requests;
+            while (!reqs.isEmpty()) {
+                SimpleRequest req = reqs.remove(0);
+                _pendingOutboundCount.decrementAndGet();
+                int allocated = req.getPendingRequested();
+                _totalAllocatedOutboundBytes.addAndGet(allocated);
+                req.allocateBytes(allocated);
+                satisfied.add(req);
+                long waited = now() - req.getRequestTime();
+                if (_log.shouldLog(Log.DEBUG))
+                     _log.debug("Granting outbound request " + req + " fully (waited " 
+                                + waited
+                                + "ms) pending " + _pendingOutboundCount.get());
+                if (waited > 10)
+                    _context.statManager().addRateData("bwLimiter.outboundDelayedTime", waited);
+            }
+            _pendingOutboundRequests[c].deficit = 0;
         }
     }
     
     /**
      * ok, we have limits, so lets iterate through the requests, allocating as much
      * bandwidth as we can to those who have used what we have given them and are waiting
-     * for more (giving priority to the first ones who requested it)
+     * for more.
+     *
+     * As of 0.9.71, this is a deficit round robin over the traffic classes
+     * with waiting requests, each getting its weight times QUANTUM bytes per round,
+     * giving priority to the first ones who requested it within a class.
+     * A class that is not waiting doesn't save up its share.
      * 
      * @param satisfied out param, list of requests that were completely satisfied
      */
     private final void locked_satisfyOutboundAvailable(List<Request> satisfied) {
-        for (int i = 0; i < _pendingOutboundRequests.size(); i++) {
-            SimpleRequest req = _pendingOutboundRequests.get(i);
+        int c = _nextOutboundClass;
+        // each class gets at most one visit per round with bandwidth left,
+        // stop after a full round with nothing waiting
+        int idle = 0;
+        while (idle < NUM_CLASSES && _availableOutbound.get() > 0) {
+            ClassQueue q = _pendingOutboundRequests[c];
+            if (q.requests.isEmpty()) {
+                q.deficit = 0;
+                idle++;
+            } else {
+                idle = 0;
+                // a new round for this class, unless a partial grant stopped the last one
+                if (q.deficit <= 0)
+                    q.deficit += q.weight * QUANTUM;
+                if (!locked_satisfyOutboundClass(q, satisfied))
+                    break;  // out of bandwidth, resume this one next time
+            }
+            c = (c + 1) % NUM_CLASSES;
+        }
+        _nextOutboundClass = c;
+    }
+
+    /**
+     * Allocate to the requests of one class, in order, while it has deficit left.
+     * The last one may take it negative.
+     *
+     * @param satisfied out param, list of requests that were completely satisfied
+     * @return false if we ran out of bandwidth
+     * @since 0.9.71 split out of locked_satisfyOutboundAvailable()
+     */
+    private boolean locked_satisfyOutboundClass(ClassQueue q, List<Request> satisfied) {
+        List<SimpleRequest> reqs = q.requests;
+        while (q.deficit > 0 && !reqs.isEmpty()) {
+            SimpleRequest req = reqs.get(0);
             long waited = now() - req.getRequestTime();
             if (req.getAborted()) {
                 // connection decided they dont want the data anymore
@@ -689,25 +814,16 @@ public class FIFOBandwidthLimiter {
                                 + req
                                 + " waited " 
                                 + waited
-                                + "ms) pending " + _pendingOutboundRequests.size());
-                _pendingOutboundRequests.remove(i);
-                i--;
+                                + "ms) pending " + _pendingOutboundCount.get());
+                reqs.remove(0);
+                _pendingOutboundCount.decrementAndGet();
                 continue;
             }
             int avo = _availableOutbound.get();
-            if (avo <= 0) break;
-            // NO, don't do this, since SSU requires a full allocation to proceed.
+            if (avo <= 0)
+                return false;
+            // NO, don't stop after a partial allocation, since SSU requires a full allocation to proceed.
             // By stopping after a partial allocation, we stall SSU.
-            // This never affected NTCP (which also requires a full allocation)
-            // since it registers a CompleteListener, so getAllocationsSinceWait() was always zero.
-            //if (req.getAllocationsSinceWait() > 0) {
-                // we have already allocated some values to this request, but
-                // they haven't taken advantage of it yet (most likely they're
-                // IO bound)
-            //    if (_log.shouldLog(Log.WARN))
-            //        _log.warn("multiple allocations since wait... ntcp shouldn't do this: " + req);
-            //    continue;
-            //}
             // ok, they are really waiting for us to give them stuff
             int requested = req.getPendingRequested();
             int allocated;
@@ -717,6 +833,7 @@ public class FIFOBandwidthLimiter {
                 allocated = avo;
             _availableOutbound.addAndGet(0 - allocated);
             _totalAllocatedOutboundBytes.addAndGet(allocated);
+            q.deficit -= allocated;
             req.allocateBytes(allocated);
             satisfied.add(req);
             if (req.getPendingRequested() > 0) {
@@ -725,68 +842,89 @@ public class FIFOBandwidthLimiter {
                                 + req
                                 + " waited " 
                                 + waited
-                                + "ms) pending " + _pendingOutboundRequests.size()
+                                + "ms) pending " + _pendingOutboundCount.get()
                                 + ", longest waited " + locked_getLongestOutboundWait() + " out");
-            } else {
-                if (_log.shouldLog(Log.DEBUG))
-                     _log.debug("Allocating " + allocated + " bytes outbound to finish the partial grant to " 
-                                + req
-                                + " waited " 
-                                + waited
-                                + "ms) pending " + _pendingOutboundRequests.size()
-                                + ", longest waited " + locked_getLongestOutboundWait() + " out)");
-                _pendingOutboundRequests.remove(i);
-                i--;
-                if (waited > 10)
-                    _context.statManager().addRateData("bwLimiter.outboundDelayedTime", waited);
+                return false;
             }
+            if (_log.shouldLog(Log.DEBUG))
+                 _log.debug("Allocating " + allocated + " bytes outbound to finish the partial grant to " 
+                            + req
+                            + " waited " 
+                            + waited
+                            + "ms) pending " + _pendingOutboundCount.get()
+                            + ", longest waited " + locked_getLongestOutboundWait() + " out)");
+            reqs.remove(0);
+            _pendingOutboundCount.decrementAndGet();
+            if (waited > 10)
+                _context.statManager().addRateData("bwLimiter.outboundDelayedTime", waited);
         }
+        return true;
     }
     
     /**
-     *  Lockless total satisfaction,
-     *  at some minor risk of exceeding the limits
-     *  and driving the available counter below zero
+     *  Lockless total satisfaction.
+     *  As of 0.9.71, does not exceed the limits.
      *
      *  @param requested number of bytes
      *  @return satisfaction
      *  @since 0.7.13
      */
     private boolean shortcutSatisfyInboundRequest(int requested) {
-        boolean rv = _inboundUnlimited ||
-                     (_pendingInboundRequests.isEmpty() &&
-                      _availableInbound.get() >= requested);
-        if (rv) {
+        boolean rv;
+        if (_inboundUnlimited) {
+            rv = true;
             _availableInbound.addAndGet(0 - requested);
-            _totalAllocatedInboundBytes.addAndGet(requested);
+        } else {
+            rv = _pendingInboundCount.get() <= 0 &&
+                 tryAcquire(_availableInbound, requested);
         }
+        if (rv)
+            _totalAllocatedInboundBytes.addAndGet(requested);
         //if (_log.shouldLog(Log.INFO))
         //    _log.info("IB shortcut for " + requested + "B? " + rv);
         return rv;
     }
     
     /**
-     *  Lockless total satisfaction,
-     *  at some minor risk of exceeding the limits
-     *  and driving the available counter below zero
+     *  Lockless total satisfaction.
+     *  As of 0.9.71, does not exceed the limits.
      *
      *  @param requested number of bytes
      *  @return satisfaction
      *  @since 0.7.13
      */
     private boolean shortcutSatisfyOutboundRequest(int requested) {
-        boolean rv = _outboundUnlimited ||
-                     (_pendingOutboundRequests.isEmpty() &&
-                      _availableOutbound.get() >= requested);
-        if (rv) {
+        boolean rv;
+        if (_outboundUnlimited) {
+            rv = true;
             _availableOutbound.addAndGet(0 - requested);
-            _totalAllocatedOutboundBytes.addAndGet(requested);
+        } else {
+            rv = _pendingOutboundCount.get() <= 0 &&
+                 tryAcquire(_availableOutbound, requested);
         }
+        if (rv)
+            _totalAllocatedOutboundBytes.addAndGet(requested);
         //if (_log.shouldLog(Log.INFO))
         //    _log.info("OB shortcut for " + requested + "B? " + rv);
         return rv;
     }
 
+    /**
+     *  Take the bytes if they're all available
+     *
+     *  @return success
+     *  @since 0.9.71
+     */
+    private static boolean tryAcquire(AtomicInteger available, int requested) {
+        while (true) {
+            int avail = available.get();
+            if (avail < requested)
+                return false;
+            if (available.compareAndSet(avail, avail - requested))
+                return true;
+        }
+    }
+
     /** @deprecated not worth translating */
     @Deprecated
     public void renderStatusHTML(Writer out) throws IOException {
@@ -823,6 +961,19 @@ public class FIFOBandwidthLimiter {
 ******/
     }
     
+    /**
+     *  The waiting outbound requests of one traffic class
+     *
+     *  @since 0.9.71
+     */
+    private static class ClassQueue {
+        public final List<SimpleRequest> requests = new ArrayList<SimpleRequest>(16);
+        /** round robin weight, percent */
+        public int weight = 100 / NUM_CLASSES;
+        /** bytes it may still take this round */
+        public int deficit;
+    }
+
     private static class SimpleRequest implements Request {
         private int _allocated;
         private final int _total;
@@ -837,7 +988,7 @@ public class FIFOBandwidthLimiter {
         private final int _priority;
         
         /**
-         *  @param priority 0 for now
+         *  @param priority OutNetMessage priority, or 0
          */
         public SimpleRequest(int bytes, int priority) {
             satisfiedBuffer = new ArrayList<Request>(1);
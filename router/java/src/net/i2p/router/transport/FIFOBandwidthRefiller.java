@@ -206,6 +206,7 @@ public class FIFOBandwidthRefiller implements Runnable {
         if (_partBWE == null || maxBps != _partBWE.getMaxBandwidth()) {
             _partBWE = new SyntheticREDQueue(_context, maxBps);
         }
+        _limiter.setSharePercentage(_context.router().getSharePercentage());
 
         // We are always limited for now
         //_limiter.setInboundUnlimited(_inboundKBytesPerSecond <= 0);
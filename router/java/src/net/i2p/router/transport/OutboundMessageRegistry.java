@@ -12,12 +12,16 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.i2p.data.i2np.DatabaseSearchReplyMessage;
+import net.i2p.data.i2np.DatabaseStoreMessage;
+import net.i2p.data.i2np.DeliveryStatusMessage;
 import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.router.IndexedMessageSelector;
 import net.i2p.router.Job;
 import net.i2p.router.MessageSelector;
 import net.i2p.router.OutNetMessage;
@@ -29,12 +33,24 @@ import net.i2p.util.SimpleTimer2;
 
 /**
  *  Tracks outbound messages.
+ *
+ *  As of 0.9.71, selectors implementing IndexedMessageSelector are found
+ *  by the key of the received message, and only the others are checked
+ *  one by one. Expiration is by a timing wheel with one-second slots.
  */
 public class OutboundMessageRegistry {
     private final Log _log;
-    /** list of currently active MessageSelector instances */
-    private final List<MessageSelector> _selectors;
-    /** map of active MessageSelector to either an OutNetMessage or a List of OutNetMessages causing it (for quick removal) */
+    /** reply key to an array of active IndexedMessageSelectors; LOCKING for writes: _selectorToMessage */
+    private final Map<Object, MessageSelector[]> _index;
+    /** active selectors that aren't indexed, copy-on-write; LOCKING for writes: _selectorToMessage */
+    private volatile MessageSelector[] _unindexed = EMPTY;
+    /** held while calling isMatch() on the unindexed selectors, as they were all checked under one lock before */
+    private final Object _unindexedLock = new Object();
+    /**
+     *  map of active MessageSelector to either an OutNetMessage or a List of OutNetMessages causing it (for quick removal)
+     *  Lists are never modified after they are put in the map.
+     *  LOCKING for writes: this map, which also covers _index and _unindexed, so they are consistent
+     */
     private final Map<MessageSelector, Object> _selectorToMessage;
     /**
      *  set of active OutNetMessage (for quick removal and selector fetching)
@@ -47,13 +63,15 @@ public class OutboundMessageRegistry {
     private final Set<OutNetMessage> _activeMessages;
     private final CleanupTask _cleanupTask;
     private final RouterContext _context;
+
+    private static final MessageSelector[] EMPTY = new MessageSelector[0];
     
     public OutboundMessageRegistry(RouterContext context) {
         _context = context;
         _log = _context.logManager().getLog(OutboundMessageRegistry.class);
-        _selectors = new ArrayList<MessageSelector>(64);
-        _selectorToMessage = new HashMap<MessageSelector, Object>(64);
-        _activeMessages = new ConcurrentHashSet<OutNetMessage>(64);
+        _index = new ConcurrentHashMap<Object, MessageSelector[]>(256);
+        _selectorToMessage = new ConcurrentHashMap<MessageSelector, Object>(256);
+        _activeMessages = new ConcurrentHashSet<OutNetMessage>(256);
         _cleanupTask = new CleanupTask();
     }
     
@@ -61,12 +79,12 @@ public class OutboundMessageRegistry {
      *  Does something @since 0.8.8
      */
     public void shutdown() {
-        synchronized (_selectors) {
-            _selectors.clear();
-        }
         synchronized (_selectorToMessage) { 
             _selectorToMessage.clear();
+            _index.clear();
+            _unindexed = EMPTY;
         }
+        _cleanupTask.clear();
         // Calling the fail job for every active message would
         // be way too much at shutdown/restart, right?
         _activeMessages.clear();
@@ -88,78 +106,180 @@ public class OutboundMessageRegistry {
      *
      * This is called only by InNetMessagePool.
      *
-     * TODO this calls isMatch() in the selectors from inside the lock, which
-     * can lead to deadlocks if the selector does too much in isMatch().
-     * Remove the lock if possible.
+     * Indexed selectors are looked up by the key of the message, and
+     * isMatch() is called with the selector locked.
+     * The others are all checked, with a single lock held for all of them.
      *
      * @param message Payload received that may be a reply to something we sent
      * @return non-null List of OutNetMessage describing messages that were waiting for 
      *         the payload
      */
-    @SuppressWarnings("unchecked")
     public List<OutNetMessage> getOriginalMessages(I2NPMessage message) {
-        List<MessageSelector> matchedSelectors = null;
-        List<MessageSelector> removedSelectors = null;
-
-        synchronized (_selectors) {
-            // ConcurrentModificationException - why?
-            //for (Iterator<MessageSelector> iter = _selectors.iterator(); iter.hasNext(); ) {
-            //    MessageSelector sel = iter.next();
-            for (int i = 0; i < _selectors.size(); i++) {
-                MessageSelector sel = _selectors.get(i);
-                boolean isMatch = sel.isMatch(message);
-                if (isMatch) {
-                    if (matchedSelectors == null) matchedSelectors = new ArrayList<MessageSelector>(1);
-                    matchedSelectors.add(sel);
-                    if (!sel.continueMatching()) {
-                        if (removedSelectors == null) removedSelectors = new ArrayList<MessageSelector>(1);
-                        removedSelectors.add(sel);
-                        //iter.remove();
-                        _selectors.remove(i);
-                        i--;
+        List<OutNetMessage> rv = null;
+        Object key = getReplyKey(message);
+        if (key != null) {
+            MessageSelector[] sels = _index.get(key);
+            if (sels != null) {
+                for (int i = 0; i < sels.length; i++) {
+                    MessageSelector sel = sels[i];
+                    synchronized (sel) {
+                        rv = match(sel, message, rv);
                     }
                 }
-            }  
+            }
         }
-
-        List<OutNetMessage> rv;
-        if (matchedSelectors != null) {
-            rv = new ArrayList<OutNetMessage>(matchedSelectors.size());
-            for (MessageSelector sel : matchedSelectors) {
-                boolean removed = false;
-                OutNetMessage msg = null;
-                List<OutNetMessage> msgs = null;
-                synchronized (_selectorToMessage) {
-                    Object o;
-                    if ( (removedSelectors != null) && (removedSelectors.contains(sel)) ) {
-                        o = _selectorToMessage.remove(sel);
-                        removed = true;
-                    } else {
-                        o = _selectorToMessage.get(sel);
-                    }
-                    
-                    if (o instanceof OutNetMessage) {
-                        msg = (OutNetMessage)o;
-                        rv.add(msg);
-                    } else if (o instanceof List) {
-                        msgs = (List<OutNetMessage>)o;
-                        rv.addAll(msgs);
-                    }
-                }
-                if (removed) {
-                    if (msg != null) {
-                        _activeMessages.remove(msg);
-                    } else if (msgs != null) {
-                        _activeMessages.removeAll(msgs);
-                    }
+        MessageSelector[] sels = _unindexed;
+        if (sels.length > 0) {
+            synchronized (_unindexedLock) {
+                for (int i = 0; i < sels.length; i++) {
+                    rv = match(sels[i], message, rv);
                 }
             }
-        } else {
-            rv = Collections.emptyList();
         }
+        if (rv == null)
+            return Collections.emptyList();
+        return rv;
+    }
+
+    /**
+     *  The key of a received message that IndexedMessageSelectors are indexed by.
+     *
+     *  @return Long, Hash, or null if it can't be a reply to an indexed selector
+     *  @since 0.9.71
+     */
+    static Object getReplyKey(I2NPMessage message) {
+        switch (message.getType()) {
+            case DeliveryStatusMessage.MESSAGE_TYPE:
+                return Long.valueOf(((DeliveryStatusMessage) message).getMessageId());
+            case DatabaseStoreMessage.MESSAGE_TYPE:
+                return ((DatabaseStoreMessage) message).getKey();
+            case DatabaseSearchReplyMessage.MESSAGE_TYPE:
+                return ((DatabaseSearchReplyMessage) message).getSearchKey();
+            default:
+                return null;
+        }
+    }
 
+    /**
+     *  Check one selector and add its messages to rv if it matches.
+     *  Removes the selector if it doesn't want to continue matching.
+     *  Caller must hold the lock for the selector.
+     *
+     *  @param rv may be null
+     *  @return rv, or a new list if rv was null and we matched
+     *  @since 0.9.71
+     */
+    @SuppressWarnings("unchecked")
+    private List<OutNetMessage> match(MessageSelector sel, I2NPMessage message, List<OutNetMessage> rv) {
+        if (!sel.isMatch(message))
+            return rv;
+        // skip if expired or removed by another thread while we weren't looking
+        Object o = _selectorToMessage.get(sel);
+        if (o == null)
+            return rv;
+        boolean removed = false;
+        if (!sel.continueMatching()) {
+            o = removeSelector(sel);
+            if (o == null)
+                return rv;
+            removed = true;
+        }
+        if (rv == null)
+            rv = new ArrayList<OutNetMessage>(1);
+        if (o instanceof OutNetMessage) {
+            OutNetMessage msg = (OutNetMessage) o;
+            rv.add(msg);
+            if (removed)
+                _activeMessages.remove(msg);
+        } else if (o instanceof List) {
+            List<OutNetMessage> msgs = (List<OutNetMessage>) o;
+            rv.addAll(msgs);
+            if (removed)
+                _activeMessages.removeAll(msgs);
+        }
         return rv;
     }
+
+    /**
+     *  Remove the selector from the map and the index.
+     *
+     *  @return what was in _selectorToMessage, or null if it was already removed
+     *  @since 0.9.71
+     */
+    private Object removeSelector(MessageSelector sel) {
+        synchronized (_selectorToMessage) {
+            Object o = _selectorToMessage.remove(sel);
+            if (o != null)
+                unindex(sel);
+            return o;
+        }
+    }
+
+    /**
+     *  Caller must synch on _selectorToMessage
+     *
+     *  @since 0.9.71
+     */
+    private void index(MessageSelector sel) {
+        if (sel instanceof IndexedMessageSelector) {
+            Object key = ((IndexedMessageSelector) sel).getReplyKey();
+            MessageSelector[] old = _index.get(key);
+            MessageSelector[] sels;
+            if (old == null) {
+                sels = new MessageSelector[] { sel };
+            } else {
+                sels = new MessageSelector[old.length + 1];
+                System.arraycopy(old, 0, sels, 0, old.length);
+                sels[old.length] = sel;
+            }
+            _index.put(key, sels);
+        } else {
+            MessageSelector[] old = _unindexed;
+            MessageSelector[] sels = new MessageSelector[old.length + 1];
+            System.arraycopy(old, 0, sels, 0, old.length);
+            sels[old.length] = sel;
+            _unindexed = sels;
+        }
+    }
+
+    /**
+     *  Caller must synch on _selectorToMessage
+     *
+     *  @since 0.9.71
+     */
+    private void unindex(MessageSelector sel) {
+        if (sel instanceof IndexedMessageSelector) {
+            Object key = ((IndexedMessageSelector) sel).getReplyKey();
+            MessageSelector[] old = _index.get(key);
+            if (old == null)
+                return;
+            MessageSelector[] sels = remove(old, sel);
+            if (sels == old)
+                return;
+            if (sels.length == 0)
+                _index.remove(key);
+            else
+                _index.put(key, sels);
+        } else {
+            _unindexed = remove(_unindexed, sel);
+        }
+    }
+
+    /**
+     *  @return a copy of sels without sel, or sels if not found
+     *  @since 0.9.71
+     */
+    private static MessageSelector[] remove(MessageSelector[] sels, MessageSelector sel) {
+        for (int i = 0; i < sels.length; i++) {
+            if (sels[i] == sel) {
+                MessageSelector[] rv = new MessageSelector[sels.length - 1];
+                System.arraycopy(sels, 0, rv, 0, i);
+                System.arraycopy(sels, i + 1, rv, i, sels.length - i - 1);
+                return rv;
+            }
+        }
+        return sels;
+    }
     
     /**
      *  Registers a new, empty OutNetMessage, with the reply and timeout jobs specified.
@@ -204,28 +324,30 @@ public class OutboundMessageRegistry {
         if (!_activeMessages.add(msg))
             return; // dont add dups
 
+        Object oldMsg;
+        List<OutNetMessage> multi = null;
         synchronized (_selectorToMessage) { 
-            Object oldMsg = _selectorToMessage.put(sel, msg);
-            if (oldMsg != null) {
-                List<OutNetMessage> multi = null;
+            oldMsg = _selectorToMessage.get(sel);
+            if (oldMsg == null) {
+                _selectorToMessage.put(sel, msg);
+                index(sel);
+            } else {
                 if (oldMsg instanceof OutNetMessage) {
-                    //multi = Collections.synchronizedList(new ArrayList(4));
                     multi = new ArrayList<OutNetMessage>(4);
                     multi.add((OutNetMessage)oldMsg);
-                    multi.add(msg);
-                    _selectorToMessage.put(sel, multi);
-                } else if (oldMsg instanceof List) {
-                    multi = (List<OutNetMessage>)oldMsg;
-                    multi.add(msg);
-                    _selectorToMessage.put(sel, multi);
+                } else {
+                    // copy, as the old list may be in use by getOriginalMessages()
+                    multi = new ArrayList<OutNetMessage>((List<OutNetMessage>)oldMsg);
                 }
-                if (_log.shouldLog(Log.WARN))
-                    _log.warn("a single message selector [" + sel + "] with multiple messages ("+ multi + ")");
+                multi.add(msg);
+                _selectorToMessage.put(sel, multi);
             }
         }
-        synchronized (_selectors) { _selectors.add(sel); }
-
-        _cleanupTask.scheduleExpiration(sel);
+        if (oldMsg == null) {
+            _cleanupTask.scheduleExpiration(sel);
+        } else if (_log.shouldLog(Log.WARN)) {
+            _log.warn("a single message selector [" + sel + "] with multiple messages ("+ multi + ")");
+        }
     }
     
     /**
@@ -235,22 +357,23 @@ public class OutboundMessageRegistry {
     public void unregisterPending(OutNetMessage msg) {
         if (msg == null) return;
         MessageSelector sel = msg.getReplySelector();
-        boolean stillActive = false;
         synchronized (_selectorToMessage) { 
             Object old = _selectorToMessage.remove(sel);
             if (old != null) {
+                boolean stillActive = false;
                 if (old instanceof List) {
-                    List<OutNetMessage> l = (List<OutNetMessage>)old;
+                    // copy, as the old list may be in use by getOriginalMessages()
+                    List<OutNetMessage> l = new ArrayList<OutNetMessage>((List<OutNetMessage>)old);
                     l.remove(msg);
                     if (!l.isEmpty()) {
                         _selectorToMessage.put(sel, l);
                         stillActive = true;
                     }
                 }
+                if (!stillActive)
+                    unindex(sel);
             }
         }
-        if (!stillActive)
-            synchronized (_selectors) { _selectors.remove(sel); }
         _activeMessages.remove(msg);
     }
 
@@ -258,98 +381,135 @@ public class OutboundMessageRegistry {
     @Deprecated
     public void renderStatusHTML(Writer out) throws IOException {}
     
+    /**
+     *  A timing wheel of selectors, by expiration.
+     *  Selectors that are matched or unregistered are left in the wheel
+     *  and skipped when their slot comes up.
+     *  A selector whose expiration is beyond the end of the wheel,
+     *  or was extended after registration, is put back in when its slot comes up.
+     */
     private class CleanupTask extends SimpleTimer2.TimedEvent {
-        /** LOCKING: _selectors */
-        private long _nextExpire;
+        private static final long SLOT_TIME = 1000;
+        /** 4 1/4 minutes */
+        private static final int SLOTS = 256;
+        /** LOCKING: this */
+        private final List<MessageSelector>[] _slots;
+        /** the last slot processed, in units of SLOT_TIME. LOCKING: this */
+        private long _cursor;
+        /** total in all slots. LOCKING: this */
+        private int _count;
+        /** LOCKING: this */
+        private boolean _scheduled;
 
+        @SuppressWarnings("unchecked")
         public CleanupTask() {
             super(_context.simpleTimer2());
-            _nextExpire = -1;
+            _slots = (List<MessageSelector>[]) new List<?>[SLOTS];
+            for (int i = 0; i < SLOTS; i++) {
+                _slots[i] = new ArrayList<MessageSelector>(4);
+            }
+            _cursor = _context.clock().now() / SLOT_TIME;
         }
 
         @SuppressWarnings("unchecked")
         public void timeReached() {
             long now = _context.clock().now();
-            List<MessageSelector> removing = new ArrayList<MessageSelector>(8);
-            synchronized (_selectors) {
-                // CME?
-                //for (Iterator<MessageSelector> iter = _selectors.iterator(); iter.hasNext(); ) {
-                //    MessageSelector sel = iter.next();
-                for (int i = 0; i < _selectors.size(); i++) {
-                    MessageSelector sel = _selectors.get(i);
-                    long expiration = sel.getExpiration();
-                    if (expiration <= now) {
-                        removing.add(sel);
-                        //iter.remove();
-                        _selectors.remove(i);
-                        i--;
-                    } else if (expiration < _nextExpire || _nextExpire < now) {
-                        _nextExpire = expiration;
+            List<MessageSelector> due = new ArrayList<MessageSelector>();
+            synchronized (this) {
+                long target = now / SLOT_TIME;
+                if (target - _cursor > SLOTS)
+                    _cursor = target - SLOTS;
+                while (_cursor < target) {
+                    _cursor++;
+                    int slot = (int) (_cursor % SLOTS);
+                    List<MessageSelector> sels = _slots[slot];
+                    if (!sels.isEmpty()) {
+                        due.addAll(sels);
+                        _count -= sels.size();
+                        _slots[slot] = new ArrayList<MessageSelector>(4);
                     }
                 }
             }
             boolean log = _log.shouldLog(Log.DEBUG);
-            if (!removing.isEmpty()) {
-                for (MessageSelector sel : removing) {
-                    OutNetMessage msg = null;
-                    List<OutNetMessage> msgs = null;
-                    Object o;
-                    synchronized (_selectorToMessage) {
-                        o = _selectorToMessage.remove(sel);
-                    }
-                    if (o instanceof OutNetMessage) {
-                        msg = (OutNetMessage)o;
-                    } else if (o instanceof List) {
-                        msgs = (List<OutNetMessage>)o;
-                    }
-                    if (msg != null) {
-                        _activeMessages.remove(msg);
-                        Job fail = msg.getOnFailedReplyJob();
+            int expired = 0;
+            for (MessageSelector sel : due) {
+                if (!_selectorToMessage.containsKey(sel))
+                    continue;
+                if (sel.getExpiration() > now) {
+                    scheduleExpiration(sel);
+                    continue;
+                }
+                Object o = removeSelector(sel);
+                if (o == null)
+                    continue;
+                expired++;
+                if (o instanceof OutNetMessage) {
+                    OutNetMessage msg = (OutNetMessage)o;
+                    _activeMessages.remove(msg);
+                    Job fail = msg.getOnFailedReplyJob();
+                    if (fail != null)
+                        _context.jobQueue().addJob(fail);
+                    if (log)
+                        _log.debug("Expired: " + sel + " with timeout job " + fail);
+                } else if (o instanceof List) {
+                    List<OutNetMessage> msgs = (List<OutNetMessage>)o;
+                    _activeMessages.removeAll(msgs);
+                    for (OutNetMessage m : msgs) {
+                        Job fail = m.getOnFailedReplyJob();
                         if (fail != null)
                             _context.jobQueue().addJob(fail);
                         if (log)
-                            _log.debug("Expired: " + sel + " with timeout job " + fail);
-                    } else if (msgs != null) {
-                        _activeMessages.removeAll(msgs);
-                        for (OutNetMessage m : msgs) {
-                            Job fail = m.getOnFailedReplyJob();
-                            if (fail != null)
-                                _context.jobQueue().addJob(fail);
-                            if (log)
-                                _log.debug("Expired: " + sel + " with timeout job(s) " + fail);
-                        }
-                    } else {
-                        if (log)
-                            _log.debug("Expired: " + sel + " with no known messages");
+                            _log.debug("Expired: " + sel + " with timeout job(s) " + fail);
                     }
                 }
             }
 
             if (log) {
-                int e = removing.size();
-                int r;
-                synchronized(_selectors) {
-                    r = _selectors.size();
-                }
+                int r = _selectorToMessage.size();
                 int a = _activeMessages.size();
-                if (r > 0 || e > 0 || a > 0)
-                    _log.debug("Expired: " + e + " remaining: " + r + " active: " + a);
+                if (r > 0 || expired > 0 || a > 0)
+                    _log.debug("Expired: " + expired + " remaining: " + r + " active: " + a);
             }
-            synchronized(_selectors) {
-                if (_nextExpire <= now)
-                    _nextExpire = now + 10*1000;
-                schedule(_nextExpire - now);
+            synchronized (this) {
+                if (_count > 0)
+                    schedule(SLOT_TIME - (_context.clock().now() % SLOT_TIME));
+                else
+                    _scheduled = false;
             }
         }
 
-        public void scheduleExpiration(MessageSelector sel) {
+        /**
+         *  Put the selector in the slot for its expiration,
+         *  or in the last slot if it's beyond the end of the wheel.
+         */
+        public synchronized void scheduleExpiration(MessageSelector sel) {
             long now = _context.clock().now();
-            synchronized(_selectors) {
-                if ( (_nextExpire <= now) || (sel.getExpiration() < _nextExpire) ) {
-                    _nextExpire = sel.getExpiration();
-                    reschedule(_nextExpire - now);
-                }
+            if (!_scheduled) {
+                // catch up if we've been idle
+                _cursor = Math.max(_cursor, (now / SLOT_TIME) - 1);
+            }
+            // round up, so it has expired when the slot comes up
+            long when = (sel.getExpiration() + SLOT_TIME - 1) / SLOT_TIME;
+            if (when <= _cursor)
+                when = _cursor + 1;
+            else if (when - _cursor >= SLOTS)
+                when = _cursor + SLOTS - 1;
+            _slots[(int) (when % SLOTS)].add(sel);
+            _count++;
+            if (!_scheduled) {
+                _scheduled = true;
+                schedule(SLOT_TIME - (now % SLOT_TIME));
+            }
+        }
+
+        /**
+         *  Empty the wheel. It stops when it next runs.
+         */
+        public synchronized void clear() {
+            for (int i = 0; i < SLOTS; i++) {
+                _slots[i].clear();
             }
+            _count = 0;
         }
     }
 }
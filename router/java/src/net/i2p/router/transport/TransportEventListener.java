@@ -24,4 +24,13 @@ public interface TransportEventListener {
     public void messageReceived(I2NPMessage message, RouterIdentity fromRouter, Hash fromRouterHash);
 
     public void transportAddressChanged();
+
+    /**
+     * A connection to the peer was established or closed,
+     * so the best bid for it may have changed.
+     *
+     * @param peer non-null
+     * @since 0.9.71
+     */
+    public void peerConnectionChanged(Hash peer);
 }
@@ -108,6 +108,7 @@ public abstract class TransportImpl implements Transport {
         _context.statManager().createRateStat("transport.receiveMessageTime", "How long it takes to read a message?", "Transport", new long[] { 60*1000l, 5*60*1000l, 10*60*1000l, 60*60*1000l, 24*60*60*1000l });
         _context.statManager().createRateStat("transport.receiveMessageTimeSlow", "How long it takes to read a message (when it takes more than a second)?", "Transport", new long[] { 60*1000l, 5*60*1000l, 10*60*1000l, 60*60*1000l, 24*60*60*1000l });
         _context.statManager().createRequiredRateStat("transport.sendProcessingTime", "Time to process and send a message (ms)", "Transport", new long[] { 60*1000l });
+        _context.statManager().createRateStat("transport.sendProcessingTimeCachedBid", "Time to process and send a message, when the transport was from the bid cache (ms)", "Transport", new long[] { 60*1000l, 10*60*1000l });
         //_context.statManager().createRateStat("transport.sendProcessingTime." + getStyle(), "Time to process and send a message (ms)", "Transport", new long[] { 60*1000l });
         _context.statManager().createRateStat("transport.expiredOnQueueLifetime", "How long a message that expires on our outbound queue is processed", "Transport", new long[] { 60*1000l, 10*60*1000l, 60*60*1000l, 24*60*60*1000l } );
 
@@ -436,6 +437,8 @@ public abstract class TransportImpl implements Transport {
         if (sendSuccessful) {
             // TODO fix this stat for SSU ticket #698
             _context.statManager().addRateData("transport.sendProcessingTime", lifetime);
+            if (msg.isCachedBid())
+                _context.statManager().addRateData("transport.sendProcessingTimeCachedBid", lifetime);
             // object churn. 33 ms for NTCP and 788 for SSU, but meaningless due to
             // differences in how it's computed (immediate vs. round trip)
             //_context.statManager().addRateData("transport.sendProcessingTime." + getStyle(), lifetime, 0);
@@ -966,6 +969,19 @@ public abstract class TransportImpl implements Transport {
         _unreachableEntries.remove(peer);
         if (!isInbound)
             markWasUnreachable(peer, false);
+        connectionChanged(peer);
+    }
+
+    /**
+     *  Tell the listener that a connection to the peer was established or closed.
+     *  markReachable() calls this, subclasses must call it on close.
+     *
+     *  @since 0.9.71
+     */
+    protected void connectionChanged(Hash peer) {
+        TransportEventListener listener = _listener;
+        if (listener != null)
+            listener.peerConnectionChanged(peer);
     }
 
     private class CleanupUnreachable implements SimpleTimer.TimedEvent {
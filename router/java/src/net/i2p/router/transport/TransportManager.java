@@ -101,6 +101,15 @@ public class TransportManager implements TransportEventListener {
 
     private final long _msgIDBloomXor;
 
+    /**
+     *  Peer to the transport that last won the bidding with an established connection.
+     *  Removed when a connection to the peer is established or closed on any transport.
+     *  @since 0.9.71
+     */
+    private final Map<Hash, CachedBid> _bidCache;
+    /** failsafe in case entries for closed connections are re-added in a race */
+    private static final int MAX_BID_CACHE = 8192;
+
     public TransportManager(RouterContext context) {
         _context = context;
         _log = _context.logManager().getLog(TransportManager.class);
@@ -111,6 +120,8 @@ public class TransportManager implements TransportEventListener {
         _context.statManager().createRateStat("transport.bidFailSelf", "Could not attempt to bid on message, as it targeted ourselves", "Transport", new long[] { 60*1000, 10*60*1000, 60*60*1000 });
         _context.statManager().createRateStat("transport.bidFailNoTransports", "Could not attempt to bid on message, as none of the transports could attempt it", "Transport", new long[] { 60*1000, 10*60*1000, 60*60*1000 });
         _context.statManager().createRateStat("transport.bidFailAllTransports", "Could not attempt to bid on message, as all of the transports had failed", "Transport", new long[] { 60*1000, 10*60*1000, 60*60*1000 });
+        _context.statManager().createRateStat("transport.bidCacheHit", "Transport from the bid cache (1) or from all the bids (0), average is the hit rate", "Transport", new long[] { 60*1000, 10*60*1000, 60*60*1000 });
+        _bidCache = new ConcurrentHashMap<Hash, CachedBid>(256);
         _transports = new ConcurrentHashMap<String, Transport>(2);
         _pluggableTransports = new HashMap<String, Transport>(2);
 
@@ -240,6 +251,7 @@ public class TransportManager implements TransportEventListener {
         Transport old = _transports.remove(transport.getStyle());
         if (old != null && _log.shouldLog(Log.WARN))
             _log.warn("Removing transport " + transport.getStyle());
+        _bidCache.clear();
     }
 
     private void configTransports() {
@@ -480,6 +492,7 @@ public class TransportManager implements TransportEventListener {
             t.stopListening();
         }
         _transports.clear();
+        _bidCache.clear();
     }
     
     
@@ -870,10 +883,16 @@ public class TransportManager implements TransportEventListener {
     }
     
     TransportBid getNextBid(OutNetMessage msg) {
-        int unreachableTransports = 0;
         Hash peer = msg.getTarget().getIdentity().calculateHash();
+        TransportBid rv = getCachedBid(peer, msg);
+        if (rv != null) {
+            _context.statManager().addRateData("transport.bidCacheHit", 1);
+            msg.setCachedBid();
+            return rv;
+        }
+        _context.statManager().addRateData("transport.bidCacheHit", 0);
+        int unreachableTransports = 0;
         List<String> failedTransports = msg.getFailedTransports();
-        TransportBid rv = null;
         for (Transport t : _transports.values()) {
             if (t.isUnreachable(peer)) {
                 unreachableTransports++;
@@ -938,9 +957,65 @@ public class TransportManager implements TransportEventListener {
             }
         } else if (rv == null) {
             _context.statManager().addRateData("transport.noBidsYetNotAllUnreachable", unreachableTransports, msg.getLifetime());
+        } else {
+            Transport t = rv.getTransport();
+            if (t.isEstablished(peer)) {
+                if (_bidCache.size() >= MAX_BID_CACHE)
+                    _bidCache.clear();
+                _bidCache.put(peer, new CachedBid(t, msg.getTarget().getPublished()));
+            }
         }
         return rv;
     }
+
+    /**
+     *  If the last winning bid for this peer was from a transport with an established connection,
+     *  and that connection is still up, ask only that transport for a bid.
+     *  It still checks the message size and transport banlist.
+     *
+     *  A connection established or closed on any transport removes the entry,
+     *  see peerConnectionChanged(). A new RouterInfo, or a failure on that transport for this message,
+     *  bypasses it. Banlisted peers are rejected in GetBidsJob before we get here.
+     *
+     *  @return null if not cached or no longer valid
+     *  @since 0.9.71
+     */
+    private TransportBid getCachedBid(Hash peer, OutNetMessage msg) {
+        CachedBid cb = _bidCache.get(peer);
+        if (cb == null)
+            return null;
+        Transport t = cb.transport;
+        RouterInfo ri = msg.getTarget();
+        if (ri.getPublished() != cb.published ||
+            _transports.get(t.getStyle()) != t ||
+            !t.isEstablished(peer)) {
+            _bidCache.remove(peer, cb);
+            return null;
+        }
+        if (msg.getFailedTransports().contains(t.getStyle()))
+            return null;
+        TransportBid rv = t.bid(ri, msg.getMessageSize());
+        // too big for this transport, or it changed its mind, do the full bidding
+        if (rv == null || rv.getLatencyMs() == TransportBid.TRANSIENT_FAIL)
+            return null;
+        if (_log.shouldDebug())
+            _log.debug("Cached bid from " + t.getStyle() + " for " + peer + ": " + rv);
+        return rv;
+    }
+
+    /**
+     *  @since 0.9.71
+     */
+    private static class CachedBid {
+        public final Transport transport;
+        /** of the RouterInfo it was for */
+        public final long published;
+
+        public CachedBid(Transport t, long published) {
+            transport = t;
+            this.published = published;
+        }
+    }
     
     /**
      * Message received
@@ -962,11 +1037,24 @@ public class TransportManager implements TransportEventListener {
         }
     }
 
+    /**
+     *  TransportEventListener
+     *  Drop any cached bid for the peer
+     *
+     *  @param peer non-null
+     *  @since 0.9.71
+     */
+    public void peerConnectionChanged(Hash peer) {
+        _bidCache.remove(peer);
+    }
+
     /**
      *  TransportEventListener
      *  calls UPnPManager rescan() and update()
      */
     public void transportAddressChanged() {
+        // bid preference may depend on our status
+        _bidCache.clear();
         if (_upnpManager != null) {
             synchronized (_upnpManager) {
                 if (!_upnpUpdateQueued) {
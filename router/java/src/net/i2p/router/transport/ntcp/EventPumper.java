@@ -33,8 +33,8 @@ import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.stat.Rate;
 import net.i2p.stat.RateAverages;
 import net.i2p.stat.RateStat;
-import net.i2p.util.TryCache;
 import net.i2p.util.Addresses;
+import net.i2p.util.BufferPool;
 import net.i2p.util.ConcurrentHashSet;
 import net.i2p.util.I2PThread;
 import net.i2p.util.Log;
@@ -70,15 +70,6 @@ class EventPumper implements Runnable {
     private static final int BUF_SIZE = 8*1024;
     private static final int MAX_CACHE_SIZE = 64;
 
-    private static class BufferFactory implements TryCache.ObjectFactory<ByteBuffer> {
-        public ByteBuffer newInstance() {
-            if (_useDirect) 
-                return ByteBuffer.allocateDirect(BUF_SIZE);
-            else
-                return ByteBuffer.allocate(BUF_SIZE);
-        }
-    }
-    
 
     /** 
      * every few seconds, iterate across all ntcp connections just to make sure
@@ -117,7 +108,8 @@ class EventPumper implements Runnable {
         MIN_BUFS = (int) Math.max(MIN_MINB, Math.min(MAX_MINB, 1 + (maxMemory / (16*1024*1024))));
     }
     
-    private static final TryCache<ByteBuffer> _bufferCache = new TryCache<>(new BufferFactory(), MIN_BUFS);
+    private static final BufferPool<ByteBuffer> _bufferCache =
+        BufferPool.getByteBufferPool("ntcp.read", BUF_SIZE, MIN_BUFS, _useDirect);
 
     private static final Set<Status> STATUS_OK =
         EnumSet.of(Status.OK, Status.IPV4_OK_IPV6_UNKNOWN, Status.IPV4_OK_IPV6_FIREWALLED);
@@ -8,6 +8,7 @@ import java.util.List;
 import net.i2p.I2PAppContext;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
+import net.i2p.data.i2np.I2NPBuffer;
 import net.i2p.data.i2np.I2NPMessage;
 import net.i2p.data.i2np.I2NPMessageException;
 import net.i2p.data.i2np.I2NPMessageImpl;
@@ -77,6 +78,32 @@ class NTCP2Payload {
     public static int processPayload(I2PAppContext ctx, PayloadCallback cb,
                                      byte[] payload, int off, int length, boolean isHandshake)
                                     throws IOException, DataFormatException, I2NPMessageException {
+        return processPayload(ctx, cb, payload, null, off, length, isHandshake);
+    }
+
+    /**
+     *  Incoming payload in a shared buffer. Calls the callback for each received block.
+     *  I2NP messages may keep slices of the buffer, see I2NPBuffer.
+     *
+     *  @return number of blocks processed
+     *  @throws IOException on major errors
+     *  @throws DataFormatException on parsing of individual blocks
+     *  @throws I2NPMessageException on parsing of I2NP block
+     *  @since 0.9.71
+     */
+    public static int processPayload(I2PAppContext ctx, PayloadCallback cb,
+                                     I2NPBuffer buf, int off, int length, boolean isHandshake)
+                                    throws IOException, DataFormatException, I2NPMessageException {
+        return processPayload(ctx, cb, buf.getData(), buf, off, length, isHandshake);
+    }
+
+    /**
+     *  @param buf wraps payload, or null to copy I2NP messages out of it
+     *  @since 0.9.71 split out from above
+     */
+    private static int processPayload(I2PAppContext ctx, PayloadCallback cb,
+                                      byte[] payload, I2NPBuffer buf, int off, int length, boolean isHandshake)
+                                     throws IOException, DataFormatException, I2NPMessageException {
         int blocks = 0;
         boolean gotPadding = false;
         boolean gotTermination = false;
@@ -128,7 +155,11 @@ class NTCP2Payload {
                 case BLOCK_I2NP:
                     if (isHandshake)
                         throw new IOException("Illegal block in handshake: " + type);
-                    I2NPMessage msg = I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, payload, i, len, null);
+                    I2NPMessage msg;
+                    if (buf != null)
+                        msg = I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, buf, i, len);
+                    else
+                        msg = I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, payload, i, len, null);
                     cb.gotI2NP(msg);
                     break;
 
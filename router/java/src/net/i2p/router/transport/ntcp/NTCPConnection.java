@@ -33,6 +33,7 @@ import net.i2p.data.router.RouterIdentity;
 import net.i2p.data.router.RouterInfo;
 import net.i2p.data.SessionKey;
 import net.i2p.data.i2np.DatabaseStoreMessage;
+import net.i2p.data.i2np.I2NPBuffer;
 import net.i2p.data.i2np.I2NPMessage;
 import net.i2p.data.i2np.I2NPMessageException;
 import net.i2p.router.OutNetMessage;
@@ -152,6 +153,13 @@ public class NTCPConnection implements Closeable {
     static final int BUFFER_SIZE = 16*1024;
     private static final int MAX_DATA_READ_BUFS = 16;
     private static final ByteCache _dataReadBufs = ByteCache.getInstance(MAX_DATA_READ_BUFS, BUFFER_SIZE);
+    /**
+     *  Frames at least this big are parsed in place, with the I2NP messages keeping slices
+     *  of the read buffer. A held buffer isn't returned to the cache until all its messages
+     *  are done with it, so don't hold a whole buffer for one or two small messages.
+     *  @since 0.9.71
+     */
+    private static final int MIN_SLICE_FRAME = BUFFER_SIZE / 4;
 
     private static final int INFO_PRIORITY = OutNetMessage.PRIORITY_MY_NETDB_STORE_LOW;
     private static final String FIXED_RI_VERSION = "0.9.12";
@@ -676,6 +684,8 @@ public class NTCPConnection implements Closeable {
         int size = OutboundNTCP2State.MAC_SIZE;
         List<Block> blocks = new ArrayList<Block>(4);
         long now = _context.clock().now();
+        // highest of the messages, for the bandwidth limiter
+        int priority;
         /* synchronized (_currentOutbound) */  {
             if (!_currentOutbound.isEmpty()) {
                 if (_log.shouldLog(Log.INFO))
@@ -694,6 +704,7 @@ public class NTCPConnection implements Closeable {
                 _transport.afterSend(msg, false, false, msg.getLifetime());
             }
             _currentOutbound.add(msg);
+            priority = msg.getPriority();
             I2NPMessage m = msg.getMessage();
             Block block = new NTCP2Payload.I2NPBlock(m);
             blocks.add(block);
@@ -719,6 +730,7 @@ public class NTCPConnection implements Closeable {
                     }
                     if (msg.getExpiration() >= now) {
                         _currentOutbound.add(msg);
+                        priority = Math.max(priority, msg.getPriority());
                         block = new NTCP2Payload.I2NPBlock(m);
                         blocks.add(block);
                         size += NTCP2Payload.BLOCK_HEADER_SIZE + msz;
@@ -761,7 +773,7 @@ public class NTCPConnection implements Closeable {
             size += block.getTotalLength();
         }
         byte[] tmp = size <= BUFFER_SIZE ? buf.unencrypted : new byte[size];
-        sendNTCP2(tmp, blocks);
+        sendNTCP2(tmp, blocks, priority);
     }
 
     /**
@@ -850,7 +862,7 @@ public class NTCPConnection implements Closeable {
         }
         // use a "read buf" for the temp array
         ByteArray dataBuf = acquireReadBuf();
-        sendNTCP2(dataBuf.getData(), blocks);
+        sendNTCP2(dataBuf.getData(), blocks, OutNetMessage.PRIORITY_HIGHEST);
         releaseReadBuf(dataBuf);
     }
 
@@ -900,7 +912,7 @@ public class NTCPConnection implements Closeable {
         ByteArray dataBuf = acquireReadBuf();
         synchronized(_writeLock) {
             if (_sender != null) {
-                sendNTCP2(dataBuf.getData(), blocks);
+                sendNTCP2(dataBuf.getData(), blocks, OutNetMessage.PRIORITY_HIGHEST);
                 // sendNTCP2() -> wantsWrite() -> pumper.processWrite() -> fail -> close() -> NPE
                 if (_sender != null) {
                     _sender.destroy();
@@ -921,9 +933,10 @@ public class NTCPConnection implements Closeable {
      *
      *  @param tmp to be used for output of NTCP2Payload.writePayload(),
      *         must have room for block output. May be released immediately on return.
-     *  @since 0.9.36
+     *  @param priority highest OutNetMessage priority in the blocks, for the bandwidth limiter
+     *  @since 0.9.36, priority param added in 0.9.71
      */
-    private void sendNTCP2(byte[] tmp, List<Block> blocks) {
+    private void sendNTCP2(byte[] tmp, List<Block> blocks, int priority) {
         int payloadlen = NTCP2Payload.writePayload(tmp, 0, blocks);
         int framelen = payloadlen + OutboundNTCP2State.MAC_SIZE;
         // TODO use a buffer
@@ -947,7 +960,7 @@ public class NTCPConnection implements Closeable {
             toLong8LE(_sendSipIV, 0, sipIV);
             enc[0] = (byte) ((framelen >> 8) ^ (sipIV >> 8));
             enc[1] = (byte) (framelen ^ sipIV);
-            wantsWrite(enc);
+            wantsWrite(enc, 0, enc.length, priority);
         }
 
         if (_log.shouldDebug()) {
@@ -1051,11 +1064,25 @@ public class NTCPConnection implements Closeable {
      *  If we have bandwidth, calls write() which calls EventPumnper.wantsWrite(con).
      *  If no bandwidth, calls queuedWrite().
      *
+     *  For handshake and control data, at the highest priority for the bandwidth limiter.
+     *
      *  @since 0.9.35 off/len version, moved from EventPumper in 0.9.52
      */
     void wantsWrite(byte data[], int off, int len) {
+        wantsWrite(data, off, len, OutNetMessage.PRIORITY_HIGHEST);
+    }
+
+    /**
+     *  Call when there is data ready to write.
+     *  If we have bandwidth, calls write() which calls EventPumnper.wantsWrite(con).
+     *  If no bandwidth, calls queuedWrite().
+     *
+     *  @param priority highest OutNetMessage priority in the data, for the bandwidth limiter
+     *  @since 0.9.71
+     */
+    private void wantsWrite(byte data[], int off, int len, int priority) {
         ByteBuffer buf = ByteBuffer.wrap(data, off, len);
-        FIFOBandwidthLimiter.Request req = _context.bandwidthLimiter().requestOutbound(len, 0, "NTCP write");
+        FIFOBandwidthLimiter.Request req = _context.bandwidthLimiter().requestOutbound(len, priority, "NTCP write");
         if (req.getPendingRequested() > 0) {
             if (_log.shouldInfo())
                 _log.info("queued write on " + toString() + " for " + len);
@@ -1515,7 +1542,7 @@ public class NTCPConnection implements Closeable {
                     // overwriting the encrypted data
                     byte[] data = buf.array();
                     int pos = buf.position();
-                    boolean ok = decryptAndProcess(data, pos);
+                    boolean ok = decryptAndProcess(data, pos, null);
                     buf.position(pos + _framelen);
                     if (!ok) {
                         // decryptAndProcess called destroy() and set _terminated
@@ -1549,7 +1576,18 @@ public class NTCPConnection implements Closeable {
                 if (_received < _framelen)
                     return;
                 // decrypt to the ByteArray, overwriting the encrypted data
-                boolean ok = decryptAndProcess(data, 0);
+                I2NPBuffer ibuf;
+                if (_framelen >= MIN_SLICE_FRAME)
+                    ibuf = new I2NPBuffer(_dataBuf, data.length == BUFFER_SIZE ? _dataReadBufs : null);
+                else
+                    ibuf = null;
+                boolean ok = decryptAndProcess(data, 0, ibuf);
+                if (ibuf != null && ibuf.isShared()) {
+                    // messages hold slices of it,
+                    // the last one to release it returns it to the cache
+                    ibuf.release();
+                    _dataBuf = null;
+                }
                 // release buf only if we're not going around again
                 if (!ok || buf.remaining() < 2) {
                     if (!ok)
@@ -1575,11 +1613,12 @@ public class NTCPConnection implements Closeable {
          *
          *  Does not call close() on failure. Caller MUST call delayedClose() if this returns false.
          *
+         *  @param ibuf wraps data, or null to copy the I2NP messages out of data
          *  @return success, false for fatal error (AEAD) only
          */
-        private boolean decryptAndProcess(byte[] data, int off) {
+        private boolean decryptAndProcess(byte[] data, int off, I2NPBuffer ibuf) {
             if (_log.shouldDebug())
-                _log.debug("Decrypting frame " + _frameCount + " with " + _framelen + " bytes");
+                _log.debug("Decrypting frame {} with {} bytes", _frameCount, _framelen);
             try {
                 _rcvr.decryptWithAd(null, data, off, data, off, _framelen);
             } catch (GeneralSecurityException gse) {
@@ -1592,10 +1631,15 @@ public class NTCPConnection implements Closeable {
             }
             // no payload processing errors in the data phase are fatal
             try {
-                int blocks = NTCP2Payload.processPayload(_context, this, data, off,
+                int blocks;
+                if (ibuf != null)
+                    blocks = NTCP2Payload.processPayload(_context, this, ibuf, off,
+                                                         _framelen - OutboundNTCP2State.MAC_SIZE, false);
+                else
+                    blocks = NTCP2Payload.processPayload(_context, this, data, off,
                                                          _framelen - OutboundNTCP2State.MAC_SIZE, false);
                 if (_log.shouldDebug())
-                    _log.debug("Processed " + blocks + " blocks in frame");
+                    _log.debug("Processed {} blocks in frame", blocks);
                 _blockCount += blocks;
             } catch (IOException ioe) {
                 if (_log.shouldWarn())
@@ -698,6 +698,7 @@ public class NTCPTransport extends TransportImpl {
     public void forceDisconnect(Hash peer) {
         NTCPConnection con = _conByIdent.remove(peer);
         if (con != null) {
+            connectionChanged(peer);
             if (_log.shouldWarn())
                 _log.warn("Force disconnect of " + peer, new Exception("I did it"));
             con.close();
@@ -718,6 +719,8 @@ public class NTCPTransport extends TransportImpl {
                 if (_conByIdent.remove(ident.calculateHash(), con))
                     removed = con;
             }
+            if (removed != null)
+                connectionChanged(ident.calculateHash());
         }
         return removed;
     }
@@ -1630,7 +1630,7 @@ class EstablishmentManager {
         if (type != HOLE_PUNCH_FLAG_BYTE)
             return;
         byte[] introKey = _transport.getSSU2StaticIntroKey();
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(introKey, 0);
         long n = DataHelper.fromLong(data, off + PKT_NUM_OFFSET, 4);
         chacha.setNonce(n);
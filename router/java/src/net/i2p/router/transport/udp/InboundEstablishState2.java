@@ -151,7 +151,7 @@ class InboundEstablishState2 extends InboundEstablishState implements SSU2Payloa
                 _log.debug("Got token request from: " + _aliceSocketAddress);
             _currentState = InboundState.IB_STATE_TOKEN_REQUEST_RECEIVED;
             // decrypt in-place
-            ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+            ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
             chacha.initializeKey(introKey, 0);
             long n = DataHelper.fromLong(data, off + PKT_NUM_OFFSET, 4);
             chacha.setNonce(n);
@@ -574,7 +574,7 @@ class OutboundEstablishState2 extends OutboundEstablishState implements SSU2Payl
         if (version != _version && _log.shouldWarn())
             _log.warn("Incoming retry version mismatch was " + _version + " now " + version);
         _timeReceived = 0;
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(_headerEncryptKey1, 0);
         long n = DataHelper.fromLong(data, off + PKT_NUM_OFFSET, 4);
         chacha.setNonce(n);
@@ -3,12 +3,10 @@ package net.i2p.router.transport.udp;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.data.DataHelper;
 import net.i2p.data.Hash;
@@ -16,14 +14,14 @@ import net.i2p.data.router.RouterInfo;
 import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.udp.PacketBuilder.Fragment;
-import net.i2p.util.ConcurrentHashSet;
 import net.i2p.util.Log;
+import net.i2p.util.SystemVersion;
 
 /**
  * Coordinate the outbound fragments and select the next one to be built.
  * This pool contains messages we are actively trying to send, essentially
- * doing a round robin across each message to send one fragment, as implemented
- * in {@link #getNextVolley()}.  This also honors per-peer throttling, taking
+ * taking the peers in the order they may send next, as implemented
+ * in {@link #getNextVolley(int)}.  This also honors per-peer throttling, taking
  * note of each peer's allocations.  If a message has each of its fragments
  * sent more than a certain number of times, it is failed out.  In addition,
  * this instance also receives notification of message ACKs from the
@@ -37,19 +35,12 @@ class OutboundMessageFragments {
     private final UDPTransport _transport;
 
     /**
-     *  Peers we are actively sending messages to.
-     *  We use the iterator so we treat it like a list,
-     *  but we use a HashSet so remove() is fast and
-     *  we don't need to do contains().
-     *  Even though most (but NOT all) accesses are synchronized,
-     *  we use a ConcurrentHashSet as the iterator is long-lived.
+     *  Peers we are actively sending messages to, split by peer
+     *  among the pusher threads. Each shard is a queue ordered by
+     *  the time the peer may send next.
      */
-    private final Set<PeerState> _activePeers;
-
-    /**
-     *  The long-lived iterator over _activePeers.
-     */
-    private Iterator<PeerState> _iterator;
+    private final Shard[] _shards;
+    private final AtomicInteger _activePeers = new AtomicInteger();
 
     private volatile boolean _alive;
     private final PacketBuilder2 _builder2;
@@ -62,12 +53,33 @@ class OutboundMessageFragments {
     // don't send a packet more than 10 times
     static final int MAX_VOLLEYS = 10;
     private static final int MAX_WAIT = 1000;
+    /** when a peer has something to send but can't, check again this soon at the earliest */
+    private static final int MIN_WAIT = 10;
+
+    /**
+     *  Number of packet pusher threads
+     *  @since 0.9.71
+     */
+    static final String PROP_PUSHERS = "i2np.udp.pusherThreads";
+    private static final int MAX_PUSHERS = 4;
+
+    /** PeerState._sendState values, locked by the peer's shard */
+    static final int SEND_IDLE = 0;
+    static final int SEND_QUEUED = 1;
+    static final int SEND_RUNNING = 2;
+    /** running, and add() or nudge() wants it back in the queue right away */
+    static final int SEND_RUNNING_WAKE = 3;
 
     public OutboundMessageFragments(RouterContext ctx, UDPTransport transport) {
         _context = ctx;
         _log = ctx.logManager().getLog(OutboundMessageFragments.class);
         _transport = transport;
-        _activePeers = new ConcurrentHashSet<PeerState>(256);
+        int pushers = ctx.getProperty(PROP_PUSHERS, SystemVersion.getCores() >= 8 ? 2 : 1);
+        pushers = Math.max(1, Math.min(MAX_PUSHERS, pushers));
+        _shards = new Shard[pushers];
+        for (int i = 0; i < pushers; i++) {
+            _shards[i] = new Shard();
+        }
         _builder2 = transport.getBuilder2();
         _alive = true;
         // _allowExcess = false;
@@ -87,23 +99,38 @@ class OutboundMessageFragments {
         _context.statManager().createRateStat("udp.peerPacketsRetransmitted", "How many packets have been retransmitted to the peer (lifetime) when a burst of packets are retransmitted (period == packets transmitted, lifetime)", "udp", UDPTransport.RATES);
         //_context.statManager().createRateStat("udp.sendCycleTime", "How long it takes to cycle through all of the active messages?", "udp", UDPTransport.RATES);
         //_context.statManager().createRateStat("udp.sendCycleTimeSlow", "How long it takes to cycle through all of the active messages, when its going slowly?", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.sendScheduleLatency", "How late the packet pusher got to a peer that was ready to send (ms)", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.sendPacingDelay", "How long a peer was held back by pacing (ms)", "udp", UDPTransport.RATES);
     }
 
     public synchronized void startup() { _alive = true; }
 
     public synchronized void shutdown() {
         _alive = false;
-        _activePeers.clear();
-        synchronized (_activePeers) {
-            _activePeers.notify();
+        for (Shard shard : _shards) {
+            shard.clear();
         }
     }
 
+    /**
+     *  How many packet pusher threads to run, one per shard.
+     *  @since 0.9.71
+     */
+    int getPusherCount() {
+        return _shards.length;
+    }
+
+    private Shard getShard(PeerState peer) {
+        if (_shards.length == 1)
+            return _shards[0];
+        return _shards[(peer.getRemotePeer().hashCode() & 0x7fffffff) % _shards.length];
+    }
+
     void dropPeer(PeerState peer) {
         if (_log.shouldDebug())
-            _log.debug("Dropping peer " + peer.getRemotePeer());
+            _log.debug("Dropping peer {}", peer.getRemotePeer());
         peer.dropOutbound();
-        _activePeers.remove(peer);
+        getShard(peer).remove(peer);
     }
 
     /**
@@ -164,180 +191,263 @@ class OutboundMessageFragments {
 
     /**
      * Add the peer to the list of peers wanting to transmit something.
-     * This wakes up the packet pusher if it is sleeping.
+     * If it was already there, and it has room in its window,
+     * move it to the front so the packet pusher gets to it right away.
      *
-     * Avoid synchronization where possible.
-     * There are small chances of races.
-     * There are larger chances of adding the PeerState "behind" where
-     * the iterator is now... but these issues are the same as before concurrentification.
-     *
-     * @param size the minimum size we can send, or 0 to always notify
+     * @param size the minimum size we can send, or 0 to always move it to the front
      * @since 0.8.9
      */
     public void add(PeerState peer, int size) {
-        boolean added = _activePeers.add(peer);
+        boolean now = size <= 0 || peer.getSendWindowBytesRemaining() >= size;
+        boolean added = getShard(peer).wake(peer, now);
         if (added) {
             if (_log.shouldLog(Log.DEBUG))
-                _log.debug("Add a new message to a new peer " + peer.getRemotePeer());
+                _log.debug("Add a new message to a new peer {}", peer.getRemotePeer());
         } else {
             if (_log.shouldLog(Log.DEBUG))
-                _log.debug("Add a new message to an existing peer " + peer.getRemotePeer());
-        }
-        _context.statManager().addRateData("udp.outboundActivePeers", _activePeers.size());
-
-        // Avoid sync if possible
-        // no, this doesn't always work.
-        // Also note that the iterator in getNextVolley may have alreay passed us,
-        // or not reflect the addition.
-        if (added || size <= 0 || peer.getSendWindowBytesRemaining() >= size) {
-            synchronized (_activePeers) {
-                _activePeers.notify();
-            }
+                _log.debug("Add a new message to an existing peer {}", peer.getRemotePeer());
         }
+        _context.statManager().addRateData("udp.outboundActivePeers", _activePeers.get());
     }
 
-    /**
-     * Remove any expired or complete messages
-     */
-/****
-    private void finishMessages() {
-        for (Iterator<PeerState> iter = _activePeers.iterator(); iter.hasNext(); ) {
-             PeerState state = iter.next();
-             if (state.getOutboundMessageCount() <= 0) {
-                 iter.remove();
-             } else {
-                 int remaining = state.finishMessages();
-                 if (remaining <= 0) {
-                     if (_log.shouldLog(Log.DEBUG))
-                         _log.debug("No more pending messages for " + state.getRemotePeer().toBase64());
-                     iter.remove();
-                 }
-             }
-         }
-     }
-****/
- 
     /**
      * Fetch all the packets for a message volley, blocking until there is a
      * message which can be fully transmitted (or the transport is shut down).
      *
-     * NOT thread-safe. Called by the PacketPusher thread only.
+     * Takes the peer that is due first from the shard's queue,
+     * instead of scanning all the peers, and puts it back
+     * with the time it may send again. Peers are paced so a full window
+     * is spread over about one RTT rather than sent in a burst.
      *
+     * NOT thread-safe. Called by one PacketPusher thread per shard only.
+     *
+     * @param shard 0 to getPusherCount() - 1
      * @return null only on shutdown
+     * @since 0.9.71 adds shard param
      */
-    public List<UDPPacket> getNextVolley() {
-        PeerState peer = null;
-        List<OutboundMessageState> states = null;
-        // Keep track of how many we've looked at, since we don't start the iterator at the beginning.
-        int peersProcessed = 0;
-        int nextSendDelay = Integer.MAX_VALUE;
-        while (_alive && (states == null) ) {
-            // no, not every time - O(n**2) - do just before waiting below
-            //finishMessages();
-
-                    // do we need a new long-lived iterator?
-                    if (_iterator == null ||
-                        ((!_activePeers.isEmpty()) && (!_iterator.hasNext()))) {
-                        _iterator = _activePeers.iterator();
-                    }
+    public List<UDPPacket> getNextVolley(int shard) {
+        Shard sh = _shards[shard];
+        while (_alive) {
+            PeerState peer = sh.take();
+            if (peer == null)
+                break;
+            long now = _context.clock().now();
+            int remaining = peer.finishMessages(now);
+            if (remaining <= 0) {
+                // race with add(), handled by the shard
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("No more pending messages for {}", peer.getRemotePeer());
+                sh.idle(peer);
+                continue;
+            }
+            PeerState2 peer2 = (PeerState2) peer;
+            int pace = peer2.getPacingDelay(now);
+            if (pace > 0) {
+                _context.statManager().addRateData("udp.sendPacingDelay", pace);
+                sh.schedule(peer, pace);
+                continue;
+            }
+            List<OutboundMessageState> states = peer.allocateSend(now);
+            if (states == null) {
+                // wait a min of 10 and a max of MAX_WAIT ms no matter what peer.getNextDelay() says
+                // use max of 1 second so PeerState.finishMessages() gets called regularly
+                int delay = peer.getNextDelay(now);
+                sh.schedule(peer, Math.min(Math.max(delay, MIN_WAIT), MAX_WAIT));
+                continue;
+            }
 
-                    // Go through all the peers that we are actively sending messages to.
-                    // Call finishMessages() for each one, and remove them from the iterator
-                    // if there is nothing left to send.
-                    // Otherwise, return the volley to be sent.
-                    // Otherwise, wait()
-                    long now = _context.clock().now();
-                    while (_iterator.hasNext()) {
-                        PeerState p = _iterator.next();
-                        int remaining = p.finishMessages(now);
-                        if (remaining <= 0) {
-                            // race with add()
-                            _iterator.remove();
-                            if (_log.shouldLog(Log.DEBUG))
-                                _log.debug("No more pending messages for " + p.getRemotePeer());
-                            continue;
-                        }
-                        peersProcessed++;
-                        states = p.allocateSend(now);
-                        if (states != null) {
-                            peer = p;
-                            // we have something to send and we will be returning it
-                            break;
-                        } 
-                        int delay = p.getNextDelay(now);
-                        if (delay < nextSendDelay)
-                            nextSendDelay = delay;
-                        
-                        if (peersProcessed >= _activePeers.size()) {
-                            // we've gone all the way around, time to sleep
-                            break;
-                        }
+            if (_log.shouldLog(Log.DEBUG))
+                _log.debug("Sending " + DataHelper.toString(states));
+            List<UDPPacket> packets = preparePackets(states, peer);
+            if (packets != null) {
+                int bytes = 0;
+                for (int i = 0; i < packets.size(); i++) {
+                    bytes += packets.get(i).getPacket().getLength();
+                }
+                peer2.paced(bytes, now);
+            }
+            // back of the line for now, behind any other peers that are ready
+            sh.schedule(peer, 0);
+            if (packets != null)
+                return packets;
+        }
+        return null;
+    }
+
+    /**
+     * Wakes up all the packet pusher threads.
+     * @since 0.9.48
+     */
+    void nudge() {
+        for (Shard shard : _shards) {
+            synchronized (shard) {
+                shard.notify();
+            }
+        }
+    }
+
+    /**
+     * Move the peer to the front of the queue, if it has anything to send,
+     * and wake up its packet pusher thread.
+     * @since 0.9.71
+     */
+    void nudge(PeerState peer) {
+        getShard(peer).wake(peer, true);
+    }
+
+    /**
+     *  One packet pusher thread's peers, ordered by the time they may send next.
+     *  A peer is either idle, in the queue, or being processed by the pusher thread.
+     *  PeerState._sendAt, _sendSeq, and _sendState are locked by the shard.
+     *  Send times are on the monotonic clock, so a router clock shift
+     *  doesn't stall the queue.
+     *
+     *  @since 0.9.71
+     */
+    private class Shard {
+        private final TreeSet<PeerState> _queue = new TreeSet<PeerState>(new SendTimeComparator());
+        /** for FIFO order among peers due at the same time */
+        private long _seq;
+
+        /**
+         *  Blocking until a peer is due, or shutdown.
+         *  The pusher thread must hand the peer back with schedule() or idle().
+         *
+         *  @return null on shutdown
+         */
+        public synchronized PeerState take() {
+            while (_alive) {
+                long wait = MAX_WAIT;
+                if (!_queue.isEmpty()) {
+                    PeerState peer = _queue.first();
+                    long now = now();
+                    long late = now - peer._sendAt;
+                    if (late >= 0) {
+                        _queue.pollFirst();
+                        peer._sendState = SEND_RUNNING;
+                        _context.statManager().addRateData("udp.sendScheduleLatency", late);
+                        return peer;
                     }
+                    wait = Math.min(-late, MAX_WAIT);
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException ie) {}
+            }
+            return null;
+        }
+
+        /**
+         *  Put back a peer returned by take(), to be processed again after the delay,
+         *  or now if it was woken up while being processed.
+         *
+         *  @param delay ms, 0 for now, behind any other peers that are ready
+         */
+        public synchronized void schedule(PeerState peer, long delay) {
+            if (peer._sendState < SEND_RUNNING)
+                return;  // dropped, and maybe added again
+            long now = now();
+            if (peer._sendState == SEND_RUNNING_WAKE)
+                enqueue(peer, now);
+            else
+                enqueue(peer, now + delay);
+        }
 
-                    //if (peer != null && _log.shouldLog(Log.DEBUG))
-                    //    _log.debug("Done looping, next peer we are sending for: " +
-                    //               peer.getRemotePeer());
-
-                    // if we've gone all the way through the loop, wait
-                    // ... unless nextSendDelay says we have more ready now
-                    if (states == null && peersProcessed >= _activePeers.size() && nextSendDelay > 0) {
-                        peersProcessed = 0;
-                        // why? we do this in the loop one at a time
-                        //finishMessages();
-                        // wait a min of 10 and a max of MAX_WAIT ms no matter what peer.getNextDelay() says
-                        // use max of 1 second so finishMessages() and/or PeerState.finishMessages()
-                        // gets called regularly
-                        int toWait = Math.min(Math.max(nextSendDelay, 10), MAX_WAIT);
-                        if (_log.shouldLog(Log.DEBUG))
-                            _log.debug("wait for " + toWait);
-
-                        nextSendDelay = Integer.MAX_VALUE;
-                        // wait.. or somethin'
-                        synchronized (_activePeers) {
-                            try {
-                                _activePeers.wait(toWait);
-                            } catch (InterruptedException ie) {
-                                // noop
-                                if (_log.shouldLog(Log.DEBUG))
-                                     _log.debug("Woken up while waiting");
-                            }
-                        }
-                    //} else {
-                    //    if (_log.shouldLog(Log.DEBUG))
-                    //        _log.debug("dont wait: alive=" + _alive + " state = " + state);
+        /**
+         *  Put back a peer returned by take() that has nothing left to send.
+         *  It stays active if it was woken up while being processed.
+         */
+        public synchronized void idle(PeerState peer) {
+            if (peer._sendState == SEND_RUNNING_WAKE) {
+                enqueue(peer, now());
+            } else if (peer._sendState == SEND_RUNNING) {
+                peer._sendState = SEND_IDLE;
+                _activePeers.decrementAndGet();
+            }
+        }
+
+        /**
+         *  Make the peer active if it isn't.
+         *  If now is true, process it right away.
+         *
+         *  @return true if it was idle
+         */
+        public synchronized boolean wake(PeerState peer, boolean now) {
+            switch (peer._sendState) {
+              case SEND_IDLE:
+                _activePeers.incrementAndGet();
+                enqueue(peer, now());
+                return true;
+
+              case SEND_QUEUED:
+                if (now) {
+                    long t = now();
+                    if (peer._sendAt > t) {
+                        _queue.remove(peer);
+                        enqueue(peer, t);
                     }
+                }
+                return false;
 
-        } // while alive && state == null
+              case SEND_RUNNING:
+                // always, as the pusher may be about to idle it
+                peer._sendState = SEND_RUNNING_WAKE;
+                return false;
 
-        if (_log.shouldLog(Log.DEBUG))
-            _log.debug("Sending " + DataHelper.toString(states));
+              default:
+                return false;
+            }
+        }
 
-        List<UDPPacket> packets = preparePackets(states, peer);
+        public synchronized void remove(PeerState peer) {
+            if (peer._sendState == SEND_QUEUED)
+                _queue.remove(peer);
+            if (peer._sendState != SEND_IDLE) {
+                peer._sendState = SEND_IDLE;
+                _activePeers.decrementAndGet();
+            }
+        }
+
+        public synchronized void clear() {
+            for (PeerState peer : _queue) {
+                peer._sendState = SEND_IDLE;
+            }
+            _queue.clear();
+            _activePeers.set(0);
+            notifyAll();
+        }
 
-      /****
-        if ( (state != null) && (state.getMessage() != null) ) {
-            int valid = 0;
-            for (int i = 0; packets != null && i < packets.length ; i++)
-                if (packets[i] != null)
-                    valid++;
-            state.getMessage().timestamp("sending a volley of " + valid
-                                         + " lastReceived: "
-                                         + (_context.clock().now() - peer.getLastReceiveTime())
-                                         + " lastSentFully: "
-                                         + (_context.clock().now() - peer.getLastSendFullyTime()));
+        /** monotonic ms */
+        private long now() {
+            return System.nanoTime() / 1000000;
         }
-       ****/
 
-        return packets;
+        /**
+         *  Caller must synch, peer must not be in the queue
+         *
+         *  @param when monotonic ms
+         */
+        private void enqueue(PeerState peer, long when) {
+            peer._sendAt = when;
+            peer._sendSeq = _seq++;
+            peer._sendState = SEND_QUEUED;
+            _queue.add(peer);
+            // only the first one changes how long the pusher waits
+            if (_queue.first() == peer)
+                notify();
+        }
     }
 
     /**
-     * Wakes up the packet pusher thread.
-     * @since 0.9.48
+     *  Earliest first, then first queued
+     *  @since 0.9.71
      */
-    void nudge() {
-        synchronized(_activePeers) {
-            _activePeers.notify();
+    private static class SendTimeComparator implements Comparator<PeerState> {
+        public int compare(PeerState l, PeerState r) {
+            int rv = Long.compare(l._sendAt, r._sendAt);
+            if (rv != 0)
+                return rv;
+            return Long.compare(l._sendSeq, r._sendSeq);
         }
     }
 
@@ -327,6 +327,7 @@ class PacketBuilder2 {
             else
                 fragments = new ArrayList<Fragment>(fragments);
             peer.fragmentsSent(pktNum, length, fragments);
+            packet.setFragmentCount(fragments.size());
         }
         return packet;
     }
@@ -1181,7 +1182,7 @@ class PacketBuilder2 {
             blocks.add(block);
             SSU2Payload.writePayload(data, off + LONG_HEADER_SIZE, blocks);
 
-            ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+            ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
             chacha.initializeKey(chachaKey, 0);
             chacha.setNonce(n);
             chacha.encryptWithAd(data, off, LONG_HEADER_SIZE,
@@ -1219,7 +1220,7 @@ class PacketBuilder2 {
             blocks.add(block);
             SSU2Payload.writePayload(data, off + LONG_HEADER_SIZE, blocks);
 
-            ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+            ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
             chacha.initializeKey(chachaKey, 0);
             chacha.setNonce(n);
             chacha.encryptWithAd(data, off, LONG_HEADER_SIZE,
@@ -7,7 +7,7 @@ import java.util.concurrent.BlockingQueue;
 
 import net.i2p.router.Router;
 import net.i2p.router.RouterContext;
-import net.i2p.router.util.CoDelBlockingQueue;
+import net.i2p.router.util.CoDelMPSCQueue;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
 import net.i2p.data.SessionKey;
@@ -57,7 +57,7 @@ class PacketHandler {
 
         long maxMemory = SystemVersion.getMaxMemory();
         int qsize = (int) Math.max(MIN_QUEUE_SIZE, Math.min(MAX_QUEUE_SIZE, maxMemory / (2*1024*1024)));
-        _inboundQueue = new CoDelBlockingQueue<UDPPacket>(ctx, "UDP-Receiver", qsize);
+        _inboundQueue = new CoDelMPSCQueue<UDPPacket>(ctx, "UDP-Receiver", qsize);
         int num_handlers;
         if (maxMemory < 32*1024*1024)
             num_handlers = 1;
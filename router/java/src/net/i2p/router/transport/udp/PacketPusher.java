@@ -7,12 +7,13 @@ import net.i2p.util.I2PThread;
 import net.i2p.util.Log;
    
 /**
- * Blocking thread to grab new packets off the outbound fragment
+ * Blocking threads to grab new packets off the outbound fragment
  * pool and toss 'em onto the outbound packet queues.
+ * One thread for each of the fragment pool's shards of peers.
  *
  * Here we select which UDPEndpoint/UDPSender to send it out.
  */
-class PacketPusher implements Runnable {
+class PacketPusher {
     // private RouterContext _context;
     private final Log _log;
     private final OutboundMessageFragments _fragments;
@@ -28,23 +29,36 @@ class PacketPusher implements Runnable {
     
     public synchronized void startup() {
         _alive = true;
-        I2PThread t = new I2PThread(this, "UDP packet pusher", true);
-        t.start();
+        int count = _fragments.getPusherCount();
+        for (int i = 0; i < count; i++) {
+            String name = count > 1 ? "UDP packet pusher " + (i + 1) + '/' + count : "UDP packet pusher";
+            I2PThread t = new I2PThread(new Runner(i), name, true);
+            t.start();
+        }
     }
     
     public synchronized void shutdown() { _alive = false; }
-     
-    public void run() {
-        while (_alive) {
-            try {
-                List<UDPPacket> packets = _fragments.getNextVolley();
-                if (packets != null) {
-                    for (int i = 0; i < packets.size(); i++) {
-                         send(packets.get(i));
+
+    /**
+     *  @since 0.9.71 moved from PacketPusher.run()
+     */
+    private class Runner implements Runnable {
+        private final int _shard;
+
+        public Runner(int shard) { _shard = shard; }
+
+        public void run() {
+            while (_alive) {
+                try {
+                    List<UDPPacket> packets = _fragments.getNextVolley(_shard);
+                    if (packets != null) {
+                        for (int i = 0; i < packets.size(); i++) {
+                             send(packets.get(i));
+                        }
                     }
+                } catch (RuntimeException e) {
+                    _log.error("SSU Output Queue Error", e);
                 }
-            } catch (RuntimeException e) {
-                _log.error("SSU Output Queue Error", e);
             }
         }
     }
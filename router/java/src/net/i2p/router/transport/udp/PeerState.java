@@ -147,6 +147,15 @@ public class PeerState {
     private long _nextSequenceNumber;
     private final AtomicBoolean _fastRetransmit = new AtomicBoolean();
 
+    /**
+     *  For OutboundMessageFragments only, locked by its shard for this peer.
+     *  When we may send next (monotonic ms), the tiebreaker, and idle/queued/running.
+     *  @since 0.9.71
+     */
+    long _sendAt;
+    long _sendSeq;
+    int _sendState;
+
     /** how many dup packets were received within the last RETRANSMISSION_PERIOD_WIDTH packets */
     protected int _packetsReceivedDuplicate;
     private int _packetsReceived;
@@ -815,10 +824,10 @@ public class PeerState {
             long oldTimer = _retransmitTimer - now;
             _retransmitTimer = now + getRTO();
             if (_log.shouldLog(Log.DEBUG))
-               _log.debug(_remotePeer + " ACK, timer: " + oldTimer + " -> " + (_retransmitTimer - now));
+               _log.debug("{} ACK, timer: {} -> {}", _remotePeer, oldTimer, _retransmitTimer - now);
         }
         if (anyPending || anyQueued)
-            _transport.getOMF().nudge();
+            _transport.getOMF().nudge(this);
     }
 
     /**
@@ -830,7 +839,7 @@ public class PeerState {
         }
         _bwEstimator.addSample(bytesACKed);
         if (numSends >= 2 && _log.shouldDebug())
-            _log.debug(_remotePeer + " acked after numSends=" + numSends + " w/ lifetime=" + lifetime + " and size=" + bytesACKed);
+            _log.debug("{} acked after numSends={} w/ lifetime={} and size={}", _remotePeer, numSends, lifetime, bytesACKed);
     }
 
     /** This is the value specified in RFC 2988 */
@@ -1272,7 +1281,7 @@ public class PeerState {
                             _log.debug("Allocate sending (FAST) to " + _remotePeer + ": " + state);
                     } else {
                         if (_log.shouldLog(Log.DEBUG))
-                            _log.debug("Allocate sending (OLD) to " + _remotePeer + ": " + state.getMessageId());
+                            _log.debug("Allocate sending (OLD) to {}: {}", _remotePeer, state.getMessageId());
                     }
                     if (rv == null) {
                         rv = new ArrayList<OutboundMessageState>((1 + _outboundMessages.size()) / 2);
@@ -1293,7 +1302,7 @@ public class PeerState {
                     boolean should = locked_shouldSend(state, now);
                     if (should) {
                         if (_log.shouldLog(Log.DEBUG))
-                            _log.debug("Allocate sending more fragments to " + _remotePeer + ": " + state.getMessageId());
+                            _log.debug("Allocate sending more fragments to {}: {}", _remotePeer, state.getMessageId());
                         if (rv == null)
                             rv = new ArrayList<OutboundMessageState>(_concurrentMessagesAllowed);
                         rv.add(state);
@@ -1505,8 +1514,8 @@ public class PeerState {
                                + " newly-acked: " + ackedSize
                                + ", now complete for: " + state);
                 } else {
-                    _log.debug("Received ack of " + state.getMessageId() + " by " + _remotePeer
-                               + " after " + lifetime + " and " + numSends + " sends");
+                    _log.debug("Received ack of {} by {} after {} and {} sends",
+                               state.getMessageId(), _remotePeer, lifetime, numSends);
                 }
             }
         } else {
@@ -21,6 +21,7 @@ import net.i2p.data.DataHelper;
 import net.i2p.data.Hash;
 import net.i2p.data.router.RouterInfo;
 import net.i2p.data.SessionKey;
+import net.i2p.data.i2np.I2NPBuffer;
 import net.i2p.data.i2np.I2NPMessage;
 import net.i2p.data.i2np.I2NPMessageException;
 import net.i2p.data.i2np.I2NPMessageImpl;
@@ -114,6 +115,14 @@ public class PeerState2 extends PeerState implements SSU2Payload.PayloadCallback
     public static final int MIN_MLKEM768_IPV4_MTU = 1318;
     public static final int MIN_MLKEM768_IPV6_MTU = 1338;
 
+    // Pacing, for OutboundMessageFragments, only touched by the pusher thread for this peer
+    private int _pacingTokens;
+    private long _lastPaced;
+    /** percent of cwnd/RTT, in slow start and after */
+    private static final int PACING_GAIN_SLOW_START = 200;
+    private static final int PACING_GAIN = 125;
+    private static final int MIN_PACING_BURST_PACKETS = 4;
+
     private static final int BITFIELD_SIZE = 512;
     private static final int MAX_SESS_CONF_RETX = 5;
     private static final long SENT_MESSAGES_CLEAN_TIME = 60*1000;
@@ -790,8 +799,8 @@ public class PeerState2 extends PeerState implements SSU2Payload.PayloadCallback
 
     public void gotFragment(byte[] data, int off, int len, long messageId, int frag, boolean isLast) throws DataFormatException {
         if (_log.shouldDebug())
-            _log.debug("Got FRAGMENT block: " + messageId + " fragment " + frag + " len " + len +
-                      " isLast? " + isLast + " on " + _remotePeer.toBase64());
+            _log.debug("Got FRAGMENT block: {} fragment {} len {} isLast? {} on {}",
+                       messageId, frag, len, isLast, _remotePeer.toBase64());
         InboundMessageState state;
         boolean messageComplete = false;
         boolean messageExpired = false;
@@ -1008,7 +1017,10 @@ public class PeerState2 extends PeerState implements SSU2Payload.PayloadCallback
                      _log.warn("Hmm, offset of the fragments = " + off + " while the state says " + sz);
                  return;
              }
-             I2NPMessage msg = I2NPMessageImpl.fromRawByteArrayNTCP2(_context, buf, 0, sz, null);
+             // buf is ours alone, so the message may keep it rather than copy out of it
+             I2NPBuffer ibuf = new I2NPBuffer(buf);
+             I2NPMessage msg = I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, 0, sz);
+             ibuf.release();
              _transport.messageReceived(msg, null, _remotePeer, state.getLifetime(), sz);
         } catch (I2NPMessageException ime) {
             if (_log.shouldWarn())
@@ -1086,6 +1098,63 @@ public class PeerState2 extends PeerState implements SSU2Payload.PayloadCallback
             highestSeqNumAcked(highest);
     }
 
+    /**
+     *  Token bucket pacing, so a full window goes out over about one RTT
+     *  instead of in a burst. Tokens refill at the congestion window
+     *  per RTT, times the gain, up to a burst of a quarter window or 4 packets.
+     *  Not paced until we have an RTT.
+     *
+     *  Only called by the packet pusher thread for this peer.
+     *
+     *  @return ms until a full-size packet may be sent, 0 if now
+     *  @since 0.9.71
+     */
+    int getPacingDelay(long now) {
+        int rate = refillPacingTokens(now);
+        if (rate <= 0)
+            return 0;
+        int need = getMTU() - _pacingTokens;
+        if (need <= 0)
+            return 0;
+        return Math.max(1, (need + rate - 1) / rate);
+    }
+
+    /**
+     *  We sent this many bytes, may go negative.
+     *  Only called by the packet pusher thread for this peer.
+     *
+     *  @since 0.9.71
+     */
+    void paced(int bytes, long now) {
+        refillPacingTokens(now);
+        _pacingTokens -= bytes;
+    }
+
+    /**
+     *  @return the pacing rate in bytes/ms, or 0 if not pacing
+     *  @since 0.9.71
+     */
+    private int refillPacingTokens(long now) {
+        int rtt = getRTT();
+        if (rtt <= 0)
+            return 0;
+        int cwnd = getSendWindowBytes();
+        int gain = cwnd <= getSlowStartThreshold() ? PACING_GAIN_SLOW_START : PACING_GAIN;
+        int rate = Math.max(1, (int) (((long) cwnd) * gain / (100L * rtt)));
+        long elapsed = now - _lastPaced;
+        if (elapsed > 0) {
+            int burst = Math.max(cwnd / 4, MIN_PACING_BURST_PACKETS * getMTU());
+            // cap elapsed so it can't overflow
+            long tokens = _pacingTokens + Math.min(elapsed, 1000) * rate;
+            _pacingTokens = (int) Math.min(burst, tokens);
+            _lastPaced = now;
+        } else if (elapsed < 0) {
+            // clock shift
+            _lastPaced = now;
+        }
+        return rate;
+    }
+
     /**
      * Note that we just sent the SessionConfirmed packets
      * and save them for retransmission.
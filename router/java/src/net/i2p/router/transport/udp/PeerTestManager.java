@@ -678,7 +678,7 @@ class PeerTestManager {
         if (type != PEER_TEST_FLAG_BYTE)
             return;
         byte[] introKey = _transport.getSSU2StaticIntroKey();
-        ChaChaPolyCipherState chacha = new ChaChaPolyCipherState();
+        ChaChaPolyCipherState chacha = ChaChaPolyCipherState.getThreadInstance();
         chacha.initializeKey(introKey, 0);
         long n = DataHelper.fromLong(data, off + PKT_NUM_OFFSET, 4);
         chacha.setNonce(n);
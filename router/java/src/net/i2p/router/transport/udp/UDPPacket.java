@@ -10,6 +10,7 @@ import net.i2p.crypto.HMACGenerator;
 import net.i2p.data.Base64;
 import net.i2p.data.DataHelper;
 import net.i2p.data.SessionKey;
+import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.router.util.CDPQEntry;
@@ -184,10 +185,18 @@ class UDPPacket implements CDPQEntry {
     /** only for debugging and stats, does not go on the wire */
     void setMessageType(int type) { _messageType = type; }
 
-    /** only for debugging and stats */
+    /**
+     *  Debugging and stats, and as of 0.9.71 the outbound bandwidth class,
+     *  see requestOutboundBandwidth()
+     *
+     *  @return greater than zero for data packets
+     */
     int getFragmentCount() { return _fragmentCount; }
 
-    /** only for debugging and stats */
+    /**
+     *  Debugging and stats, and as of 0.9.71 the outbound bandwidth class.
+     *  Set by PacketBuilder2 for data packets.
+     */
     void setFragmentCount(int count) { _fragmentCount = count; }
 
     synchronized RemoteHostId getRemoteHost() {
@@ -249,11 +258,18 @@ class UDPPacket implements CDPQEntry {
      *  So that we can compete with NTCP, we want to request bandwidth
      *  in parallel, on the way into the queue, not on the way out.
      *  Call before enqueueing.
+     *
+     *  As of 0.9.71, packets without I2NP fragments (acks, handshakes,
+     *  peer tests, relay, termination) are requested at the highest priority,
+     *  so the limiter counts them as control traffic, not participating traffic,
+     *  whatever their priority in the send queue.
+     *
      *  @since 0.9.21
      */
     public synchronized void requestOutboundBandwidth() {
         verifyNotReleased();
-        _bandwidthRequest = _context.bandwidthLimiter().requestOutbound(_packet.getLength(), 0, "UDP sender");
+        int priority = _fragmentCount > 0 ? _priority : OutNetMessage.PRIORITY_HIGHEST;
+        _bandwidthRequest = _context.bandwidthLimiter().requestOutbound(_packet.getLength(), priority, "UDP sender");
     }
     
     /**
@@ -8,7 +8,7 @@ import java.util.concurrent.BlockingQueue;
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.FIFOBandwidthLimiter;
 //import net.i2p.router.util.CoDelBlockingQueue;
-import net.i2p.router.util.CoDelPriorityBlockingQueue;
+import net.i2p.router.util.CoDelMPSCPriorityQueue;
 import net.i2p.util.I2PThread;
 import net.i2p.util.Log;
 import net.i2p.util.SystemVersion;
@@ -48,7 +48,7 @@ class UDPSender {
         long maxMemory = SystemVersion.getMaxMemory();
         int qsize = (int) Math.max(MIN_QUEUE_SIZE, Math.min(MAX_QUEUE_SIZE, maxMemory / (1024*1024)));
         //_outboundQueue = new CoDelBlockingQueue<UDPPacket>(ctx, "UDP-Sender", qsize, CODEL_TARGET, CODEL_INTERVAL);
-        _outboundQueue = new CoDelPriorityBlockingQueue<UDPPacket>(ctx, "UDP-Sender", qsize, CODEL_TARGET, CODEL_INTERVAL);
+        _outboundQueue = new CoDelMPSCPriorityQueue<UDPPacket>(ctx, "UDP-Sender", qsize, CODEL_TARGET, CODEL_INTERVAL);
         _socket = socket;
         _runner = new Runner();
         _name = name;
@@ -173,7 +173,8 @@ class UDPSender {
 
     /**
      * Put it on the queue.
-     * BLOCKING if queue is full (backs up PacketPusher thread)
+     * Non-blocking. Drops and releases the packet if the queue is full,
+     * as callers include the packet handler and establishment threads.
      */
     public void add(UDPPacket packet) {
         if (packet == null || !_keepRunning) return;
@@ -192,9 +193,10 @@ class UDPSender {
             return;
         }
         packet.requestOutboundBandwidth();
-        try {
-            _outboundQueue.put(packet);
-        } catch (InterruptedException ie) {
+        if (!_outboundQueue.offer(packet)) {
+            _context.statManager().addRateData("udp.sendQueueFailed", 1);
+            if (_log.shouldInfo())
+                _log.info("Dropping UDP packet, send queue full: " + packet);
             packet.release();
             return;
         }
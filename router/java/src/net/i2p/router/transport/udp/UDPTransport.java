@@ -2199,6 +2199,8 @@ public class UDPTransport extends TransportImpl {
             long now = _context.clock().now();
             _context.statManager().addRateData("udp.droppedPeer", now - peer.getLastReceiveTime(), now - peer.getKeyEstablishedTime());
             altByIdent = _peersByIdent.remove(peer.getRemotePeer());
+            if (altByIdent != null)
+                connectionChanged(peer.getRemotePeer());
         }
 
         if (peer.getVersion() == 2) {
@@ -2,6 +2,8 @@ package net.i2p.router.tunnel;
 
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.data.Hash;
 import net.i2p.data.TunnelId;
@@ -9,7 +11,7 @@ import net.i2p.data.i2np.I2NPMessage;
 import net.i2p.router.Router;
 import net.i2p.router.RouterContext;
 import net.i2p.router.util.CoDelBlockingQueue;
-import net.i2p.router.util.CoDelPriorityBlockingQueue;
+import net.i2p.router.util.CoDelMPSCPriorityQueue;
 import net.i2p.util.Log;
 
 /**
@@ -40,6 +42,13 @@ class PumpedTunnelGateway extends TunnelGateway {
     private final TunnelGatewayPumper _pumper;
     private final boolean _isInbound;
     private final Hash _nextHop;
+
+    /** TunnelGatewayPumper state, so we're only queued once */
+    final AtomicInteger _pumpState = new AtomicInteger();
+    /** TunnelGatewayPumper wheel deadlines, LOCKING: the wheel */
+    long _requeueAt, _flushAt;
+    /** set by the TunnelGatewayPumper wheel, the next pump should flush even if nothing was added */
+    final AtomicBoolean _flushDue = new AtomicBoolean();
     
     /**
      *  warning - these limit total messages per second throughput due to
@@ -47,7 +56,14 @@ class PumpedTunnelGateway extends TunnelGateway {
      */
     private static final int MAX_OB_MSGS_PER_PUMP = 64;
     private static final int MAX_IB_MSGS_PER_PUMP = 24;
-    private static final int INITIAL_OB_QUEUE = 64;
+    /**
+     *  As of 0.9.71, the OBGW queue is bounded, it was unbounded before.
+     *  The array buckets are allocated up front, so this can't be huge.
+     *  512 is 8 full pumps, about 400 ms at the max OB rate of
+     *  MAX_OB_MSGS_PER_PUMP per REQUEUE_TIME, long after CoDel starts dropping.
+     *  Overflow is counted in tunnel.dropGatewayOverflow, as for IBGWs.
+     */
+    private static final int MAX_OB_QUEUE = 512;
     private static final int MAX_IB_QUEUE = 1024;
 
     /**
@@ -63,13 +79,16 @@ class PumpedTunnelGateway extends TunnelGateway {
                                Sender sender, Receiver receiver, TunnelGatewayPumper pumper) {
         super(context, preprocessor, sender, receiver);
         if (getClass() == PumpedTunnelGateway.class) {
-            // Unbounded priority queue for outbound
+            // Bounded priority queue for outbound, lock-free,
+            // as we are only pumped by one TunnelGatewayPumper thread at a time
             // fixme lint PendingGatewayMessage is not a CDPQEntry
-            _prequeue = new CoDelPriorityBlockingQueue(context, "OBGW", INITIAL_OB_QUEUE);
+            _prequeue = new CoDelMPSCPriorityQueue(context, "OBGW", MAX_OB_QUEUE);
             _nextHop = receiver.getSendTo();
             _isInbound = false;
         } else if (receiver != null) {  // extended by ThrottledPTG for IB
-            // Bounded non-priority queue for inbound
+            // Bounded non-priority queue for inbound.
+            // Not a CoDelMPSCQueue, there may be thousands of these, most nearly idle,
+            // and the array would be allocated up front.
             _prequeue = new CoDelBlockingQueue<PendingGatewayMessage>(context, "IBGW", MAX_IB_QUEUE);
             _nextHop = receiver.getSendTo();
             _isInbound = true;
@@ -103,16 +122,22 @@ class PumpedTunnelGateway extends TunnelGateway {
 
     protected void add(PendingGatewayMessage cur) {
         _messagesSent++;
-        if (_prequeue.offer(cur))
+        if (_prequeue.offer(cur)) {
             _pumper.wantsPumping(this);
-        else
+        } else {
             _context.statManager().addRateData("tunnel.dropGatewayOverflow", 1);
+            // our own traffic
+            if (!_isInbound && _log.shouldWarn())
+                _log.warn("OBGW queue full, dropping " + cur);
+        }
     }
 
     /**
      * run in one of the TunnelGatewayPumper's threads, this pulls pending messages
      * off the prequeue, adds them to the queue and then tries to preprocess the queue,
-     * scheduling a later delayed flush as necessary.  this allows the gw.add call to
+     * scheduling a later delayed flush as necessary.
+     * As of 0.9.71, the delayed flush is also done here, on the pumper's timing wheel,
+     * instead of in a timer thread.  this allows the gw.add call to
      * go quickly, rather than blocking its callers on potentially substantial
      * processing.
      *
@@ -134,7 +159,8 @@ class PumpedTunnelGateway extends TunnelGateway {
         else
             max = _isInbound ? MAX_IB_MSGS_PER_PUMP : MAX_OB_MSGS_PER_PUMP;
         _prequeue.drainTo(queueBuf, max);
-        if (queueBuf.isEmpty())
+        boolean flush = _flushDue.getAndSet(false);
+        if (queueBuf.isEmpty() && !flush)
             return false;
         boolean rv = !_prequeue.isEmpty();
 
@@ -183,7 +209,7 @@ class PumpedTunnelGateway extends TunnelGateway {
         }
         
         if (delayedFlush) {
-            _delayedFlush.reschedule(delayAmount);
+            _pumper.scheduleFlush(this, delayAmount);
         }
         //_context.statManager().addRateData("tunnel.lockedGatewayAdd", afterAdded-beforeLock, remaining);
         if (debug) {
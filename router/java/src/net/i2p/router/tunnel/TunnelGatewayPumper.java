@@ -1,56 +1,80 @@
 package net.i2p.router.tunnel;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.router.RouterContext;
 import net.i2p.util.I2PThread;
-import net.i2p.util.SimpleTimer;
+import net.i2p.util.Log;
 import net.i2p.util.SystemVersion;
 
 /**
  * Run through the tunnel gateways that have had messages added to them and push
  * those messages through the preprocessing and sending process.
  *
- * TODO do we need this many threads?
+ * As of 0.9.71, there is no global lock. Gateways with work go on a
+ * lock-free ready queue, and an atomic state in each gateway makes sure
+ * it is only queued or pumped by one thread at a time.
+ * Backlogged gateways and delayed flushes wait on a timing wheel
+ * with one thread, instead of a timer event for each,
+ * and the flushes are done by the pumper threads.
+ *
  * TODO this combines IBGWs and OBGWs, do we wish to separate the two
  * and/or prioritize OBGWs (i.e. our outbound traffic) over IBGWs (participating)?
  */
 class TunnelGatewayPumper implements Runnable {
     private final RouterContext _context;
-    private final Set<PumpedTunnelGateway> _wantsPumping;
-    private final Set<PumpedTunnelGateway> _backlogged;
+    private final Log _log;
+    private final LinkedTransferQueue<PumpedTunnelGateway> _ready;
     private final List<Thread> _threads;
+    private final Wheel _wheel;
     private volatile boolean _stop;
     private static final int MIN_PUMPERS = 1;
-    private static final int MAX_PUMPERS = 4;
+    private static final int MAX_PUMPERS = 8;
     private final int _pumpers;
 
+    /** PumpedTunnelGateway pump states */
+    static final int STATE_IDLE = 0;
+    /** on the ready queue */
+    static final int STATE_QUEUED = 1;
+    static final int STATE_RUNNING = 2;
+    /** running, and more work came in */
+    static final int STATE_RUNNING_DIRTY = 3;
+    /** waiting on the wheel for REQUEUE_TIME */
+    static final int STATE_BACKLOGGED = 4;
+
     /**
      *  Wait just a little, but this lets the pumper queue back up.
      *  See additional comments in PTG.
      */
     private static final long REQUEUE_TIME = 50;
-    
+    /** timing wheel resolution and size */
+    private static final int TICK = 10;
+    private static final int SLOTS = 64;
+
     /** Creates a new instance of TunnelGatewayPumper */
     public TunnelGatewayPumper(RouterContext ctx) {
         _context = ctx;
-        _wantsPumping = new LinkedHashSet<PumpedTunnelGateway>(16);
-        _backlogged = new HashSet<PumpedTunnelGateway>(16);
+        _log = ctx.logManager().getLog(TunnelGatewayPumper.class);
+        _ready = new LinkedTransferQueue<PumpedTunnelGateway>();
         _threads = new CopyOnWriteArrayList<Thread>();
         if (ctx.getBooleanProperty("i2p.dummyTunnelManager")) {
             _pumpers = 1;
         } else {
             long maxMemory = SystemVersion.getMaxMemory();
-            _pumpers = (int) Math.max(MIN_PUMPERS, Math.min(MAX_PUMPERS, 1 + (maxMemory / (32*1024*1024))));
+            int byMemory = (int) (1 + (maxMemory / (32*1024*1024)));
+            int byCores = Math.max(2, SystemVersion.getCores());
+            _pumpers = Math.max(MIN_PUMPERS, Math.min(MAX_PUMPERS, Math.min(byMemory, byCores)));
         }
+        _wheel = new Wheel(this);
+        Thread t = new I2PThread(_wheel, "Tunnel GW timer", true);
+        _threads.add(t);
+        t.start();
         for (int i = 0; i < _pumpers; i++) {
-            Thread t = new I2PThread(this, "Tunnel GW pumper " + (i+1) + '/' + _pumpers, true);
+            t = new I2PThread(this, "Tunnel GW pumper " + (i+1) + '/' + _pumpers, true);
             _threads.add(t);
             t.start();
         }
@@ -58,12 +82,13 @@ class TunnelGatewayPumper implements Runnable {
 
     public void stopPumping() {
         _stop=true;
-        _wantsPumping.clear();
+        _ready.clear();
+        _wheel.stop();
         for (int i = 0; i < _pumpers; i++) {
             PumpedTunnelGateway poison = new PoisonPTG(_context);
-            wantsPumping(poison);
+            _ready.offer(poison);
         }
-        for (int i = 1; i <= 5 && !_wantsPumping.isEmpty(); i++) {
+        for (int i = 1; i <= 5 && !_ready.isEmpty(); i++) {
             try {
                 Thread.sleep(i * 50);
             } catch (InterruptedException ie) {}
@@ -72,18 +97,48 @@ class TunnelGatewayPumper implements Runnable {
             t.interrupt();
         }
         _threads.clear();
-        _wantsPumping.clear();
+        _ready.clear();
     }
-    
+
+    /**
+     *  Put the gateway on the ready queue, unless it is already there,
+     *  or being pumped (it will be requeued after), or backlogged
+     *  (it will be requeued when the wait is over).
+     *  Lock-free.
+     */
     public void wantsPumping(PumpedTunnelGateway gw) {
-        if (!_stop) {
-            synchronized (_wantsPumping) {
-                if ((!_backlogged.contains(gw)) && _wantsPumping.add(gw))
-                    _wantsPumping.notify();
+        if (_stop)
+            return;
+        AtomicInteger state = gw._pumpState;
+        while (true) {
+            int s = state.get();
+            if (s == STATE_IDLE) {
+                if (state.compareAndSet(STATE_IDLE, STATE_QUEUED)) {
+                    _ready.offer(gw);
+                    return;
+                }
+            } else if (s == STATE_RUNNING) {
+                if (state.compareAndSet(STATE_RUNNING, STATE_RUNNING_DIRTY))
+                    return;
+            } else {
+                // queued, dirty, or backlogged
+                return;
             }
         }
     }
-    
+
+    /**
+     *  Pump the gateway after a delay, to flush what the preprocessor is holding back.
+     *  If a flush is already scheduled sooner, that one stands.
+     *
+     *  @param delay ms
+     *  @since 0.9.71, replaces TunnelGateway.DelayedFlush for PTGs
+     */
+    public void scheduleFlush(PumpedTunnelGateway gw, long delay) {
+        if (!_stop)
+            _wheel.schedule(gw, false, delay);
+    }
+
     public void run() {
         try {
             run2();
@@ -93,48 +148,222 @@ class TunnelGatewayPumper implements Runnable {
     }
 
     private void run2() {
-        PumpedTunnelGateway gw = null;
         List<PendingGatewayMessage> queueBuf = new ArrayList<PendingGatewayMessage>(32);
-        boolean requeue = false;
         while (!_stop) {
+            PumpedTunnelGateway gw;
+            try {
+                gw = _ready.take();
+            } catch (InterruptedException ie) {
+                continue;
+            }
+            if (gw.getMessagesSent() == POISON_PTG)
+                break;
+            AtomicInteger state = gw._pumpState;
+            state.set(STATE_RUNNING);
+            boolean requeue;
             try {
-                synchronized (_wantsPumping) {
-                    if (requeue && gw != null) {
-                        // in case another packet came in
-                        _wantsPumping.remove(gw);
-                        if (_backlogged.add(gw))
-                            _context.simpleTimer2().addEvent(new Requeue(gw), REQUEUE_TIME);
-                    }
-                    gw = null;
-                    if (_wantsPumping.isEmpty()) {
-                        _wantsPumping.wait();
-                    } else {
-                        Iterator<PumpedTunnelGateway> iter = _wantsPumping.iterator();
-                        gw = iter.next();
-                        iter.remove();
-                    }
-                }
-            } catch (InterruptedException ie) {}
-            if (gw != null) {
-                if (gw.getMessagesSent() == POISON_PTG)
-                    break;
                 requeue = gw.pump(queueBuf);
+            } catch (RuntimeException re) {
+                _log.error("Error pumping " + gw, re);
+                queueBuf.clear();
+                requeue = false;
+            }
+            if (requeue) {
+                // in case another packet came in, it will go then too
+                state.set(STATE_BACKLOGGED);
+                _wheel.schedule(gw, true, REQUEUE_TIME);
+            } else if (!state.compareAndSet(STATE_RUNNING, STATE_IDLE)) {
+                // dirty, more came in while we were pumping
+                state.set(STATE_QUEUED);
+                _ready.offer(gw);
             }
         }
     }
 
-    private class Requeue implements SimpleTimer.TimedEvent {
-        private final PumpedTunnelGateway _ptg;
+    /**
+     *  Called from the wheel when the backlog wait is over
+     */
+    private void requeue(PumpedTunnelGateway gw) {
+        if (gw._pumpState.compareAndSet(STATE_BACKLOGGED, STATE_QUEUED))
+            _ready.offer(gw);
+    }
+
+    /**
+     *  Hashed timing wheel for the backlog requeues and delayed flushes,
+     *  TICK ms per slot. Each gateway has at most one requeue and one flush
+     *  deadline, kept in the gateway. A slot may hold stale entries for
+     *  deadlines that have since moved, they are checked and skipped.
+     *  Delays beyond the end of the wheel go in the last slot and are put back.
+     *  If the thread falls more than once around behind, e.g. after a GC pause,
+     *  it skips ahead and checks every slot once.
+     *  Uses the monotonic clock, as the delays are all relative.
+     *
+     *  Package private for testing.
+     *
+     *  @since 0.9.71 replaces the Requeue timer events
+     */
+    static class Wheel implements Runnable {
+        private final TunnelGatewayPumper _pumper;
+        private final List<List<PumpedTunnelGateway>> _slots;
+        /** the slot being checked, LOCKING: this */
+        private final List<PumpedTunnelGateway> _current;
+        /** the last tick processed, LOCKING: this */
+        private long _tick;
+        private int _count;
+        private boolean _running = true;
 
-        public Requeue(PumpedTunnelGateway ptg) {
-            _ptg = ptg;
+        /**
+         *  @param pumper may be null for testing, if run() is not called
+         */
+        public Wheel(TunnelGatewayPumper pumper) {
+            _pumper = pumper;
+            _slots = new ArrayList<List<PumpedTunnelGateway>>(SLOTS);
+            for (int i = 0; i < SLOTS; i++) {
+                _slots.add(new ArrayList<PumpedTunnelGateway>(8));
+            }
+            _current = new ArrayList<PumpedTunnelGateway>(8);
+            _tick = now() / TICK;
+        }
+
+        /** ms, package private for testing */
+        long now() {
+            return System.nanoTime() / 1000000;
+        }
+
+        /**
+         *  @param isRequeue true for a backlog requeue, false for a flush
+         *  @param delay ms
+         */
+        public synchronized void schedule(PumpedTunnelGateway gw, boolean isRequeue, long delay) {
+            long now = now();
+            long when = now + delay;
+            if (isRequeue) {
+                gw._requeueAt = when;
+            } else {
+                long cur = gw._flushAt;
+                if (cur > 0 && cur <= when)
+                    return;
+                gw._flushAt = when;
+            }
+            boolean wasEmpty = _count == 0;
+            if (wasEmpty)
+                _tick = Math.max(_tick, (now / TICK) - 1);
+            insert(gw, when);
+            if (wasEmpty)
+                notifyAll();
+        }
+
+        /** caller must synch */
+        private void insert(PumpedTunnelGateway gw, long when) {
+            // round up, and always in a future slot
+            long tick = (when + TICK - 1) / TICK;
+            tick = Math.max(_tick + 1, Math.min(_tick + SLOTS, tick));
+            _slots.get((int) (tick % SLOTS)).add(gw);
+            _count++;
+        }
+
+        /** package private for testing */
+        synchronized int size() {
+            return _count;
+        }
+
+        public synchronized void stop() {
+            _running = false;
+            for (int i = 0; i < SLOTS; i++) {
+                _slots.get(i).clear();
+            }
+            _count = 0;
+            notifyAll();
+        }
+
+        public void run() {
+            List<PumpedTunnelGateway> requeues = new ArrayList<PumpedTunnelGateway>(32);
+            List<PumpedTunnelGateway> flushes = new ArrayList<PumpedTunnelGateway>(32);
+            while (true) {
+                synchronized (this) {
+                    if (!_running)
+                        return;
+                    long now = now();
+                    if (_count <= 0) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ie) {}
+                        continue;
+                    }
+                    long nowTick = now / TICK;
+                    if (nowTick <= _tick) {
+                        try {
+                            wait(((_tick + 1) * TICK) - now);
+                        } catch (InterruptedException ie) {}
+                        continue;
+                    }
+                    advance(now, requeues, flushes);
+                }
+                // outside the lock
+                for (int i = 0; i < requeues.size(); i++) {
+                    _pumper.requeue(requeues.get(i));
+                }
+                requeues.clear();
+                // if backlogged, it will be flushed when requeued
+                for (int i = 0; i < flushes.size(); i++) {
+                    _pumper.wantsPumping(flushes.get(i));
+                }
+                flushes.clear();
+            }
         }
 
-        public void timeReached() {
-            synchronized (_wantsPumping) {
-                _backlogged.remove(_ptg);
-                if (_wantsPumping.add(_ptg))
-                    _wantsPumping.notify();
+        /**
+         *  Check the slots up to now, and collect the gateways that are due.
+         *  Each slot is checked at most once, and entries put back go in
+         *  a later slot or the next time around, so this always finishes.
+         *  Package private for testing.
+         *
+         *  @param now ms
+         *  @param requeues out parameter, gateways whose backlog wait is over
+         *  @param flushes out parameter, gateways to flush, _flushDue is set
+         */
+        synchronized void advance(long now, List<PumpedTunnelGateway> requeues, List<PumpedTunnelGateway> flushes) {
+            long nowTick = now / TICK;
+            // more than once around behind, skip ahead
+            if (nowTick - _tick > SLOTS)
+                _tick = nowTick - SLOTS;
+            while (_tick < nowTick) {
+                _tick++;
+                List<PumpedTunnelGateway> slot = _slots.get((int) (_tick % SLOTS));
+                if (slot.isEmpty())
+                    continue;
+                // move them out first, an entry put back may go in this slot,
+                // for the next time around
+                _current.addAll(slot);
+                slot.clear();
+                _count -= _current.size();
+                for (int i = 0; i < _current.size(); i++) {
+                    PumpedTunnelGateway gw = _current.get(i);
+                    // An entry at its own tick is always due.
+                    // One that isn't is either past the end of the wheel,
+                    // or stale with another entry for the new deadline;
+                    // put it back either way, extras are skipped.
+                    long req = gw._requeueAt;
+                    if (req > 0) {
+                        if (req <= now) {
+                            gw._requeueAt = 0;
+                            requeues.add(gw);
+                        } else {
+                            insert(gw, req);
+                        }
+                    }
+                    long flush = gw._flushAt;
+                    if (flush > 0) {
+                        if (flush <= now) {
+                            gw._flushAt = 0;
+                            gw._flushDue.set(true);
+                            flushes.add(gw);
+                        } else {
+                            insert(gw, flush);
+                        }
+                    }
+                }
+                _current.clear();
             }
         }
     }
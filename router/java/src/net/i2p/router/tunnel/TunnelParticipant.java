@@ -100,11 +100,14 @@ class TunnelParticipant {
     
     public void dispatch(TunnelDataMessage msg, Hash recvFrom) {
         boolean ok = false;
-        byte[] data = msg.getData();
-        if (_processor != null)
-            ok = _processor.process(data, 0, data.length, recvFrom);
-        else if (_inboundEndpointProcessor != null) 
+        byte[] data = null;
+        if (_processor != null) {
+            // decrypt in place, in the receive buffer if the message was read from one
+            ok = _processor.process(msg.getDataArray(), msg.getDataOffset(), TunnelDataMessage.DATA_SIZE, recvFrom);
+        } else if (_inboundEndpointProcessor != null) {
+            data = msg.getData();
             ok = _inboundEndpointProcessor.retrievePreprocessedData(data, 0, data.length, recvFrom);
+        }
         
         if (!ok) {
             if (_log.shouldLog(Log.WARN))
@@ -0,0 +1,195 @@
+package net.i2p.router.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *  Bounded, array-backed, lock-free multi-producer, single-consumer queue.
+ *  No allocation per entry.
+ *
+ *  Producers claim a slot by CAS on the producer index and then store into it.
+ *  The consumer reads the slot at the consumer index, waiting briefly if a
+ *  producer has claimed it but not yet stored.
+ *
+ *  Removal (poll(), take(), drainTo(), clear()) is serialized by the lock on this,
+ *  which is uncontended when there is a single consumer thread,
+ *  so it is also safe, but slower, with several.
+ *  peek(), size(), and iterator() may be called from any thread,
+ *  and are approximate under concurrent modification.
+ *  remove(Object) is not supported.
+ *
+ *  @since 0.9.71
+ */
+public class MPSCArrayQueue<E> extends MPSCBlockingQueue<E> {
+
+    private final AtomicReferenceArray<E> _buf;
+    private final int _mask;
+    private final int _capacity;
+    /** next slot to claim, CAS by producers */
+    private final AtomicLong _producerIndex = new AtomicLong();
+    /** next slot to remove, written only with the lock on this */
+    private final AtomicLong _consumerIndex = new AtomicLong();
+
+    /**
+     *  @param capacity the maximum number of entries, the array will be the next power of 2
+     */
+    public MPSCArrayQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException();
+        int sz = 1;
+        while (sz < capacity) {
+            sz <<= 1;
+        }
+        _buf = new AtomicReferenceArray<E>(sz);
+        _mask = sz - 1;
+        _capacity = capacity;
+    }
+
+    public int capacity() {
+        return _capacity;
+    }
+
+    /**
+     *  Non-blocking, lock-free.
+     *  @return false if full
+     */
+    public boolean offer(E o) {
+        if (!enqueue(o))
+            return false;
+        signalNotEmpty();
+        return true;
+    }
+
+    /**
+     *  Non-blocking.
+     */
+    public E poll() {
+        E rv;
+        synchronized (this) {
+            rv = dequeue();
+        }
+        if (rv != null)
+            signalNotFull();
+        return rv;
+    }
+
+    /**
+     *  Overridden to remove in one pass under the lock.
+     *  Subclasses overriding poll() should override this too.
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int rv = 0;
+        synchronized (this) {
+            E e;
+            while (rv < maxElements && (e = dequeue()) != null) {
+                c.add(e);
+                rv++;
+            }
+        }
+        if (rv > 0)
+            signalNotFull();
+        return rv;
+    }
+
+    /**
+     *  Removes all, without any subclass processing.
+     */
+    @Override
+    public void clear() {
+        synchronized (this) {
+            while (dequeue() != null) {}
+        }
+        signalNotFull();
+    }
+
+    /**
+     *  @return the head or null; may be stale by the time it is returned
+     */
+    public E peek() {
+        return _buf.get((int) _consumerIndex.get() & _mask);
+    }
+
+    public int size() {
+        // read consumer first, so the difference is never negative
+        long ci = _consumerIndex.get();
+        long pi = _producerIndex.get();
+        return (int) Math.min(_capacity, Math.max(0, pi - ci));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return _producerIndex.get() == _consumerIndex.get();
+    }
+
+    /**
+     *  A snapshot, for debugging. Unmodifiable.
+     */
+    public Iterator<E> iterator() {
+        List<E> rv;
+        synchronized (this) {
+            long ci = _consumerIndex.get();
+            long pi = _producerIndex.get();
+            rv = new ArrayList<E>((int) (pi - ci));
+            for (long i = ci; i < pi; i++) {
+                E e = _buf.get((int) i & _mask);
+                if (e == null)
+                    break;
+                rv.add(e);
+            }
+        }
+        return Collections.unmodifiableList(rv).iterator();
+    }
+
+    /////// for subclasses in this package below here
+
+    /**
+     *  Add without signalling.
+     *  Lock-free, any thread.
+     *
+     *  @return false if full
+     */
+    final boolean enqueue(E o) {
+        if (o == null)
+            throw new NullPointerException();
+        long pi;
+        do {
+            pi = _producerIndex.get();
+            // the consumer clears a slot before it advances past it,
+            // so any slot below ci + capacity is free
+            if (pi - _consumerIndex.get() >= _capacity)
+                return false;
+        } while (!_producerIndex.compareAndSet(pi, pi + 1));
+        _buf.lazySet((int) pi & _mask, o);
+        return true;
+    }
+
+    /**
+     *  Remove without signalling.
+     *  Caller must hold the lock on this (or otherwise ensure a single consumer).
+     *
+     *  @return null if empty
+     */
+    final E dequeue() {
+        long ci = _consumerIndex.get();
+        int idx = (int) ci & _mask;
+        E rv = _buf.get(idx);
+        if (rv == null) {
+            if (ci == _producerIndex.get())
+                return null;
+            // claimed but not yet stored, the producer is between two instructions
+            do {
+                Thread.yield();
+                rv = _buf.get(idx);
+            } while (rv == null);
+        }
+        _buf.lazySet(idx, null);
+        _consumerIndex.lazySet(ci + 1);
+        return rv;
+    }
+}
@@ -0,0 +1,173 @@
+package net.i2p.router.util;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Blocking methods for the lock-free multi-producer, single-consumer queues.
+ *  Subclasses implement the non-blocking offer(), poll(), peek(), size() and iterator(),
+ *  and call signalNotEmpty() after adding and signalNotFull() after removing.
+ *
+ *  Producers never take a lock unless a consumer is waiting on an empty queue.
+ *  The consumer never takes a lock shared with producers
+ *  unless a producer is waiting on a full queue.
+ *
+ *  @since 0.9.71
+ */
+public abstract class MPSCBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final Object _notEmpty = new Object();
+    private final Object _notFull = new Object();
+    /** LOCKING: _notEmpty for writes */
+    private volatile int _takeWaiters;
+    /** LOCKING: _notFull for writes */
+    private volatile int _putWaiters;
+
+    /**
+     *  A consumer's index update is not a full fence, so a put() may miss the signal.
+     *  Don't wait longer than this before checking again.
+     */
+    private static final long MAX_PUT_WAIT = 10;
+
+    /**
+     *  @return the maximum number of entries
+     */
+    public abstract int capacity();
+
+    public int remainingCapacity() {
+        return Math.max(0, capacity() - size());
+    }
+
+    /**
+     *  Blocks until added
+     */
+    public void put(E o) throws InterruptedException {
+        while (!offer(o)) {
+            awaitNotFull(MAX_PUT_WAIT);
+        }
+    }
+
+    /**
+     *  Blocks until added or timeout
+     */
+    public boolean offer(E o, long timeout, TimeUnit unit) throws InterruptedException {
+        if (offer(o))
+            return true;
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long remaining = (end - System.nanoTime()) / 1000000;
+            if (remaining <= 0)
+                return false;
+            awaitNotFull(Math.min(remaining, MAX_PUT_WAIT));
+            if (offer(o))
+                return true;
+        }
+    }
+
+    public E take() throws InterruptedException {
+        E rv;
+        while ((rv = poll()) == null) {
+            awaitNotEmpty(0);
+        }
+        return rv;
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E rv = poll();
+        if (rv != null)
+            return rv;
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long remaining = (end - System.nanoTime()) / 1000000;
+            if (remaining <= 0)
+                return null;
+            awaitNotEmpty(remaining);
+            rv = poll();
+            if (rv != null)
+                return rv;
+        }
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     *  Via poll(), so subclass processing is done on each entry.
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int rv = 0;
+        E e;
+        while (rv < maxElements && (e = poll()) != null) {
+            c.add(e);
+            rv++;
+        }
+        return rv;
+    }
+
+    /////// for subclasses below here
+
+    /**
+     *  Wake a waiting consumer, if any.
+     *  Call after every successful add.
+     */
+    protected final void signalNotEmpty() {
+        if (_takeWaiters > 0) {
+            synchronized (_notEmpty) {
+                _notEmpty.notifyAll();
+            }
+        }
+    }
+
+    /**
+     *  Wake a waiting producer, if any.
+     *  Call after every successful remove.
+     */
+    protected final void signalNotFull() {
+        if (_putWaiters > 0) {
+            synchronized (_notFull) {
+                _notFull.notifyAll();
+            }
+        }
+    }
+
+    /////// private below here
+
+    /**
+     *  Returns on a signal, on timeout, or at once if not empty
+     *
+     *  @param timeout ms, 0 forever
+     */
+    private void awaitNotEmpty(long timeout) throws InterruptedException {
+        synchronized (_notEmpty) {
+            // volatile write then volatile read, pairs with the producer's
+            // index update then read of _takeWaiters, so one of us sees the other
+            _takeWaiters++;
+            try {
+                if (isEmpty())
+                    _notEmpty.wait(timeout);
+            } finally {
+                _takeWaiters--;
+            }
+        }
+    }
+
+    /**
+     *  Returns on a signal, on timeout, or at once if not full
+     *
+     *  @param timeout ms, greater than zero
+     */
+    private void awaitNotFull(long timeout) throws InterruptedException {
+        synchronized (_notFull) {
+            _putWaiters++;
+            try {
+                if (size() >= capacity())
+                    _notFull.wait(timeout);
+            } finally {
+                _putWaiters--;
+            }
+        }
+    }
+}
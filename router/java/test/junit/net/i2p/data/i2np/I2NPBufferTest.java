@@ -0,0 +1,147 @@
+package net.i2p.data.i2np;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.ByteArray;
+import net.i2p.data.DataHelper;
+import net.i2p.util.ByteCache;
+
+/**
+ * Messages read as slices of a shared buffer
+ *
+ * @since 0.9.71
+ */
+public class I2NPBufferTest {
+
+    private final I2PAppContext _context = I2PAppContext.getGlobalContext();
+
+    private TunnelDataMessage createTDM(long id) {
+        TunnelDataMessage msg = new TunnelDataMessage(_context);
+        byte[] data = new byte[TunnelDataMessage.DATA_SIZE];
+        _context.random().nextBytes(data);
+        msg.setData(data);
+        msg.setTunnelId(id);
+        msg.setUniqueId(_context.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+        return msg;
+    }
+
+    /** two messages back to back, after some junk */
+    private static byte[] frame(I2NPMessage m1, I2NPMessage m2, int[] offsets) {
+        byte[] rv = new byte[7 + m1.getMessageSize() + m2.getMessageSize()];
+        offsets[0] = 7;
+        offsets[1] = m1.toRawByteArrayNTCP2(rv, offsets[0]);
+        offsets[2] = m2.toRawByteArrayNTCP2(rv, offsets[1]);
+        return rv;
+    }
+
+    @Test
+    public void testTunnelDataSlice() throws Exception {
+        TunnelDataMessage orig1 = createTDM(1234);
+        TunnelDataMessage orig2 = createTDM(5678);
+        int[] off = new int[3];
+        byte[] buf = frame(orig1, orig2, off);
+        I2NPBuffer ibuf = new I2NPBuffer(buf);
+        TunnelDataMessage msg1 = (TunnelDataMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, off[0], off[1] - off[0]);
+        TunnelDataMessage msg2 = (TunnelDataMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, off[1], off[2] - off[1]);
+        assertTrue(ibuf.isShared());
+        ibuf.release();
+
+        assertEquals(1234, msg1.getTunnelId());
+        assertEquals(orig1.getUniqueId(), msg1.getUniqueId());
+        assertSame(buf, msg1.getDataArray());
+        assertTrue(DataHelper.eq(orig1.getData(), 0, buf, msg1.getDataOffset(), TunnelDataMessage.DATA_SIZE));
+
+        // modify in place and forward, as a participant does
+        msg1.getDataArray()[msg1.getDataOffset()] ^= 0x55;
+        msg1.setTunnelId(999);
+        byte[] out = new byte[msg1.getMessageSize()];
+        int len = msg1.toRawByteArrayNTCP2(out, 0);
+        TunnelDataMessage fwd = (TunnelDataMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(_context, out, 0, len, null);
+        assertEquals(999, fwd.getTunnelId());
+        byte[] expected = orig1.getData().clone();
+        expected[0] ^= 0x55;
+        assertTrue(DataHelper.eq(expected, fwd.getData()));
+
+        // the neighbor is untouched, and copies out on getData()
+        byte[] data2 = msg2.getData();
+        assertNotSame(buf, data2);
+        assertEquals(0, msg2.getDataOffset());
+        assertTrue(DataHelper.eq(orig2.getData(), data2));
+    }
+
+    @Test
+    public void testGarlicSlice() throws Exception {
+        GarlicMessage orig = new GarlicMessage(_context);
+        byte[] data = new byte[567];
+        _context.random().nextBytes(data);
+        orig.setData(data);
+        TunnelDataMessage tdm = createTDM(42);
+        int[] off = new int[3];
+        byte[] buf = frame(orig, tdm, off);
+        I2NPBuffer ibuf = new I2NPBuffer(buf);
+        GarlicMessage msg = (GarlicMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, off[0], off[1] - off[0]);
+        ibuf.release();
+
+        // written out from the slice, without copying it out first
+        byte[] out = new byte[msg.getMessageSize()];
+        int len = msg.toRawByteArrayNTCP2(out, 0);
+        assertEquals(off[1] - off[0], len);
+        // type and ID, then the body; the expiration gets rounded up
+        assertTrue(DataHelper.eq(buf, off[0], out, 0, 5));
+        assertTrue(DataHelper.eq(buf, off[0] + 9, out, 9, len - 9));
+        assertTrue(DataHelper.eq(data, msg.getData()));
+        assertEquals(orig, msg);
+    }
+
+    @Test
+    public void testOtherTypesCopy() throws Exception {
+        DeliveryStatusMessage orig = new DeliveryStatusMessage(_context);
+        orig.setMessageId(12345);
+        orig.setArrival(_context.clock().now());
+        TunnelDataMessage tdm = createTDM(42);
+        int[] off = new int[3];
+        byte[] buf = frame(orig, tdm, off);
+        I2NPBuffer ibuf = new I2NPBuffer(buf);
+        I2NPMessage msg = I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, off[0], off[1] - off[0]);
+        assertFalse(ibuf.isShared());
+        assertTrue(ibuf.release());
+        assertEquals(12345, ((DeliveryStatusMessage) msg).getMessageId());
+    }
+
+    @Test
+    public void testReleaseToCache() throws Exception {
+        ByteCache cache = ByteCache.getInstance(4, 8*1024);
+        ByteArray ba = cache.acquire();
+        TunnelDataMessage orig = createTDM(42);
+        int len = orig.toRawByteArrayNTCP2(ba.getData(), 0);
+        I2NPBuffer ibuf = new I2NPBuffer(ba, cache);
+        TunnelDataMessage msg = (TunnelDataMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, 0, len);
+        assertFalse(ibuf.release());
+        // copies out and drops the last reference
+        assertTrue(DataHelper.eq(orig.getData(), msg.getData()));
+        try {
+            ibuf.retain();
+            fail("use after free");
+        } catch (IllegalStateException expected) {}
+    }
+
+    @Test
+    public void testBadLength() throws Exception {
+        TunnelDataMessage orig = createTDM(42);
+        byte[] buf = new byte[orig.getMessageSize()];
+        int len = orig.toRawByteArrayNTCP2(buf, 0);
+        I2NPBuffer ibuf = new I2NPBuffer(buf);
+        try {
+            I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, 0, len - 1);
+            fail("short message");
+        } catch (I2NPMessageException expected) {}
+        try {
+            I2NPMessageImpl.fromRawByteArrayNTCP2(_context, ibuf, 1, buf.length);
+            fail("overrun");
+        } catch (I2NPMessageException expected) {}
+        assertFalse(ibuf.isShared());
+    }
+}
@@ -0,0 +1,126 @@
+package net.i2p.data.router;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import net.i2p.data.DataFormatException;
+import net.i2p.data.DataHelper;
+import net.i2p.util.OrderedProperties;
+
+/**
+ * @since 0.9.71
+ */
+public class CompactOptionsTest {
+
+    private static Properties props() {
+        Properties p = new Properties();
+        p.setProperty("router.version", "0.9.71");
+        p.setProperty("caps", "XfR");
+        p.setProperty("netId", "2");
+        p.setProperty("netdb.knownLeaseSets", "37");
+        return p;
+    }
+
+    @Test
+    public void testSortedLookup() {
+        CompactOptions opts = CompactOptions.from(props());
+        assertEquals(4, opts.size());
+        assertEquals("XfR", opts.getProperty("caps"));
+        assertEquals("2", opts.get("netId"));
+        assertNull(opts.getProperty("host"));
+        assertFalse(opts.containsKey("foo"));
+        Iterator<Map.Entry<Object, Object>> iter = opts.entrySet().iterator();
+        assertEquals("caps", iter.next().getKey());
+        assertEquals("netId", iter.next().getKey());
+        assertEquals("netdb.knownLeaseSets", iter.next().getKey());
+        assertEquals("router.version", iter.next().getKey());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testSameBytes() throws Exception {
+        Properties p = props();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataHelper.writeProperties(expected, p, true, true);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        CompactOptions.from(p).writeBytes(actual, true);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        CompactOptions read = CompactOptions.read(new ByteArrayInputStream(actual.toByteArray()), true);
+        assertEquals(p, read);
+        OrderedProperties op = new OrderedProperties();
+        op.putAll(p);
+        assertEquals(op, read.toProperties());
+    }
+
+    @Test
+    public void testInterned() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataHelper.writeProperties(baos, props(), true, true);
+        byte[] data = baos.toByteArray();
+        CompactOptions o1 = CompactOptions.read(new ByteArrayInputStream(data), true);
+        CompactOptions o2 = CompactOptions.read(new ByteArrayInputStream(data), true);
+        assertSame(o1.getProperty("caps"), o2.getProperty("caps"));
+        assertSame(o1.getProperty("router.version"), o2.getProperty("router.version"));
+        assertSame(o1.entrySet().iterator().next().getKey(), o2.entrySet().iterator().next().getKey());
+        // high-cardinality values are not
+        assertNotSame(o1.getProperty("netdb.knownLeaseSets"), o2.getProperty("netdb.knownLeaseSets"));
+    }
+
+    @Test
+    public void testEnforceOrder() throws Exception {
+        byte[] data = mapping("b", "1", "a", "2");
+        try {
+            CompactOptions.read(new ByteArrayInputStream(data), true);
+            fail("no exception thrown");
+        } catch (DataFormatException expected) {}
+        CompactOptions opts = CompactOptions.read(new ByteArrayInputStream(data), false);
+        assertEquals("a", opts.entrySet().iterator().next().getKey());
+        // empty first key, as DataHelper.readProperties()
+        data = mapping("", "1", "a", "2");
+        try {
+            CompactOptions.read(new ByteArrayInputStream(data), true);
+            fail("no exception thrown");
+        } catch (DataFormatException expected) {}
+    }
+
+    @Test
+    public void testDuplicate() throws Exception {
+        byte[] data = mapping("a", "1", "a", "2");
+        try {
+            CompactOptions.read(new ByteArrayInputStream(data), false);
+            fail("no exception thrown");
+        } catch (DataFormatException expected) {}
+    }
+
+    @Test
+    public void testUnmodifiable() {
+        CompactOptions opts = CompactOptions.from(props());
+        try {
+            opts.put("foo", "bar");
+            fail("no exception thrown");
+        } catch (UnsupportedOperationException expected) {}
+    }
+
+    /** unsorted mapping */
+    private static byte[] mapping(String... kv) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < kv.length; i += 2) {
+            DataHelper.writeString(body, kv[i]);
+            body.write('=');
+            DataHelper.writeString(body, kv[i + 1]);
+            body.write(';');
+        }
+        ByteArrayOutputStream rv = new ByteArrayOutputStream();
+        DataHelper.writeLong(rv, 2, body.size());
+        body.writeTo(rv);
+        return rv.toByteArray();
+    }
+}
@@ -0,0 +1,202 @@
+package net.i2p.data.router;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.EncType;
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.crypto.SigType;
+import net.i2p.data.Base64;
+import net.i2p.data.DataHelper;
+import net.i2p.data.KeyCertificate;
+import net.i2p.data.PublicKey;
+import net.i2p.data.Signature;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.SimpleDataStructure;
+import net.i2p.util.OrderedProperties;
+
+/**
+ * Standalone heap benchmark of a synthetic netDb,
+ * by default 20,000 RouterInfos with NTCP2 and SSU2 addresses
+ * and the usual published options.
+ *
+ * Compares the pre-0.9.71 layout (OrderedProperties for the RouterInfo
+ * and each RouterAddress, addresses parsed on read)
+ * against CompactOptions, with the addresses still serialized
+ * and after they have all been parsed.
+ *
+ * Run with a fixed heap, e.g. -Xms512m -Xmx512m, for stable results.
+ *
+ *<pre>
+ * Usage: RouterInfoHeapBench [count]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class RouterInfoHeapBench {
+
+    private static final String[] VERSIONS = { "0.9.64", "0.9.65", "0.9.66", "0.9.67" };
+    private static final String[] CAPS = { "LR", "LU", "NR", "OfR", "PfR", "XR", "XfR" };
+
+    /** the old object graph, just enough of it */
+    private static class LegacyRouterInfo {
+        RouterIdentity identity;
+        long published;
+        final List<LegacyAddress> addresses = new ArrayList<LegacyAddress>(2);
+        Properties options;
+        Signature signature;
+    }
+
+    private static class LegacyAddress {
+        short cost;
+        long expiration;
+        String style;
+        Properties options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        System.out.println("Generating " + count + " RouterInfos");
+        List<byte[]> serialized = generate(ctx, count);
+
+        for (int pass = 0; pass < 2; pass++) {
+            long base = used();
+            List<LegacyRouterInfo> legacy = new ArrayList<LegacyRouterInfo>(count);
+            for (byte[] b : serialized) {
+                legacy.add(readLegacy(b));
+            }
+            long legacyBytes = used() - base;
+            if (legacy.size() != count)
+                throw new IllegalStateException();
+            legacy = null;
+
+            base = used();
+            List<RouterInfo> compact = new ArrayList<RouterInfo>(count);
+            for (byte[] b : serialized) {
+                RouterInfo ri = new RouterInfo();
+                ri.readBytes(new ByteArrayInputStream(b));
+                compact.add(ri);
+            }
+            long unparsedBytes = used() - base;
+            for (RouterInfo ri : compact) {
+                ri.getAddresses();
+            }
+            long parsedBytes = used() - base;
+            if (compact.size() != count)
+                throw new IllegalStateException();
+            compact = null;
+
+            if (pass == 1) {
+                System.out.println("OrderedProperties:              " + (legacyBytes / count) + " bytes/RI, " +
+                                   (legacyBytes / (1024*1024)) + " MB total");
+                System.out.println("CompactOptions, addr. unparsed: " + (unparsedBytes / count) + " bytes/RI, " +
+                                   (unparsedBytes / (1024*1024)) + " MB total");
+                System.out.println("CompactOptions, addr. parsed:   " + (parsedBytes / count) + " bytes/RI, " +
+                                   (parsedBytes / (1024*1024)) + " MB total");
+            }
+        }
+    }
+
+    private static long used() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     *  As RouterInfo.readBytes() did before 0.9.71
+     */
+    private static LegacyRouterInfo readLegacy(byte[] data) throws Exception {
+        InputStream in = new ByteArrayInputStream(data);
+        LegacyRouterInfo rv = new LegacyRouterInfo();
+        rv.identity = new RouterIdentity();
+        rv.identity.readBytes(in);
+        rv.published = DataHelper.readLong(in, 8);
+        int numAddresses = in.read();
+        for (int i = 0; i < numAddresses; i++) {
+            LegacyAddress addr = new LegacyAddress();
+            addr.cost = (short) in.read();
+            addr.expiration = DataHelper.readLong(in, 8);
+            addr.style = DataHelper.readString(in);
+            if (addr.style.equals("NTCP2"))
+                addr.style = "NTCP2";
+            else if (addr.style.equals("SSU2"))
+                addr.style = "SSU2";
+            addr.options = new OrderedProperties();
+            DataHelper.readProperties(in, addr.options, true);
+            rv.addresses.add(addr);
+        }
+        in.read();  // peers
+        rv.options = new OrderedProperties();
+        DataHelper.readProperties(in, rv.options, true);
+        rv.signature = new Signature(rv.identity.getSigningPublicKey().getType());
+        rv.signature.readBytes(in);
+        return rv;
+    }
+
+    /**
+     *  One signing key for speed, random padding makes the hashes unique
+     */
+    private static List<byte[]> generate(I2PAppContext ctx, int count) throws Exception {
+        SimpleDataStructure[] skeys = KeyGenerator.getInstance().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+        SigningPublicKey spk = (SigningPublicKey) skeys[0];
+        SigningPrivateKey spriv = (SigningPrivateKey) skeys[1];
+        PublicKey pk = ctx.keyGenerator().generatePKIKeys(EncType.ECIES_X25519).getPublic();
+        List<byte[]> rv = new ArrayList<byte[]>(count);
+        for (int num = 0; num < count; num++) {
+            RouterIdentity ident = new RouterIdentity();
+            ident.setCertificate(new KeyCertificate(spk, pk));
+            ident.setPublicKey(pk);
+            ident.setSigningPublicKey(spk);
+            byte[] padding = new byte[(SigningPublicKey.KEYSIZE_BYTES - spk.length()) +
+                                      (PublicKey.KEYSIZE_BYTES - pk.length())];
+            ctx.random().nextBytes(padding);
+            ident.setPadding(padding);
+            RouterInfo ri = new RouterInfo();
+            ri.setIdentity(ident);
+            List<RouterAddress> addrs = new ArrayList<RouterAddress>(2);
+            String host = "10." + ((num >> 16) & 0xff) + '.' + ((num >> 8) & 0xff) + '.' + (num & 0xff);
+            String port = Integer.toString(10000 + ctx.random().nextInt(50000));
+            for (String style : new String[] { "NTCP2", "SSU2" }) {
+                OrderedProperties props = new OrderedProperties();
+                props.setProperty("host", host);
+                props.setProperty("port", port);
+                props.setProperty("s", Base64.encode(random(ctx, 32)));
+                props.setProperty("i", Base64.encode(random(ctx, 16)));
+                props.setProperty("v", "2");
+                if (style.equals("SSU2"))
+                    props.setProperty("mtu", "1500");
+                addrs.add(new RouterAddress(style, props, style.equals("SSU2") ? 8 : 3));
+            }
+            ri.setAddresses(addrs);
+            Properties opts = new Properties();
+            opts.setProperty("caps", CAPS[num % CAPS.length]);
+            opts.setProperty("netId", "2");
+            opts.setProperty("router.version", VERSIONS[num % VERSIONS.length]);
+            if (num % 10 == 0) {
+                opts.setProperty("netdb.knownLeaseSets", Integer.toString(ctx.random().nextInt(500)));
+                opts.setProperty("netdb.knownRouters", Integer.toString(ctx.random().nextInt(8000)));
+            }
+            ri.setOptions(opts);
+            ri.setPublished(ctx.clock().now());
+            ri.sign(spriv);
+            rv.add(ri.toByteArray());
+        }
+        return rv;
+    }
+
+    private static byte[] random(I2PAppContext ctx, int len) {
+        byte[] rv = new byte[len];
+        ctx.random().nextBytes(rv);
+        return rv;
+    }
+}
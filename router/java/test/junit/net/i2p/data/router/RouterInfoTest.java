@@ -8,19 +8,29 @@ package net.i2p.data.router;
  *
  */
 
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 
+import org.junit.Test;
+
 import net.i2p.crypto.KeyGenerator;
+import net.i2p.crypto.SigType;
 import net.i2p.data.Certificate;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataStructure;
 import net.i2p.data.Hash;
 import net.i2p.data.HashTest;
+import net.i2p.data.KeyCertificate;
 import net.i2p.data.PrivateKey;
 import net.i2p.data.PublicKey;
 import net.i2p.data.SigningPrivateKey;
 import net.i2p.data.SigningPublicKey;
+import net.i2p.data.SimpleDataStructure;
 import net.i2p.data.StructureTest;
 import net.i2p.util.Log;
 
@@ -82,4 +92,43 @@ public class RouterInfoTest extends StructureTest {
         return info;
     }
     public DataStructure createStructureToRead() { return new RouterInfo(); }
+
+    /**
+     *  @since 0.9.71
+     */
+    @Test
+    public void testIsValid() throws Exception {
+        List<byte[]> data = new ArrayList<byte[]>();
+        // DSA and Ed25519
+        data.add(((RouterInfo) createDataStructure()).toByteArray());
+        for (int i = 0; i < 5; i++) {
+            RouterInfo info = new RouterInfo();
+            SimpleDataStructure[] skeys = KeyGenerator.getInstance().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+            SigningPublicKey spk = (SigningPublicKey) skeys[0];
+            RouterIdentity ident = new RouterIdentity();
+            ident.setCertificate(new KeyCertificate(spk));
+            ident.setPublicKey((PublicKey) KeyGenerator.getInstance().generatePKIKeypair()[0]);
+            ident.setSigningPublicKey(spk);
+            ident.setPadding(new byte[SigningPublicKey.KEYSIZE_BYTES - spk.length()]);
+            info.setIdentity(ident);
+            Properties options = new Properties();
+            options.setProperty("caps", "XfR");
+            info.setOptions(options);
+            info.setPublished(System.currentTimeMillis());
+            info.sign((SigningPrivateKey) skeys[1]);
+            data.add(info.toByteArray());
+        }
+        // corrupt the signatures of the DSA one and one Ed25519
+        data.get(0)[data.get(0).length - 1] ^= 0x01;
+        data.get(3)[data.get(3).length - 1] ^= 0x01;
+        List<RouterInfo> ris = new ArrayList<RouterInfo>();
+        for (byte[] b : data) {
+            RouterInfo ri = new RouterInfo();
+            ri.readBytes(new ByteArrayInputStream(b));
+            ris.add(ri);
+        }
+        for (int i = 0; i < ris.size(); i++) {
+            assertEquals("RI " + i, i != 0 && i != 3, ris.get(i).isValid());
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package net.i2p.router.crypto.ratchet;
+
+import java.lang.management.ManagementFactory;
+
+import net.i2p.crypto.EncType;
+import net.i2p.data.Certificate;
+import net.i2p.data.Destination;
+import net.i2p.data.PrivateKey;
+import net.i2p.data.SessionKey;
+import net.i2p.data.i2np.DataMessage;
+import net.i2p.data.i2np.DeliveryInstructions;
+import net.i2p.data.i2np.GarlicClove;
+import net.i2p.router.Router;
+import net.i2p.router.RouterContext;
+import net.i2p.router.message.CloveHandler;
+import net.i2p.router.message.CloveSet;
+
+/**
+ * Standalone benchmark of the ratchet receive path for a stream of
+ * existing session messages, each with one DataMessage clove.
+ *
+ * Compares returning a CloveSet with handing the cloves to a CloveHandler,
+ * and reports the time and the bytes allocated per message by the decrypting thread,
+ * including the clove itself.
+ * The messages are encrypted, and their single-use tags registered, before timing starts.
+ *
+ * Requires a JVM with com.sun.management.ThreadMXBean for the allocation counts.
+ * This starts a Router context, so the output goes to wrapper.log
+ * in the router directory.
+ *
+ *<pre>
+ * Usage: ESDecryptBench [messages per round [clove data size]]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class ESDecryptBench {
+
+    private static volatile int _cloves;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        Router r = new Router();
+        RouterContext ctx = r.getContext();
+        ctx.initAll();
+        ECIESAEADEngine engine = ctx.eciesEngine();
+        RatchetSKM skm = new RatchetSKM(ctx, new Destination());
+        // not used for ES, but must be the right type
+        PrivateKey priv = ctx.keyGenerator().generatePKIKeys(EncType.ECIES_X25519).getPrivate();
+
+        DataMessage msg = new DataMessage(ctx);
+        byte[] data = new byte[size];
+        ctx.random().nextBytes(data);
+        msg.setData(data);
+        GarlicClove clove = new GarlicClove(ctx);
+        clove.setData(msg);
+        clove.setCertificate(Certificate.NULL_CERT);
+        clove.setCloveId(0);
+        clove.setExpiration(ctx.clock().now() + 60*1000);
+        clove.setInstructions(DeliveryInstructions.LOCAL);
+        CloveSet cs = new CloveSet(new GarlicClove[] { clove }, Certificate.NULL_CERT, 0, clove.getExpiration());
+
+        CloveHandler handler = new CloveHandler() {
+            public void handleClove(GarlicClove c) {
+                _cloves++;
+            }
+        };
+
+        System.out.println(count + " messages per round, clove data size " + size);
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + (round + 1));
+            run("CloveSet", ctx, engine, skm, priv, cs, count, null);
+            run("CloveHandler", ctx, engine, skm, priv, cs, count, handler);
+        }
+        skm.shutdown();
+        System.exit(0);
+    }
+
+    private static void run(String name, RouterContext ctx, ECIESAEADEngine engine, RatchetSKM skm,
+                            PrivateKey priv, CloveSet cs, int count, CloveHandler handler) throws Exception {
+        byte[][] msgs = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            SessionKey key = ctx.keyGenerator().generateSessionKey();
+            RatchetSessionTag tag = new RatchetSessionTag(ctx.random().nextLong());
+            skm.tagsReceived(key, tag, 10*60*1000);
+            msgs[i] = engine.encrypt(cs, key, tag);
+        }
+        int before = _cloves;
+        int got = 0;
+        long tid = Thread.currentThread().getId();
+        long bytes = allocated(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            CloveSet rv = engine.decrypt(msgs[i], priv, skm, handler);
+            if (rv == null)
+                throw new IllegalStateException("decrypt failed");
+            got += rv.getCloveCount();
+        }
+        long time = System.nanoTime() - start;
+        bytes = allocated(tid) - bytes;
+        got += _cloves - before;
+        if (got != count)
+            throw new IllegalStateException("got " + got + " cloves, expected " + count);
+        System.out.println(String.format("  %-14s %8d ns/msg %8d bytes/msg",
+                                         name, time / count, bytes < 0 ? -1 : bytes / count));
+    }
+
+    /**
+     *  @return -1 if unsupported
+     */
+    private static long allocated(long tid) {
+        try {
+            java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            if (mx instanceof com.sun.management.ThreadMXBean)
+                return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(tid);
+        } catch (Throwable t) {}
+        return -1;
+    }
+}
@@ -0,0 +1,136 @@
+package net.i2p.router.message;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.i2p.data.Hash;
+import net.i2p.data.Lease;
+import net.i2p.data.LeaseSet;
+import net.i2p.router.RouterContext;
+
+/**
+ * Standalone benchmark of the per-message OutboundCache accesses
+ * made by OutboundClientMessageOneShotJob: reply LS check, lease lookup,
+ * outbound tunnel selection, and reply request check.
+ *
+ * Compares the single Route record against the pre-0.9.71 layout of
+ * separate concurrent maps plus two HashMaps under one lock.
+ * The tunnel, netdb, and garlic work done by the job is not included,
+ * so this is an upper bound on the cache's contribution to messages/second.
+ *
+ *<pre>
+ * Usage: OutboundCacheBench [threads [pairs [seconds]]]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class OutboundCacheBench {
+
+    private static final Hash[] FROM = new Hash[4];
+
+    /** the old layout, just enough of it */
+    private static class LegacyCache {
+        final Map<OutboundCache.HashPair, Object> tunnelCache = new HashMap<OutboundCache.HashPair, Object>(64);
+        final Map<OutboundCache.HashPair, Object> backloggedTunnelCache = new HashMap<OutboundCache.HashPair, Object>(64);
+        final ConcurrentHashMap<OutboundCache.HashPair, LeaseSet> leaseSetCache = new ConcurrentHashMap<OutboundCache.HashPair, LeaseSet>(64);
+        final ConcurrentHashMap<OutboundCache.HashPair, Lease> leaseCache = new ConcurrentHashMap<OutboundCache.HashPair, Lease>(64);
+        final Map<OutboundCache.HashPair, Long> lastReplyRequestCache = new ConcurrentHashMap<OutboundCache.HashPair, Long>(64);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        RouterContext ctx = new RouterContext(null);
+        for (int i = 0; i < FROM.length; i++) {
+            byte[] b = new byte[Hash.HASH_LENGTH];
+            ctx.random().nextBytes(b);
+            FROM[i] = new Hash(b);
+        }
+        Hash[] to = new Hash[pairs];
+        for (int i = 0; i < pairs; i++) {
+            byte[] b = new byte[Hash.HASH_LENGTH];
+            ctx.random().nextBytes(b);
+            to[i] = new Hash(b);
+        }
+        System.out.println(threads + " threads, " + pairs + " destinations, " + seconds + " seconds");
+        for (int i = 0; i < 2; i++) {
+            // once to warm up
+            long legacy = run(ctx, null, new LegacyCache(), to, threads, seconds);
+            long current = run(ctx, new OutboundCache(ctx), null, to, threads, seconds);
+            if (i == 1) {
+                System.out.println("Legacy maps:  " + (legacy / seconds) + " msgs/sec");
+                System.out.println("Route record: " + (current / seconds) + " msgs/sec");
+            }
+        }
+    }
+
+    private static long run(final RouterContext ctx, final OutboundCache cache, final LegacyCache legacy,
+                            final Hash[] to, int threads, int seconds) throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final long end = System.currentTimeMillis() + seconds * 1000L;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final Lease lease = new Lease();
+        final LeaseSet ls = new LeaseSet();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            Thread thr = new Thread(new Runnable() {
+                public void run() {
+                    long count = 0;
+                    int i = seed * 7919;
+                    while (System.currentTimeMillis() < end) {
+                        for (int j = 0; j < 1000; j++, i++) {
+                            Hash from = FROM[i & (FROM.length - 1)];
+                            OutboundCache.HashPair hp = new OutboundCache.HashPair(from, to[i % to.length]);
+                            if (cache != null)
+                                current(cache, hp, lease, ls);
+                            else
+                                legacy(legacy, hp, lease, ls);
+                        }
+                        count += 1000;
+                    }
+                    total.addAndGet(count);
+                    done.countDown();
+                }
+            });
+            thr.start();
+        }
+        done.await();
+        return total.get();
+    }
+
+    private static void current(OutboundCache cache, OutboundCache.HashPair hp, Lease lease, LeaseSet ls) {
+        long now = System.currentTimeMillis();
+        OutboundCache.Route route = cache.getRoute(hp, now);
+        if (route.leaseSet.get() == null)
+            route.leaseSet.compareAndSet(null, ls);
+        if (route.lease.get() == null)
+            route.lease.set(lease);
+        synchronized (route) {
+            if (route.backloggedTunnel != null)
+                route.backloggedTunnel = null;
+        }
+        if (route.lastReplyRequest < now - 60*1000)
+            route.lastReplyRequest = now;
+    }
+
+    private static void legacy(LegacyCache cache, OutboundCache.HashPair hp, Lease lease, LeaseSet ls) {
+        if (cache.leaseSetCache.get(hp) == null)
+            cache.leaseSetCache.putIfAbsent(hp, ls);
+        if (cache.leaseCache.get(hp) == null)
+            cache.leaseCache.put(hp, lease);
+        synchronized (cache.tunnelCache) {
+            if (cache.backloggedTunnelCache.get(hp) != null)
+                cache.backloggedTunnelCache.remove(hp);
+            if (cache.tunnelCache.get(hp) == null)
+                cache.tunnelCache.put(hp, lease);
+        }
+        long now = System.currentTimeMillis();
+        Long last = cache.lastReplyRequestCache.get(hp);
+        if (last == null || last.longValue() < now - 60*1000)
+            cache.lastReplyRequestCache.put(hp, Long.valueOf(now));
+    }
+}
@@ -0,0 +1,193 @@
+package net.i2p.router.networkdb.kademlia;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.EncType;
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.crypto.SigType;
+import net.i2p.data.Base64;
+import net.i2p.data.DataHelper;
+import net.i2p.data.Hash;
+import net.i2p.data.KeyCertificate;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SimpleDataStructure;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.router.RouterAddress;
+import net.i2p.data.router.RouterIdentity;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.util.FileUtil;
+import net.i2p.util.OrderedProperties;
+
+/**
+ * Standalone benchmark of a cold netDb load,
+ * one file per RouterInfo in the r? subdirectories
+ * versus the same RouterInfos in a SegmentStore.
+ *
+ * Times the listing and reading alone, and the reading plus parsing
+ * with and without signature verification.
+ * Run it twice, or drop the page cache in between, to see
+ * the cold and warm cases.
+ *
+ *<pre>
+ * Usage: SegmentStoreBench [routers [dir]]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class SegmentStoreBench {
+
+    private static final String B64 = Base64.ALPHABET_I2P;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        File base = args.length > 1 ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir"), "segbench");
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        File filesDir = new File(base, "files");
+        File segDir = new File(base, "segments");
+        FileUtil.rmdir(base, false);
+        filesDir.mkdirs();
+        segDir.mkdirs();
+
+        System.out.println("Generating " + count + " RouterInfos in " + base);
+        SegmentStore ss = new SegmentStore(ctx, segDir);
+        ss.open();
+        for (int i = 0; i < count; i++) {
+            RouterInfo ri = createRouterInfo(ctx, i);
+            Hash h = ri.getHash();
+            byte[] data = ri.toByteArray();
+            String b64 = h.toBase64();
+            File dir = new File(filesDir, "r" + b64.charAt(0));
+            dir.mkdir();
+            OutputStream out = new FileOutputStream(new File(dir, "routerInfo-" + b64 + ".dat"));
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            ss.put(h, ri.getPublished(), data);
+        }
+        ss.sync();
+        ss.close();
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int mode = 0; mode < 3; mode++) {
+                long t0 = System.nanoTime();
+                int n = readFiles(filesDir, mode);
+                long t1 = System.nanoTime();
+                int m = readSegments(ctx, segDir, mode);
+                long t2 = System.nanoTime();
+                if (pass == 1) {
+                    String what = mode == 0 ? "read only" : (mode == 1 ? "read+parse" : "read+parse+verify");
+                    System.out.println(what + ": files " + n + " in " + ((t1 - t0) / 1000000) + " ms; " +
+                                       "segments " + m + " in " + ((t2 - t1) / 1000000) + " ms");
+                }
+            }
+        }
+        FileUtil.rmdir(base, false);
+    }
+
+    /**
+     *  @param mode 0 read, 1 parse, 2 parse and verify
+     */
+    private static int readFiles(File filesDir, int mode) throws Exception {
+        int rv = 0;
+        for (int j = 0; j < B64.length(); j++) {
+            File[] files = new File(filesDir, "r" + B64.charAt(j)).listFiles();
+            if (files == null)
+                continue;
+            for (File f : files) {
+                byte[] data = new byte[(int) f.length()];
+                InputStream in = new FileInputStream(f);
+                try {
+                    DataHelper.read(in, data);
+                } finally {
+                    in.close();
+                }
+                parse(data, mode);
+                rv++;
+            }
+        }
+        return rv;
+    }
+
+    private static int readSegments(I2PAppContext ctx, File segDir, int mode) throws Exception {
+        SegmentStore ss = new SegmentStore(ctx, segDir);
+        ss.open();
+        int rv = 0;
+        try {
+            for (Hash h : ss.getKeys()) {
+                byte[] data = ss.get(h);
+                parse(data, mode);
+                rv++;
+            }
+        } finally {
+            ss.close();
+        }
+        return rv;
+    }
+
+    private static void parse(byte[] data, int mode) throws Exception {
+        if (mode == 0)
+            return;
+        RouterInfo ri = new RouterInfo();
+        ri.readBytes(new ByteArrayInputStream(data), mode == 2);
+    }
+
+    /**
+     *  Ed25519, X25519, one NTCP2 and one SSU2 address, and a typical set of options
+     */
+    private static RouterInfo createRouterInfo(I2PAppContext ctx, int num) throws Exception {
+        SimpleDataStructure[] skeys = KeyGenerator.getInstance().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+        SigningPublicKey spk = (SigningPublicKey) skeys[0];
+        SigningPrivateKey spriv = (SigningPrivateKey) skeys[1];
+        PublicKey pk = ctx.keyGenerator().generatePKIKeys(EncType.ECIES_X25519).getPublic();
+        RouterIdentity ident = new RouterIdentity();
+        ident.setCertificate(new KeyCertificate(spk, pk));
+        ident.setPublicKey(pk);
+        ident.setSigningPublicKey(spk);
+        byte[] padding = new byte[(SigningPublicKey.KEYSIZE_BYTES - spk.length()) +
+                                  (PublicKey.KEYSIZE_BYTES - pk.length())];
+        ctx.random().nextBytes(padding);
+        ident.setPadding(padding);
+        RouterInfo ri = new RouterInfo();
+        ri.setIdentity(ident);
+        List<RouterAddress> addrs = new ArrayList<RouterAddress>(2);
+        String host = "10." + ((num >> 16) & 0xff) + '.' + ((num >> 8) & 0xff) + '.' + (num & 0xff);
+        for (String style : new String[] { "NTCP2", "SSU2" }) {
+            OrderedProperties props = new OrderedProperties();
+            props.setProperty("host", host);
+            props.setProperty("port", Integer.toString(10000 + (num % 50000)));
+            props.setProperty("s", Base64.encode(randomBytes(ctx, 32)));
+            props.setProperty("i", Base64.encode(randomBytes(ctx, 16)));
+            props.setProperty("v", "2");
+            addrs.add(new RouterAddress(style, props, 10));
+        }
+        ri.setAddresses(addrs);
+        Properties opts = new Properties();
+        opts.setProperty("caps", "XfR");
+        opts.setProperty("netId", "2");
+        opts.setProperty("router.version", "0.9.71");
+        opts.setProperty("netdb.knownLeaseSets", Integer.toString(num % 100));
+        opts.setProperty("netdb.knownRouters", Integer.toString(num % 5000));
+        ri.setOptions(opts);
+        ri.setPublished(ctx.clock().now());
+        ri.sign(spriv);
+        return ri;
+    }
+
+    private static byte[] randomBytes(I2PAppContext ctx, int len) {
+        byte[] rv = new byte[len];
+        ctx.random().nextBytes(rv);
+        return rv;
+    }
+}
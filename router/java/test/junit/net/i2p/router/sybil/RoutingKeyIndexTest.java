@@ -0,0 +1,95 @@
+package net.i2p.router.sybil;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.Hash;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.router.util.HashDistance;
+
+/**
+ * RoutingKeyIndex against comparing every router
+ *
+ * @since 0.9.71
+ */
+public class RoutingKeyIndexTest {
+
+    private static I2PAppContext ctx;
+    private static List<RouterInfo> ris;
+    private static RoutingKeyIndex index;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        ctx = I2PAppContext.getGlobalContext();
+        ris = SybilAnalysisBench.generate(ctx, 500);
+        index = new RoutingKeyIndex(ris);
+    }
+
+    @Test
+    public void testClosest() {
+        for (int i = 0; i < 100; i++) {
+            Hash key;
+            if (i % 10 == 0) {
+                // exact match
+                key = ris.get(i).getHash();
+            } else {
+                byte[] b = new byte[Hash.HASH_LENGTH];
+                ctx.random().nextBytes(b);
+                key = new Hash(b);
+            }
+            List<RouterInfo> expected = new ArrayList<RouterInfo>(ris);
+            Collections.sort(expected, new RoutingKeyIndex.RIXORComparator(key));
+            for (int max : new int[] { 1, 10, 33 }) {
+                assertEquals(expected.subList(0, max), index.getClosest(key, max));
+            }
+            assertEquals(expected, index.getClosest(key, ris.size() + 1));
+        }
+    }
+
+    @Test
+    public void testClosestPairs() {
+        for (int sz : new int[] { 0, 1, 2, 15, 500 }) {
+            List<RouterInfo> list = ris.subList(0, sz);
+            List<BigInteger> expected = new ArrayList<BigInteger>();
+            for (int i = 0; i < sz; i++) {
+                for (int j = i + 1; j < sz; j++) {
+                    expected.add(HashDistance.getDistance(list.get(i).getHash(), list.get(j).getHash()));
+                }
+            }
+            Collections.sort(expected);
+            if (expected.size() > Analysis.PAIRMAX)
+                expected = expected.subList(0, Analysis.PAIRMAX);
+            List<Pair> pairs = new RoutingKeyIndex(list).getClosestPairs(Analysis.PAIRMAX);
+            assertEquals(expected.size(), pairs.size());
+            for (int i = 0; i < pairs.size(); i++) {
+                Pair p = pairs.get(i);
+                assertEquals(expected.get(i), p.dist);
+                assertEquals(p.dist, HashDistance.getDistance(p.r1.getHash(), p.r2.getHash()));
+            }
+        }
+    }
+
+    @Test
+    public void testAvgPairDistance() {
+        List<RouterInfo> list = ris.subList(0, 100);
+        double total = 0;
+        for (int i = 0; i < list.size(); i++) {
+            for (int j = i + 1; j < list.size(); j++) {
+                total += Util.biLog2(HashDistance.getDistance(list.get(i).getHash(), list.get(j).getHash()));
+            }
+        }
+        double expected = total / (100 * 99 / 2);
+        RoutingKeyIndex idx = new RoutingKeyIndex(list);
+        assertEquals(expected, idx.getAvgPairDistance(10000, ctx.random()), 0.000001);
+        // estimated
+        assertEquals(expected, idx.getAvgPairDistance(1000, ctx.random()), 0.5);
+    }
+}
@@ -0,0 +1,309 @@
+package net.i2p.router.sybil;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.EncType;
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.crypto.SigType;
+import net.i2p.data.DataHelper;
+import net.i2p.data.Hash;
+import net.i2p.data.KeyCertificate;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.SimpleDataStructure;
+import net.i2p.data.router.RouterAddress;
+import net.i2p.data.router.RouterIdentity;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.router.util.HashDistance;
+import net.i2p.util.ObjectCounterUnsafe;
+import net.i2p.util.OrderedProperties;
+
+/**
+ * Standalone benchmark of the sybil analysis distance and IP grouping
+ * calculations on a synthetic netDb, by default 50,000 routers,
+ * 30% floodfill, with some routers sharing an IPv4 /24 or /16.
+ *
+ * Compares the pre-0.9.71 pairwise and full-scan calculations
+ * against RoutingKeyIndex and single-pass grouping, and checks
+ * that the results are the same.
+ * The pairwise comparison is O(n**2), so by default it is only run
+ * on the first 5,000 floodfills and extrapolated.
+ *
+ *<pre>
+ * Usage: SybilAnalysisBench [routers [pairwise floodfills]]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class SybilAnalysisBench {
+
+    private static final int PAIRMAX = Analysis.PAIRMAX;
+    private static final int MAX = Analysis.MAX;
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int pairCount = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        System.out.println("Generating " + count + " RouterInfos");
+        List<RouterInfo> ris = generate(ctx, count);
+        List<RouterInfo> ffs = new ArrayList<RouterInfo>(count);
+        for (RouterInfo ri : ris) {
+            if (ri.getCapabilities().contains("f"))
+                ffs.add(ri);
+        }
+        Hash[] keys = new Hash[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            byte[] b = new byte[Hash.HASH_LENGTH];
+            ctx.random().nextBytes(b);
+            keys[i] = new Hash(b);
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean print = pass == 1;
+            if (print)
+                System.out.println(count + " routers, " + ffs.size() + " floodfills");
+
+            // closest routers to a key
+            long start = System.nanoTime();
+            List<List<RouterInfo>> oldClosest = new ArrayList<List<RouterInfo>>(QUERIES);
+            List<RouterInfo> copy = new ArrayList<RouterInfo>(ris);
+            for (Hash key : keys) {
+                Collections.sort(copy, new LegacyComparator(key));
+                oldClosest.add(new ArrayList<RouterInfo>(copy.subList(0, MAX)));
+            }
+            long oldTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            RoutingKeyIndex index = new RoutingKeyIndex(ris);
+            long buildTime = System.nanoTime() - start;
+            List<List<RouterInfo>> newClosest = new ArrayList<List<RouterInfo>>(QUERIES);
+            for (Hash key : keys) {
+                newClosest.add(index.getClosest(key, MAX));
+            }
+            long newTime = System.nanoTime() - start;
+            check("closest", oldClosest.equals(newClosest));
+            if (print) {
+                System.out.println("Closest " + MAX + " to " + QUERIES + " keys, sort:   " + ms(oldTime) + " ms");
+                System.out.println("Closest " + MAX + " to " + QUERIES + " keys, index:  " + ms(newTime) +
+                                   " ms including " + ms(buildTime) + " ms to build the index");
+            }
+
+            // closest pairs of floodfills
+            List<RouterInfo> subset = ffs.subList(0, Math.min(pairCount, ffs.size()));
+            start = System.nanoTime();
+            List<Pair> oldPairs = legacyPairs(subset);
+            oldTime = System.nanoTime() - start;
+            List<Pair> newPairs = new RoutingKeyIndex(subset).getClosestPairs(PAIRMAX);
+            check("pairs", samePairs(oldPairs, newPairs));
+            start = System.nanoTime();
+            RoutingKeyIndex ffIndex = new RoutingKeyIndex(ffs);
+            newPairs = ffIndex.getClosestPairs(PAIRMAX);
+            double avg = ffIndex.getAvgPairDistance(20000, ctx.random());
+            newTime = System.nanoTime() - start;
+            if (print) {
+                double factor = Math.pow(ffs.size() / (double) subset.size(), 2);
+                System.out.println("Closest " + PAIRMAX + " pairs of " + subset.size() + " ff, pairwise: " + ms(oldTime) + " ms, " +
+                                   "extrapolated to " + ffs.size() + " ff: " + ((long) (ms(oldTime) * factor)) + " ms");
+                System.out.println("Closest " + PAIRMAX + " pairs of " + ffs.size() + " ff, index: " + ms(newTime) +
+                                   " ms, closest " + Util.biLog2(newPairs.get(0).dist) + " avg " + avg);
+            }
+
+            // IPv4 /24 groups
+            start = System.nanoTime();
+            Map<Integer, List<RouterInfo>> oldGroups = legacyGroups24(ris);
+            oldTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            Map<Integer, List<RouterInfo>> newGroups = groups24(ris);
+            newTime = System.nanoTime() - start;
+            check("groups", oldGroups.equals(newGroups));
+            if (print) {
+                System.out.println("IPv4 /24 groups (" + newGroups.size() + "), scan: " + ms(oldTime) + " ms");
+                System.out.println("IPv4 /24 groups (" + newGroups.size() + "), hash: " + ms(newTime) + " ms");
+            }
+        }
+    }
+
+    private static long ms(long ns) {
+        return ns / 1000000;
+    }
+
+    private static void check(String what, boolean ok) {
+        if (!ok)
+            throw new IllegalStateException("Results differ: " + what);
+    }
+
+    /**
+     *  Same distances, the order of ties may differ
+     */
+    private static boolean samePairs(List<Pair> l, List<Pair> r) {
+        if (l.size() != r.size())
+            return false;
+        for (int i = 0; i < l.size(); i++) {
+            if (!l.get(i).dist.equals(r.get(i).dist))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     *  As Analysis.calculatePairDistance() did before 0.9.71
+     */
+    private static List<Pair> legacyPairs(List<RouterInfo> ris) {
+        List<Pair> pairs = new ArrayList<Pair>(PAIRMAX);
+        int sz = ris.size();
+        for (int i = 0; i < sz; i++) {
+            RouterInfo info1 = ris.get(i);
+            for (int j = i + 1; j < sz; j++) {
+                RouterInfo info2 = ris.get(j);
+                BigInteger dist = HashDistance.getDistance(info1.getHash(), info2.getHash());
+                if (pairs.size() < PAIRMAX) {
+                    pairs.add(new Pair(info1, info2, dist));
+                    Collections.sort(pairs);
+                } else if (dist.compareTo(pairs.get(PAIRMAX - 1).dist) < 0) {
+                    pairs.set(PAIRMAX - 1, new Pair(info1, info2, dist));
+                    Collections.sort(pairs);
+                }
+                Util.biLog2(dist);
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     *  As Analysis.RouterInfoRoutingKeyComparator did before 0.9.71
+     */
+    private static class LegacyComparator implements Comparator<RouterInfo> {
+        private final Hash _us;
+        public LegacyComparator(Hash us) { _us = us; }
+        public int compare(RouterInfo l, RouterInfo r) {
+            return HashDistance.getDistance(_us, l.getHash()).compareTo(HashDistance.getDistance(_us, r.getHash()));
+        }
+    }
+
+    /**
+     *  As Analysis.calculateIPGroups24() did before 0.9.71, without the points
+     */
+    private static Map<Integer, List<RouterInfo>> legacyGroups24(List<RouterInfo> ris) {
+        ObjectCounterUnsafe<Integer> oc = new ObjectCounterUnsafe<Integer>();
+        for (RouterInfo info : ris) {
+            byte[] ip = getIP(info);
+            if (ip == null)
+                continue;
+            oc.increment(Integer.valueOf((int) DataHelper.fromLong(ip, 0, 3)));
+        }
+        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
+        for (Integer ii : oc.objects()) {
+            int count = oc.count(ii);
+            if (count >= 2)
+                rv.put(ii, new ArrayList<RouterInfo>(count));
+        }
+        for (Map.Entry<Integer, List<RouterInfo>> e : rv.entrySet()) {
+            int i = e.getKey().intValue();
+            int i0 = i >> 16;
+            int i1 = (i >> 8) & 0xff;
+            int i2 = i & 0xff;
+            for (RouterInfo info : ris) {
+                byte[] ip = getIP(info);
+                if (ip == null)
+                    continue;
+                if ((ip[0] & 0xff) != i0)
+                    continue;
+                if ((ip[1] & 0xff) != i1)
+                    continue;
+                if ((ip[2] & 0xff) != i2)
+                    continue;
+                e.getValue().add(info);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  As Analysis.calculateIPGroups24() does now, without the points
+     */
+    private static Map<Integer, List<RouterInfo>> groups24(List<RouterInfo> ris) {
+        Map<Integer, List<RouterInfo>> rv = new HashMap<Integer, List<RouterInfo>>();
+        for (RouterInfo info : ris) {
+            byte[] ip = getIP(info);
+            if (ip == null)
+                continue;
+            Integer x = Integer.valueOf((int) DataHelper.fromLong(ip, 0, 3));
+            List<RouterInfo> list = rv.get(x);
+            if (list == null) {
+                list = new ArrayList<RouterInfo>(2);
+                rv.put(x, list);
+            }
+            list.add(info);
+        }
+        for (Iterator<List<RouterInfo>> iter = rv.values().iterator(); iter.hasNext(); ) {
+            if (iter.next().size() < 2)
+                iter.remove();
+        }
+        return rv;
+    }
+
+    private static byte[] getIP(RouterInfo ri) {
+        for (RouterAddress ra : ri.getAddresses()) {
+            byte[] rv = ra.getIP();
+            if (rv != null && rv.length == 4)
+                return rv;
+        }
+        return null;
+    }
+
+    /**
+     *  Unsigned, one signing key for speed, random padding makes the hashes unique.
+     *  One in 50 routers shares a /24 with a few others,
+     *  one in 10 is in one of 256 /16s.
+     */
+    static List<RouterInfo> generate(I2PAppContext ctx, int count) throws Exception {
+        SimpleDataStructure[] skeys = KeyGenerator.getInstance().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+        SigningPublicKey spk = (SigningPublicKey) skeys[0];
+        PublicKey pk = ctx.keyGenerator().generatePKIKeys(EncType.ECIES_X25519).getPublic();
+        List<RouterInfo> rv = new ArrayList<RouterInfo>(count);
+        for (int num = 0; num < count; num++) {
+            RouterIdentity ident = new RouterIdentity();
+            ident.setCertificate(new KeyCertificate(spk, pk));
+            ident.setPublicKey(pk);
+            ident.setSigningPublicKey(spk);
+            byte[] padding = new byte[(SigningPublicKey.KEYSIZE_BYTES - spk.length()) +
+                                      (PublicKey.KEYSIZE_BYTES - pk.length())];
+            ctx.random().nextBytes(padding);
+            ident.setPadding(padding);
+            RouterInfo ri = new RouterInfo();
+            ri.setIdentity(ident);
+            String host;
+            if (num % 50 == 0)
+                host = "10.1." + ((num / 250) & 0xff) + '.' + (num & 0xff);
+            else if (num % 10 == 0)
+                host = "10." + (2 + ctx.random().nextInt(254)) + '.' + ctx.random().nextInt(256) + '.' + ctx.random().nextInt(256);
+            else
+                host = (11 + ctx.random().nextInt(200)) + "." + ctx.random().nextInt(256) + '.' +
+                       ctx.random().nextInt(256) + '.' + ctx.random().nextInt(256);
+            OrderedProperties props = new OrderedProperties();
+            props.setProperty("host", host);
+            props.setProperty("port", Integer.toString(10000 + ctx.random().nextInt(50000)));
+            props.setProperty("v", "2");
+            List<RouterAddress> addrs = new ArrayList<RouterAddress>(1);
+            addrs.add(new RouterAddress("NTCP2", props, 3));
+            ri.setAddresses(addrs);
+            Properties opts = new Properties();
+            opts.setProperty("caps", (num % 10) < 3 ? "XfR" : "LR");
+            opts.setProperty("netId", "2");
+            opts.setProperty("router.version", "0.9.67");
+            ri.setOptions(opts);
+            ri.setPublished(ctx.clock().now());
+            rv.add(ri);
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,264 @@
+package net.i2p.router.transport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.i2p.data.Hash;
+import net.i2p.data.i2np.DataMessage;
+import net.i2p.data.i2np.DatabaseSearchReplyMessage;
+import net.i2p.data.i2np.DatabaseStoreMessage;
+import net.i2p.data.i2np.DeliveryStatusMessage;
+import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.router.IndexedMessageSelector;
+import net.i2p.router.MessageSelector;
+import net.i2p.router.OutNetMessage;
+import net.i2p.router.RouterContext;
+
+/**
+ * Standalone benchmark of OutboundMessageRegistry.getOriginalMessages()
+ * with many live selectors, by default 10,000,
+ * half waiting for a DeliveryStatusMessage and half for a netDb key,
+ * as on a busy floodfill.
+ *
+ * Compares the pre-0.9.71 scan of every selector under a global lock
+ * against the indexed registry, and against the registry with selectors
+ * that aren't indexed. Three kinds of received message are timed:
+ * unrelated messages, DeliveryStatusMessages that match nothing,
+ * and replies that match, after which the selector is registered again.
+ *
+ *<pre>
+ * Usage: OutboundMessageRegistryBench [selectors [messages]]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class OutboundMessageRegistryBench {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int msgs = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        RouterContext ctx = new RouterContext(null);
+        long expiration = ctx.clock().now() + 10*60*1000;
+
+        List<TestSelector> sels = new ArrayList<TestSelector>(count);
+        for (int i = 0; i < count; i++) {
+            Object key;
+            if ((i & 0x01) == 0)
+                key = Long.valueOf(1 + ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE - 1));
+            else
+                key = randomHash(ctx);
+            sels.add(new TestSelector(key, expiration));
+        }
+        List<MessageSelector> plain = new ArrayList<MessageSelector>(count);
+        for (TestSelector sel : sels) {
+            plain.add(new PlainSelector(sel));
+        }
+
+        I2NPMessage[] unrelated = new I2NPMessage[256];
+        I2NPMessage[] nomatch = new I2NPMessage[256];
+        for (int i = 0; i < 256; i++) {
+            DataMessage dm = new DataMessage(ctx);
+            dm.setData(new byte[64]);
+            unrelated[i] = dm;
+            DeliveryStatusMessage dsm = new DeliveryStatusMessage(ctx);
+            dsm.setMessageId(1 + ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE - 1));
+            dsm.setArrival(ctx.clock().now());
+            nomatch[i] = dsm;
+        }
+        I2NPMessage[] replies = new I2NPMessage[count];
+        for (int i = 0; i < count; i++) {
+            Object key = sels.get(i).getReplyKey();
+            if (key instanceof Long) {
+                DeliveryStatusMessage dsm = new DeliveryStatusMessage(ctx);
+                dsm.setMessageId(((Long) key).longValue());
+                dsm.setArrival(ctx.clock().now());
+                replies[i] = dsm;
+            } else {
+                DatabaseSearchReplyMessage dsrm = new DatabaseSearchReplyMessage(ctx);
+                dsrm.setSearchKey((Hash) key);
+                dsrm.setFromHash(Hash.FAKE_HASH);
+                replies[i] = dsrm;
+            }
+        }
+
+        System.out.println(count + " selectors, " + msgs + " messages of each kind");
+        System.out.println("registry                 unrelated   no match      match  (ns/msg)");
+        for (int round = 0; round < 3; round++) {
+            LegacyRegistry legacy = new LegacyRegistry();
+            for (MessageSelector sel : sels) {
+                legacy.register(sel, new OutNetMessage(ctx));
+            }
+            run("pre-0.9.71 scan", new LegacyMatcher(legacy, ctx), unrelated, nomatch, replies, sels, msgs);
+
+            OutboundMessageRegistry reg = new OutboundMessageRegistry(ctx);
+            for (MessageSelector sel : sels) {
+                reg.registerPending(sel, null, null);
+            }
+            run("indexed", new RegistryMatcher(reg), unrelated, nomatch, replies, sels, msgs);
+            reg.shutdown();
+
+            reg = new OutboundMessageRegistry(ctx);
+            for (MessageSelector sel : plain) {
+                reg.registerPending(sel, null, null);
+            }
+            run("not indexed", new RegistryMatcher(reg), unrelated, nomatch, replies, plain, msgs);
+            reg.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private static Hash randomHash(RouterContext ctx) {
+        byte[] b = new byte[Hash.HASH_LENGTH];
+        ctx.random().nextBytes(b);
+        return new Hash(b);
+    }
+
+    private static void run(String name, Matcher m, I2NPMessage[] unrelated, I2NPMessage[] nomatch,
+                            I2NPMessage[] replies, List<? extends MessageSelector> sels, int msgs) {
+        long t0 = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < msgs; i++) {
+            found += m.match(unrelated[i & 0xff]);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < msgs; i++) {
+            found += m.match(nomatch[i & 0xff]);
+        }
+        long t2 = System.nanoTime();
+        if (found != 0)
+            throw new IllegalStateException("false match");
+        for (int i = 0; i < msgs; i++) {
+            int idx = i % replies.length;
+            if (m.match(replies[idx]) != 1)
+                throw new IllegalStateException("no match for " + sels.get(idx));
+            m.register(sels.get(idx));
+        }
+        long t3 = System.nanoTime();
+        System.out.println(String.format("%-20s %11d %10d %10d",
+                                         name, (t1 - t0) / msgs, (t2 - t1) / msgs, (t3 - t2) / msgs));
+    }
+
+    private interface Matcher {
+        /** @return number of messages found */
+        public int match(I2NPMessage msg);
+        public void register(MessageSelector sel);
+    }
+
+    private static class RegistryMatcher implements Matcher {
+        private final OutboundMessageRegistry _reg;
+        public RegistryMatcher(OutboundMessageRegistry reg) { _reg = reg; }
+        public int match(I2NPMessage msg) { return _reg.getOriginalMessages(msg).size(); }
+        public void register(MessageSelector sel) { _reg.registerPending(sel, null, null); }
+    }
+
+    private static class LegacyMatcher implements Matcher {
+        private final LegacyRegistry _reg;
+        private final RouterContext _ctx;
+        public LegacyMatcher(LegacyRegistry reg, RouterContext ctx) { _reg = reg; _ctx = ctx; }
+        public int match(I2NPMessage msg) { return _reg.getOriginalMessages(msg).size(); }
+        public void register(MessageSelector sel) { _reg.register(sel, new OutNetMessage(_ctx)); }
+    }
+
+    /**
+     *  The matching part of the pre-0.9.71 registry
+     */
+    private static class LegacyRegistry {
+        private final List<MessageSelector> _selectors = new ArrayList<MessageSelector>(64);
+        private final Map<MessageSelector, Object> _selectorToMessage = new HashMap<MessageSelector, Object>(64);
+
+        public void register(MessageSelector sel, OutNetMessage msg) {
+            synchronized (_selectorToMessage) {
+                _selectorToMessage.put(sel, msg);
+            }
+            synchronized (_selectors) { _selectors.add(sel); }
+        }
+
+        public List<OutNetMessage> getOriginalMessages(I2NPMessage message) {
+            List<MessageSelector> matchedSelectors = null;
+            List<MessageSelector> removedSelectors = null;
+            synchronized (_selectors) {
+                for (int i = 0; i < _selectors.size(); i++) {
+                    MessageSelector sel = _selectors.get(i);
+                    if (sel.isMatch(message)) {
+                        if (matchedSelectors == null) matchedSelectors = new ArrayList<MessageSelector>(1);
+                        matchedSelectors.add(sel);
+                        if (!sel.continueMatching()) {
+                            if (removedSelectors == null) removedSelectors = new ArrayList<MessageSelector>(1);
+                            removedSelectors.add(sel);
+                            _selectors.remove(i);
+                            i--;
+                        }
+                    }
+                }
+            }
+            List<OutNetMessage> rv = new ArrayList<OutNetMessage>(1);
+            if (matchedSelectors != null) {
+                for (MessageSelector sel : matchedSelectors) {
+                    synchronized (_selectorToMessage) {
+                        Object o;
+                        if (removedSelectors != null && removedSelectors.contains(sel))
+                            o = _selectorToMessage.remove(sel);
+                        else
+                            o = _selectorToMessage.get(sel);
+                        if (o instanceof OutNetMessage)
+                            rv.add((OutNetMessage) o);
+                    }
+                }
+            }
+            return rv;
+        }
+    }
+
+    /**
+     *  Waits for one DeliveryStatusMessage ID (Long) or netDb key (Hash)
+     */
+    private static class TestSelector implements IndexedMessageSelector {
+        private final Object _key;
+        private final long _expiration;
+
+        public TestSelector(Object key, long expiration) {
+            _key = key;
+            _expiration = expiration;
+        }
+
+        public Object getReplyKey() { return _key; }
+
+        public boolean continueMatching() { return false; }
+
+        public long getExpiration() { return _expiration; }
+
+        public boolean isMatch(I2NPMessage message) {
+            int type = message.getType();
+            if (type == DeliveryStatusMessage.MESSAGE_TYPE)
+                return _key.equals(Long.valueOf(((DeliveryStatusMessage) message).getMessageId()));
+            if (type == DatabaseStoreMessage.MESSAGE_TYPE)
+                return _key.equals(((DatabaseStoreMessage) message).getKey());
+            if (type == DatabaseSearchReplyMessage.MESSAGE_TYPE)
+                return _key.equals(((DatabaseSearchReplyMessage) message).getSearchKey());
+            return false;
+        }
+
+        @Override
+        public String toString() { return "Test selector for " + _key; }
+    }
+
+    /**
+     *  Same as the wrapped selector, but not indexed
+     */
+    private static class PlainSelector implements MessageSelector {
+        private final TestSelector _sel;
+
+        public PlainSelector(TestSelector sel) { _sel = sel; }
+
+        public boolean continueMatching() { return false; }
+
+        public long getExpiration() { return _sel.getExpiration(); }
+
+        public boolean isMatch(I2NPMessage message) { return _sel.isMatch(message); }
+
+        @Override
+        public String toString() { return "Plain " + _sel; }
+    }
+}
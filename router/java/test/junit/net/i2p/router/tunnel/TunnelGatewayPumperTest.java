@@ -0,0 +1,125 @@
+package net.i2p.router.tunnel;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.router.RouterContext;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @since 0.9.71
+ */
+public class TunnelGatewayPumperTest {
+    private static RouterContext _context;
+    /** the fake clock, ms */
+    private static volatile long _now;
+
+    @BeforeClass
+    public static void init() {
+        _context = new RouterContext(null);
+    }
+
+    private static TunnelGatewayPumper.Wheel createWheel() {
+        _now = 1000000;
+        return new TunnelGatewayPumper.Wheel(null) {
+            @Override
+            long now() { return _now; }
+        };
+    }
+
+    private static PumpedTunnelGateway createGateway() {
+        // no receiver, no prequeue, we only need the wheel fields
+        return new PumpedTunnelGateway(_context, null, null, null, null) {};
+    }
+
+    @Test
+    public void testRequeueAndFlush() {
+        TunnelGatewayPumper.Wheel wheel = createWheel();
+        PumpedTunnelGateway gw = createGateway();
+        PumpedTunnelGateway gw2 = createGateway();
+        wheel.schedule(gw, true, 50);
+        wheel.schedule(gw2, false, 100);
+        // a later flush doesn't replace a sooner one
+        wheel.schedule(gw2, false, 500);
+        List<PumpedTunnelGateway> requeues = new ArrayList<PumpedTunnelGateway>();
+        List<PumpedTunnelGateway> flushes = new ArrayList<PumpedTunnelGateway>();
+        _now += 40;
+        wheel.advance(_now, requeues, flushes);
+        assertTrue(requeues.isEmpty());
+        _now += 20;
+        wheel.advance(_now, requeues, flushes);
+        assertEquals(1, requeues.size());
+        assertSame(gw, requeues.get(0));
+        assertTrue(flushes.isEmpty());
+        _now += 50;
+        wheel.advance(_now, requeues, flushes);
+        assertEquals(1, flushes.size());
+        assertSame(gw2, flushes.get(0));
+        assertTrue(gw2._flushDue.get());
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     *  Delays past the end of the wheel are put back until due
+     */
+    @Test
+    public void testLongDelay() {
+        TunnelGatewayPumper.Wheel wheel = createWheel();
+        PumpedTunnelGateway gw = createGateway();
+        wheel.schedule(gw, false, 2000);
+        List<PumpedTunnelGateway> requeues = new ArrayList<PumpedTunnelGateway>();
+        List<PumpedTunnelGateway> flushes = new ArrayList<PumpedTunnelGateway>();
+        for (int i = 0; i < 199; i++) {
+            _now += 10;
+            wheel.advance(_now, requeues, flushes);
+            assertTrue(flushes.isEmpty());
+        }
+        _now += 10;
+        wheel.advance(_now, requeues, flushes);
+        assertEquals(1, flushes.size());
+    }
+
+    /**
+     *  The wheel thread stalls for two seconds, more than once around,
+     *  with a busy wheel and a new entry scheduled during the stall.
+     */
+    @Test
+    public void testStall() throws Exception {
+        final TunnelGatewayPumper.Wheel wheel = createWheel();
+        PumpedTunnelGateway gw = createGateway();
+        PumpedTunnelGateway gw2 = createGateway();
+        PumpedTunnelGateway gw3 = createGateway();
+        wheel.schedule(gw, true, 50);
+        wheel.schedule(gw2, false, 5000);
+        _now += 2000;
+        wheel.schedule(gw3, true, 50);
+        final List<PumpedTunnelGateway> requeues = new ArrayList<PumpedTunnelGateway>();
+        final List<PumpedTunnelGateway> flushes = new ArrayList<PumpedTunnelGateway>();
+        Thread t = new Thread() {
+            public void run() {
+                wheel.advance(_now, requeues, flushes);
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        t.join(5000);
+        assertFalse("wheel did not finish after a stall", t.isAlive());
+        assertEquals(1, requeues.size());
+        assertSame(gw, requeues.get(0));
+        assertTrue(flushes.isEmpty());
+
+        _now += 50;
+        wheel.advance(_now, requeues, flushes);
+        assertEquals(2, requeues.size());
+        assertSame(gw3, requeues.get(1));
+        _now += 3000;
+        wheel.advance(_now, requeues, flushes);
+        assertEquals(1, flushes.size());
+        assertSame(gw2, flushes.get(0));
+        assertEquals(0, wheel.size());
+    }
+}
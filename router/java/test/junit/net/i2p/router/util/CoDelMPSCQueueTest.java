@@ -0,0 +1,177 @@
+package net.i2p.router.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.i2p.I2PAppContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoDelMPSCQueueTest {
+
+    private I2PAppContext _context;
+
+    @Before
+    public void setUp() {
+        _context = I2PAppContext.getGlobalContext();
+    }
+
+    @Test
+    public void testFIFOAndCapacity() {
+        CoDelMPSCQueue<Entry> q = new CoDelMPSCQueue<Entry>(_context, "test1", 5);
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(q.offer(new Entry(0, i)));
+        }
+        assertFalse(q.offer(new Entry(0, 5)));
+        assertEquals(5, q.size());
+        assertEquals(0, q.remainingCapacity());
+        assertEquals(0, q.peek().id);
+        List<Entry> out = new ArrayList<Entry>();
+        assertEquals(3, q.drainTo(out, 3));
+        assertEquals(2, q.size());
+        // wrap around the array
+        for (int i = 5; i < 8; i++) {
+            assertTrue(q.offer(new Entry(0, i)));
+        }
+        while (!q.isEmpty()) {
+            out.add(q.poll());
+        }
+        assertEquals(8, out.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, out.get(i).id);
+        }
+        q.offer(new Entry(0, 9));
+        q.clear();
+        assertTrue(q.isEmpty());
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void testPriority() {
+        CoDelMPSCPriorityQueue<Entry> q = new CoDelMPSCPriorityQueue<Entry>(_context, "test2", 16);
+        int[] pri = { 100, 500, 200, 1000, 500, 100, 550 };
+        for (int i = 0; i < pri.length; i++) {
+            assertTrue(q.offer(new Entry(pri[i], i)));
+        }
+        assertEquals(pri.length, q.size());
+        assertEquals(3, q.peek().id);
+        // FIFO within a bucket, 500 and 550 are in the same one
+        int[] expected = { 3, 1, 4, 6, 2, 0, 5 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], q.poll().id);
+        }
+        assertNull(q.poll());
+        for (int i = 0; i < 16; i++) {
+            assertTrue(q.offer(new Entry(100 * (i % 3), i)));
+        }
+        assertFalse(q.offer(new Entry(900, 99)));
+    }
+
+    @Test
+    public void testTakeWakeup() throws Exception {
+        final CoDelMPSCQueue<Entry> q = new CoDelMPSCQueue<Entry>(_context, "test3", 4);
+        assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {}
+                q.offer(new Entry(0, 42));
+            }
+        };
+        t.start();
+        assertEquals(42, q.take().id);
+        t.join();
+    }
+
+    @Test
+    public void testPutBlocks() throws Exception {
+        final CoDelMPSCQueue<Entry> q = new CoDelMPSCQueue<Entry>(_context, "test4", 1);
+        q.put(new Entry(0, 1));
+        assertFalse(q.offer(new Entry(0, 2), 10, TimeUnit.MILLISECONDS));
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ie) {}
+                q.poll();
+            }
+        };
+        t.start();
+        q.put(new Entry(0, 3));
+        t.join();
+        assertEquals(3, q.poll().id);
+    }
+
+    /**
+     *  All entries from all producers come out once,
+     *  in order for each producer.
+     */
+    @Test
+    public void testMultiProducer() throws Exception {
+        // long target and interval so nothing is dropped on a slow machine
+        testMultiProducer(new CoDelMPSCQueue<Entry>(_context, "test5", 64, 60000, 60000), false);
+        testMultiProducer(new CoDelMPSCPriorityQueue<Entry>(_context, "test6", 64, 60000, 60000), true);
+    }
+
+    private void testMultiProducer(final BlockingQueue<Entry> q, final boolean pri) throws Exception {
+        final int producers = 4;
+        final int count = 50000;
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int p = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < count; j++) {
+                        try {
+                            q.put(new Entry(pri ? 100 * (p + 1) : 0, (p * count) + j));
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        int[] last = new int[producers];
+        for (int i = 0; i < producers; i++) {
+            last[i] = -1;
+        }
+        for (int i = 0; i < producers * count; i++) {
+            Entry e = q.poll(10, TimeUnit.SECONDS);
+            assertNotNull(e);
+            int p = e.id / count;
+            int j = e.id % count;
+            assertEquals(last[p] + 1, j);
+            last[p] = j;
+        }
+        for (int i = 0; i < producers; i++) {
+            threads[i].join();
+        }
+        assertTrue(q.isEmpty());
+    }
+
+    private static class Entry implements CDPQEntry {
+        final int priority, id;
+        private long enqueued, seq;
+
+        public Entry(int priority, int id) {
+            this.priority = priority;
+            this.id = id;
+        }
+
+        public void setEnqueueTime(long time) { enqueued = time; }
+        public long getEnqueueTime() { return enqueued; }
+        public void drop() {}
+        public int getPriority() { return priority; }
+        public void setSeqNum(long num) { seq = num; }
+        public long getSeqNum() { return seq; }
+    }
+}
@@ -0,0 +1,94 @@
+package net.i2p.router.util;
+
+import java.util.concurrent.BlockingQueue;
+
+import net.i2p.I2PAppContext;
+
+/**
+ * Standalone benchmark of the CoDel queues under producer contention,
+ * several producer threads and one consumer, as on the UDP send
+ * and receive paths.
+ *
+ * Compares the locked, linked CoDelBlockingQueue and the heap-based
+ * CoDelPriorityBlockingQueue against the lock-free array-backed
+ * CoDelMPSCQueue and bucketed CoDelMPSCPriorityQueue.
+ * The CoDel target is set high so nothing is dropped.
+ * Producers retry offer() when the queue is full.
+ *
+ *<pre>
+ * Usage: CoDelQueueBench [producers [entries per producer [capacity]]]
+ *</pre>
+ *
+ * @since 0.9.71
+ */
+public class CoDelQueueBench {
+
+    private static final int TARGET = 60*1000;
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        System.out.println(producers + " producers, " + count + " entries each, capacity " + capacity);
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + (round + 1));
+            run("CoDelBlockingQueue", new CoDelBlockingQueue<Entry>(ctx, "bench1", capacity, TARGET, TARGET),
+                producers, count, false);
+            run("CoDelMPSCQueue", new CoDelMPSCQueue<Entry>(ctx, "bench2", capacity, TARGET, TARGET),
+                producers, count, false);
+            run("CoDelPriorityBlockingQueue", new CoDelPriorityBlockingQueue<Entry>(ctx, "bench3", capacity, TARGET, TARGET),
+                producers, count, true);
+            run("CoDelMPSCPriorityQueue", new CoDelMPSCPriorityQueue<Entry>(ctx, "bench4", capacity, TARGET, TARGET),
+                producers, count, true);
+        }
+    }
+
+    private static void run(String name, final BlockingQueue<Entry> q, int producers,
+                            final int count, final boolean pri) throws InterruptedException {
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int p = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < count; j++) {
+                        // spread over 5 priorities
+                        Entry e = new Entry(pri ? 100 * (1 + ((p + j) % 5)) : 0);
+                        // not put(), PriBlockingQueue.put() discards when full
+                        while (!q.offer(e)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < producers; i++) {
+            threads[i].start();
+        }
+        int total = producers * count;
+        for (int i = 0; i < total; i++) {
+            q.take();
+        }
+        long time = System.nanoTime() - start;
+        for (int i = 0; i < producers; i++) {
+            threads[i].join();
+        }
+        System.out.println(String.format("  %-28s %8.1f ns/entry %8.2f M entries/s",
+                                         name, time / (double) total, total * 1000d / time));
+    }
+
+    private static class Entry implements CDPQEntry {
+        private final int priority;
+        private long enqueued, seq;
+
+        public Entry(int priority) { this.priority = priority; }
+
+        public void setEnqueueTime(long time) { enqueued = time; }
+        public long getEnqueueTime() { return enqueued; }
+        public void drop() {}
+        public int getPriority() { return priority; }
+        public void setSeqNum(long num) { seq = num; }
+        public long getSeqNum() { return seq; }
+    }
+}